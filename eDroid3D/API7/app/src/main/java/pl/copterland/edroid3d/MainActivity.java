@@ -29,27 +29,56 @@
 package pl.copterland.edroid3d;
 
 import android.bluetooth.BluetoothAdapter;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.design.widget.Snackbar;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.text.InputType;
+import android.widget.EditText;
 import android.widget.TextView;
 
-public class MainActivity extends AppCompatActivity implements SensorEventListener {
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+public class MainActivity extends AppCompatActivity implements ConnectionManager.Listener, FrameHub.Listener,
+        HubUplink.Listener, FramePipeline.Listener {
 
     private final static int BLUETOOTH_ENABLE_REQUEST = 1;
+    private final static int NETWORK_PORT = 5000;
+    // Peer phones stream their frames to the hub on this port
+    private final static int HUB_PORT = 5001;
+
+    // The phone has no finger sensors, compact frames skip them
+    private final static int COMPACT_CHANNELS =
+            FrameCodec.CHANNEL_PALM | FrameCodec.CHANNEL_VOLTAGE | FrameCodec.CHANNEL_MAGNETOMETER;
+
+    private final static int SAMPLE_RING_SIZE = 1024;
+    private final static String CALIBRATION_FILE = "calibration-default.properties";
+    private final static long DASHBOARD_PERIOD_MS = 1000;
 
     private SensorManager sensorManager;
-    private Sensor sensorAccelerometer;
-    private Sensor sensorMagnetometer;
+    private SensorSampler sampler;
+    private FramePipeline pipeline;
+    private CalibrationProfile calibrationProfile = new CalibrationProfile("default");
+    private final float[] sensorSnapshot = new float[6];
     private BluetoothAdapter bluetoothAdapter;
 
     private TextView xTextView;
@@ -60,40 +89,67 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
     private TextView yMagTextView;
     private TextView zMagTextView;
 
-    private ServerThread thread;
-    private WorkerThread worker;
+    // Static, the registry outlives the activity
+    private static class GcCountGauge implements MetricsRegistry.Gauge {
+        @Override
+        public long get() {
+            String count = Debug.getRuntimeStat("art.gc.gc-count");
+            return count == null ? -1 : Long.parseLong(count);
+        }
+    }
 
-    private Handler quasiTimer;
+    // Metrics dashboard, refreshed once a second while the app is visible
+    private TextView dashboardTextView;
+    private final Handler dashboardHandler = new Handler();
+    private long lastDashboardTime;
+    private long lastFramesSent;
+    private long lastBytesSent;
+    private volatile String lastSessionStatus = "";
+
+    private enum TransportType {
+        Bluetooth,
+        Tcp,
+        Udp
+    }
 
-    private final static int FRAMES_MAX_SIZE = 128;
-    private Frame[] frames;
-    private Frame averagedFrame;
-    private int currentFrame = 0;
-    private boolean updatedAccelerometer = false;
-    private boolean updatedMagnetometer = false;
+    private TransportType transportType = TransportType.Bluetooth;
+    private ConnectionManager connection;
+    private FrameHub hub;
+    private HubUplink uplink;
 
-    private enum State {
-        WaitForClient,
-        Stopped,
-        Running
-    }
+    private String lastStatus;
 
-    private State state;
-    private int averageSamplesAmount;
-    private int samplesPerSecond;
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            pipeline.setVoltage(intent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0));
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            pipeline.setBattery(level < 0 || scale <= 0 ? AdaptiveRateController.UNKNOWN : level * 100 / scale,
+                    intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0,
+                    intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, AdaptiveRateController.UNKNOWN));
+        }
+    };
 
-    private float maxAccelerometer = 0;
-    private float maxMagnetometer = 0;
+    private final Runnable updateDashboardTask = new Runnable() {
+        @Override
+        public void run() {
+            updateDashboard();
+            dashboardHandler.postDelayed(this, DASHBOARD_PERIOD_MS);
+        }
+    };
 
-    private final Runnable sendDataTask = new Runnable() {
+    private final Runnable updateSensorViewsTask = new Runnable() {
         @Override
         public void run() {
-            if (worker != null && state == State.Running) {
-                averageFrame();
-                averagedFrame.setFrameNumber((byte)((int)averagedFrame.getFrameNumber() + 1));
-                worker.write(averagedFrame.getData());
-            }
-            quasiTimer.postDelayed(this, 1000/samplesPerSecond);
+            sampler.copySnapshot(sensorSnapshot);
+
+            xTextView.setText(Float.toString(sensorSnapshot[0]));
+            yTextView.setText(Float.toString(sensorSnapshot[1]));
+            zTextView.setText(Float.toString(sensorSnapshot[2]));
+            xMagTextView.setText(Float.toString(sensorSnapshot[3]));
+            yMagTextView.setText(Float.toString(sensorSnapshot[4]));
+            zMagTextView.setText(Float.toString(sensorSnapshot[5]));
         }
     };
 
@@ -104,17 +160,6 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
 
-        state = State.WaitForClient;
-        averageSamplesAmount = 2;
-        samplesPerSecond = 10;
-
-        frames = new Frame[FRAMES_MAX_SIZE];
-        for(int i = 0; i < FRAMES_MAX_SIZE; i++)
-            frames[i] = new Frame();
-
-        averagedFrame = new Frame();
-        worker = null;
-
         // Get UI elements
         xTextView = (TextView)findViewById(R.id.x_text_view);
         yTextView = (TextView)findViewById(R.id.y_text_view);
@@ -122,17 +167,30 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
         xMagTextView = (TextView)findViewById(R.id.x_magnetometer_text_view);
         yMagTextView = (TextView)findViewById(R.id.y_magnetometer_text_view);
         zMagTextView = (TextView)findViewById(R.id.z_magnetometer_text_view);
+        dashboardTextView = (TextView)findViewById(R.id.dashboard_text_view);
 
-        // Sensors initialization
-        sensorManager = (SensorManager) getSystemService(getApplicationContext().SENSOR_SERVICE);
-        sensorAccelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        sensorMagnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-        sensorManager.registerListener(this, sensorAccelerometer, SensorManager.SENSOR_DELAY_FASTEST);
-        sensorManager.registerListener(this, sensorMagnetometer, SensorManager.SENSOR_DELAY_FASTEST);
+        // Garbage collections are exposed from Android 6.0
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            Metrics.REGISTRY.gauge(Metrics.GC_COUNT, new GcCountGauge());
+        }
 
-        // Setup timer
-        quasiTimer = new Handler();
-        quasiTimer.postDelayed(sendDataTask, 1000/samplesPerSecond);
+        // Sensors initialization, events are delivered on the sampler thread
+        sensorManager = (SensorManager) getSystemService(getApplicationContext().SENSOR_SERVICE);
+        SampleRing sampleRing = new SampleRing(SAMPLE_RING_SIZE);
+        sampler = new SensorSampler(sensorManager, sampleRing, updateSensorViewsTask);
+        sampler.start();
+
+        // Frames are built and sent from the scheduler thread of the pipeline
+        pipeline = new FramePipeline(sampleRing);
+        pipeline.setListener(this);
+        // Sensors are sampled as fast as the clients need
+        pipeline.setSensorRateController(new SensorRateController(sampler));
+        loadCalibration();
+        pipeline.start();
+
+        // Battery voltage is sent in every frame, the level and temperature
+        // limit the rate of adaptive clients
+        registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
 
         // Bluetooth initialization
         bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
@@ -143,7 +201,7 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
             if (!bluetoothAdapter.isEnabled())
                 enableBluetooth();
             else
-                startBluetoothServer();
+                startServer();
         }
     }
 
@@ -155,10 +213,33 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
         }
     }
 
-    private void startBluetoothServer()
+    // The transport is reopened by the connection manager whenever it fails
+    private void startServer()
+    {
+        final TransportType type = transportType;
+        connection = new ConnectionManager(new ConnectionManager.TransportFactory() {
+            @Override
+            public Transport open() throws IOException {
+                switch (type) {
+                    case Tcp:
+                        return new TcpTransport(NETWORK_PORT);
+                    case Udp:
+                        return new UdpTransport(NETWORK_PORT);
+                    default:
+                        return new RfcommTransport(bluetoothAdapter);
+                }
+            }
+        }, pipeline.getFanout(), COMPACT_CHANNELS, this);
+        connection.start();
+    }
+
+    // Connected clients are dropped together with the old server
+    private void switchTransport(TransportType type)
     {
-        thread = new ServerThread(this, bluetoothAdapter);
-        thread.start();
+        transportType = type;
+        if (connection != null)
+            connection.cancel();
+        startServer();
     }
 
     @Override
@@ -166,7 +247,7 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
     {
         if (requestCode == BLUETOOTH_ENABLE_REQUEST) {
             if (resultCode == RESULT_OK)
-                startBluetoothServer();
+                switchTransport(TransportType.Bluetooth);
             else if (resultCode == RESULT_CANCELED)
                 updateStatus("User cancelled the action!");
         }
@@ -183,123 +264,262 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
         int id = item.getItemId();
 
         if (id == R.id.action_enable_bluetooth) {
-            enableBluetooth();
+            if (bluetoothAdapter != null && bluetoothAdapter.isEnabled())
+                switchTransport(TransportType.Bluetooth);
+            else
+                enableBluetooth();
             return true;
         }
 
-        return super.onOptionsItemSelected(item);
-    }
+        if (id == R.id.action_listen_tcp) {
+            switchTransport(TransportType.Tcp);
+            return true;
+        }
 
-    @Override
-    protected void onPause() {
-        super.onPause();
-        sensorManager.unregisterListener(this);
-    }
+        if (id == R.id.action_listen_udp) {
+            switchTransport(TransportType.Udp);
+            return true;
+        }
 
-    @Override
-    protected void onResume() {
-        super.onResume();
-        sensorManager.registerListener(this, sensorAccelerometer, SensorManager.SENSOR_DELAY_FASTEST);
-        sensorManager.registerListener(this, sensorMagnetometer, SensorManager.SENSOR_DELAY_FASTEST);
-    }
+        if (id == R.id.action_record) {
+            toggleRecording();
+            return true;
+        }
 
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        Sensor mySensor = event.sensor;
-
-        if (mySensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            float x = event.values[0];
-            float y = event.values[1];
-            float z = event.values[2];
-
-            if (maxAccelerometer < x)
-                maxAccelerometer = x;
-            if (maxAccelerometer < y)
-                maxAccelerometer = y;
-            if (maxAccelerometer < z)
-                maxAccelerometer = z;
-            
-            xTextView.setText(Float.toString(x));
-            yTextView.setText(Float.toString(y));
-            zTextView.setText(Float.toString(z));
-
-            frames[currentFrame].setAccelerometer((byte)(x/maxAccelerometer*127), (byte)(y/maxAccelerometer*127), (byte)(z/maxAccelerometer*127));
-
-            updatedAccelerometer = true;
+        if (id == R.id.action_calibrate) {
+            toggleCalibration();
+            return true;
         }
 
-        if (mySensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-            float x = event.values[0];
-            float y = event.values[1];
-            float z = event.values[2];
+        if (id == R.id.action_hub) {
+            toggleHub();
+            return true;
+        }
 
-            if (maxMagnetometer < x)
-                maxMagnetometer = x;
-            if (maxMagnetometer < y)
-                maxMagnetometer = y;
-            if (maxMagnetometer < z)
-                maxMagnetometer = z;
+        if (id == R.id.action_uplink) {
+            toggleUplink();
+            return true;
+        }
 
-            xMagTextView.setText(Float.toString(x));
-            yMagTextView.setText(Float.toString(y));
-            zMagTextView.setText(Float.toString(z));
+        return super.onOptionsItemSelected(item);
+    }
 
-            averagedFrame.setMagnetometer((int)(x/maxMagnetometer*127), (int)(y/maxMagnetometer*127), (int)(z/maxMagnetometer*127));
+    // Samples and frames go to a session log in the app files directory
+    private void toggleRecording()
+    {
+        if (pipeline.getRecorder() != null) {
+            pipeline.stopRecording();
+            updateStatus("Recording stopped");
+            return;
+        }
 
-            updatedMagnetometer = true;
+        String name = "session-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".edr";
+        try {
+            pipeline.startRecording(new SessionRecorder(new File(getFilesDir(), name)));
+            updateStatus("Recording to " + name);
+        } catch (IOException e) {
+            updateStatus("Cannot record: " + e.getMessage());
         }
+    }
 
-        if (updatedAccelerometer == true && updatedMagnetometer == true)
-        {
-            currentFrame++;
-            if (currentFrame >= averageSamplesAmount)
-                currentFrame = 0;
+    // Frames of peer phones are merged into the stream of clients that
+    // selected the multiplexed format
+    private void toggleHub()
+    {
+        if (hub != null) {
+            hub.cancel();
+            hub = null;
+            updateStatus("Hub mode off");
+            return;
+        }
 
-            updatedAccelerometer = false;
-            updatedMagnetometer = false;
+        try {
+            hub = new FrameHub(new TcpTransport(HUB_PORT), pipeline.getFanout(), this);
+        } catch (IOException e) {
+            updateStatus("Cannot start the hub: " + e.getMessage());
+            return;
         }
+        hub.start();
     }
 
-    private void averageFrame() {
-        int aX = 0;
-        int aY = 0;
-        int aZ = 0;
+    // The frames of this phone go to the hub of another phone, which merges
+    // them into the multiplexed stream of its clients
+    private void toggleUplink()
+    {
+        if (uplink != null) {
+            uplink.cancel();
+            uplink = null;
+            updateStatus("Streaming to the hub stopped");
+            return;
+        }
+
+        final EditText address = new EditText(this);
+        address.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_URI);
+        address.setHint("192.168.1.10:" + HUB_PORT);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_uplink)
+                .setView(address)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        startUplink(address.getText().toString().trim());
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
 
-        for(int i = 0; i < averageSamplesAmount; i++)
-        {
-            aX += frames[i].getAccelerometerX();
-            aY += frames[i].getAccelerometerY();
-            aZ += frames[i].getAccelerometerZ();
+    // Host or host:port, the hub port by default
+    private void startUplink(String address)
+    {
+        String host = address;
+        int port = HUB_PORT;
+        int colon = address.lastIndexOf(':');
+        if (colon >= 0) {
+            host = address.substring(0, colon);
+            try {
+                port = Integer.parseInt(address.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                port = -1;
+            }
+        }
+        if (host.isEmpty() || port <= 0 || port > 65535) {
+            updateStatus("Invalid hub address: " + address);
+            return;
         }
 
-        aX = aX / averageSamplesAmount;
-        aY = aY / averageSamplesAmount;
-        aZ = aZ / averageSamplesAmount;
+        uplink = new HubUplink(host, port, pipeline.getFanout(), COMPACT_CHANNELS, this);
+        uplink.start();
+    }
 
-        averagedFrame.setAccelerometer((byte)aX, (byte)aY, (byte)aZ);
+    private void loadCalibration()
+    {
+        File file = new File(getFilesDir(), CALIBRATION_FILE);
+        if (!file.exists())
+            return;
+        try {
+            FileReader reader = new FileReader(file);
+            try {
+                calibrationProfile = CalibrationProfile.load(reader);
+            } finally {
+                reader.close();
+            }
+            pipeline.setCalibration(calibrationProfile);
+        } catch (IOException e) {
+            updateStatus("Cannot load calibration: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            updateStatus("Cannot load calibration: " + e.getMessage());
+        }
     }
 
-    public void setWorker(WorkerThread thread)
+    // The first selection starts collecting, the second one applies and
+    // stores the hard and soft iron correction
+    private void toggleCalibration()
     {
-        worker = thread;
-        state = State.Stopped;
+        SensorCalibration calibration = pipeline.getMagnetometerCalibration();
+        if (!calibration.isCalibrating()) {
+            calibration.startCalibration();
+            updateStatus("Rotate the phone in all directions, then select calibrate again");
+            return;
+        }
+
+        CalibrationProfile.Sensor result = calibration.finishCalibration();
+        if (result == null) {
+            updateStatus("Calibration failed, the phone was not rotated enough");
+            return;
+        }
+        calibrationProfile.getMagnetometer().set(result);
+        pipeline.setCalibration(calibrationProfile);
+
+        try {
+            FileWriter writer = new FileWriter(new File(getFilesDir(), CALIBRATION_FILE));
+            try {
+                calibrationProfile.store(writer);
+            } finally {
+                writer.close();
+            }
+            updateStatus("Magnetometer calibrated");
+        } catch (IOException e) {
+            updateStatus("Calibration applied but not saved: " + e.getMessage());
+        }
     }
 
-    public void onWorkerFinished()
+    private void updateDashboard()
     {
-        state = State.WaitForClient;
-        startBluetoothServer();
+        long now = SystemClock.elapsedRealtime();
+        long frames = Metrics.FRAMES_SENT.get();
+        long bytes = Metrics.BYTES_SENT.get();
+        double seconds = lastDashboardTime == 0 ? 0 : (now - lastDashboardTime) / 1000.0;
+        double frameRate = seconds == 0 ? 0 : (frames - lastFramesSent) / seconds;
+        double byteRate = seconds == 0 ? 0 : (bytes - lastBytesSent) / seconds;
+        lastDashboardTime = now;
+        lastFramesSent = frames;
+        lastBytesSent = bytes;
+
+        long gc = Metrics.REGISTRY.get(Metrics.GC_COUNT, -1);
+        dashboardTextView.setText(String.format(
+                "Sensors: %d events/s%nSent: %.0f frames/s, %.0f B/s%nDropped: %d, queued %d%n"
+                        + "Write: mean %d us, max %d us%nClients: %d, GC: %s%n%s",
+                Metrics.REGISTRY.get(Metrics.SENSOR_RATE, 0), frameRate, byteRate,
+                Metrics.FRAMES_DROPPED.get(), Metrics.REGISTRY.get(Metrics.QUEUE_DEPTH, 0),
+                Metrics.getWriteMeanMicros(), Metrics.WRITE_MAX_NANOS.get() / 1000,
+                Metrics.REGISTRY.get(Metrics.CLIENTS, 0), gc < 0 ? "n/a" : Long.toString(gc),
+                lastSessionStatus));
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        sampler.unregister();
+        dashboardHandler.removeCallbacks(updateDashboardTask);
     }
 
     @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    protected void onResume() {
+        super.onResume();
+        sampler.register();
+        dashboardHandler.post(updateDashboardTask);
+    }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        pipeline.cancel();
+        if (connection != null)
+            connection.cancel();
+        if (hub != null)
+            hub.cancel();
+        if (uplink != null)
+            uplink.cancel();
+        sampler.quit();
+        unregisterReceiver(batteryReceiver);
     }
 
-    private void updateSamplesPerSecond(int samples)
-    {
-        samplesPerSecond = samples;
-        updateStatus("Samples per second: " + samplesPerSecond);
+    @Override
+    public void onConnectionStatus(ConnectionManager.State state, String message) {
+        postStatus(message);
+    }
+
+    @Override
+    public void onHubStatus(String message) {
+        postStatus(message);
+    }
+
+    @Override
+    public void onUplinkStatus(String message) {
+        postStatus(message);
+    }
+
+    @Override
+    public void onPipelineStatus(String message) {
+        postStatus(message);
+    }
+
+    // Every command changes the session, its status goes to the dashboard
+    // instead of a snackbar
+    @Override
+    public void onSessionStatus(ClientSession session, String message) {
+        lastSessionStatus = "Client " + session.getId() + ": " + message;
     }
 
     public void updateStatus(String message)
@@ -308,52 +528,17 @@ public class MainActivity extends AppCompatActivity implements SensorEventListen
                 .setAction("Action", null).show();
     }
 
-    public void executeCommand(String command)
+    // Posts the status to the UI thread, repeated messages are dropped
+    private synchronized void postStatus(final String message)
     {
-        for(char c : command.toCharArray()) {
-            switch(c) {
-                case 'R':
-                    state = State.Running;
-                    updateStatus("Started");
-                    break;
-
-                case 'S':
-                    state = State.Stopped;
-                    updateStatus("Stopped");
-                    break;
-
-                case '1':
-                case '2':
-                case '3':
-                case '4':
-                case '5':
-                case '6':
-                case '7':
-                    averageSamplesAmount = (int)java.lang.Math.pow(2, (c - '0'));
-                    updateStatus("Averaged samples: " + averageSamplesAmount);
-                    break;
-
-                case 'a':
-                    updateSamplesPerSecond(100);
-                    break;
-                case 'b':
-                    updateSamplesPerSecond(50);
-                    break;
-                case 'c':
-                    updateSamplesPerSecond(25);
-                    break;
-                case 'd':
-                    updateSamplesPerSecond(20);
-                    break;
-                case 'e':
-                    updateSamplesPerSecond(10);
-                    break;
-
-                default:
-                    if (c != 0) {
-                        updateStatus("Unsupported: \'" + c + "\'");
-                    }
+        if (message.equals(lastStatus))
+            return;
+        lastStatus = message;
+
+        runOnUiThread(new Runnable() {
+            public void run() {
+                updateStatus(message);
             }
-        }
+        });
     }
 }
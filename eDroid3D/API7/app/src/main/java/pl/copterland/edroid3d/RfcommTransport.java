@@ -28,77 +28,62 @@
 
 package pl.copterland.edroid3d;
 
-import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothServerSocket;
 import android.bluetooth.BluetoothSocket;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.UUID;
 
-public class ServerThread extends Thread {
-    private final BluetoothServerSocket serverSocket;
+// Bluetooth serial port profile server
+public class RfcommTransport implements Transport {
     private final static String APP_NAME = "copterland";
     private final static String RFCOMM_UUID = "00001101-0000-1000-8000-00805F9B34FB";
-    private Activity parentActivity;
-    private WorkerThread thread;
 
-    public ServerThread(Activity parent, BluetoothAdapter adapter) {
-        // Use a temporary object that is later assigned to serverSocket,
-        // because serverSocket is final
-        BluetoothServerSocket tmp = null;
-        try {
-            tmp = adapter.listenUsingRfcommWithServiceRecord(APP_NAME, UUID.fromString(RFCOMM_UUID));
-        } catch (IOException e) { }
-        serverSocket = tmp;
-        parentActivity = parent;
+    private final BluetoothServerSocket serverSocket;
+
+    public RfcommTransport(BluetoothAdapter adapter) throws IOException {
+        serverSocket = adapter.listenUsingRfcommWithServiceRecord(APP_NAME, UUID.fromString(RFCOMM_UUID));
     }
 
-    public void run() {
-        BluetoothSocket socket = null;
-        // Keep listening until exception occurs or a socket is returned
-        while (true) {
-            try {
-                updateUI("Wait for client...");
-                socket = serverSocket.accept();
-            } catch (IOException e) {
-                break;
+    @Override
+    public Connection accept() throws IOException {
+        final BluetoothSocket socket = serverSocket.accept();
+        final InputStream inStream = socket.getInputStream();
+        final OutputStream outStream = socket.getOutputStream();
+
+        return new Connection() {
+            @Override
+            public InputStream getInputStream() {
+                return inStream;
             }
-            // If a connection was accepted
-            if (socket != null) {
-                updateUI("Connected");
-                thread = new WorkerThread(parentActivity, socket);
-                thread.start();
 
-                parentActivity.runOnUiThread(new Runnable() {
-                    public void run() {
-                        ((MainActivity)parentActivity).setWorker(thread);
-                    }
-                });
+            @Override
+            public OutputStream getOutputStream() {
+                return outStream;
+            }
 
-                try {
-                    serverSocket.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                break;
+            @Override
+            public String getName() {
+                return "Bluetooth " + socket.getRemoteDevice().getAddress();
             }
-        }
-    }
 
-    private void updateUI(final String message)
-    {
-        parentActivity.runOnUiThread(new Runnable() {
-            public void run() {
-                ((MainActivity)parentActivity).updateStatus(message);
+            @Override
+            public void close() throws IOException {
+                socket.close();
             }
-        });
+        };
+    }
+
+    @Override
+    public String getName() {
+        return "Bluetooth";
     }
 
-    public void cancel() {
-        try {
-            thread.cancel();
-            serverSocket.close();
-        } catch (IOException e) { }
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+// Receives sensor events on a background HandlerThread and feeds them into
+// a SampleRing. The UI only gets a throttled snapshot of the latest values.
+// Each sensor runs at the period configured through SensorBackend, with
+// FIFO batching where the device supports it.
+public class SensorSampler implements SensorSource, SensorBackend, SensorEventListener {
+    private final static long UI_UPDATE_PERIOD_NS = 100000000L;
+    // Larger offsets between event and arrival time mean another clock base
+    private final static long MAX_EVENT_DELAY_NS = 1000000000L;
+    // Until configured the accelerometer and magnetometer run at 50 Hz
+    private final static int DEFAULT_PERIOD_US = 20000;
+
+    private final SensorManager sensorManager;
+    // Indexed by SampleRing sensor, the gyroscope is optional
+    private final Sensor[] sensors = new Sensor[SampleRing.SENSORS];
+    private final int[] periods = new int[SampleRing.SENSORS];
+    private final int[] latencies = new int[SampleRing.SENSORS];
+    private boolean registered = false;
+    private final SampleRing ring;
+
+    private final HandlerThread thread;
+    private Handler handler;
+    private final Handler uiHandler;
+    private final Runnable uiUpdateTask;
+    private long lastUiUpdate = 0;
+
+    // [accelerometer xyz, magnetometer xyz]
+    private final float[] snapshot = new float[6];
+
+    public SensorSampler(SensorManager manager, SampleRing sampleRing, Runnable onSnapshot)
+    {
+        sensorManager = manager;
+        sensors[SampleRing.ACCELEROMETER] = manager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        sensors[SampleRing.MAGNETOMETER] = manager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        sensors[SampleRing.GYROSCOPE] = manager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        periods[SampleRing.ACCELEROMETER] = DEFAULT_PERIOD_US;
+        periods[SampleRing.MAGNETOMETER] = DEFAULT_PERIOD_US;
+        ring = sampleRing;
+        uiHandler = new Handler(Looper.getMainLooper());
+        uiUpdateTask = onSnapshot;
+        thread = new HandlerThread("SensorSampler", Process.THREAD_PRIORITY_DISPLAY);
+    }
+
+    @Override
+    public void start() {
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    @Override
+    public synchronized void register() {
+        registered = true;
+        for (int sensor = 0; sensor < sensors.length; sensor++)
+            registerSensor(sensor);
+    }
+
+    @Override
+    public synchronized void unregister() {
+        registered = false;
+        sensorManager.unregisterListener(this);
+    }
+
+    @Override
+    public void quit() {
+        unregister();
+        thread.quit();
+    }
+
+    @Override
+    public boolean hasSensor(int sensor) {
+        return sensors[sensor] != null;
+    }
+
+    @Override
+    public int getMinPeriod(int sensor) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD)
+            return 0;
+        return sensors[sensor].getMinDelay();
+    }
+
+    @Override
+    public int getFifoSize(int sensor) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT)
+            return 0;
+        return sensors[sensor].getFifoReservedEventCount();
+    }
+
+    @Override
+    public synchronized void configure(int sensor, int periodUs, int maxReportLatencyUs) {
+        periods[sensor] = periodUs;
+        latencies[sensor] = maxReportLatencyUs;
+        if (registered) {
+            sensorManager.unregisterListener(this, sensors[sensor]);
+            registerSensor(sensor);
+        }
+    }
+
+    private void registerSensor(int sensor)
+    {
+        if (sensors[sensor] == null || periods[sensor] == 0)
+            return;
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD) {
+            // Periods in microseconds are not understood yet
+            sensorManager.registerListener(this, sensors[sensor], SensorManager.SENSOR_DELAY_FASTEST, handler);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && latencies[sensor] > 0) {
+            sensorManager.registerListener(this, sensors[sensor], periods[sensor], latencies[sensor], handler);
+        } else {
+            sensorManager.registerListener(this, sensors[sensor], periods[sensor], handler);
+        }
+    }
+
+    public void copySnapshot(float[] out)
+    {
+        synchronized (snapshot) {
+            System.arraycopy(snapshot, 0, out, 0, snapshot.length);
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        // Sample age is measured against System.nanoTime(). Most devices
+        // stamp events in that base, others use the boot time clock, then
+        // the arrival time is the best estimate.
+        long now = System.nanoTime();
+        long timestamp = event.timestamp;
+        if (now - timestamp > MAX_EVENT_DELAY_NS || timestamp > now)
+            timestamp = now;
+
+        int type = event.sensor.getType();
+        float x = event.values[0];
+        float y = event.values[1];
+        float z = event.values[2];
+        int offset;
+
+        if (type == Sensor.TYPE_ACCELEROMETER) {
+            ring.offer(SampleRing.ACCELEROMETER, timestamp, x, y, z);
+            offset = 0;
+        } else if (type == Sensor.TYPE_MAGNETIC_FIELD) {
+            ring.offer(SampleRing.MAGNETOMETER, timestamp, x, y, z);
+            offset = 3;
+        } else if (type == Sensor.TYPE_GYROSCOPE) {
+            ring.offer(SampleRing.GYROSCOPE, timestamp, x, y, z);
+            return;
+        } else {
+            return;
+        }
+
+        synchronized (snapshot) {
+            snapshot[offset] = x;
+            snapshot[offset + 1] = y;
+            snapshot[offset + 2] = z;
+        }
+
+        if (now - lastUiUpdate >= UI_UPDATE_PERIOD_NS) {
+            lastUiUpdate = now;
+            uiHandler.post(uiUpdateTask);
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Host side decoding of an in-memory stream, reported in frames per
+// second. The listener reads a few channels of every frame so the view
+// is not optimized away.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientDecoderBenchmark {
+    private final static int FRAMES = 4096;
+
+    @Param({"Full", "Delta", "Multiplexed", "Extended"})
+    public FrameEncoder.Format format;
+
+    private ByteBuffer stream;
+    private StreamDecoder decoder;
+    private int sum = 0;
+
+    private final StreamDecoder.Listener listener = new StreamDecoder.Listener() {
+        @Override
+        public void onFrame(FrameView frame) {
+            sum += frame.getFrameNumber() + frame.getAccelerometerX() + frame.getMagnetometerValueZ();
+        }
+
+        @Override
+        public void onGap(int missed) {
+            sum += missed;
+        }
+
+        @Override
+        public void onMessage(int type, ByteBuffer payload) {
+            sum += type;
+        }
+    };
+
+    @Setup
+    public void setup()
+    {
+        FrameFormatEncoder encoder = new FrameFormatEncoder();
+        encoder.setFormat(format, FrameCodec.ALL_CHANNELS);
+        stream = ByteBuffer.allocateDirect(FRAMES * encoder.maxEncodedSize());
+        Random random = new Random(1);
+        Frame frame = new Frame();
+        frame.clear();
+        for (int i = 0; i < FRAMES; i++) {
+            frame.setFrameNumber((byte)i);
+            frame.setAccelerometer((byte)(frame.getAccelerometerX() + random.nextInt(5) - 2),
+                    (byte)random.nextInt(), frame.getAccelerometerZ());
+            frame.setMagnetometer(random.nextInt(4096) - 2048, frame.getMagnetometerValueY() + random.nextInt(3) - 1, 0);
+            frame.setTimestamp(i * 10000000L);
+            encoder.encode(frame, stream);
+        }
+        stream.flip();
+        decoder = new StreamDecoder(listener);
+        decoder.setFormat(format, FrameCodec.ALL_CHANNELS);
+        decoder.setStreaming(true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int decode()
+    {
+        stream.rewind();
+        decoder.decode(stream);
+        return sum;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// Decoding a read buffer with every command the host can send
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandDecoderBenchmark {
+    private final static byte[] COMMANDS = "R1234567AEOabcdeNCDTtS\r\nxS".getBytes();
+
+    private final Counter counter = new Counter();
+    private final CommandDecoder decoder = new CommandDecoder(counter);
+
+    private static class Counter implements CommandHandler {
+        int commands = 0;
+
+        @Override
+        public void onStreamStart() {
+            commands++;
+        }
+
+        @Override
+        public void onStreamStop() {
+            commands++;
+        }
+
+        @Override
+        public void onAverageWindow(int samples) {
+            commands += samples;
+        }
+
+        @Override
+        public void onFilter(SmoothingEngine.Type type) {
+            commands += type.ordinal();
+        }
+
+        @Override
+        public void onSampleRate(int samplesPerSecond) {
+            commands += samplesPerSecond;
+        }
+
+        @Override
+        public void onFrameFormat(FrameEncoder.Format format) {
+            commands += format.ordinal();
+        }
+
+        @Override
+        public void onSendMode(FrameFanout.SendMode mode) {
+            commands++;
+        }
+
+        @Override
+        public void onDeadband(int channel, int threshold) {
+            commands++;
+        }
+
+        @Override
+        public void onHeartbeat(int millis) {
+            commands++;
+        }
+
+        @Override
+        public void onTimestampTrailer(boolean enabled) {
+            commands++;
+        }
+
+        @Override
+        public void onFraming(boolean enabled) {
+            commands++;
+        }
+
+        @Override
+        public void onAdaptiveRate(boolean enabled) {
+            commands++;
+        }
+
+        @Override
+        public void onStatsRequest() {
+            commands++;
+        }
+
+        @Override
+        public void onMetricsRequest() {
+            commands++;
+        }
+
+        @Override
+        public void onRequest(int version, int id, int opcode, byte[] payload, int offset, int length) {
+            commands++;
+        }
+
+        @Override
+        public void onUnsupported(int command) {
+            commands--;
+        }
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole)
+    {
+        decoder.decode(COMMANDS, 0, COMMANDS.length);
+        blackhole.consume(counter.commands);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+// One scheduler tick distributing a frame to the connected clients. The
+// worker threads are not started, full queues drop their oldest frame.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FanoutBenchmark {
+    @Param({"1", "2", "4"})
+    public int clients;
+
+    // Clients with distinct filter settings need a smoothing group each
+    @Param({"true", "false"})
+    public boolean shared;
+
+    private FrameFanout fanout;
+    private final Frame template = new Frame();
+    private final int[] sample = { 10, 20, 30, 100, 200, 300 };
+    private long now = 0;
+
+    private static class IdleConnection implements Transport.Connection {
+        @Override
+        public InputStream getInputStream() {
+            return null;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public String getName() {
+            return "idle";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class Silent implements WorkerThread.Listener, ClientSession.Listener {
+        @Override
+        public void onWorkerFinished(WorkerThread worker) {
+        }
+
+        @Override
+        public void onSessionStatus(ClientSession session, String message) {
+        }
+    }
+
+    @Setup
+    public void setup()
+    {
+        Silent silent = new Silent();
+        fanout = new FrameFanout(6, 128);
+        for (int i = 0; i < clients; i++) {
+            WorkerThread worker = new WorkerThread(new IdleConnection(), silent);
+            ClientSession session = new ClientSession(i, worker, silent, FrameCodec.ALL_CHANNELS);
+            session.onSampleRate(100);
+            session.onAverageWindow(shared ? 4 : 1 << (i + 1));
+            session.onStreamStart();
+            fanout.add(session);
+        }
+    }
+
+    @Benchmark
+    public FrameFanout tick()
+    {
+        now += 10000000L;
+        fanout.push(sample, now);
+        fanout.tick(template, now);
+        return fanout;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// Filling and serializing single frames in every wire format
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameBenchmark {
+    private final static int COMPACT_CHANNELS =
+            FrameCodec.CHANNEL_PALM | FrameCodec.CHANNEL_VOLTAGE | FrameCodec.CHANNEL_MAGNETOMETER;
+
+    @Param({"Full", "Compact", "Delta"})
+    public FrameEncoder.Format format;
+
+    private Frame[] frames;
+    private Frame frame;
+    private FrameFormatEncoder encoder;
+    private ByteBuffer out;
+    private int next = 0;
+    private int value = 0;
+
+    @Setup
+    public void setup()
+    {
+        frames = Traces.frames(Traces.synthetic(), 100);
+        frame = new Frame();
+        encoder = new FrameFormatEncoder();
+        encoder.setFormat(format, COMPACT_CHANNELS);
+        out = ByteBuffer.allocate(encoder.maxEncodedSize());
+    }
+
+    @Benchmark
+    public Frame setMagnetometer()
+    {
+        value = (value + 7) & 0x3FF;
+        frame.setMagnetometer(value, -value, value >> 1);
+        return frame;
+    }
+
+    @Benchmark
+    public Frame fillFrame()
+    {
+        value = (value + 7) & 0x7F;
+        frame.setFrameNumber((byte)value);
+        frame.setAccelerometer((byte)value, (byte)-value, (byte)(value >> 1));
+        frame.setMagnetometer(value, -value, value >> 1);
+        frame.setVoltage(4100 - value);
+        return frame;
+    }
+
+    // Consecutive trace frames, so the delta encoder sees realistic changes
+    @Benchmark
+    public int encode()
+    {
+        out.clear();
+        encoder.encode(frames[next], out);
+        next = next + 1 == frames.length ? 0 : next + 1;
+        return out.position();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of one orientation filter update, which runs for every sensor
+// sample while a client streams orientation frames. The inputs cycle
+// through a slowly turning device so the filter does real work.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FusionBenchmark {
+    private final static int SENSOR_RATE = 200;
+    private final static int SAMPLES = 1024;
+
+    private final MadgwickFilter filter = new MadgwickFilter();
+    // gyroscope xyz, accelerometer xyz, magnetometer xyz per sample
+    private final float[] samples = new float[SAMPLES * 9];
+    private final float dt = 1f / SENSOR_RATE;
+    private int next = 0;
+
+    @Setup
+    public void setup()
+    {
+        for (int i = 0; i < SAMPLES; i++) {
+            double angle = 2 * Math.PI * i / SAMPLES;
+            int s = i * 9;
+            samples[s] = 0.3f;
+            samples[s + 1] = -0.2f;
+            samples[s + 2] = 0.1f;
+            samples[s + 3] = (float)(9.81 * Math.sin(angle));
+            samples[s + 4] = 0.5f;
+            samples[s + 5] = (float)(9.81 * Math.cos(angle));
+            samples[s + 6] = (float)(40 * Math.cos(angle));
+            samples[s + 7] = (float)(40 * Math.sin(angle));
+            samples[s + 8] = -30f;
+        }
+    }
+
+    @Benchmark
+    public float update()
+    {
+        int s = next * 9;
+        filter.update(samples[s], samples[s + 1], samples[s + 2], samples[s + 3], samples[s + 4], samples[s + 5],
+                samples[s + 6], samples[s + 7], samples[s + 8], dt);
+        next = (next + 1) & (SAMPLES - 1);
+        return filter.getW();
+    }
+
+    @Benchmark
+    public float updateWithoutMagnetometer()
+    {
+        int s = next * 9;
+        filter.updateImu(samples[s], samples[s + 1], samples[s + 2], samples[s + 3], samples[s + 4], samples[s + 5], dt);
+        next = (next + 1) & (SAMPLES - 1);
+        return filter.getW();
+    }
+
+    @Benchmark
+    public float updateWithoutGyroscope()
+    {
+        int s = next * 9;
+        filter.update(0, 0, 0, samples[s + 3], samples[s + 4], samples[s + 5],
+                samples[s + 6], samples[s + 7], samples[s + 8], dt);
+        next = (next + 1) & (SAMPLES - 1);
+        return filter.getW();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Scaling a 3-axis sample to the output range and averaging a window of
+// samples, once with the fixed point path of the pipeline and once with
+// the float arithmetic it replaced.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QuantizationBenchmark {
+    private final static int SAMPLES = 1024;
+    private final static float RANGE = CalibrationProfile.DEFAULT_ACCELEROMETER_RANGE;
+
+    @Param({"127", "32767"})
+    public int outputRange;
+
+    private final float[] values = new float[SAMPLES * 3];
+    private final int[] out = new int[3];
+    private final long[] sums = new long[3];
+    private int bits;
+    private int factor;
+    private int next = 0;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(1);
+        for (int i = 0; i < values.length; i++)
+            values[i] = (random.nextFloat() * 2 - 1) * RANGE * 1.1f;
+        bits = FixedPoint.inputBits(outputRange, RANGE);
+        factor = FixedPoint.factor(outputRange, RANGE, bits);
+    }
+
+    @Benchmark
+    public int[] scaleFixed()
+    {
+        int base = next;
+        next = next + 3 == values.length ? 0 : next + 3;
+        for (int axis = 0; axis < 3; axis++)
+            out[axis] = FixedPoint.scale(FixedPoint.toFixed(values[base + axis], bits), factor, outputRange);
+        return out;
+    }
+
+    @Benchmark
+    public int[] scaleFloat()
+    {
+        int base = next;
+        next = next + 3 == values.length ? 0 : next + 3;
+        for (int axis = 0; axis < 3; axis++) {
+            float exact = values[base + axis] / RANGE * outputRange;
+            int scaled = exact >= 0 ? (int)(exact + 0.5f) : -(int)(-exact + 0.5f);
+            out[axis] = Math.max(-outputRange, Math.min(outputRange, scaled));
+        }
+        return out;
+    }
+
+    @Benchmark
+    public int[] averageFixed()
+    {
+        sums[0] += next - 512;
+        sums[1] -= next;
+        sums[2] += 3 * next;
+        next = next + 3 == values.length ? 0 : next + 3;
+        for (int c = 0; c < 3; c++)
+            out[c] = FixedPoint.divide(sums[c], 37);
+        return out;
+    }
+
+    @Benchmark
+    public int[] averageFloat()
+    {
+        sums[0] += next - 512;
+        sums[1] -= next;
+        sums[2] += 3 * next;
+        next = next + 3 == values.length ? 0 : next + 3;
+        for (int c = 0; c < 3; c++)
+            out[c] = (int)Math.round((double)sums[c] / 37);
+        return out;
+    }
+}
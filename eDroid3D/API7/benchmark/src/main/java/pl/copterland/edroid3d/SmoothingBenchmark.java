@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// One frame period of smoothing: the sensor samples that arrive between two
+// frames are pushed, then the averaged frame is built. Covers every sample
+// rate and window the host can select.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SmoothingBenchmark {
+    // Sensor samples per second with SENSOR_DELAY_FASTEST
+    private final static int SENSOR_RATE = 200;
+    private final static int CHANNELS = 6;
+    private final static int MAX_WINDOW = 128;
+
+    @Param({"100", "50", "25", "20", "10"})
+    public int rate;
+
+    @Param({"2", "4", "8", "16", "32", "64", "128"})
+    public int window;
+
+    @Param({"MovingAverage", "Exponential", "OneEuro"})
+    public SmoothingEngine.Type type;
+
+    private SmoothingEngine engine;
+    private int[][] samples;
+    private final int[] smoothed = new int[CHANNELS];
+    private final Frame frame = new Frame();
+    private int samplesPerFrame;
+    private int next = 0;
+    private long timestamp = 0;
+
+    @Setup
+    public void setup()
+    {
+        engine = new SmoothingEngine(CHANNELS, MAX_WINDOW, window);
+        engine.setType(type);
+        samples = Traces.samples(Traces.synthetic());
+        samplesPerFrame = Math.max(1, SENSOR_RATE / rate);
+    }
+
+    @Benchmark
+    public Frame averageFrame()
+    {
+        for (int i = 0; i < samplesPerFrame; i++) {
+            timestamp += 1000000000L / SENSOR_RATE;
+            engine.push(samples[next], timestamp);
+            next = next + 1 == samples.length ? 0 : next + 1;
+        }
+
+        if (engine.get(smoothed)) {
+            frame.setAccelerometer((byte)smoothed[0], (byte)smoothed[1], (byte)smoothed[2]);
+            frame.setMagnetometer(smoothed[3], smoothed[4], smoothed[5]);
+        }
+        return frame;
+    }
+}
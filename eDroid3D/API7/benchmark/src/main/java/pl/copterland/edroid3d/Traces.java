@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Benchmark input derived from a synthetic sensor trace
+class Traces {
+    private final static float ACCELEROMETER_RANGE = 19.6f;
+    private final static float MAGNETOMETER_RANGE = 100f;
+    private final static double SECONDS = 60;
+
+    static SensorTrace synthetic()
+    {
+        return SensorTrace.synthetic(SECONDS, 1);
+    }
+
+    // Normalized sample vectors, accelerometer xyz followed by magnetometer
+    // xyz, quantized in fixed point like SensorCalibration does
+    static int[][] samples(SensorTrace trace)
+    {
+        int accelerometerBits = FixedPoint.inputBits(Byte.MAX_VALUE, ACCELEROMETER_RANGE);
+        int accelerometerFactor = FixedPoint.factor(Byte.MAX_VALUE, ACCELEROMETER_RANGE, accelerometerBits);
+        int magnetometerBits = FixedPoint.inputBits(Byte.MAX_VALUE, MAGNETOMETER_RANGE);
+        int magnetometerFactor = FixedPoint.factor(Byte.MAX_VALUE, MAGNETOMETER_RANGE, magnetometerBits);
+        int[][] samples = new int[trace.size()][];
+        int[] sample = new int[6];
+        for (int i = 0; i < trace.size(); i++) {
+            boolean accelerometer = trace.getSensor(i) == SampleRing.ACCELEROMETER;
+            int offset = accelerometer ? 0 : 3;
+            int bits = accelerometer ? accelerometerBits : magnetometerBits;
+            int factor = accelerometer ? accelerometerFactor : magnetometerFactor;
+            for (int axis = 0; axis < 3; axis++)
+                sample[offset + axis] = FixedPoint.scale(FixedPoint.toFixed(trace.getValue(i, axis), bits),
+                        factor, Byte.MAX_VALUE);
+            samples[i] = sample.clone();
+        }
+        return samples;
+    }
+
+    // Frames of the trace sent at the given rate, smoothed over 4 samples
+    static Frame[] frames(SensorTrace trace, int framesPerSecond)
+    {
+        int[][] samples = samples(trace);
+        int[] smoothed = new int[6];
+        MovingAverageFilter filter = new MovingAverageFilter(6, 4, 4);
+        long period = 1000000000L / framesPerSecond;
+        Frame[] frames = new Frame[(int)(trace.getDuration() / period)];
+
+        int next = 0;
+        for (int f = 0; f < frames.length; f++) {
+            long tickTime = trace.getTimestamp(0) + (f + 1) * period;
+            while (next < trace.size() && trace.getTimestamp(next) <= tickTime) {
+                filter.push(samples[next], trace.getTimestamp(next));
+                next++;
+            }
+
+            filter.get(smoothed);
+            Frame frame = new Frame();
+            frame.setFrameNumber((byte)f);
+            frame.setAccelerometer((byte)smoothed[0], (byte)smoothed[1], (byte)smoothed[2]);
+            frame.setMagnetometer(smoothed[3], smoothed[4], smoothed[5]);
+            frame.setVoltage(4100 - f / 1000);
+            frames[f] = frame;
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+// Read only view of a received frame. The channels are read straight from
+// the receive buffer where the format carries the whole frame (Full,
+// Multiplexed, Extended) and from a rebuilt copy otherwise, so the view is
+// only valid during the callback it is passed to. Orientation frames carry
+// the frame number and the quaternion only.
+public class FrameView {
+    public static final int UNKNOWN_TIME = -1;
+
+    private ByteBuffer buffer;
+    private int offset;
+    private int frameNumber;
+    private int source;
+    private long sampleTime = UNKNOWN_TIME;
+    private boolean wide;
+    private final short[] wideAccelerometer = new short[3];
+    private boolean orientation;
+    private final short[] quaternion = new short[4];
+
+    void wrap(ByteBuffer frameBuffer, int frameOffset)
+    {
+        buffer = frameBuffer;
+        offset = frameOffset;
+        frameNumber = frameBuffer.get(frameOffset + Frame.Offset.FRAME_NO) & 0xFF;
+        source = 0;
+        sampleTime = UNKNOWN_TIME;
+        wide = false;
+        orientation = false;
+    }
+
+    void wrapOrientation(int number, short w, short x, short y, short z)
+    {
+        buffer = null;
+        frameNumber = number;
+        source = 0;
+        sampleTime = UNKNOWN_TIME;
+        wide = false;
+        orientation = true;
+        quaternion[0] = w;
+        quaternion[1] = x;
+        quaternion[2] = y;
+        quaternion[3] = z;
+    }
+
+    void setSource(int sourceId)
+    {
+        source = sourceId;
+    }
+
+    void setSampleTime(long micros)
+    {
+        sampleTime = micros;
+    }
+
+    void setWideAccelerometer(short x, short y, short z)
+    {
+        wide = true;
+        wideAccelerometer[0] = x;
+        wideAccelerometer[1] = y;
+        wideAccelerometer[2] = z;
+    }
+
+    public int getFrameNumber()
+    {
+        return frameNumber;
+    }
+
+    // Device behind the hub in multiplexed streams, 0 is the one connected
+    public int getSource()
+    {
+        return source;
+    }
+
+    // Sample time in microseconds, unsigned 32 bit in the clock of the
+    // server, from the timestamp trailer or the multiplexed frame.
+    // UNKNOWN_TIME when the stream carries none.
+    public long getSampleTime()
+    {
+        return sampleTime;
+    }
+
+    public boolean hasChannels()
+    {
+        return buffer != null;
+    }
+
+    // Finger sensors are stored in z, y, x order
+    public byte getFingerX(int finger)
+    {
+        return buffer.get(offset + Frame.Offset.PINKY_X + finger * 3);
+    }
+
+    public byte getFingerY(int finger)
+    {
+        return buffer.get(offset + Frame.Offset.PINKY_Y + finger * 3);
+    }
+
+    public byte getFingerZ(int finger)
+    {
+        return buffer.get(offset + Frame.Offset.PINKY_Z + finger * 3);
+    }
+
+    public byte getAccelerometerX()
+    {
+        return buffer.get(offset + Frame.Offset.PALM_X);
+    }
+
+    public byte getAccelerometerY()
+    {
+        return buffer.get(offset + Frame.Offset.PALM_Y);
+    }
+
+    public byte getAccelerometerZ()
+    {
+        return buffer.get(offset + Frame.Offset.PALM_Z);
+    }
+
+    // Accelerometer at 16 bit in extended frames
+    public boolean hasWideAccelerometer()
+    {
+        return wide;
+    }
+
+    public short getWideAccelerometerX()
+    {
+        return wideAccelerometer[0];
+    }
+
+    public short getWideAccelerometerY()
+    {
+        return wideAccelerometer[1];
+    }
+
+    public short getWideAccelerometerZ()
+    {
+        return wideAccelerometer[2];
+    }
+
+    // Battery voltage in millivolts
+    public int getVoltage()
+    {
+        return unsignedShort(Frame.Offset.VOLTAGE);
+    }
+
+    // Signed 12 bit magnetometer values, the wire offset removed
+    public int getMagnetometerValueX()
+    {
+        return unsignedShort(Frame.Offset.MAGNETOMETER_X) - Frame.MAGIC_NUMBER;
+    }
+
+    public int getMagnetometerValueY()
+    {
+        return unsignedShort(Frame.Offset.MAGNETOMETER_Y) - Frame.MAGIC_NUMBER;
+    }
+
+    public int getMagnetometerValueZ()
+    {
+        return unsignedShort(Frame.Offset.MAGNETOMETER_Z) - Frame.MAGIC_NUMBER;
+    }
+
+    private int unsignedShort(int channel)
+    {
+        return (buffer.get(offset + channel) & 0xFF) | ((buffer.get(offset + channel + 1) & 0xFF) << 8);
+    }
+
+    public boolean hasOrientation()
+    {
+        return orientation;
+    }
+
+    // Quaternion components, 1.0 is OrientationCodec.SCALE
+    public short getOrientationW()
+    {
+        return quaternion[0];
+    }
+
+    public short getOrientationX()
+    {
+        return quaternion[1];
+    }
+
+    public short getOrientationY()
+    {
+        return quaternion[2];
+    }
+
+    public short getOrientationZ()
+    {
+        return quaternion[3];
+    }
+
+    // Copies the channels into a frame, e.g. to keep them after the callback
+    public void copyTo(Frame frame)
+    {
+        if (buffer != null) {
+            for (int i = 0; i < Frame.FRAME_SIZE; i++)
+                frame.put(i, buffer.get(offset + i));
+        } else {
+            frame.setFrameNumber((byte)frameNumber);
+        }
+        frame.setSource(source);
+        frame.setOrientation(quaternion[0], quaternion[1], quaternion[2], quaternion[3]);
+        frame.setWideAccelerometer(wideAccelerometer[0], wideAccelerometer[1], wideAccelerometer[2]);
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+// Host side of a glove connection. The stream is read on a dedicated
+// thread per connection, which decodes it, see StreamDecoder, and calls
+// the listener; a listener that blocks holds up the connection only.
+//
+// Commands can be sent from any thread. The typed setters keep the decoder
+// in step with the server, so change the format and the timestamp trailer
+// while the stream is stopped: frames already on the way are otherwise
+// read in the new format. Binary requests are answered with a response
+// message, which call() waits for. hello() turns framing on with servers
+// that support it, see CommandProtocol, and every request is answered.
+// Without it, responses are only told apart from Full and Compact frames
+// while the stream is stopped; set(PARAM_RUNNING, 1) is still answered,
+// ahead of the first frame.
+public class GloveClient extends Thread {
+    public interface Listener extends StreamDecoder.Listener {
+        // The connection ended, cause is null after close()
+        void onClosed(IOException cause);
+    }
+
+    public static class Response {
+        public final int opcode;
+        public final int status;
+        public final byte[] data;
+
+        Response(int responseOpcode, int responseStatus, byte[] responseData)
+        {
+            opcode = responseOpcode;
+            status = responseStatus;
+            data = responseData;
+        }
+
+        public boolean isOk()
+        {
+            return status == CommandProtocol.STATUS_OK;
+        }
+    }
+
+    public static final int READ_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_TIMEOUT = 2000;
+    // Commands in the order of the enum constants
+    private static final char[] FORMATS = { 'N', 'C', 'D', 'Q', 'M', 'X' };
+    private static final char[] FILTERS = { 'A', 'E', 'O' };
+    // Rates of the commands 'a' to 'e'
+    private static final int[] RATES = { 100, 50, 25, 20, 10 };
+
+    private final ReadableByteChannel input;
+    private final WritableByteChannel output;
+    private final Listener listener;
+    private final StreamDecoder decoder;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    // Last response per request id, guarded by responses
+    private final Response[] responses = new Response[256];
+    private int nextId = 0;
+    private int compactChannels = FrameCodec.ALL_CHANNELS;
+    private volatile boolean closed = false;
+
+    public GloveClient(ReadableByteChannel in, WritableByteChannel out, Listener clientListener)
+    {
+        super("GloveClient");
+        input = in;
+        output = out;
+        listener = clientListener;
+        decoder = new StreamDecoder(new StreamDecoder.Listener() {
+            @Override
+            public void onFrame(FrameView frame) {
+                listener.onFrame(frame);
+            }
+
+            @Override
+            public void onGap(int missed) {
+                listener.onGap(missed);
+            }
+
+            @Override
+            public void onMessage(int type, ByteBuffer payload) {
+                if (type == CommandProtocol.MESSAGE_RESPONSE)
+                    onResponse(payload.duplicate());
+                listener.onMessage(type, payload);
+            }
+        });
+    }
+
+    public static GloveClient connect(InetSocketAddress address, Listener clientListener) throws IOException
+    {
+        SocketChannel channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        return new GloveClient(channel, channel, clientListener);
+    }
+
+    // Over streams, e.g. of a Bluetooth socket
+    public static GloveClient fromStreams(InputStream in, OutputStream out, Listener clientListener)
+    {
+        return new GloveClient(Channels.newChannel(in), Channels.newChannel(out), clientListener);
+    }
+
+    public void run() {
+        IOException cause = null;
+        try {
+            while (true) {
+                int bytes = input.read(readBuffer);
+                if (bytes < 0)
+                    break;
+                readBuffer.flip();
+                decoder.decode(readBuffer);
+                readBuffer.compact();
+                if (!readBuffer.hasRemaining()) {
+                    // Nothing decodes from a full buffer, drop it and resync
+                    readBuffer.clear();
+                }
+            }
+        } catch (IOException e) {
+            if (!closed)
+                cause = e;
+        }
+        closeChannels();
+        synchronized (responses) {
+            responses.notifyAll();
+        }
+        listener.onClosed(cause);
+    }
+
+    public void close()
+    {
+        closed = true;
+        closeChannels();
+    }
+
+    private void closeChannels()
+    {
+        try {
+            input.close();
+        } catch (IOException e) {
+        }
+        try {
+            output.close();
+        } catch (IOException e) {
+        }
+    }
+
+    public StreamDecoder getDecoder()
+    {
+        return decoder;
+    }
+
+    public void startStream() throws IOException
+    {
+        decoder.setStreaming(true);
+        send('R');
+    }
+
+    public void stopStream() throws IOException
+    {
+        send('S');
+        decoder.setStreaming(false);
+    }
+
+    // The compact channels are the ones the server was set up with
+    public void setFormat(FrameEncoder.Format format, int compactChannelMask) throws IOException
+    {
+        compactChannels = compactChannelMask;
+        decoder.setFormat(format, compactChannelMask);
+        send(FORMATS[format.ordinal()]);
+    }
+
+    public void setFilter(SmoothingEngine.Type type) throws IOException
+    {
+        send(FILTERS[type.ordinal()]);
+    }
+
+    // Rates without a command of their own go through a SET request
+    public void setSampleRate(int samplesPerSecond) throws IOException
+    {
+        for (int i = 0; i < RATES.length; i++) {
+            if (RATES[i] == samplesPerSecond) {
+                send('a' + i);
+                return;
+            }
+        }
+        request(CommandProtocol.SET, param(CommandProtocol.PARAM_RATE, samplesPerSecond));
+    }
+
+    // Powers of two up to 128 have a command of their own
+    public void setWindow(int samples) throws IOException
+    {
+        int power = Integer.numberOfTrailingZeros(samples);
+        if (Integer.bitCount(samples) == 1 && power >= 1 && power <= 7)
+            send('0' + power);
+        else
+            request(CommandProtocol.SET, param(CommandProtocol.PARAM_WINDOW, samples));
+    }
+
+    public void setSendMode(FrameFanout.SendMode mode) throws IOException
+    {
+        send(mode == FrameFanout.SendMode.OnChange ? 'V' : 'P');
+    }
+
+    // Channel 0xFF sets the deadband of all channels
+    public void setDeadband(int channel, int threshold) throws IOException
+    {
+        send(new byte[] { 'W', (byte)channel, (byte)threshold });
+    }
+
+    // Heartbeat in OnChange mode, sent in tenths of a second, 0 turns it off
+    public void setHeartbeat(int millis) throws IOException
+    {
+        send(new byte[] { 'H', (byte)Math.min(255, (millis + 50) / 100) });
+    }
+
+    public void setTimestampTrailer(boolean enabled) throws IOException
+    {
+        decoder.setTimestampTrailer(enabled);
+        send(enabled ? 'T' : 't');
+    }
+
+    // Puts a marker before Full and Compact frames, so responses and messages
+    // can be told apart from them while streaming
+    public void setFraming(boolean enabled) throws IOException
+    {
+        decoder.setFraming(enabled);
+        send(enabled ? 'F' : 'f');
+    }
+
+    public void setAdaptive(boolean enabled) throws IOException
+    {
+        send(enabled ? 'Y' : 'y');
+    }
+
+    // Answered with a ClientSession.MESSAGE_STATS message
+    public void requestStats() throws IOException
+    {
+        send('L');
+    }
+
+    // Answered with a ClientSession.MESSAGE_METRICS message
+    public void requestMetrics() throws IOException
+    {
+        send('G');
+    }
+
+    // Sends a binary request, returns its id
+    public int request(int opcode, byte[] payload) throws IOException
+    {
+        int id;
+        synchronized (responses) {
+            id = nextId;
+            nextId = (nextId + 1) & 0xFF;
+            responses[id] = null;
+        }
+        send(CommandProtocol.request(id, opcode, payload));
+        return id;
+    }
+
+    // Sends a binary request and waits for its response, null on timeout
+    public Response call(int opcode, byte[] payload, long timeoutMillis) throws IOException, InterruptedException
+    {
+        int id = request(opcode, payload);
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (responses) {
+            while (responses[id] == null) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0 || !isAlive())
+                    return null;
+                responses.wait(left);
+            }
+            Response response = responses[id];
+            responses[id] = null;
+            return response;
+        }
+    }
+
+    // Asks for framing, the decoder follows once the server confirms it
+    public Response hello() throws IOException, InterruptedException
+    {
+        return call(CommandProtocol.HELLO, new byte[] { (byte)CommandProtocol.VERSION,
+                (byte)CommandProtocol.FEATURE_FRAMING }, DEFAULT_TIMEOUT);
+    }
+
+    // Response data is [param] [applied value]. The decoder starts streaming
+    // when the start is acknowledged, see onResponse().
+    public Response set(int param, int value) throws IOException, InterruptedException
+    {
+        if (param == CommandProtocol.PARAM_RUNNING && value == 0)
+            decoder.setStreaming(false);
+        else if (param == CommandProtocol.PARAM_FORMAT)
+            decoder.setFormat(FrameEncoder.Format.values()[value], compactChannels);
+        else if (param == CommandProtocol.PARAM_TIMESTAMP_TRAILER)
+            decoder.setTimestampTrailer(value != 0);
+        else if (param == CommandProtocol.PARAM_FRAMED)
+            decoder.setFraming(value != 0);
+        return call(CommandProtocol.SET, param(param, value), DEFAULT_TIMEOUT);
+    }
+
+    // Response data is [param] [value]
+    public Response get(int param) throws IOException, InterruptedException
+    {
+        return call(CommandProtocol.GET, new byte[] { (byte)param }, DEFAULT_TIMEOUT);
+    }
+
+    private static byte[] param(int param, int value)
+    {
+        byte[] payload = new byte[5];
+        payload[0] = (byte)param;
+        CommandProtocol.putInt(payload, 1, value);
+        return payload;
+    }
+
+    // [version] [id] [opcode] [status] [data]
+    private void onResponse(ByteBuffer payload)
+    {
+        if (payload.remaining() < 4)
+            return;
+        payload.get();
+        int id = payload.get() & 0xFF;
+        int opcode = payload.get() & 0xFF;
+        int status = payload.get() & 0xFF;
+        byte[] data = new byte[payload.remaining()];
+        payload.get(data);
+        // On the reading thread, so the bytes that follow are decoded in step
+        if (status == CommandProtocol.STATUS_OK)
+            follow(opcode, data);
+        synchronized (responses) {
+            responses[id] = new Response(opcode, status, data);
+            responses.notifyAll();
+        }
+    }
+
+    private void follow(int opcode, byte[] data)
+    {
+        if (opcode == CommandProtocol.HELLO && data.length > 8
+                && (data[8] & CommandProtocol.FEATURE_FRAMING) != 0) {
+            decoder.setFraming(true);
+        } else if (opcode == CommandProtocol.SET && data.length >= 5
+                && data[0] == CommandProtocol.PARAM_RUNNING && CommandProtocol.getInt(data, 1) == 1) {
+            decoder.setStreaming(true);
+        }
+    }
+
+    private void send(int command) throws IOException
+    {
+        send(new byte[] { (byte)command });
+    }
+
+    private void send(byte[] bytes) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        synchronized (output) {
+            while (buffer.hasRemaining())
+                output.write(buffer);
+        }
+    }
+}
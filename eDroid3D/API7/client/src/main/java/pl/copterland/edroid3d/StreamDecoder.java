@@ -0,0 +1,356 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+// Decodes the byte stream of the glove server in the format selected with
+// setFormat(). Complete frames and messages are consumed from the buffer,
+// a partial one is left for the next call. Nothing is allocated per frame.
+//
+// Frame numbers are unsigned 8 bit. A jump forward by up to 127 frames
+// counts as frames lost, a jump backwards (a replay after a resume) as a
+// repeat; both wrap around at 256.
+//
+// Messages, see FrameWriter, are told apart from frames by their marker in
+// the formats whose frames start with a marker of their own. Full and
+// Compact frames do not, so there messages are only recognized while the
+// host has not started the stream, see setStreaming(), unless the server
+// puts a marker before them too, see setFraming().
+public class StreamDecoder {
+    public interface Listener {
+        void onFrame(FrameView frame);
+        // Frames lost before the next frame, see getMissed()
+        void onGap(int missed);
+        // The payload is only valid during the call
+        void onMessage(int type, ByteBuffer payload);
+    }
+
+    private final Listener listener;
+    private final FrameView view = new FrameView();
+    // Rebuilt frames of the Compact and Delta formats
+    private final Frame scratch = new Frame();
+    private final byte[] scratchBytes = new byte[Frame.FRAME_SIZE];
+    private final ByteBuffer scratchBuffer = ByteBuffer.wrap(scratchBytes);
+    private final DeltaFrameDecoder delta = new DeltaFrameDecoder();
+    // Payload view of the buffer being decoded
+    private ByteBuffer source;
+    private ByteBuffer payload;
+
+    private volatile FrameEncoder.Format format = FrameEncoder.Format.Full;
+    private volatile int compactChannels = FrameCodec.ALL_CHANNELS;
+    private volatile boolean trailer = false;
+    private volatile boolean streaming = false;
+    private volatile boolean framed = false;
+    private boolean numbered = false;
+    private int expected;
+
+    private long frames = 0;
+    private long missed = 0;
+    private long repeated = 0;
+    private long corrupted = 0;
+    private long messages = 0;
+
+    public StreamDecoder(Listener decoderListener)
+    {
+        listener = decoderListener;
+    }
+
+    // The compact channels are the ones the server was set up with, Compact
+    // streams with all of them are sent as Full frames
+    public void setFormat(FrameEncoder.Format frameFormat, int compactChannelMask)
+    {
+        compactChannels = compactChannelMask & FrameCodec.ALL_CHANNELS;
+        format = frameFormat;
+    }
+
+    public FrameEncoder.Format getFormat()
+    {
+        return format;
+    }
+
+    public void setTimestampTrailer(boolean enabled)
+    {
+        trailer = enabled;
+    }
+
+    // Whether frames may arrive, messages in Full and Compact streams are
+    // recognized only while not streaming
+    public void setStreaming(boolean started)
+    {
+        streaming = started;
+    }
+
+    // Whether Full and Compact frames start with FrameFormatEncoder.FRAME_MARKER
+    public void setFraming(boolean enabled)
+    {
+        framed = enabled;
+    }
+
+    public boolean hasFraming()
+    {
+        return framed;
+    }
+
+    public void decode(ByteBuffer in)
+    {
+        while (in.hasRemaining()) {
+            if (!decodeNext(in))
+                break;
+        }
+    }
+
+    // Returns false when more bytes are needed
+    private boolean decodeNext(ByteBuffer in)
+    {
+        FrameEncoder.Format current = format;
+        int mask = compactChannels;
+        if (current == FrameEncoder.Format.Compact && mask == FrameCodec.ALL_CHANNELS)
+            current = FrameEncoder.Format.Full;
+        int start = in.position();
+        int available = in.remaining();
+        int first = in.get(start) & 0xFF;
+        boolean marked = current != FrameEncoder.Format.Full && current != FrameEncoder.Format.Compact;
+        boolean prefixed = framed && !marked;
+        if (first == FrameWriter.MESSAGE_MARKER && (marked || prefixed || !streaming))
+            return decodeMessage(in);
+
+        int extra = trailer ? FrameFormatEncoder.TRAILER_SIZE : 0;
+        if (prefixed) {
+            if (first != FrameFormatEncoder.FRAME_MARKER)
+                return skip(in);
+            if (available < 2)
+                return false;
+            int next = in.get(start + 1) & 0xFF;
+            int length = current == FrameEncoder.Format.Full ? Frame.FRAME_SIZE : FrameCodec.compactSize(next);
+            if (available < 1 + length + extra)
+                return false;
+            // The frame follows its marker
+            start++;
+            available--;
+            first = next;
+            in.position(start);
+        }
+        int size;
+        switch (current) {
+            case Full:
+                size = Frame.FRAME_SIZE;
+                if (available < size + extra)
+                    return false;
+                view.wrap(in, start);
+                break;
+
+            case Compact:
+                if (first != mask)
+                    return skip(in);
+                size = FrameCodec.compactSize(mask);
+                if (available < size + extra)
+                    return false;
+                FrameCodec.decodeCompact(in, scratch);
+                wrapScratch();
+                break;
+
+            case Delta: {
+                if (first == DeltaFrameEncoder.KEYFRAME) {
+                    size = DeltaFrameEncoder.KEYFRAME_SIZE;
+                } else if (first == DeltaFrameEncoder.DELTA) {
+                    size = DeltaFrameDecoder.deltaLength(in, start, in.limit());
+                    if (size == -1)
+                        return false;
+                } else {
+                    size = -2;
+                }
+                if (size < 0)
+                    return skip(in);
+                if (available < size + extra)
+                    return false;
+                int result = delta.decode(in, scratch);
+                if (result == DeltaFrameDecoder.CORRUPTED)
+                    return skipped();
+                if (result == DeltaFrameDecoder.NO_REFERENCE) {
+                    // Lost until the next keyframe, the gap shows on the frame numbers
+                    in.position(start + size + extra);
+                    return true;
+                }
+                wrapScratch();
+                break;
+            }
+
+            case Orientation:
+                size = OrientationCodec.SIZE;
+                if (first != OrientationCodec.ORIENTATION)
+                    return skip(in);
+                if (available < size + extra)
+                    return false;
+                if (OrientationCodec.decode(in, scratch) != DeltaFrameDecoder.FRAME)
+                    return skipped();
+                view.wrapOrientation(scratch.getFrameNumber() & 0xFF, scratch.getOrientationW(),
+                        scratch.getOrientationX(), scratch.getOrientationY(), scratch.getOrientationZ());
+                break;
+
+            case Multiplexed:
+                size = MultiplexCodec.SIZE;
+                if (first != MultiplexCodec.MULTIPLEXED)
+                    return skip(in);
+                if (available < size + extra)
+                    return false;
+                if (!checked(in, start, size))
+                    return skip(in);
+                view.wrap(in, start + 2);
+                view.setSource(in.get(start + 1) & 0xFF);
+                view.setSampleTime(getUnsignedInt(in, start + 2 + Frame.FRAME_SIZE));
+                break;
+
+            case Extended:
+                size = ExtendedCodec.SIZE;
+                if (first != ExtendedCodec.EXTENDED)
+                    return skip(in);
+                if (available < size + extra)
+                    return false;
+                if (!checked(in, start, size))
+                    return skip(in);
+                view.wrap(in, start + 1);
+                int wide = start + 1 + Frame.FRAME_SIZE;
+                view.setWideAccelerometer(getShort(in, wide), getShort(in, wide + 2), getShort(in, wide + 4));
+                break;
+
+            default:
+                throw new IllegalStateException("Unknown format: " + current);
+        }
+
+        if (trailer)
+            view.setSampleTime(getUnsignedInt(in, start + size));
+        in.position(start + size + extra);
+        frame();
+        return true;
+    }
+
+    private void wrapScratch()
+    {
+        scratch.copyTo(scratchBytes, 0);
+        view.wrap(scratchBuffer, 0);
+    }
+
+    private void frame()
+    {
+        int number = view.getFrameNumber();
+        if (numbered) {
+            int jump = (number - expected) & 0xFF;
+            if (jump >= 128) {
+                repeated++;
+            } else if (jump > 0) {
+                missed += jump;
+                listener.onGap(jump);
+            }
+        }
+        expected = (number + 1) & 0xFF;
+        numbered = true;
+        frames++;
+        listener.onFrame(view);
+    }
+
+    private boolean decodeMessage(ByteBuffer in)
+    {
+        int start = in.position();
+        if (in.remaining() < FrameWriter.MESSAGE_HEADER_SIZE)
+            return false;
+        int length = (in.get(start + 2) & 0xFF) | ((in.get(start + 3) & 0xFF) << 8);
+        if (in.remaining() < FrameWriter.MESSAGE_HEADER_SIZE + length)
+            return false;
+
+        if (in != source) {
+            source = in;
+            payload = in.duplicate();
+        }
+        int end = start + FrameWriter.MESSAGE_HEADER_SIZE + length;
+        payload.limit(end);
+        payload.position(start + FrameWriter.MESSAGE_HEADER_SIZE);
+        in.position(end);
+        messages++;
+        listener.onMessage(in.get(start + 1) & 0xFF, payload);
+        return true;
+    }
+
+    private static boolean checked(ByteBuffer in, int start, int size)
+    {
+        return Crc8.compute(in, start, size - 1) == (in.get(start + size - 1) & 0xFF);
+    }
+
+    // Skips a byte that does not start a valid frame
+    private boolean skip(ByteBuffer in)
+    {
+        in.position(in.position() + 1);
+        return skipped();
+    }
+
+    private boolean skipped()
+    {
+        corrupted++;
+        return true;
+    }
+
+    private static short getShort(ByteBuffer in, int offset)
+    {
+        return (short)((in.get(offset) & 0xFF) | (in.get(offset + 1) << 8));
+    }
+
+    private static long getUnsignedInt(ByteBuffer in, int offset)
+    {
+        return (in.get(offset) & 0xFF) | ((in.get(offset + 1) & 0xFF) << 8)
+                | ((in.get(offset + 2) & 0xFF) << 16) | ((long)(in.get(offset + 3) & 0xFF) << 24);
+    }
+
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    // Frames lost, counted from the gaps in the frame numbers
+    public long getMissed()
+    {
+        return missed;
+    }
+
+    // Times the frame numbers went back, e.g. on a replay after a resume
+    public long getRepeated()
+    {
+        return repeated;
+    }
+
+    // Bytes skipped because they did not start a valid frame
+    public long getCorrupted()
+    {
+        return corrupted;
+    }
+
+    public long getMessages()
+    {
+        return messages;
+    }
+}
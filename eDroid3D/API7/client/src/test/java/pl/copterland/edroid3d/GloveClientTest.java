@@ -0,0 +1,171 @@
+package pl.copterland.edroid3d;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GloveClientTest {
+    private static class Silent implements ConnectionManager.Listener {
+        @Override
+        public void onConnectionStatus(ConnectionManager.State state, String message) {
+        }
+
+        @Override
+        public void onSessionStatus(ClientSession session, String message) {
+        }
+    }
+
+    private static class Counter implements GloveClient.Listener {
+        final AtomicInteger frames = new AtomicInteger();
+        final AtomicInteger lastNumber = new AtomicInteger(-1);
+        final CountDownLatch received = new CountDownLatch(5);
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile IOException cause;
+
+        @Override
+        public void onFrame(FrameView frame) {
+            frames.incrementAndGet();
+            lastNumber.set(frame.getFrameNumber());
+            assertEquals(-100, frame.getMagnetometerValueX());
+            received.countDown();
+        }
+
+        @Override
+        public void onGap(int missed) {
+        }
+
+        @Override
+        public void onMessage(int type, ByteBuffer payload) {
+        }
+
+        @Override
+        public void onClosed(IOException closeCause) {
+            cause = closeCause;
+            closed.countDown();
+        }
+    }
+
+    private final FrameFanout fanout = new FrameFanout(FramePipeline.CHANNELS, FramePipeline.MAX_WINDOW);
+    private ConnectionManager manager;
+    private TcpTransport server;
+    private GloveClient client;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (client != null)
+            client.close();
+        if (manager != null) {
+            manager.cancel();
+            manager.join(5000);
+        }
+    }
+
+    private static void waitUntil(long deadline) throws InterruptedException {
+        assertTrue(System.currentTimeMillis() < deadline);
+        Thread.sleep(5);
+    }
+
+    private void connect(Counter counter, long deadline) throws Exception {
+        manager = new ConnectionManager(new ConnectionManager.TransportFactory() {
+            @Override
+            public Transport open() throws IOException {
+                server = new TcpTransport(0);
+                return server;
+            }
+        }, fanout, FrameCodec.ALL_CHANNELS, new Silent());
+        manager.start();
+        while (manager.getConnectionState() != ConnectionManager.State.Listening)
+            waitUntil(deadline);
+
+        client = GloveClient.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), counter);
+        client.start();
+    }
+
+    // Ticks the fanout until the client received five frames
+    private void stream(Counter counter, long deadline) throws Exception {
+        while (fanout.size() == 0 || !fanout.getSessions()[0].isRunning())
+            waitUntil(deadline);
+
+        Frame template = new Frame();
+        template.clear();
+        template.setMagnetometer(-100, 0, 0);
+        for (int i = 0; counter.received.getCount() > 0; i++) {
+            assertTrue(i < 200);
+            template.setFrameNumber((byte)i);
+            long now = System.nanoTime();
+            template.setTimestamp(now);
+            fanout.tick(template, now);
+            Thread.sleep(30);
+        }
+        assertTrue(counter.frames.get() >= 5);
+        assertEquals(0, client.getDecoder().getCorrupted());
+    }
+
+    @Test
+    public void negotiatesAndReceivesFrames() throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        Counter counter = new Counter();
+        connect(counter, deadline);
+
+        GloveClient.Response hello = client.hello();
+        assertNotNull(hello);
+        assertTrue(hello.isOk());
+        assertEquals(CommandProtocol.HELLO, hello.opcode);
+        assertEquals(CommandProtocol.VERSION, hello.data[0]);
+
+        // Rates without a command of their own are set with a request
+        client.setSampleRate(40);
+        client.setFormat(FrameEncoder.Format.Multiplexed, FrameCodec.ALL_CHANNELS);
+        GloveClient.Response rate = client.get(CommandProtocol.PARAM_RATE);
+        assertNotNull(rate);
+        assertEquals(40, CommandProtocol.getInt(rate.data, 1));
+
+        client.startStream();
+        stream(counter, deadline);
+
+        client.close();
+        assertTrue(counter.closed.await(5, TimeUnit.SECONDS));
+        assertNull(counter.cause);
+    }
+
+    @Test
+    public void startIsAnsweredInFullFormat() throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        Counter counter = new Counter();
+        connect(counter, deadline);
+
+        // No HELLO, so no framing
+        GloveClient.Response start = client.set(CommandProtocol.PARAM_RUNNING, 1);
+        assertNotNull(start);
+        assertTrue(start.isOk());
+        assertEquals(1, CommandProtocol.getInt(start.data, 1));
+        assertFalse(client.getDecoder().hasFraming());
+        stream(counter, deadline);
+    }
+
+    @Test
+    public void helloKeepsRequestsAnsweredWhileStreaming() throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        Counter counter = new Counter();
+        connect(counter, deadline);
+
+        assertTrue(client.hello().isOk());
+        assertTrue(client.getDecoder().hasFraming());
+        assertTrue(client.set(CommandProtocol.PARAM_RUNNING, 1).isOk());
+        stream(counter, deadline);
+
+        GloveClient.Response rate = client.get(CommandProtocol.PARAM_RATE);
+        assertNotNull(rate);
+        assertEquals(ClientSession.DEFAULT_RATE, CommandProtocol.getInt(rate.data, 1));
+        assertEquals(0, client.getDecoder().getCorrupted());
+    }
+}
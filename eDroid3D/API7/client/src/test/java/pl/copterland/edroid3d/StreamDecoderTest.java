@@ -0,0 +1,285 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StreamDecoderTest {
+    private static class Recorder implements StreamDecoder.Listener {
+        final ArrayList<Frame> frames = new ArrayList<Frame>();
+        final ArrayList<Long> times = new ArrayList<Long>();
+        final ArrayList<Integer> gaps = new ArrayList<Integer>();
+        final ArrayList<String> messages = new ArrayList<String>();
+
+        @Override
+        public void onFrame(FrameView frame) {
+            Frame copy = new Frame();
+            frame.copyTo(copy);
+            frames.add(copy);
+            times.add(frame.getSampleTime());
+        }
+
+        @Override
+        public void onGap(int missed) {
+            gaps.add(missed);
+        }
+
+        @Override
+        public void onMessage(int type, ByteBuffer payload) {
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            messages.add((char)type + new String(bytes));
+        }
+    }
+
+    private static Frame[] randomFrames(int first, int count, long seed) {
+        Random random = new Random(seed);
+        Frame[] frames = new Frame[count];
+        for (int i = 0; i < count; i++) {
+            Frame frame = new Frame();
+            frame.clear();
+            frame.setFrameNumber((byte)(first + i));
+            for (int finger = 0; finger < Frame.FINGERS; finger++)
+                frame.setFinger(finger, (byte)random.nextInt(), (byte)random.nextInt(), (byte)random.nextInt());
+            frame.setAccelerometer((byte)random.nextInt(), (byte)random.nextInt(), (byte)random.nextInt());
+            frame.setMagnetometer(random.nextInt(4096) - 2048, random.nextInt(4096) - 2048, 0);
+            frame.setVoltage(random.nextInt(65536));
+            frame.setWideAccelerometer((short)random.nextInt(), (short)random.nextInt(), (short)-1);
+            frame.setOrientation((short)16384, (short)random.nextInt(), (short)0, (short)-3);
+            frame.setTimestamp((i + 1) * 1000000L);
+            frames[i] = frame;
+        }
+        return frames;
+    }
+
+    private static ByteBuffer encode(FrameFormatEncoder encoder, Frame[] frames) {
+        ByteBuffer out = ByteBuffer.allocate(frames.length * encoder.maxEncodedSize() + 64);
+        for (Frame frame : frames)
+            encoder.encode(frame, out);
+        out.flip();
+        return out;
+    }
+
+    private static void message(ByteBuffer out, int type, String text) {
+        out.put((byte)FrameWriter.MESSAGE_MARKER);
+        out.put((byte)type);
+        out.put((byte)text.length());
+        out.put((byte)0);
+        out.put(text.getBytes());
+    }
+
+    // Feeds the stream in chunks, keeping what was not consumed as a reader would
+    private static void feed(StreamDecoder decoder, ByteBuffer stream, int chunk) {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        while (stream.hasRemaining()) {
+            int count = Math.min(chunk, Math.min(stream.remaining(), buffer.remaining()));
+            for (int i = 0; i < count; i++)
+                buffer.put(stream.get());
+            buffer.flip();
+            decoder.decode(buffer);
+            buffer.compact();
+        }
+        assertEquals(0, buffer.position());
+    }
+
+    private static byte[] bytes(Frame frame) {
+        byte[] data = new byte[Frame.FRAME_SIZE];
+        frame.copyTo(data, 0);
+        return data;
+    }
+
+    private static final int COMPACT_CHANNELS = FrameCodec.CHANNEL_FINGERS | FrameCodec.CHANNEL_PALM;
+
+    @Test
+    public void decodesEveryFormatWithAnyChunking() throws Exception {
+        Frame[] frames = randomFrames(0, 300, 1);
+        for (FrameEncoder.Format format : FrameEncoder.Format.values()) {
+            for (int chunk : new int[] { 1, 7, 64 }) {
+                FrameFormatEncoder encoder = new FrameFormatEncoder();
+                encoder.setFormat(format, COMPACT_CHANNELS);
+                Recorder recorder = new Recorder();
+                StreamDecoder decoder = new StreamDecoder(recorder);
+                decoder.setFormat(format, COMPACT_CHANNELS);
+                decoder.setStreaming(true);
+                feed(decoder, encode(encoder, frames), chunk);
+
+                assertEquals(format + " " + chunk, frames.length, recorder.frames.size());
+                assertEquals(0, decoder.getCorrupted());
+                assertEquals(0, decoder.getMissed());
+                for (int i = 0; i < frames.length; i++) {
+                    Frame decoded = recorder.frames.get(i);
+                    assertEquals(frames[i].getFrameNumber(), decoded.getFrameNumber());
+                    if (format == FrameEncoder.Format.Orientation) {
+                        assertEquals(frames[i].getOrientationX(), decoded.getOrientationX());
+                        assertEquals(frames[i].getOrientationZ(), decoded.getOrientationZ());
+                        continue;
+                    }
+                    if (format == FrameEncoder.Format.Compact) {
+                        assertEquals(frames[i].getFingerY(Frame.INDEX), decoded.getFingerY(Frame.INDEX));
+                        assertEquals(frames[i].getAccelerometerZ(), decoded.getAccelerometerZ());
+                        assertEquals(0, decoded.getVoltage());
+                        continue;
+                    }
+                    assertArrayEquals(bytes(frames[i]), bytes(decoded));
+                    if (format == FrameEncoder.Format.Extended)
+                        assertEquals(frames[i].getWideAccelerometerX(), decoded.getWideAccelerometerX());
+                    if (format == FrameEncoder.Format.Multiplexed)
+                        assertEquals((i + 1) * 1000L, (long)recorder.times.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void viewReadsTheChannels() throws Exception {
+        Frame frame = randomFrames(7, 1, 2)[0];
+        frame.setMagnetometer(-2048, 2047, -5);
+        ByteBuffer buffer = ByteBuffer.allocate(Frame.FRAME_SIZE);
+        frame.writeTo(buffer);
+        FrameView view = new FrameView();
+        view.wrap(buffer, 0);
+
+        assertEquals(7, view.getFrameNumber());
+        assertEquals(frame.getFingerX(Frame.THUMB), view.getFingerX(Frame.THUMB));
+        assertEquals(frame.getFingerZ(Frame.PINKY), view.getFingerZ(Frame.PINKY));
+        assertEquals(frame.getAccelerometerY(), view.getAccelerometerY());
+        assertEquals(frame.getVoltage(), view.getVoltage());
+        assertEquals(-2048, view.getMagnetometerValueX());
+        assertEquals(2047, view.getMagnetometerValueY());
+        assertEquals(-5, view.getMagnetometerValueZ());
+        assertFalse(view.hasWideAccelerometer());
+        assertEquals(FrameView.UNKNOWN_TIME, view.getSampleTime());
+    }
+
+    @Test
+    public void countsGapsAcrossTheWrapAround() throws Exception {
+        FrameFormatEncoder encoder = new FrameFormatEncoder();
+        encoder.setFormat(FrameEncoder.Format.Multiplexed, FrameCodec.ALL_CHANNELS);
+        Frame[] frames = randomFrames(250, 12, 3);
+        ByteBuffer stream = ByteBuffer.allocate(frames.length * 2 * MultiplexCodec.SIZE);
+        // 250 to 255 and 0, 1 and 2 lost, 3 to 5, then a replay of 4 and 5
+        for (int i = 0; i < 7; i++)
+            encoder.encode(frames[i], stream);
+        for (int i = 9; i < 12; i++)
+            encoder.encode(frames[i], stream);
+        encoder.encode(frames[10], stream);
+        encoder.encode(frames[11], stream);
+        stream.flip();
+
+        Recorder recorder = new Recorder();
+        StreamDecoder decoder = new StreamDecoder(recorder);
+        decoder.setFormat(FrameEncoder.Format.Multiplexed, FrameCodec.ALL_CHANNELS);
+        decoder.decode(stream);
+
+        assertEquals(12, recorder.frames.size());
+        assertEquals(1, recorder.gaps.size());
+        assertEquals(2, (int)recorder.gaps.get(0));
+        assertEquals(2, decoder.getMissed());
+        // The replay goes back once and continues from there
+        assertEquals(1, decoder.getRepeated());
+        // And one more lost
+        stream.clear();
+        encoder.encode(randomFrames(7, 1, 4)[0], stream);
+        stream.flip();
+        decoder.decode(stream);
+        assertEquals(3, decoder.getMissed());
+    }
+
+    @Test
+    public void separatesMessagesFromFrames() throws Exception {
+        FrameFormatEncoder encoder = new FrameFormatEncoder();
+        encoder.setFormat(FrameEncoder.Format.Delta, FrameCodec.ALL_CHANNELS);
+        encoder.setTimestampTrailer(true);
+        Frame[] frames = randomFrames(0, 4, 5);
+        ByteBuffer stream = ByteBuffer.allocate(1024);
+        encoder.encode(frames[0], stream);
+        message(stream, 'L', "sent=1");
+        encoder.encode(frames[1], stream);
+        // Noise is skipped up to the next frame
+        stream.put((byte)0x13);
+        encoder.encode(frames[2], stream);
+        message(stream, CommandProtocol.MESSAGE_RESPONSE, "");
+        encoder.encode(frames[3], stream);
+        stream.flip();
+
+        Recorder recorder = new Recorder();
+        StreamDecoder decoder = new StreamDecoder(recorder);
+        decoder.setFormat(FrameEncoder.Format.Delta, FrameCodec.ALL_CHANNELS);
+        decoder.setTimestampTrailer(true);
+        decoder.setStreaming(true);
+        feed(decoder, stream, 5);
+
+        assertEquals(4, recorder.frames.size());
+        for (int i = 0; i < frames.length; i++) {
+            assertArrayEquals(bytes(frames[i]), bytes(recorder.frames.get(i)));
+            assertEquals((i + 1) * 1000L, (long)recorder.times.get(i));
+        }
+        assertEquals(2, recorder.messages.size());
+        assertEquals("Lsent=1", recorder.messages.get(0));
+        assertEquals("K", recorder.messages.get(1));
+        assertEquals(1, decoder.getCorrupted());
+    }
+
+    @Test
+    public void fullFramesAreNeverReadAsMessages() throws Exception {
+        Frame frame = randomFrames(FrameWriter.MESSAGE_MARKER, 1, 6)[0];
+        ByteBuffer stream = ByteBuffer.allocate(64);
+        message(stream, 'K', "ok");
+        stream.flip();
+
+        Recorder recorder = new Recorder();
+        StreamDecoder decoder = new StreamDecoder(recorder);
+        decoder.decode(stream);
+        assertEquals(1, recorder.messages.size());
+
+        stream.clear();
+        frame.writeTo(stream);
+        stream.flip();
+        decoder.setStreaming(true);
+        decoder.decode(stream);
+        assertEquals(1, recorder.messages.size());
+        assertEquals(1, recorder.frames.size());
+        assertEquals(FrameWriter.MESSAGE_MARKER, recorder.frames.get(0).getFrameNumber() & 0xFF);
+    }
+
+    @Test
+    public void framingSeparatesMessagesFromFullAndCompactFrames() throws Exception {
+        // The third frame number equals the message marker
+        Frame[] frames = randomFrames(FrameWriter.MESSAGE_MARKER - 2, 4, 7);
+        for (FrameEncoder.Format format : new FrameEncoder.Format[] { FrameEncoder.Format.Full, FrameEncoder.Format.Compact }) {
+            FrameFormatEncoder encoder = new FrameFormatEncoder();
+            encoder.setFormat(format, COMPACT_CHANNELS);
+            encoder.setFraming(true);
+            ByteBuffer stream = ByteBuffer.allocate(1024);
+            encoder.encode(frames[0], stream);
+            message(stream, CommandProtocol.MESSAGE_RESPONSE, "ok");
+            encoder.encode(frames[1], stream);
+            encoder.encode(frames[2], stream);
+            // Noise is skipped up to the next marker
+            stream.put((byte)0x13);
+            message(stream, 'L', "sent=3");
+            encoder.encode(frames[3], stream);
+            stream.flip();
+
+            Recorder recorder = new Recorder();
+            StreamDecoder decoder = new StreamDecoder(recorder);
+            decoder.setFormat(format, COMPACT_CHANNELS);
+            decoder.setFraming(true);
+            decoder.setStreaming(true);
+            feed(decoder, stream, 3);
+
+            assertEquals(format.toString(), 4, recorder.frames.size());
+            for (int i = 0; i < frames.length; i++)
+                assertEquals(frames[i].getFrameNumber(), recorder.frames.get(i).getFrameNumber());
+            assertEquals(2, recorder.messages.size());
+            assertEquals("Kok", recorder.messages.get(0));
+            assertEquals("Lsent=3", recorder.messages.get(1));
+            assertEquals(1, decoder.getCorrupted());
+            assertEquals(0, decoder.getMissed());
+        }
+    }
+}
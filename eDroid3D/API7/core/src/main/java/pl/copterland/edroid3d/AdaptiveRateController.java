@@ -0,0 +1,158 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Picks the frame rate and averaging window of a client within the bounds
+// the host set. The rate drops while the link backs up (halved on every
+// congested update, raised again step by step), while the battery is low
+// or hot and while the device lies still. A link limit grows the window,
+// so the sensors keep sampling as fast and every frame averages over the
+// same time. A power limit keeps the window and slows the sensors down.
+public class AdaptiveRateController {
+    public final static long PERIOD = 500000000L;
+    public final static int LOW_BATTERY = 20;
+    public final static int CRITICAL_BATTERY = 10;
+    // Battery temperature in tenths of a degree Celsius
+    public final static int HOT_BATTERY = 450;
+    // Mean change of the accelerometer between samples, in frame units
+    public final static float STILL_ACTIVITY = 1.0f;
+    public final static int UNKNOWN = -1;
+
+    // Why the rate is below the upper bound, sent to the host
+    public final static int REASON_LINK = 1;
+    public final static int REASON_BATTERY = 1 << 1;
+    public final static int REASON_THERMAL = 1 << 2;
+    public final static int REASON_MOTION = 1 << 3;
+
+    private int minRate = 1;
+    private int maxRate = ClientSession.DEFAULT_RATE;
+    private int minWindow = ClientSession.DEFAULT_WINDOW;
+    private int maxWindow = ClientSession.DEFAULT_WINDOW;
+
+    private int linkLimit = Integer.MAX_VALUE;
+    private int rate = ClientSession.DEFAULT_RATE;
+    private int window = ClientSession.DEFAULT_WINDOW;
+    private int reasons = 0;
+    private long lastUpdate;
+    private boolean updated = false;
+
+    // The host rate and window are the upper and lower bound. New bounds
+    // start over from the upper bound.
+    public void setBounds(int minimumRate, int maximumRate, int minimumWindow, int maximumWindow)
+    {
+        minimumRate = Math.min(minimumRate, maximumRate);
+        maximumWindow = Math.max(minimumWindow, maximumWindow);
+        if (minimumRate == minRate && maximumRate == maxRate
+                && minimumWindow == minWindow && maximumWindow == maxWindow)
+            return;
+        minRate = minimumRate;
+        maxRate = maximumRate;
+        minWindow = minimumWindow;
+        maxWindow = maximumWindow;
+        reset();
+    }
+
+    public boolean isDue(long now)
+    {
+        return !updated || now - lastUpdate >= PERIOD;
+    }
+
+    // Returns whether the rate or window changed. Unknown battery level,
+    // temperature or activity do not limit the rate.
+    public boolean update(long now, boolean congested, int batteryPercent, boolean charging,
+                          int temperature, float activity)
+    {
+        lastUpdate = now;
+        updated = true;
+
+        if (congested)
+            linkLimit = Math.max(minRate, Math.min(linkLimit, rate) / 2);
+        else if (linkLimit < maxRate)
+            linkLimit = Math.min(maxRate, linkLimit + Math.max(1, maxRate / 10));
+        else
+            linkLimit = Integer.MAX_VALUE;
+
+        int powerLimit = maxRate;
+        int why = 0;
+        if (!charging && batteryPercent != UNKNOWN && batteryPercent <= CRITICAL_BATTERY) {
+            powerLimit = minRate;
+            why |= REASON_BATTERY;
+        } else if (!charging && batteryPercent != UNKNOWN && batteryPercent <= LOW_BATTERY) {
+            powerLimit = maxRate / 2;
+            why |= REASON_BATTERY;
+        }
+        if (temperature != UNKNOWN && temperature >= HOT_BATTERY) {
+            powerLimit = Math.min(powerLimit, maxRate / 2);
+            why |= REASON_THERMAL;
+        }
+        if (activity >= 0 && activity < STILL_ACTIVITY) {
+            powerLimit = Math.min(powerLimit, maxRate / 4);
+            why |= REASON_MOTION;
+        }
+        powerLimit = Math.max(minRate, powerLimit);
+
+        int nextRate = powerLimit;
+        int nextWindow = minWindow;
+        if (linkLimit < powerLimit) {
+            nextRate = linkLimit;
+            why |= REASON_LINK;
+            nextWindow = (int)Math.min(maxWindow, ((long)minWindow * powerLimit + nextRate - 1) / nextRate);
+        }
+
+        boolean changed = nextRate != rate || nextWindow != window;
+        rate = nextRate;
+        window = nextWindow;
+        reasons = why;
+        return changed;
+    }
+
+    public void reset()
+    {
+        linkLimit = Integer.MAX_VALUE;
+        rate = maxRate;
+        window = minWindow;
+        reasons = 0;
+        updated = false;
+    }
+
+    public int getRate()
+    {
+        return rate;
+    }
+
+    public int getWindow()
+    {
+        return window;
+    }
+
+    public int getReasons()
+    {
+        return reasons;
+    }
+}
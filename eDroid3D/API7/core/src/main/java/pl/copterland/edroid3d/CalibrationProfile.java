@@ -0,0 +1,261 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Properties;
+
+// Named scaling and correction settings of both sensors, stored as a
+// properties file so profiles can be edited and used by host tools:
+//   name=desk
+//   magnetometer.mode=Fixed
+//   magnetometer.range=100.0
+//   magnetometer.output=127
+//   magnetometer.decay=0.001
+//   magnetometer.offset=12.5,-3.0,40.1
+//   magnetometer.matrix=1,0,0,0,1,0,0,0,1
+public class CalibrationProfile {
+    // +-2 g in m/s^2 and the earth field with headroom in uT
+    public final static float DEFAULT_ACCELEROMETER_RANGE = 19.6f;
+    public final static float DEFAULT_MAGNETOMETER_RANGE = 100f;
+    public final static int DEFAULT_OUTPUT_RANGE = 127;
+    public final static float DEFAULT_DECAY = 0.001f;
+
+    public static class Sensor {
+        private SensorCalibration.Mode mode = SensorCalibration.Mode.Fixed;
+        private float range;
+        private int outputRange = DEFAULT_OUTPUT_RANGE;
+        private float decay = DEFAULT_DECAY;
+        private final float[] offset = new float[3];
+        private final float[] matrix = { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+
+        public Sensor(float fixedRange)
+        {
+            range = fixedRange;
+        }
+
+        public Sensor(Sensor other)
+        {
+            set(other);
+        }
+
+        public void set(Sensor other)
+        {
+            mode = other.mode;
+            range = other.range;
+            outputRange = other.outputRange;
+            decay = other.decay;
+            System.arraycopy(other.offset, 0, offset, 0, 3);
+            System.arraycopy(other.matrix, 0, matrix, 0, 9);
+        }
+
+        public SensorCalibration.Mode getMode()
+        {
+            return mode;
+        }
+
+        public void setMode(SensorCalibration.Mode calibrationMode)
+        {
+            mode = calibrationMode;
+        }
+
+        // Fixed mode: the physical value mapped to the output range. Adaptive
+        // mode: the smallest range the scale may shrink to.
+        public float getRange()
+        {
+            return range;
+        }
+
+        public void setRange(float physicalRange)
+        {
+            if (!(physicalRange > 0))
+                throw new IllegalArgumentException("Range must be positive: " + physicalRange);
+            range = physicalRange;
+        }
+
+        public int getOutputRange()
+        {
+            return outputRange;
+        }
+
+        public void setOutputRange(int range)
+        {
+            if (range <= 0)
+                throw new IllegalArgumentException("Output range must be positive: " + range);
+            outputRange = range;
+        }
+
+        // Adaptive mode: share of the distance to the sample the per axis
+        // extremes move back by on every sample
+        public float getDecay()
+        {
+            return decay;
+        }
+
+        public void setDecay(float adaptiveDecay)
+        {
+            if (adaptiveDecay < 0 || adaptiveDecay >= 1)
+                throw new IllegalArgumentException("Decay out of [0, 1): " + adaptiveDecay);
+            decay = adaptiveDecay;
+        }
+
+        // Subtracted before the matrix is applied, the hard iron offset of a
+        // magnetometer or the bias of an accelerometer
+        public float getOffset(int axis)
+        {
+            return offset[axis];
+        }
+
+        public void setOffset(float x, float y, float z)
+        {
+            offset[0] = x;
+            offset[1] = y;
+            offset[2] = z;
+        }
+
+        // Row major 3x3 correction, the soft iron matrix of a magnetometer
+        public float getMatrix(int row, int column)
+        {
+            return matrix[row * 3 + column];
+        }
+
+        public void setMatrix(float[] rowMajor)
+        {
+            if (rowMajor.length != 9)
+                throw new IllegalArgumentException("Matrix needs 9 values");
+            System.arraycopy(rowMajor, 0, matrix, 0, 9);
+        }
+
+        private void store(Properties properties, String prefix)
+        {
+            properties.setProperty(prefix + "mode", mode.name());
+            properties.setProperty(prefix + "range", Float.toString(range));
+            properties.setProperty(prefix + "output", Integer.toString(outputRange));
+            properties.setProperty(prefix + "decay", Float.toString(decay));
+            properties.setProperty(prefix + "offset", join(offset));
+            properties.setProperty(prefix + "matrix", join(matrix));
+        }
+
+        private void load(Properties properties, String prefix) throws IOException
+        {
+            try {
+                String value = properties.getProperty(prefix + "mode");
+                if (value != null)
+                    setMode(SensorCalibration.Mode.valueOf(value));
+                value = properties.getProperty(prefix + "range");
+                if (value != null)
+                    setRange(Float.parseFloat(value));
+                value = properties.getProperty(prefix + "output");
+                if (value != null)
+                    setOutputRange(Integer.parseInt(value));
+                value = properties.getProperty(prefix + "decay");
+                if (value != null)
+                    setDecay(Float.parseFloat(value));
+                value = properties.getProperty(prefix + "offset");
+                if (value != null) {
+                    float[] values = split(value, 3);
+                    setOffset(values[0], values[1], values[2]);
+                }
+                value = properties.getProperty(prefix + "matrix");
+                if (value != null)
+                    setMatrix(split(value, 9));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(prefix + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private final String name;
+    private final Sensor accelerometer = new Sensor(DEFAULT_ACCELEROMETER_RANGE);
+    private final Sensor magnetometer = new Sensor(DEFAULT_MAGNETOMETER_RANGE);
+
+    public CalibrationProfile(String profileName)
+    {
+        name = profileName;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public Sensor getAccelerometer()
+    {
+        return accelerometer;
+    }
+
+    public Sensor getMagnetometer()
+    {
+        return magnetometer;
+    }
+
+    public void store(Writer output) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty("name", name);
+        accelerometer.store(properties, "accelerometer.");
+        magnetometer.store(properties, "magnetometer.");
+        properties.store(output, "eDroid3D calibration");
+    }
+
+    // Settings missing from the input keep their defaults
+    public static CalibrationProfile load(Reader input) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.load(input);
+        CalibrationProfile profile = new CalibrationProfile(properties.getProperty("name", "default"));
+        profile.accelerometer.load(properties, "accelerometer.");
+        profile.magnetometer.load(properties, "magnetometer.");
+        return profile;
+    }
+
+    private static String join(float[] values)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append(values[i]);
+        }
+        return builder.toString();
+    }
+
+    private static float[] split(String value, int count)
+    {
+        String[] fields = value.split(",");
+        if (fields.length != count)
+            throw new IllegalArgumentException("expected " + count + " values: " + value);
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++)
+            values[i] = Float.parseFloat(fields[i].trim());
+        return values;
+    }
+}
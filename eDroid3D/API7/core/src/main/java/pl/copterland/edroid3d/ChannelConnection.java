@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+
+// Connection over a blocking NIO channel. The streams copy through
+// preallocated direct buffers, so reading and writing never allocate and
+// a blocked reader never holds up the writer.
+public class ChannelConnection implements Transport.Connection {
+    protected final ByteChannel channel;
+    private final String name;
+    private final ByteBuffer readBuffer;
+    protected final ByteBuffer writeBuffer;
+
+    private final InputStream inStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            synchronized (readBuffer) {
+                if (!readBuffer.hasRemaining()) {
+                    readBuffer.clear();
+                    int bytes = channel.read(readBuffer);
+                    readBuffer.flip();
+                    if (bytes < 0)
+                        return -1;
+                }
+                int count = Math.min(len, readBuffer.remaining());
+                readBuffer.get(b, off, count);
+                return count;
+            }
+        }
+    };
+
+    private final OutputStream outStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (writeBuffer) {
+                send(b, off, len);
+            }
+        }
+    };
+
+    public ChannelConnection(ByteChannel byteChannel, String connectionName, int bufferSize)
+    {
+        channel = byteChannel;
+        name = connectionName;
+        readBuffer = ByteBuffer.allocateDirect(bufferSize);
+        readBuffer.flip();
+        writeBuffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    // Writes the bytes to the channel, called with the write buffer locked
+    protected void send(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0) {
+            int count = Math.min(len, writeBuffer.capacity());
+            writeBuffer.clear();
+            writeBuffer.put(b, off, count);
+            writeBuffer.flip();
+            while (writeBuffer.hasRemaining())
+                channel.write(writeBuffer);
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outStream;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,911 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Per client stream settings and metrics. Commands arrive on the worker
+// thread, the settings are picked up by FrameFanout on the sending thread.
+// Binary requests map onto the same commands, see CommandProtocol.
+public class ClientSession implements CommandHandler {
+    public interface Listener {
+        void onSessionStatus(ClientSession session, String message);
+    }
+
+    public interface Resumer {
+        // Returns the session the reconnecting client wants to continue,
+        // null when it is unknown or expired
+        ClientSession onResume(ClientSession session, int previousId);
+    }
+
+    public final static int DEFAULT_RATE = 10;
+    public final static int DEFAULT_WINDOW = 2;
+    // Change driven sending, deadbands are in units of the calibrated output
+    public final static int DEFAULT_DEADBAND = 2;
+    public final static int DEFAULT_HEARTBEAT_MS = 1000;
+    public final static int ALL_CHANNELS = 0xFF;
+    // Message type of the statistics sent on request, see FrameWriter
+    public final static int MESSAGE_STATS = 'L';
+    // Message type of the stats frame, see Metrics
+    public final static int MESSAGE_METRICS = 'G';
+    // Rate and window an adaptive session changed to:
+    // [rate u16] [window u16] [reasons], see AdaptiveRateController.
+    // Not sent in Full and Compact streams without framing.
+    public final static int MESSAGE_ADAPTATION = 'A';
+    public final static int DEFAULT_MIN_RATE = 1;
+    // Frames kept for a client that reconnects, as many as its queue holds
+    public final static int REPLAY_CAPACITY = 32;
+
+    private final int id;
+    private final WorkerThread worker;
+    private final Listener listener;
+    private final int compactChannels;
+    private final long connectedAt;
+
+    private volatile boolean running = false;
+    private volatile int rate = DEFAULT_RATE;
+    private volatile int window = DEFAULT_WINDOW;
+    private volatile SmoothingEngine.Type filterType = SmoothingEngine.Type.MovingAverage;
+    private volatile FrameFanout.SendMode sendMode = FrameFanout.SendMode.Periodic;
+    // Accelerometer xyz and magnetometer xyz, like the smoothed sample
+    private final AtomicIntegerArray deadbands = new AtomicIntegerArray(FramePipeline.CHANNELS);
+    private volatile long heartbeat = DEFAULT_HEARTBEAT_MS * 1000000L;
+    // Sampling rate overrides per sensor, 0 derives the rate
+    private final AtomicIntegerArray sensorRates = new AtomicIntegerArray(SampleRing.SENSORS);
+    private volatile Resumer resumer;
+    // Orders the frames of this device and the hub peers, Multiplexed only
+    private volatile SourceMerger merger;
+    private volatile boolean adaptive = false;
+    private volatile int minRate = DEFAULT_MIN_RATE;
+    // 0 keeps the window the host set
+    private volatile int maxWindow = 0;
+    private volatile int adaptedRate = DEFAULT_RATE;
+    private volatile int adaptedWindow = DEFAULT_WINDOW;
+
+    // Owned by the sending thread
+    SmoothingGroup group;
+    long nextDeadline;
+    boolean wasRunning = false;
+    long lastSentAt;
+    private final int[] lastSent = new int[FramePipeline.CHANNELS];
+    // Sample time of the frames in flight, indexed by frame number
+    private final AtomicLongArray sampleTimestamps = new AtomicLongArray(256);
+    // Last frames sent, oldest first from replayNext - replayCount. The
+    // numbering, the buffer and takenOver are guarded by the buffer.
+    private final Frame[] replay = new Frame[REPLAY_CAPACITY];
+    private int replayNext = 0;
+    private int replayCount = 0;
+    private byte frameNumber = 0;
+    // Set once a resumed session continues this one, no frames follow
+    private boolean takenOver = false;
+    private final Frame merged = new Frame();
+    private final AdaptiveRateController adaptation = new AdaptiveRateController();
+    private boolean wasAdaptive = false;
+    private long lastDropped;
+
+    private volatile long framesSent = 0;
+    private volatile long framesDropped = 0;
+    private volatile long framesSuppressed = 0;
+    private long lastBytes = 0;
+    private long lastMetricsTime;
+
+    public ClientSession(int sessionId, WorkerThread clientWorker, Listener sessionListener, int compactChannelMask)
+    {
+        id = sessionId;
+        worker = clientWorker;
+        listener = sessionListener;
+        compactChannels = compactChannelMask;
+        connectedAt = lastMetricsTime = System.nanoTime();
+        for (int i = 0; i < deadbands.length(); i++)
+            deadbands.set(i, DEFAULT_DEADBAND);
+        for (int i = 0; i < replay.length; i++)
+            replay[i] = new Frame();
+    }
+
+    public void setResumer(Resumer sessionResumer)
+    {
+        resumer = sessionResumer;
+    }
+
+    public int getId()
+    {
+        return id;
+    }
+
+    public WorkerThread getWorker()
+    {
+        return worker;
+    }
+
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    public int getRate()
+    {
+        return rate;
+    }
+
+    public int getWindow()
+    {
+        return window;
+    }
+
+    public boolean isAdaptive()
+    {
+        return adaptive;
+    }
+
+    // Rate the frames are sent at, below the host rate while adapting
+    public int getEffectiveRate()
+    {
+        return adaptive ? adaptedRate : rate;
+    }
+
+    // Samples averaged per frame, above the host window while adapting
+    public int getEffectiveWindow()
+    {
+        return adaptive ? adaptedWindow : window;
+    }
+
+    public SmoothingEngine.Type getFilterType()
+    {
+        return filterType;
+    }
+
+    public FrameFanout.SendMode getSendMode()
+    {
+        return sendMode;
+    }
+
+    public int getDeadband(int channel)
+    {
+        return deadbands.get(channel);
+    }
+
+    public int getSensorRate(int sensor)
+    {
+        return sensorRates.get(sensor);
+    }
+
+    // Longest time without a frame in OnChange mode, in nanoseconds
+    public long getHeartbeat()
+    {
+        return heartbeat;
+    }
+
+    public FrameEncoder.Format getFrameFormat()
+    {
+        return worker.getFrameFormat();
+    }
+
+    // Copies the shared frame into a pooled frame of this client and queues
+    // it. In the multiplexed stream it waits for the frames of the peers.
+    void send(Frame frame)
+    {
+        SourceMerger current = merger;
+        if (current != null) {
+            current.offer(FrameHub.LOCAL_SOURCE, frame, System.nanoTime());
+            return;
+        }
+        queue(frame);
+    }
+
+    private void queue(Frame frame)
+    {
+        synchronized (replay) {
+            if (takenOver)
+                return;
+            Frame pooled = worker.obtainFrame();
+            if (pooled == null) {
+                framesDropped++;
+                Metrics.FRAMES_DROPPED.increment();
+                return;
+            }
+            pooled.copyFrom(frame);
+            sampleTimestamps.lazySet(frameNumber & 0xFF, frame.getTimestamp());
+            pooled.setFrameNumber(frameNumber++);
+            keepForReplay(pooled);
+            worker.send(pooled);
+            framesSent++;
+        }
+    }
+
+    // Frame of a hub peer, called on the thread reading the peer
+    void offerPeerFrame(int source, Frame frame, long now)
+    {
+        SourceMerger current = merger;
+        if (current != null && running)
+            current.offer(source, frame, now);
+    }
+
+    // Queues the merged frames that are due, on the sending thread
+    void releaseMerged(long now)
+    {
+        SourceMerger current = merger;
+        if (current == null)
+            return;
+        while (current.poll(now, merged))
+            queue(merged);
+    }
+
+    public SourceMerger getMerger()
+    {
+        return merger;
+    }
+
+    // Follows the link, battery and motion of an adaptive session, on the
+    // sending thread. Every change is sent to the host with the next frames,
+    // as long as the stream lets messages through, see WorkerThread.isDelimited().
+    void adapt(long now, int batteryPercent, boolean charging, int temperature, float activity)
+    {
+        if (!adaptive) {
+            wasAdaptive = false;
+            return;
+        }
+        if (!wasAdaptive) {
+            adaptation.reset();
+            lastDropped = getFramesDropped();
+            wasAdaptive = true;
+        }
+        adaptation.setBounds(minRate, rate, window, maxWindow);
+        if (!adaptation.isDue(now))
+            return;
+
+        // Backpressure: frames dropped or the queue half full since the last update
+        long dropped = getFramesDropped();
+        FrameQueue queue = worker.getQueue();
+        boolean congested = dropped != lastDropped || queue.size() > queue.capacity() / 2;
+        lastDropped = dropped;
+        boolean changed = adaptation.update(now, congested, batteryPercent, charging, temperature, activity);
+        int nextRate = adaptation.getRate();
+        int nextWindow = adaptation.getWindow();
+        adaptedRate = nextRate;
+        adaptedWindow = nextWindow;
+        if (!changed)
+            return;
+
+        int reasons = adaptation.getReasons();
+        boolean notify = worker.isDelimited();
+        if (notify) {
+            worker.postMessage(MESSAGE_ADAPTATION, new byte[] {
+                    (byte)nextRate, (byte)(nextRate >> 8), (byte)nextWindow, (byte)(nextWindow >> 8), (byte)reasons });
+        }
+        status("Adapted to " + nextRate + " per second, " + nextWindow + " samples"
+                + (reasons == 0 ? "" : ", limited by" + describe(reasons))
+                + (notify ? "" : ", not sent to the host without framing"));
+    }
+
+    private static String describe(int reasons)
+    {
+        StringBuilder text = new StringBuilder();
+        if ((reasons & AdaptiveRateController.REASON_LINK) != 0)
+            text.append(" link");
+        if ((reasons & AdaptiveRateController.REASON_BATTERY) != 0)
+            text.append(" battery");
+        if ((reasons & AdaptiveRateController.REASON_THERMAL) != 0)
+            text.append(" temperature");
+        if ((reasons & AdaptiveRateController.REASON_MOTION) != 0)
+            text.append(" motion");
+        return text.toString();
+    }
+
+    private void applyFrameFormat(FrameEncoder.Format format)
+    {
+        worker.setFrameFormat(format, compactChannels);
+        if (format != FrameEncoder.Format.Multiplexed)
+            merger = null;
+        else if (merger == null)
+            merger = new SourceMerger();
+    }
+
+    // Called with the replay buffer held
+    private void keepForReplay(Frame frame)
+    {
+        replay[replayNext].copyFrom(frame);
+        replayNext = (replayNext + 1) % REPLAY_CAPACITY;
+        if (replayCount < REPLAY_CAPACITY)
+            replayCount++;
+    }
+
+    // Position in the replay buffer of the first frame after the given
+    // number. When that frame is no longer kept everything is replayed.
+    private int replayStart(int lastFrameNumber)
+    {
+        int start = replayNext - replayCount + REPLAY_CAPACITY;
+        for (int i = 0; i < replayCount; i++) {
+            if ((replay[(start + i) % REPLAY_CAPACITY].getFrameNumber() & 0xFF) == lastFrameNumber)
+                return i + 1;
+        }
+        return 0;
+    }
+
+    // Number of frames the client missed after the last one it received
+    public int getReplayCount(int lastFrameNumber)
+    {
+        synchronized (replay) {
+            return replayCount - replayStart(lastFrameNumber);
+        }
+    }
+
+    // Continues a session whose client reconnected: the frames the client
+    // missed are queued again and the settings and numbering carry over.
+    // The previous session stops sending when taken over, even if the
+    // sending thread still serves it. The response reports the frames that
+    // got a pooled frame and goes out before them.
+    private void resumeFrom(int requestId, ClientSession previous, int lastFrameNumber)
+    {
+        // Settings first, the replayed frames are encoded in the format of
+        // the previous session
+        applyFrameFormat(previous.getFrameFormat());
+        worker.setTimestampTrailer(previous.worker.hasTimestampTrailer());
+        worker.setFraming(previous.worker.hasFraming());
+        FrameQueue previousQueue = previous.worker.getQueue();
+        worker.setQueuePolicy(previousQueue.getPolicy(), previousQueue.getBatchSize());
+        rate = previous.rate;
+        window = previous.window;
+        filterType = previous.filterType;
+        sendMode = previous.sendMode;
+        heartbeat = previous.heartbeat;
+        adaptive = previous.adaptive;
+        minRate = previous.minRate;
+        maxWindow = previous.maxWindow;
+        for (int i = 0; i < deadbands.length(); i++)
+            deadbands.set(i, previous.deadbands.get(i));
+        for (int i = 0; i < sensorRates.length(); i++)
+            sensorRates.set(i, previous.sensorRates.get(i));
+        for (int i = 0; i < sampleTimestamps.length(); i++)
+            sampleTimestamps.set(i, previous.sampleTimestamps.get(i));
+
+        Frame[] pending = new Frame[REPLAY_CAPACITY];
+        int replayed = 0;
+        synchronized (previous.replay) {
+            previous.takenOver = true;
+            synchronized (replay) {
+                frameNumber = previous.frameNumber;
+                int start = previous.replayNext - previous.replayCount + REPLAY_CAPACITY;
+                for (int i = previous.replayStart(lastFrameNumber); i < previous.replayCount; i++) {
+                    Frame pooled = worker.obtainFrame();
+                    if (pooled == null) {
+                        framesDropped += previous.replayCount - i;
+                        Metrics.FRAMES_DROPPED.add(previous.replayCount - i);
+                        break;
+                    }
+                    pooled.copyFrom(previous.replay[(start + i) % REPLAY_CAPACITY]);
+                    keepForReplay(pooled);
+                    pending[replayed++] = pooled;
+                }
+            }
+        }
+
+        respond(requestId, CommandProtocol.RESUME, CommandProtocol.STATUS_OK, new byte[] {
+                (byte)id, (byte)(id >> 8), (byte)replayed });
+        for (int i = 0; i < replayed; i++)
+            worker.send(pending[i]);
+        // Published last, the sending thread picks the session up after it
+        running = previous.running;
+        status("Resumed session " + previous.id + ", replayed " + replayed + " frames");
+    }
+
+    // Whether a smoothed channel moved past its deadband since the last frame
+    boolean exceedsDeadband(int[] smoothed)
+    {
+        for (int c = 0; c < lastSent.length; c++) {
+            if (Math.abs(smoothed[c] - lastSent[c]) > deadbands.get(c))
+                return true;
+        }
+        return false;
+    }
+
+    void markSent(int[] smoothed, long now)
+    {
+        System.arraycopy(smoothed, 0, lastSent, 0, lastSent.length);
+        lastSentAt = now;
+    }
+
+    // A fresh update that stayed within the deadbands
+    void suppressed()
+    {
+        framesSuppressed++;
+    }
+
+    public long getFramesSuppressed()
+    {
+        return framesSuppressed;
+    }
+
+    // Share of the updates in OnChange mode that were not sent
+    public double getSuppressionRatio()
+    {
+        long suppressed = framesSuppressed;
+        long total = suppressed + framesSent;
+        return total == 0 ? 0 : (double)suppressed / total;
+    }
+
+    // Time of the newest sample in the last frame sent with this number
+    public long getSampleTimestamp(byte number)
+    {
+        return sampleTimestamps.get(number & 0xFF);
+    }
+
+    public long getFramesSent()
+    {
+        return framesSent;
+    }
+
+    // Frames dropped because the client did not keep up
+    public long getFramesDropped()
+    {
+        return framesDropped + worker.getQueue().getDropped();
+    }
+
+    public long getBytesSent()
+    {
+        return worker.getWriter().getBytesSent();
+    }
+
+    // Bytes per second since the previous call
+    public synchronized double sampleThroughput()
+    {
+        long now = System.nanoTime();
+        long bytes = getBytesSent();
+        double throughput = now == lastMetricsTime ? 0 : (bytes - lastBytes) * 1e9 / (now - lastMetricsTime);
+        lastBytes = bytes;
+        lastMetricsTime = now;
+        return throughput;
+    }
+
+    public String getSummary()
+    {
+        double seconds = (System.nanoTime() - connectedAt) / 1e9;
+        return String.format("sent %d frames, %d B (%.0f B/s), dropped %d, suppressed %d (%.0f%%)",
+                getFramesSent(), getBytesSent(), getBytesSent() / seconds, getFramesDropped(),
+                getFramesSuppressed(), getSuppressionRatio() * 100);
+    }
+
+    private void status(String message)
+    {
+        listener.onSessionStatus(this, message);
+    }
+
+    @Override
+    public void onStreamStart() {
+        if (!running) {
+            running = true;
+            status("Started");
+        }
+    }
+
+    @Override
+    public void onStreamStop() {
+        if (running) {
+            running = false;
+            // Frames short of a batch are not held back
+            worker.getQueue().flush();
+            status("Stopped, " + getSummary() + ", latency "
+                    + worker.getLatency().get(FrameLatency.Stage.Total).summary());
+        }
+    }
+
+    @Override
+    public void onAverageWindow(int samples) {
+        if (window != samples) {
+            window = samples;
+            status("Averaged samples: " + samples);
+        }
+    }
+
+    @Override
+    public void onFilter(SmoothingEngine.Type type) {
+        if (filterType != type) {
+            filterType = type;
+            status("Filter: " + type);
+        }
+    }
+
+    @Override
+    public void onSampleRate(int samplesPerSecond) {
+        if (rate != samplesPerSecond) {
+            rate = samplesPerSecond;
+            status("Samples per second: " + samplesPerSecond);
+        }
+    }
+
+    @Override
+    public void onFrameFormat(FrameEncoder.Format format) {
+        applyFrameFormat(format);
+        status("Frame format: " + format);
+    }
+
+    @Override
+    public void onSendMode(FrameFanout.SendMode mode) {
+        if (sendMode != mode) {
+            sendMode = mode;
+            status("Send mode: " + mode);
+        }
+    }
+
+    @Override
+    public void onDeadband(int channel, int threshold) {
+        if (channel == ALL_CHANNELS) {
+            for (int i = 0; i < deadbands.length(); i++)
+                deadbands.set(i, threshold);
+        } else if (channel < deadbands.length()) {
+            deadbands.set(channel, threshold);
+        } else {
+            status("Invalid deadband channel: " + channel);
+            return;
+        }
+        status("Deadband " + (channel == ALL_CHANNELS ? "all" : Integer.toString(channel)) + ": " + threshold);
+    }
+
+    @Override
+    public void onHeartbeat(int millis) {
+        heartbeat = millis == 0 ? Long.MAX_VALUE : millis * 1000000L;
+        status("Heartbeat: " + (millis == 0 ? "off" : millis + " ms"));
+    }
+
+    // Overrides the sampling rate of a sensor, 0 derives it from the
+    // frame rate and window again
+    public void setSensorRate(int sensor, int samplesPerSecond)
+    {
+        sensorRates.set(sensor, samplesPerSecond);
+        status("Sensor " + sensor + " rate: " + (samplesPerSecond == 0 ? "auto" : samplesPerSecond + " Hz"));
+    }
+
+    @Override
+    public void onTimestampTrailer(boolean enabled) {
+        worker.setTimestampTrailer(enabled);
+        status("Timestamp trailer " + (enabled ? "on" : "off"));
+    }
+
+    @Override
+    public void onFraming(boolean enabled) {
+        worker.setFraming(enabled);
+        status("Framing " + (enabled ? "on" : "off"));
+    }
+
+    @Override
+    public void onAdaptiveRate(boolean enabled) {
+        if (adaptive != enabled) {
+            adaptedRate = rate;
+            adaptedWindow = window;
+            adaptive = enabled;
+            status("Adaptive rate " + (enabled ? "on" : "off"));
+        }
+    }
+
+    @Override
+    public void onStatsRequest() {
+        String stats = getSummary() + "\n" + worker.getLatency().summary();
+        sendMessage(MESSAGE_STATS, stats.getBytes(Charset.forName("US-ASCII")));
+    }
+
+    @Override
+    public void onMetricsRequest() {
+        sendMessage(MESSAGE_METRICS, Metrics.statsFrame());
+    }
+
+    @Override
+    public void onRequest(int version, int id, int opcode, byte[] payload, int offset, int length) {
+        if (version > CommandProtocol.VERSION) {
+            respond(id, opcode, CommandProtocol.STATUS_UNSUPPORTED_VERSION, capabilities());
+            return;
+        }
+
+        switch (opcode) {
+            case CommandProtocol.HELLO:
+                // A host that reads framed streams gets every response
+                if (length >= 2 && (payload[offset + 1] & CommandProtocol.FEATURE_FRAMING) != 0)
+                    onFraming(true);
+                respond(id, opcode, CommandProtocol.STATUS_OK, capabilities());
+                break;
+
+            case CommandProtocol.RESUME: {
+                if (length < 3) {
+                    respond(id, opcode, CommandProtocol.STATUS_INVALID_REQUEST, new byte[0]);
+                    break;
+                }
+                int previousId = (payload[offset] & 0xFF) | ((payload[offset + 1] & 0xFF) << 8);
+                int lastFrameNumber = payload[offset + 2] & 0xFF;
+                Resumer handler = resumer;
+                ClientSession previous = handler == null ? null : handler.onResume(this, previousId);
+                if (previous == null) {
+                    respond(id, opcode, CommandProtocol.STATUS_UNKNOWN_SESSION, new byte[0]);
+                    break;
+                }
+                resumeFrom(id, previous, lastFrameNumber);
+                break;
+            }
+
+            case CommandProtocol.SET: {
+                if (length < 5) {
+                    respond(id, opcode, CommandProtocol.STATUS_INVALID_REQUEST, new byte[0]);
+                    break;
+                }
+                int param = payload[offset] & 0xFF;
+                int value = CommandProtocol.getInt(payload, offset + 1);
+                if (param == CommandProtocol.PARAM_RUNNING && value == 1 && !running) {
+                    // Acknowledged ahead of the first frame, which it could
+                    // not be told apart from in Full and Compact streams
+                    respond(id, opcode, CommandProtocol.STATUS_OK, parameterData(param, 1));
+                    onStreamStart();
+                    break;
+                }
+                int status = setParameter(param, value);
+                respond(id, opcode, status, status == CommandProtocol.STATUS_UNKNOWN_PARAM
+                        ? new byte[0] : parameterValue(param));
+                break;
+            }
+
+            case CommandProtocol.GET: {
+                if (length < 1) {
+                    respond(id, opcode, CommandProtocol.STATUS_INVALID_REQUEST, new byte[0]);
+                    break;
+                }
+                int param = payload[offset] & 0xFF;
+                if (isParameter(param))
+                    respond(id, opcode, CommandProtocol.STATUS_OK, parameterValue(param));
+                else
+                    respond(id, opcode, CommandProtocol.STATUS_UNKNOWN_PARAM, new byte[0]);
+                break;
+            }
+
+            case CommandProtocol.STATS: {
+                LatencyHistogram latency = worker.getLatency().get(FrameLatency.Stage.Total);
+                byte[] stats = new byte[24];
+                CommandProtocol.putInt(stats, 0, (int)getFramesSent());
+                CommandProtocol.putInt(stats, 4, (int)getFramesDropped());
+                CommandProtocol.putInt(stats, 8, (int)getFramesSuppressed());
+                CommandProtocol.putInt(stats, 12, (int)getBytesSent());
+                CommandProtocol.putInt(stats, 16, (int)(latency.getPercentile(0.5) / 1000));
+                CommandProtocol.putInt(stats, 20, (int)(latency.getPercentile(0.99) / 1000));
+                respond(id, opcode, CommandProtocol.STATUS_OK, stats);
+                break;
+            }
+
+            case CommandProtocol.METRICS:
+                respond(id, opcode, CommandProtocol.STATUS_OK, Metrics.statsFrame());
+                break;
+
+            default:
+                respond(id, opcode, CommandProtocol.STATUS_UNKNOWN_OPCODE, new byte[0]);
+        }
+    }
+
+    private byte[] capabilities()
+    {
+        return new byte[] {
+                (byte)CommandProtocol.VERSION,
+                (byte)CommandProtocol.MAX_RATE, (byte)(CommandProtocol.MAX_RATE >> 8),
+                (byte)FramePipeline.MAX_WINDOW, (byte)(FramePipeline.MAX_WINDOW >> 8),
+                (byte)CommandProtocol.mask(FrameEncoder.Format.values()),
+                (byte)CommandProtocol.mask(SmoothingEngine.Type.values()),
+                (byte)CommandProtocol.mask(FrameFanout.SendMode.values()),
+                (byte)(CommandProtocol.FEATURE_TIMESTAMP_TRAILER | CommandProtocol.FEATURE_ORIENTATION
+                        | CommandProtocol.FEATURE_STATS_MESSAGE | CommandProtocol.FEATURE_RESUME
+                        | CommandProtocol.FEATURE_METRICS | CommandProtocol.FEATURE_ADAPTIVE_RATE
+                        | CommandProtocol.FEATURE_FRAMING),
+                (byte)id, (byte)(id >> 8) };
+    }
+
+    private boolean isParameter(int param)
+    {
+        if (param >= CommandProtocol.PARAM_SENSOR_RATE)
+            return param - CommandProtocol.PARAM_SENSOR_RATE < sensorRates.length();
+        if (param >= CommandProtocol.PARAM_DEADBAND)
+            return param - CommandProtocol.PARAM_DEADBAND < deadbands.length();
+        return param >= CommandProtocol.PARAM_RUNNING && param <= CommandProtocol.PARAM_BATCH_SIZE;
+    }
+
+    // [param] [value]
+    private byte[] parameterValue(int param)
+    {
+        int value;
+        switch (param) {
+            case CommandProtocol.PARAM_RUNNING:
+                value = running ? 1 : 0;
+                break;
+            case CommandProtocol.PARAM_RATE:
+                value = rate;
+                break;
+            case CommandProtocol.PARAM_WINDOW:
+                value = window;
+                break;
+            case CommandProtocol.PARAM_FILTER:
+                value = filterType.ordinal();
+                break;
+            case CommandProtocol.PARAM_FORMAT:
+                value = getFrameFormat().ordinal();
+                break;
+            case CommandProtocol.PARAM_SEND_MODE:
+                value = sendMode.ordinal();
+                break;
+            case CommandProtocol.PARAM_HEARTBEAT_MS:
+                value = heartbeat == Long.MAX_VALUE ? 0 : (int)(heartbeat / 1000000L);
+                break;
+            case CommandProtocol.PARAM_TIMESTAMP_TRAILER:
+                value = worker.hasTimestampTrailer() ? 1 : 0;
+                break;
+            case CommandProtocol.PARAM_ADAPTIVE:
+                value = adaptive ? 1 : 0;
+                break;
+            case CommandProtocol.PARAM_MIN_RATE:
+                value = minRate;
+                break;
+            case CommandProtocol.PARAM_MAX_WINDOW:
+                value = maxWindow;
+                break;
+            case CommandProtocol.PARAM_FRAMED:
+                value = worker.hasFraming() ? 1 : 0;
+                break;
+            case CommandProtocol.PARAM_QUEUE_POLICY:
+                value = worker.getQueue().getPolicy().ordinal();
+                break;
+            case CommandProtocol.PARAM_BATCH_SIZE:
+                value = worker.getQueue().getBatchSize();
+                break;
+            default:
+                if (param >= CommandProtocol.PARAM_SENSOR_RATE)
+                    value = sensorRates.get(param - CommandProtocol.PARAM_SENSOR_RATE);
+                else
+                    value = deadbands.get(param - CommandProtocol.PARAM_DEADBAND);
+        }
+        return parameterData(param, value);
+    }
+
+    private static byte[] parameterData(int param, int value)
+    {
+        byte[] data = new byte[5];
+        data[0] = (byte)param;
+        CommandProtocol.putInt(data, 1, value);
+        return data;
+    }
+
+    private int setParameter(int param, int value)
+    {
+        if (!isParameter(param))
+            return CommandProtocol.STATUS_UNKNOWN_PARAM;
+
+        switch (param) {
+            case CommandProtocol.PARAM_RUNNING:
+            case CommandProtocol.PARAM_TIMESTAMP_TRAILER:
+            case CommandProtocol.PARAM_ADAPTIVE:
+            case CommandProtocol.PARAM_FRAMED:
+                if (value != 0 && value != 1)
+                    return CommandProtocol.STATUS_INVALID_VALUE;
+                if (param == CommandProtocol.PARAM_TIMESTAMP_TRAILER)
+                    onTimestampTrailer(value == 1);
+                else if (param == CommandProtocol.PARAM_ADAPTIVE)
+                    onAdaptiveRate(value == 1);
+                else if (param == CommandProtocol.PARAM_FRAMED)
+                    onFraming(value == 1);
+                else if (value == 1)
+                    onStreamStart();
+                else
+                    onStreamStop();
+                break;
+            case CommandProtocol.PARAM_RATE:
+                if (value < 1 || value > CommandProtocol.MAX_RATE)
+                    return CommandProtocol.STATUS_INVALID_VALUE;
+                onSampleRate(value);
+                break;
+            case CommandProtocol.PARAM_WINDOW:
+                if (value < 1 || value > FramePipeline.MAX_WINDOW)
+                    return CommandProtocol.STATUS_INVALID_VALUE;
+                onAverageWindow(value);
+                break;
+            case CommandProtocol.PARAM_FILTER:
+                if (value < 0 || value >= SmoothingEngine.Type.values().length)
+                    return CommandProtocol.STATUS_INVALID_VALUE;
+                onFilter(SmoothingEngine.Type.values()[value]);
+                break;
+            case CommandProtocol.PARAM_FORMAT:
+                if (value < 0 || value >= FrameEncoder.Format.values().length)
+                    return CommandProtocol.STATUS_INVALID_VALUE;
+                onFrameFormat(FrameEncoder.Format.values()[value]);
+                break;
+            case CommandProtocol.PARAM_SEND_MODE:
+                if (value < 0 || value >= FrameFanout.SendMode.values().length)
+                    return CommandProtocol.STATUS_INVALID_VALUE;
+                onSendMode(FrameFanout.SendMode.values()[value]);
+                break;
+            case CommandProtocol.PARAM_HEARTBEAT_MS:
+                if (value < 0)
+                    return CommandProtocol.STATUS_INVALID_VALUE;
+                onHeartbeat(value);
+                break;
+            case CommandProtocol.PARAM_MIN_RATE:
+                if (value < 1 || value > CommandProtocol.MAX_RATE)
+                    return CommandProtocol.STATUS_INVALID_VALUE;
+                minRate = value;
+                status("Minimum rate: " + value);
+                break;
+            case CommandProtocol.PARAM_MAX_WINDOW:
+                if (value < 0 || value > FramePipeline.MAX_WINDOW)
+                    return CommandProtocol.STATUS_INVALID_VALUE;
+                maxWindow = value;
+                status("Maximum window: " + (value == 0 ? "host window" : Integer.toString(value)));
+                break;
+            case CommandProtocol.PARAM_QUEUE_POLICY:
+                if (value < 0 || value >= FrameQueue.Policy.values().length)
+                    return CommandProtocol.STATUS_INVALID_VALUE;
+                worker.setQueuePolicy(FrameQueue.Policy.values()[value], worker.getQueue().getBatchSize());
+                status("Queue policy: " + FrameQueue.Policy.values()[value]);
+                break;
+            case CommandProtocol.PARAM_BATCH_SIZE:
+                if (value < 1 || value > worker.getQueue().capacity())
+                    return CommandProtocol.STATUS_INVALID_VALUE;
+                worker.setQueuePolicy(worker.getQueue().getPolicy(), value);
+                status("Batch size: " + value);
+                break;
+            default:
+                if (value < 0)
+                    return CommandProtocol.STATUS_INVALID_VALUE;
+                if (param >= CommandProtocol.PARAM_SENSOR_RATE) {
+                    if (value > SensorRateController.MAX_RATE)
+                        return CommandProtocol.STATUS_INVALID_VALUE;
+                    setSensorRate(param - CommandProtocol.PARAM_SENSOR_RATE, value);
+                } else {
+                    onDeadband(param - CommandProtocol.PARAM_DEADBAND, value);
+                }
+        }
+        return CommandProtocol.STATUS_OK;
+    }
+
+    private void respond(int id, int opcode, int status, byte[] data)
+    {
+        byte[] response = new byte[4 + data.length];
+        response[0] = (byte)CommandProtocol.VERSION;
+        response[1] = (byte)id;
+        response[2] = (byte)opcode;
+        response[3] = (byte)status;
+        System.arraycopy(data, 0, response, 4, data.length);
+        sendMessage(CommandProtocol.MESSAGE_RESPONSE, response);
+    }
+
+    // Messages would be read as frame data in a running stream of frames
+    // without a marker, they are dropped there, see CommandProtocol
+    private void sendMessage(int type, byte[] payload)
+    {
+        if (running && !worker.isDelimited()) {
+            status("Message '" + (char)type + "' dropped, turn framing on to get it while streaming");
+            return;
+        }
+        worker.sendMessage(type, payload);
+    }
+
+    @Override
+    public void onUnsupported(int command) {
+        status("Unsupported: \'" + (char)command + "\'");
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+// Streaming decoder of host commands. Bytes can arrive in any chunking, only
+// the valid part of the read buffer is consumed and nothing is allocated.
+// Most commands are a single character, a few are followed by raw
+// argument bytes:
+//
+//   W [channel] [threshold]  deadband of a channel, 0xFF for all of them
+//   H [tenths of a second]   heartbeat in OnChange mode, 0 turns it off
+//
+// Binary requests, see CommandProtocol, are collected whole and handed over
+// once their crc matched.
+public class CommandDecoder {
+    private final CommandHandler handler;
+    // Command waiting for its argument bytes
+    private int pending = 0;
+    private int arguments = 0;
+    private final int[] argument = new int[2];
+    // Binary request being collected, marker included
+    private final byte[] request = new byte[CommandProtocol.MAX_LENGTH + 3];
+    private final ByteBuffer requestView = ByteBuffer.wrap(request);
+    private int requestBytes = 0;
+
+    public CommandDecoder(CommandHandler commandHandler)
+    {
+        handler = commandHandler;
+    }
+
+    public void decode(byte[] buffer, int offset, int length)
+    {
+        int end = offset + length;
+        for (int i = offset; i < end; i++)
+            decode(buffer[i] & 0xFF);
+    }
+
+    public void decode(int c)
+    {
+        if (requestBytes > 0) {
+            collectRequest(c);
+            return;
+        }
+
+        if (pending != 0) {
+            argument[arguments++] = c;
+            if (arguments == (pending == 'W' ? 2 : 1)) {
+                if (pending == 'W')
+                    handler.onDeadband(argument[0], argument[1]);
+                else
+                    handler.onHeartbeat(argument[0] * 100);
+                pending = 0;
+            }
+            return;
+        }
+
+        switch (c) {
+            case CommandProtocol.REQUEST_MARKER:
+                request[0] = (byte)c;
+                requestBytes = 1;
+                break;
+
+            case 'R':
+                handler.onStreamStart();
+                break;
+
+            case 'S':
+                handler.onStreamStop();
+                break;
+
+            case '1':
+            case '2':
+            case '3':
+            case '4':
+            case '5':
+            case '6':
+            case '7':
+                handler.onAverageWindow(1 << (c - '0'));
+                break;
+
+            case 'A':
+                handler.onFilter(SmoothingEngine.Type.MovingAverage);
+                break;
+            case 'E':
+                handler.onFilter(SmoothingEngine.Type.Exponential);
+                break;
+            case 'O':
+                handler.onFilter(SmoothingEngine.Type.OneEuro);
+                break;
+
+            case 'a':
+                handler.onSampleRate(100);
+                break;
+            case 'b':
+                handler.onSampleRate(50);
+                break;
+            case 'c':
+                handler.onSampleRate(25);
+                break;
+            case 'd':
+                handler.onSampleRate(20);
+                break;
+            case 'e':
+                handler.onSampleRate(10);
+                break;
+
+            case 'N':
+                handler.onFrameFormat(FrameEncoder.Format.Full);
+                break;
+            case 'C':
+                handler.onFrameFormat(FrameEncoder.Format.Compact);
+                break;
+            case 'D':
+                handler.onFrameFormat(FrameEncoder.Format.Delta);
+                break;
+            case 'Q':
+                handler.onFrameFormat(FrameEncoder.Format.Orientation);
+                break;
+            case 'M':
+                handler.onFrameFormat(FrameEncoder.Format.Multiplexed);
+                break;
+            case 'X':
+                handler.onFrameFormat(FrameEncoder.Format.Extended);
+                break;
+
+            case 'V':
+                handler.onSendMode(FrameFanout.SendMode.OnChange);
+                break;
+            case 'P':
+                handler.onSendMode(FrameFanout.SendMode.Periodic);
+                break;
+            case 'W':
+            case 'H':
+                pending = c;
+                arguments = 0;
+                break;
+
+            case 'T':
+                handler.onTimestampTrailer(true);
+                break;
+            case 't':
+                handler.onTimestampTrailer(false);
+                break;
+            case 'F':
+                handler.onFraming(true);
+                break;
+            case 'f':
+                handler.onFraming(false);
+                break;
+            case 'Y':
+                handler.onAdaptiveRate(true);
+                break;
+            case 'y':
+                handler.onAdaptiveRate(false);
+                break;
+
+            case 'L':
+                handler.onStatsRequest();
+                break;
+            case 'G':
+                handler.onMetricsRequest();
+                break;
+
+            // Separators sent by terminal style hosts
+            case 0:
+            case '\r':
+            case '\n':
+                break;
+
+            default:
+                handler.onUnsupported(c);
+        }
+    }
+
+    private void collectRequest(int c)
+    {
+        request[requestBytes++] = (byte)c;
+        if (requestBytes == 2 && c < CommandProtocol.MIN_LENGTH) {
+            requestBytes = 0;
+            handler.onUnsupported(CommandProtocol.REQUEST_MARKER);
+            return;
+        }
+        if (requestBytes < 2)
+            return;
+
+        int length = request[1] & 0xFF;
+        if (requestBytes < length + 3)
+            return;
+
+        requestBytes = 0;
+        if (Crc8.compute(requestView, 0, length + 2) != (request[length + 2] & 0xFF)) {
+            handler.onUnsupported(CommandProtocol.REQUEST_MARKER);
+            return;
+        }
+        handler.onRequest(request[2] & 0xFF, request[3] & 0xFF, request[4] & 0xFF,
+                request, 5, length - CommandProtocol.MIN_LENGTH);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Receives decoded host commands. Called on the connection thread.
+public interface CommandHandler {
+    void onStreamStart();
+    void onStreamStop();
+    void onAverageWindow(int samples);
+    void onFilter(SmoothingEngine.Type type);
+    void onSampleRate(int samplesPerSecond);
+    void onFrameFormat(FrameEncoder.Format format);
+    void onSendMode(FrameFanout.SendMode mode);
+    void onDeadband(int channel, int threshold);
+    void onHeartbeat(int millis);
+    void onTimestampTrailer(boolean enabled);
+    // Full and Compact frames start with a marker, see FrameFormatEncoder
+    void onFraming(boolean enabled);
+    // Rate and window follow the link, battery and motion, see
+    // AdaptiveRateController
+    void onAdaptiveRate(boolean enabled);
+    void onStatsRequest();
+    // Binary stats frame of the whole server, see Metrics
+    void onMetricsRequest();
+    // Binary request, see CommandProtocol. The payload is only valid during
+    // the call.
+    void onRequest(int version, int id, int opcode, byte[] payload, int offset, int length);
+    void onUnsupported(int command);
+}
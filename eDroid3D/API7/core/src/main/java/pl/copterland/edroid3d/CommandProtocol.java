@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+// Binary host commands. Requests share the stream with the legacy single
+// character commands and start with a marker no legacy command uses:
+//
+//   [REQUEST_MARKER] [length] [version] [id] [opcode] [payload] [crc8]
+//
+// The length counts the bytes from version to the end of the payload, the
+// crc covers everything before it. Every request is answered with a
+// FrameWriter message of type MESSAGE_RESPONSE:
+//
+//   [version] [id] [opcode] [status] [data]
+//
+//   HELLO  [host version]     -> [version] [max rate u16] [max window u16]
+//          [host features]       [formats] [filters] [send modes] [features]
+//                                [session id u16]
+//   SET    [param] [value]    -> [param] [applied value]
+//   GET    [param]            -> [param] [value]
+//   STATS                     -> [sent] [dropped] [suppressed] [bytes]
+//                                [latency p50 us] [latency p99 us]
+//   RESUME [session id u16]   -> [session id u16] [frames replayed]
+//          [last frame number]
+//   METRICS                   -> stats frame of the server, see Metrics
+//
+// RESUME continues the session of a dropped connection, see
+// ConnectionManager: the frames sent after the last one the host received
+// follow the response and the settings carry over. The response counts the
+// frames that follow it, fewer than missed when the server runs short of
+// frames. Hosts keep the session id from HELLO and resume with it after
+// reconnecting.
+//
+// Responses, like every other message, can only be told apart from the
+// frames when the frames start with a marker. Full and Compact frames do
+// not, unless framing is on (PARAM_FRAMED or 'F', see FrameFormatEncoder).
+// A host that sets FEATURE_FRAMING in the optional features of HELLO gets
+// framing turned on, and with it a response to every request. Without
+// framing, messages in those formats are sent only while the stream is
+// stopped: SET PARAM_RUNNING 1 is acknowledged before the first frame, a
+// request made while streaming is carried out but not answered.
+//
+// Values are signed 32 bit and the counters unsigned 32 bit, low byte
+// first. The format, filter and send mode masks have one bit per enum
+// constant, in declaration order.
+public class CommandProtocol {
+    public static final int VERSION = 1;
+    public static final int REQUEST_MARKER = 0xB7;
+    public static final int MESSAGE_RESPONSE = 'K';
+    // Version, id and opcode
+    public static final int MIN_LENGTH = 3;
+    public static final int MAX_LENGTH = 255;
+
+    public static final int HELLO = 1;
+    public static final int SET = 2;
+    public static final int GET = 3;
+    public static final int STATS = 4;
+    public static final int RESUME = 5;
+    public static final int METRICS = 6;
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_UNKNOWN_OPCODE = 1;
+    public static final int STATUS_UNKNOWN_PARAM = 2;
+    public static final int STATUS_INVALID_VALUE = 3;
+    public static final int STATUS_UNSUPPORTED_VERSION = 4;
+    public static final int STATUS_INVALID_REQUEST = 5;
+    public static final int STATUS_UNKNOWN_SESSION = 6;
+
+    public static final int PARAM_RUNNING = 1;
+    public static final int PARAM_RATE = 2;
+    public static final int PARAM_WINDOW = 3;
+    public static final int PARAM_FILTER = 4;
+    public static final int PARAM_FORMAT = 5;
+    public static final int PARAM_SEND_MODE = 6;
+    public static final int PARAM_HEARTBEAT_MS = 7;
+    public static final int PARAM_TIMESTAMP_TRAILER = 8;
+    // Adaptive rate, PARAM_RATE and PARAM_WINDOW become the upper bound of
+    // the rate and the lower bound of the window
+    public static final int PARAM_ADAPTIVE = 9;
+    public static final int PARAM_MIN_RATE = 10;
+    // 0 keeps the window at PARAM_WINDOW
+    public static final int PARAM_MAX_WINDOW = 11;
+    // Full and Compact frames start with FrameFormatEncoder.FRAME_MARKER
+    public static final int PARAM_FRAMED = 12;
+    // FrameQueue.Policy of the client queue and the frames per write of
+    // Batch, a batch is held back at most FrameQueue.MAX_HOLD
+    public static final int PARAM_QUEUE_POLICY = 13;
+    public static final int PARAM_BATCH_SIZE = 14;
+    // Deadband of channel c is PARAM_DEADBAND + c
+    public static final int PARAM_DEADBAND = 16;
+    // Sampling rate override of a SampleRing sensor, 0 derives the rate
+    public static final int PARAM_SENSOR_RATE = 24;
+
+    public static final int MAX_RATE = 1000;
+
+    public static final int FEATURE_TIMESTAMP_TRAILER = 1;
+    public static final int FEATURE_ORIENTATION = 1 << 1;
+    public static final int FEATURE_STATS_MESSAGE = 1 << 2;
+    public static final int FEATURE_RESUME = 1 << 3;
+    public static final int FEATURE_METRICS = 1 << 4;
+    public static final int FEATURE_ADAPTIVE_RATE = 1 << 5;
+    public static final int FEATURE_FRAMING = 1 << 6;
+
+    // Encodes a request, used by hosts and tests
+    public static byte[] request(int id, int opcode, byte[] payload)
+    {
+        int length = MIN_LENGTH + payload.length;
+        if (length > MAX_LENGTH)
+            throw new IllegalArgumentException("Request too long: " + payload.length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(length + 3);
+        buffer.put((byte)REQUEST_MARKER);
+        buffer.put((byte)length);
+        buffer.put((byte)VERSION);
+        buffer.put((byte)id);
+        buffer.put((byte)opcode);
+        buffer.put(payload);
+        buffer.put((byte)Crc8.compute(buffer, 0, buffer.position()));
+        return buffer.array();
+    }
+
+    public static byte[] hello(int id, int hostFeatures)
+    {
+        return request(id, HELLO, new byte[] { (byte)VERSION, (byte)hostFeatures });
+    }
+
+    public static byte[] set(int id, int param, int value)
+    {
+        byte[] payload = new byte[5];
+        payload[0] = (byte)param;
+        putInt(payload, 1, value);
+        return request(id, SET, payload);
+    }
+
+    public static byte[] get(int id, int param)
+    {
+        return request(id, GET, new byte[] { (byte)param });
+    }
+
+    public static byte[] resume(int id, int sessionId, int lastFrameNumber)
+    {
+        return request(id, RESUME, new byte[] { (byte)sessionId, (byte)(sessionId >> 8), (byte)lastFrameNumber });
+    }
+
+    public static void putInt(byte[] buffer, int offset, int value)
+    {
+        buffer[offset] = (byte)value;
+        buffer[offset + 1] = (byte)(value >> 8);
+        buffer[offset + 2] = (byte)(value >> 16);
+        buffer[offset + 3] = (byte)(value >> 24);
+    }
+
+    public static int getInt(byte[] buffer, int offset)
+    {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8)
+                | ((buffer[offset + 2] & 0xFF) << 16) | ((buffer[offset + 3] & 0xFF) << 24);
+    }
+
+    // Bit per enum constant, in declaration order
+    public static int mask(Enum<?>[] values)
+    {
+        int mask = 0;
+        for (Enum<?> value : values)
+            mask |= 1 << value.ordinal();
+        return mask;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+package pl.copterland.edroid3d;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Keeps a transport listening. When it cannot be opened or stops accepting
+// it is reopened with exponential backoff, the delay is reset once a client
+// connects. Sessions of dropped clients are kept for RESUME_TIMEOUT_MS, a
+// host that reconnects continues its session with CommandProtocol.RESUME.
+// The time from the drop to the resumption is the failover time.
+public class ConnectionManager extends Thread implements ServerThread.Listener, ClientSession.Resumer {
+    public interface TransportFactory {
+        Transport open() throws IOException;
+    }
+
+    public interface Listener extends ClientSession.Listener {
+        void onConnectionStatus(State state, String message);
+    }
+
+    public enum State {
+        Opening,
+        Listening,
+        Connected,
+        Backoff,
+        Stopped
+    }
+
+    public final static int INITIAL_BACKOFF_MS = 250;
+    public final static int MAX_BACKOFF_MS = 16000;
+    public final static int RESUME_TIMEOUT_MS = 30000;
+
+    private static class Detached {
+        final ClientSession session;
+        final long since;
+
+        Detached(ClientSession detachedSession, long detachedSince) {
+            session = detachedSession;
+            since = detachedSince;
+        }
+    }
+
+    private final TransportFactory factory;
+    private final FrameFanout fanout;
+    private final int compactChannels;
+    private final Listener listener;
+    private final LatencyHistogram failover = new LatencyHistogram();
+
+    // Guarded by this
+    private State state = State.Opening;
+    private ServerThread server;
+    private int clients = 0;
+    private boolean served = false;
+    private int failures = 0;
+    private int nextSessionId = 1;
+    private long lastDrop = 0;
+    private final LinkedHashMap<Integer, Detached> detached = new LinkedHashMap<Integer, Detached>();
+
+    private volatile int initialBackoff = INITIAL_BACKOFF_MS;
+    private volatile int maxBackoff = MAX_BACKOFF_MS;
+    private volatile boolean cancelled = false;
+
+    public ConnectionManager(TransportFactory transportFactory, FrameFanout frameFanout,
+                             int compactChannelMask, Listener connectionListener) {
+        factory = transportFactory;
+        fanout = frameFanout;
+        compactChannels = compactChannelMask;
+        listener = connectionListener;
+    }
+
+    public void setBackoff(int initialMillis, int maxMillis) {
+        initialBackoff = initialMillis;
+        maxBackoff = maxMillis;
+    }
+
+    public synchronized State getConnectionState() {
+        return state;
+    }
+
+    // Transport openings that failed or served nobody since the last client
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    public synchronized int getDetachedCount() {
+        expire(System.nanoTime());
+        return detached.size();
+    }
+
+    // Time from a dropped connection to the resumption of its session
+    public LatencyHistogram getFailover() {
+        return failover;
+    }
+
+    public void run() {
+        try {
+            while (!cancelled) {
+                synchronized (this) {
+                    // Transports serving a single client stop accepting after
+                    // it, they are reopened once it left
+                    while (clients > 0 && !cancelled)
+                        wait();
+                    if (cancelled)
+                        break;
+                    served = false;
+                }
+
+                setState(State.Opening, null);
+                Transport transport;
+                try {
+                    transport = factory.open();
+                } catch (IOException e) {
+                    backoff("Cannot listen: " + e.getMessage());
+                    continue;
+                }
+
+                ServerThread current = new ServerThread(transport, this);
+                synchronized (this) {
+                    if (cancelled) {
+                        try {
+                            transport.close();
+                        } catch (IOException e) { }
+                        break;
+                    }
+                    server = current;
+                }
+                setState(State.Listening, null);
+                current.start();
+                current.join();
+
+                boolean idle;
+                synchronized (this) {
+                    idle = !served;
+                }
+                if (idle && !cancelled)
+                    backoff("Listening on " + transport.getName() + " failed");
+            }
+        } catch (InterruptedException e) { }
+        setState(State.Stopped, "Stopped listening");
+    }
+
+    private void backoff(String reason) throws InterruptedException {
+        long delay;
+        synchronized (this) {
+            delay = Math.min((long)initialBackoff << Math.min(failures, 16), maxBackoff);
+            failures++;
+        }
+        setState(State.Backoff, reason + ", retry in " + delay + " ms");
+
+        long deadline = System.nanoTime() + delay * 1000000L;
+        synchronized (this) {
+            long remaining;
+            while (!cancelled && (remaining = deadline - System.nanoTime()) > 0)
+                wait(remaining / 1000000L + 1);
+        }
+    }
+
+    private void setState(State newState, String message) {
+        synchronized (this) {
+            state = newState;
+        }
+        if (message != null)
+            listener.onConnectionStatus(newState, message);
+    }
+
+    // Forgets the sessions nobody resumed in time
+    private void expire(long now) {
+        Iterator<Detached> it = detached.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().since < RESUME_TIMEOUT_MS * 1000000L)
+                break;
+            it.remove();
+        }
+    }
+
+    @Override
+    public void onServerStatus(String message) {
+        listener.onConnectionStatus(getConnectionState(), message);
+    }
+
+    @Override
+    public CommandHandler onClientConnected(WorkerThread worker) {
+        long drop;
+        ClientSession session;
+        synchronized (this) {
+            session = new ClientSession(nextSessionId++, worker, listener, compactChannels);
+            clients++;
+            served = true;
+            failures = 0;
+            state = State.Connected;
+            drop = lastDrop;
+            lastDrop = 0;
+        }
+        session.setResumer(this);
+        fanout.add(session);
+        if (drop != 0)
+            listener.onConnectionStatus(State.Connected, "Reconnected after "
+                    + (System.nanoTime() - drop) / 1000000L + " ms");
+        return session;
+    }
+
+    @Override
+    public void onWorkerFinished(WorkerThread worker) {
+        // A session taken over by a resumed one is already gone from the fanout
+        ClientSession session = fanout.remove(worker);
+        long now = System.nanoTime();
+        synchronized (this) {
+            clients--;
+            if (session != null) {
+                expire(now);
+                detached.put(session.getId(), new Detached(session, now));
+                lastDrop = now;
+            }
+            if (clients == 0 && state == State.Connected)
+                state = server != null && server.isAlive() ? State.Listening : State.Opening;
+            notifyAll();
+        }
+        if (session != null)
+            listener.onSessionStatus(session, "Disconnected, " + session.getSummary());
+    }
+
+    @Override
+    public ClientSession onResume(ClientSession session, int previousId) {
+        long now = System.nanoTime();
+        Detached entry;
+        synchronized (this) {
+            expire(now);
+            entry = detached.remove(previousId);
+        }
+        if (entry != null) {
+            failover.record(now - entry.since);
+            listener.onConnectionStatus(getConnectionState(), "Session " + previousId + " resumed by client "
+                    + session.getId() + " after " + (now - entry.since) / 1000000L + " ms");
+            return entry.session;
+        }
+
+        // The host may notice a dead link before the server does, the old
+        // connection is dropped and its session taken over right away
+        for (ClientSession current : fanout.getSessions()) {
+            if (current.getId() == previousId && current != session) {
+                fanout.remove(current.getWorker());
+                current.getWorker().cancel();
+                listener.onConnectionStatus(getConnectionState(), "Session " + previousId + " taken over by client "
+                        + session.getId());
+                return current;
+            }
+        }
+        return null;
+    }
+
+    // Stops listening and disconnects every client
+    public void cancel() {
+        ServerThread current;
+        synchronized (this) {
+            cancelled = true;
+            current = server;
+            notifyAll();
+        }
+        if (current != null)
+            current.cancel();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+// Decodes the stream written by DeltaFrameEncoder. Deltas that follow a
+// lost or corrupted message are rejected until the next keyframe.
+public class DeltaFrameDecoder {
+    public static final int FRAME = 0;
+    public static final int INCOMPLETE = 1;
+    public static final int CORRUPTED = 2;
+    public static final int NO_REFERENCE = 3;
+
+    private final Frame reference = new Frame();
+    private boolean synced = false;
+    private int expectedSequence = 0;
+    private long lost = 0;
+    private long corrupted = 0;
+
+    // Decodes one message into frame. Returns FRAME when frame was updated,
+    // INCOMPLETE without consuming anything if more bytes are needed,
+    // CORRUPTED after skipping a byte that does not start a valid message,
+    // NO_REFERENCE after skipping a delta that cannot be applied.
+    public int decode(ByteBuffer in, Frame frame)
+    {
+        int start = in.position();
+        int end = in.limit();
+        if (start >= end)
+            return INCOMPLETE;
+
+        int type = in.get(start) & 0xFF;
+        int length;
+        if (type == DeltaFrameEncoder.KEYFRAME) {
+            length = DeltaFrameEncoder.KEYFRAME_SIZE;
+        } else if (type == DeltaFrameEncoder.DELTA) {
+            length = deltaLength(in, start, end);
+            if (length < 0)
+                return length == -1 ? INCOMPLETE : skipCorrupted(in);
+        } else {
+            return skipCorrupted(in);
+        }
+
+        if (end - start < length)
+            return INCOMPLETE;
+        if (Crc8.compute(in, start, length - 1) != (in.get(start + length - 1) & 0xFF))
+            return skipCorrupted(in);
+
+        int sequence = in.get(start + 1) & 0xFF;
+        if (synced && sequence != expectedSequence) {
+            lost += (sequence - expectedSequence) & 0xFF;
+            synced = false;
+        }
+        expectedSequence = (sequence + 1) & 0xFF;
+        in.position(start + length);
+
+        if (type == DeltaFrameEncoder.KEYFRAME) {
+            for (int i = 0; i < Frame.FRAME_SIZE; i++)
+                reference.put(i, in.get(start + 2 + i));
+            synced = true;
+        } else {
+            if (!synced)
+                return NO_REFERENCE;
+
+            int position = start + 2;
+            int mask = readVarint(in, position);
+            position += Varint.size(mask);
+            for (int c = 0; c < DeltaFrameEncoder.CHANNELS; c++) {
+                if ((mask & (1 << c)) == 0)
+                    continue;
+                int value = readVarint(in, position);
+                position += Varint.size(value);
+                DeltaFrameEncoder.applyDelta(reference, c, Varint.unzigzag(value));
+            }
+        }
+
+        frame.copyFrom(reference);
+        return FRAME;
+    }
+
+    private int skipCorrupted(ByteBuffer in)
+    {
+        in.position(in.position() + 1);
+        corrupted++;
+        synced = false;
+        return CORRUPTED;
+    }
+
+    // Length of the delta message at start, -1 if incomplete, -2 if invalid.
+    // Also used by hosts to find the timestamp trailer, see StreamDecoder.
+    static int deltaLength(ByteBuffer in, int start, int end)
+    {
+        int position = start + 2;
+        int mask = 0;
+        int shift = 0;
+        while (true) {
+            if (position >= end)
+                return -1;
+            int b = in.get(position++);
+            mask |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                break;
+            shift += 7;
+            if (shift > 21)
+                return -2;
+        }
+        if ((mask >>> DeltaFrameEncoder.CHANNELS) != 0)
+            return -2;
+
+        for (int c = 0; c < DeltaFrameEncoder.CHANNELS; c++) {
+            if ((mask & (1 << c)) == 0)
+                continue;
+            int bytes = 0;
+            while (true) {
+                if (position >= end)
+                    return -1;
+                bytes++;
+                if ((in.get(position++) & 0x80) == 0)
+                    break;
+                if (bytes == 3)
+                    return -2;
+            }
+        }
+        return position + 1 - start;
+    }
+
+    private static int readVarint(ByteBuffer in, int position)
+    {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.get(position++);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+            shift += 7;
+        }
+    }
+
+    public long getLost()
+    {
+        return lost;
+    }
+
+    public long getCorrupted()
+    {
+        return corrupted;
+    }
+}
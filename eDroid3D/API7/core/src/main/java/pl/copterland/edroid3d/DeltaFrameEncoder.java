@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+// Delta compressed frame stream. Every KEYFRAME_INTERVAL messages, or when
+// a delta would not be smaller, the full frame is sent:
+//
+//   keyframe: [KEYFRAME] [sequence] [27 frame bytes] [crc8]
+//   delta:    [DELTA] [sequence] [changed channel mask varint] [zigzag varint per changed channel] [crc8]
+//
+// Channels are the frame number, the 15 finger and 3 palm bytes (8 bit
+// deltas) and the voltage and 3 magnetometer words (16 bit deltas). The
+// sequence number counts messages, a gap tells the host that the delta
+// reference is lost until the next keyframe. The crc covers all bytes
+// before it. The encoder is used by a single writer thread.
+public class DeltaFrameEncoder implements FrameEncoder {
+    public static final int KEYFRAME = 0xA5;
+    public static final int DELTA = 0x5A;
+    public static final int KEYFRAME_SIZE = Frame.FRAME_SIZE + 3;
+    public static final int KEYFRAME_INTERVAL = 50;
+
+    static final int CHANNELS = 23;
+    private static final int BYTE_CHANNELS = 19;
+    // Frame offset of every channel, byte channels first
+    private static final int[] CHANNEL_OFFSET = new int[CHANNELS];
+
+    static {
+        CHANNEL_OFFSET[0] = Frame.Offset.FRAME_NO;
+        for (int i = 0; i < 18; i++)
+            CHANNEL_OFFSET[1 + i] = Frame.Offset.PINKY_Z + i;
+        CHANNEL_OFFSET[19] = Frame.Offset.VOLTAGE;
+        CHANNEL_OFFSET[20] = Frame.Offset.MAGNETOMETER_X;
+        CHANNEL_OFFSET[21] = Frame.Offset.MAGNETOMETER_Y;
+        CHANNEL_OFFSET[22] = Frame.Offset.MAGNETOMETER_Z;
+    }
+
+    private final Frame reference = new Frame();
+    private final int[] deltas = new int[CHANNELS];
+    private final int keyframeInterval;
+    private int sequence = 0;
+    private int sinceKeyframe = 0;
+    private volatile boolean keyframeRequested = true;
+
+    private long messages = 0;
+    private long keyframes = 0;
+    private long bytes = 0;
+
+    public DeltaFrameEncoder(int interval)
+    {
+        keyframeInterval = interval;
+    }
+
+    public DeltaFrameEncoder()
+    {
+        this(KEYFRAME_INTERVAL);
+    }
+
+    // The next frame is sent as a keyframe, may be called from any thread
+    public void requestKeyframe()
+    {
+        keyframeRequested = true;
+    }
+
+    @Override
+    public int maxEncodedSize() {
+        return KEYFRAME_SIZE;
+    }
+
+    @Override
+    public void encode(Frame frame, ByteBuffer out) {
+        int start = out.position();
+
+        if (keyframeRequested || sinceKeyframe >= keyframeInterval || !encodeDelta(frame, out)) {
+            keyframeRequested = false;
+            out.position(start);
+            out.put((byte)KEYFRAME);
+            out.put((byte)sequence);
+            frame.writeTo(out);
+            sinceKeyframe = 0;
+            keyframes++;
+        } else {
+            sinceKeyframe++;
+        }
+
+        out.put((byte)Crc8.compute(out, start, out.position() - start));
+        reference.copyFrom(frame);
+        sequence = (sequence + 1) & 0xFF;
+        messages++;
+        bytes += out.position() - start;
+    }
+
+    // Returns false when the delta would not be smaller than a keyframe
+    private boolean encodeDelta(Frame frame, ByteBuffer out)
+    {
+        int mask = 0;
+        int size = 3;
+        for (int c = 0; c < CHANNELS; c++) {
+            int delta = channelDelta(reference, frame, c);
+            deltas[c] = delta;
+            if (delta != 0) {
+                mask |= 1 << c;
+                size += Varint.size(Varint.zigzag(delta));
+            }
+        }
+        size += Varint.size(mask);
+
+        if (size >= KEYFRAME_SIZE)
+            return false;
+
+        out.put((byte)DELTA);
+        out.put((byte)sequence);
+        Varint.write(out, mask);
+        for (int c = 0; c < CHANNELS; c++) {
+            if (deltas[c] != 0)
+                Varint.write(out, Varint.zigzag(deltas[c]));
+        }
+        return true;
+    }
+
+    static int channel(Frame frame, int c)
+    {
+        int offset = CHANNEL_OFFSET[c];
+        if (c < BYTE_CHANNELS)
+            return frame.get(offset);
+        return (frame.get(offset) & 0xFF) | ((frame.get(offset + 1) & 0xFF) << 8);
+    }
+
+    static int channelDelta(Frame from, Frame to, int c)
+    {
+        int delta = channel(to, c) - channel(from, c);
+        return c < BYTE_CHANNELS ? (byte)delta : (short)delta;
+    }
+
+    static void applyDelta(Frame frame, int c, int delta)
+    {
+        int offset = CHANNEL_OFFSET[c];
+        int value = channel(frame, c) + delta;
+        frame.put(offset, (byte)value);
+        if (c >= BYTE_CHANNELS)
+            frame.put(offset + 1, (byte)(value >> 8));
+    }
+
+    public long getMessages()
+    {
+        return messages;
+    }
+
+    public long getKeyframes()
+    {
+        return keyframes;
+    }
+
+    public long getBytes()
+    {
+        return bytes;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Exponential moving average, the window maps to alpha = 2 / (window + 1)
+// which gives the same center of mass as a moving average of that window.
+public class ExponentialFilter implements SmoothingFilter {
+    private final int channels;
+    private final float[] state;
+    private float alpha;
+    private boolean initialized = false;
+
+    public ExponentialFilter(int channelCount, int windowSize)
+    {
+        channels = channelCount;
+        state = new float[channelCount];
+        setWindow(windowSize);
+    }
+
+    @Override
+    public void setWindow(int samples) {
+        if (samples < 1)
+            throw new IllegalArgumentException("Invalid window: " + samples);
+        alpha = 2.0f / (samples + 1);
+    }
+
+    @Override
+    public void push(int[] sample, long timestamp) {
+        if (!initialized) {
+            for (int c = 0; c < channels; c++)
+                state[c] = sample[c];
+            initialized = true;
+            return;
+        }
+
+        for (int c = 0; c < channels; c++)
+            state[c] += alpha * (sample[c] - state[c]);
+    }
+
+    @Override
+    public boolean get(int[] out) {
+        if (!initialized)
+            return false;
+
+        for (int c = 0; c < channels; c++)
+            out[c] = FixedPoint.round(state[c]);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+}
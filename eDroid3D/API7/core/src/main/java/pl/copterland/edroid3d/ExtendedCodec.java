@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+// Extended frames add the accelerometer at 16 bit resolution to the frame:
+//
+//   [EXTENDED] [frame] [x] [y] [z] [crc8]
+//
+// The accelerometer channels are signed 16 bit, low byte first, full scale
+// 32767 is the calibrated output range. The frame carries the same values
+// at 8 bit. The crc covers all bytes before it.
+public class ExtendedCodec implements FrameEncoder {
+    public static final int EXTENDED = 0xC7;
+    public static final int SIZE = Frame.FRAME_SIZE + 8;
+
+    @Override
+    public int maxEncodedSize() {
+        return SIZE;
+    }
+
+    @Override
+    public void encode(Frame frame, ByteBuffer out) {
+        int start = out.position();
+        out.put((byte)EXTENDED);
+        frame.writeTo(out);
+        putShort(out, frame.getWideAccelerometerX());
+        putShort(out, frame.getWideAccelerometerY());
+        putShort(out, frame.getWideAccelerometerZ());
+        out.put((byte)Crc8.compute(out, start, SIZE - 1));
+    }
+
+    private static void putShort(ByteBuffer out, short value)
+    {
+        out.put((byte)value);
+        out.put((byte)(value >> 8));
+    }
+
+    // Decodes one extended frame. Returns DeltaFrameDecoder.FRAME when frame
+    // was updated, INCOMPLETE without consuming anything if more bytes are
+    // needed and CORRUPTED after skipping a byte that does not start a
+    // valid frame.
+    public static int decode(ByteBuffer in, Frame frame)
+    {
+        int start = in.position();
+        if (in.remaining() < 1)
+            return DeltaFrameDecoder.INCOMPLETE;
+        if ((in.get(start) & 0xFF) != EXTENDED) {
+            in.position(start + 1);
+            return DeltaFrameDecoder.CORRUPTED;
+        }
+        if (in.remaining() < SIZE)
+            return DeltaFrameDecoder.INCOMPLETE;
+        if (Crc8.compute(in, start, SIZE - 1) != (in.get(start + SIZE - 1) & 0xFF)) {
+            in.position(start + 1);
+            return DeltaFrameDecoder.CORRUPTED;
+        }
+
+        for (int i = 0; i < Frame.FRAME_SIZE; i++)
+            frame.put(i, in.get(start + 1 + i));
+        int wide = start + 1 + Frame.FRAME_SIZE;
+        frame.setWideAccelerometer(getShort(in, wide), getShort(in, wide + 2), getShort(in, wide + 4));
+        in.position(start + SIZE);
+        return DeltaFrameDecoder.FRAME;
+    }
+
+    private static short getShort(ByteBuffer in, int offset)
+    {
+        return (short)((in.get(offset) & 0xFF) | (in.get(offset + 1) << 8));
+    }
+}
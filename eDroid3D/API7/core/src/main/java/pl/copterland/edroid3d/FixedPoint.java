@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Fixed point arithmetic of the sample to frame path. A scale from a
+// physical range to an integer output range is a factor with
+// PRODUCT_BITS - inputBits fraction bits applied to the input in Q(inputBits).
+// The input bits follow the gain, so the factor keeps 31 significant bits
+// and an input step stays below 1/8192 of an output step, while the product
+// still fits in 64 bits. Every conversion to fewer bits rounds half away
+// from zero and saturates, so the scale stays symmetric around zero and
+// nothing wraps around.
+public class FixedPoint {
+    public final static int PRODUCT_BITS = 44;
+    // Larger inputs are far beyond the range and saturate anyway
+    public final static long MAX_INPUT = Integer.MAX_VALUE;
+
+    // Fraction bits of the input for the scale from range to outputRange
+    public static int inputBits(int outputRange, float range)
+    {
+        return Math.max(0, 14 + Math.getExponent(outputRange / range));
+    }
+
+    // Factor of the scale from range to outputRange. Rounded up, so values
+    // exactly halfway between two outputs still round away from zero.
+    public static int factor(int outputRange, float range, int inputBits)
+    {
+        double exact = Math.scalb((double)outputRange / range, PRODUCT_BITS - inputBits);
+        return exact >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)Math.ceil(exact);
+    }
+
+    // Real value to Q(bits)
+    public static long toFixed(float value, int bits)
+    {
+        float scaled = value * (float)(1L << bits);
+        return scaled >= 0 ? (long)(scaled + 0.5f) : -(long)(-scaled + 0.5f);
+    }
+
+    // Input times the factor of its scale, rounded to an integer within
+    // +-limit
+    public static int scale(long fixed, int factor, int limit)
+    {
+        long product = Math.max(-MAX_INPUT, Math.min(MAX_INPUT, fixed)) * factor;
+        return saturate(shiftRound(product, PRODUCT_BITS), limit);
+    }
+
+    // Value in -fromRange..fromRange to the same share of toRange
+    public static int rescale(int value, int fromRange, int toRange)
+    {
+        if (fromRange == toRange)
+            return saturate(value, toRange);
+        return saturate(divide((long)value * toRange, fromRange), toRange);
+    }
+
+    // Shifts right by bits, rounded half away from zero
+    public static long shiftRound(long value, int bits)
+    {
+        long half = 1L << (bits - 1);
+        return value >= 0 ? (value + half) >> bits : -((-value + half) >> bits);
+    }
+
+    // Quotient rounded half away from zero, divisor positive
+    public static int divide(long dividend, int divisor)
+    {
+        long half = divisor / 2;
+        long quotient = dividend >= 0 ? (dividend + half) / divisor : -((-dividend + half) / divisor);
+        return (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, quotient));
+    }
+
+    public static int round(float value)
+    {
+        return value >= 0 ? (int)(value + 0.5f) : -(int)(-value + 0.5f);
+    }
+
+    public static int round(double value)
+    {
+        return value >= 0 ? (int)(value + 0.5) : -(int)(-value + 0.5);
+    }
+
+    public static int saturate(long value, int limit)
+    {
+        return (int)Math.max(-limit, Math.min(limit, value));
+    }
+
+    public static byte toByte(int value)
+    {
+        return (byte)saturate(value, Byte.MAX_VALUE);
+    }
+
+    public static short toShort(int value)
+    {
+        return (short)saturate(value, Short.MAX_VALUE);
+    }
+
+    // Signed value to the unsigned code value + offset, saturated to
+    // -offset..offset - 1. Used by the 12 bit magnetometer channels.
+    public static int toOffsetBinary(int value, int offset)
+    {
+        return Math.max(-offset, Math.min(offset - 1, value)) + offset;
+    }
+}
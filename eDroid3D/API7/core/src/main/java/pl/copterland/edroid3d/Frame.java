@@ -0,0 +1,349 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+public class Frame {
+    public static final int FRAME_SIZE = 27;
+    // Offset of the magnetometer values, also used by hosts, see FrameView
+    static final int MAGIC_NUMBER = 2048;
+
+    public static final int PINKY = 0;
+    public static final int RING = 1;
+    public static final int MIDDLE = 2;
+    public static final int INDEX = 3;
+    public static final int THUMB = 4;
+    public static final int FINGERS = 5;
+
+    private final ByteBuffer data;
+    // Reusable view used for bulk copies, so copying never allocates
+    private final ByteBuffer view;
+    // Pipeline timestamps in System.nanoTime() base, not part of the wire
+    // format: newest sample in the frame, frame built, frame queued
+    private long timestamp;
+    private long builtAt;
+    private long enqueuedAt;
+    // Orientation quaternion w, x, y, z in Q14 fixed point (16384 = 1.0),
+    // sent in orientation frames only
+    private final short[] orientation = new short[4];
+    // Device the frame comes from in multiplexed streams, 0 is this one
+    private int source;
+    // Accelerometer at 16 bit, sent in extended frames only
+    private final short[] wideAccelerometer = new short[3];
+
+    public Frame()
+    {
+        this(false);
+    }
+
+    public Frame(boolean direct)
+    {
+        data = direct ? ByteBuffer.allocateDirect(FRAME_SIZE) : ByteBuffer.allocate(FRAME_SIZE);
+        view = data.duplicate();
+    }
+
+    public void copyFrom(Frame frame)
+    {
+        frame.view.clear();
+        view.clear();
+        view.put(frame.view);
+        timestamp = frame.timestamp;
+        builtAt = frame.builtAt;
+        enqueuedAt = frame.enqueuedAt;
+        System.arraycopy(frame.orientation, 0, orientation, 0, orientation.length);
+        source = frame.source;
+        System.arraycopy(frame.wideAccelerometer, 0, wideAccelerometer, 0, wideAccelerometer.length);
+    }
+
+    // Appends the encoded frame at the position of the buffer
+    public void writeTo(ByteBuffer buffer)
+    {
+        view.clear();
+        buffer.put(view);
+    }
+
+    public void copyTo(byte[] buffer, int offset)
+    {
+        view.clear();
+        view.get(buffer, offset, FRAME_SIZE);
+    }
+
+    public void clear()
+    {
+        for (int i = 0; i < FRAME_SIZE; i++)
+            data.put(i, (byte)0);
+    }
+
+    public void setTimestamp(long nanos)
+    {
+        timestamp = nanos;
+    }
+
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    public void setSource(int sourceId)
+    {
+        source = sourceId;
+    }
+
+    public int getSource()
+    {
+        return source;
+    }
+
+    public void setBuiltAt(long nanos)
+    {
+        builtAt = nanos;
+    }
+
+    public long getBuiltAt()
+    {
+        return builtAt;
+    }
+
+    public void setEnqueuedAt(long nanos)
+    {
+        enqueuedAt = nanos;
+    }
+
+    public long getEnqueuedAt()
+    {
+        return enqueuedAt;
+    }
+
+    public void setOrientation(short w, short x, short y, short z)
+    {
+        orientation[0] = w;
+        orientation[1] = x;
+        orientation[2] = y;
+        orientation[3] = z;
+    }
+
+    public short getOrientationW()
+    {
+        return orientation[0];
+    }
+
+    public short getOrientationX()
+    {
+        return orientation[1];
+    }
+
+    public short getOrientationY()
+    {
+        return orientation[2];
+    }
+
+    public short getOrientationZ()
+    {
+        return orientation[3];
+    }
+
+    public void setWideAccelerometer(short x, short y, short z)
+    {
+        wideAccelerometer[0] = x;
+        wideAccelerometer[1] = y;
+        wideAccelerometer[2] = z;
+    }
+
+    public short getWideAccelerometerX()
+    {
+        return wideAccelerometer[0];
+    }
+
+    public short getWideAccelerometerY()
+    {
+        return wideAccelerometer[1];
+    }
+
+    public short getWideAccelerometerZ()
+    {
+        return wideAccelerometer[2];
+    }
+
+    public void setFrameNumber(byte number)
+    {
+        data.put(Offset.FRAME_NO, number);
+    }
+
+    public byte getFrameNumber()
+    {
+        return data.get(Offset.FRAME_NO);
+    }
+
+    public void setAccelerometer(byte x, byte y, byte z)
+    {
+        data.put(Offset.PALM_X, x);
+        data.put(Offset.PALM_Y, y);
+        data.put(Offset.PALM_Z, z);
+    }
+
+    // 12 bit values, saturated and sent offset by MAGIC_NUMBER
+    public void setMagnetometer(int x, int y, int z)
+    {
+        x = FixedPoint.toOffsetBinary(x, MAGIC_NUMBER);
+        y = FixedPoint.toOffsetBinary(y, MAGIC_NUMBER);
+        z = FixedPoint.toOffsetBinary(z, MAGIC_NUMBER);
+
+        data.put(Offset.MAGNETOMETER_X, (byte)x);
+        data.put(Offset.MAGNETOMETER_X + 1, (byte)(x >> 8));
+        data.put(Offset.MAGNETOMETER_Y, (byte)y);
+        data.put(Offset.MAGNETOMETER_Y + 1, (byte)(y >> 8));
+        data.put(Offset.MAGNETOMETER_Z, (byte)z);
+        data.put(Offset.MAGNETOMETER_Z + 1, (byte)(z >> 8));
+    }
+
+    // Finger sensors are stored in z, y, x order
+    public void setFinger(int finger, byte x, byte y, byte z)
+    {
+        int offset = Offset.PINKY_Z + finger * 3;
+        data.put(offset, z);
+        data.put(offset + 1, y);
+        data.put(offset + 2, x);
+    }
+
+    public byte getFingerX(int finger)
+    {
+        return data.get(Offset.PINKY_X + finger * 3);
+    }
+
+    public byte getFingerY(int finger)
+    {
+        return data.get(Offset.PINKY_Y + finger * 3);
+    }
+
+    public byte getFingerZ(int finger)
+    {
+        return data.get(Offset.PINKY_Z + finger * 3);
+    }
+
+    // Battery voltage in millivolts, unsigned 16 bit, low byte first
+    public void setVoltage(int millivolts)
+    {
+        data.put(Offset.VOLTAGE, (byte)millivolts);
+        data.put(Offset.VOLTAGE + 1, (byte)(millivolts >> 8));
+    }
+
+    public int getVoltage()
+    {
+        return getUnsignedShort(Offset.VOLTAGE);
+    }
+
+    public int getMagnetometerValueX()
+    {
+        return getUnsignedShort(Offset.MAGNETOMETER_X) - MAGIC_NUMBER;
+    }
+
+    public int getMagnetometerValueY()
+    {
+        return getUnsignedShort(Offset.MAGNETOMETER_Y) - MAGIC_NUMBER;
+    }
+
+    public int getMagnetometerValueZ()
+    {
+        return getUnsignedShort(Offset.MAGNETOMETER_Z) - MAGIC_NUMBER;
+    }
+
+    private int getUnsignedShort(int offset)
+    {
+        return (data.get(offset) & 0xFF) | ((data.get(offset + 1) & 0xFF) << 8);
+    }
+
+    byte get(int offset)
+    {
+        return data.get(offset);
+    }
+
+    void put(int offset, byte value)
+    {
+        data.put(offset, value);
+    }
+
+    public byte getAccelerometerX()
+    {
+        return data.get(Offset.PALM_X);
+    }
+
+    public byte getAccelerometerY()
+    {
+        return data.get(Offset.PALM_Y);
+    }
+
+    public byte getAccelerometerZ()
+    {
+        return data.get(Offset.PALM_Z);
+    }
+
+    public byte getMagnetometerX()
+    {
+        return data.get(Offset.MAGNETOMETER_X);
+    }
+
+    public byte getMagnetometerY()
+    {
+        return data.get(Offset.MAGNETOMETER_Y);
+    }
+
+    public byte getMagnetometerZ()
+    {
+        return data.get(Offset.MAGNETOMETER_Z);
+    }
+
+    static class Offset
+    {
+        public static final int FRAME_NO = 0;
+        public static final int PINKY_Z = 1;
+        public static final int PINKY_Y = 2;
+        public static final int PINKY_X = 3;
+        public static final int RING_Z = 4;
+        public static final int RING_Y = 5;
+        public static final int RING_X = 6;
+        public static final int MIDDLE_Z = 7;
+        public static final int MIDDLE_Y = 8;
+        public static final int MIDDLE_X = 9;
+        public static final int INDEX_Z = 10;
+        public static final int INDEX_Y = 11;
+        public static final int INDEX_X = 12;
+        public static final int THUMB_Z = 13;
+        public static final int THUMB_Y = 14;
+        public static final int THUMB_X = 15;
+        // Palm accelerometer has different order compared to the other sensors.
+        public static final int PALM_Y = 16;
+        public static final int PALM_Z = 17;
+        public static final int PALM_X = 18;
+        public static final int VOLTAGE = 19;
+        public static final int MAGNETOMETER_X = 21;
+        public static final int MAGNETOMETER_Y = 23;
+        public static final int MAGNETOMETER_Z = 25;
+    }
+}
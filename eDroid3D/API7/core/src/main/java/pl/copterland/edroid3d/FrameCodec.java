@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+// Encoder and decoder of the glove frame. Full frames are the raw 27 bytes.
+// Compact frames start with a channel mask followed by the frame number and
+// only the channel groups selected by the mask, in full frame order:
+//
+//   [mask] [frame no] [pinky] [ring] [middle] [index] [thumb] [palm] [voltage] [magnetometer]
+public class FrameCodec implements FrameEncoder {
+    public static final int CHANNEL_PINKY = 1;
+    public static final int CHANNEL_RING = 1 << 1;
+    public static final int CHANNEL_MIDDLE = 1 << 2;
+    public static final int CHANNEL_INDEX = 1 << 3;
+    public static final int CHANNEL_THUMB = 1 << 4;
+    public static final int CHANNEL_PALM = 1 << 5;
+    public static final int CHANNEL_VOLTAGE = 1 << 6;
+    public static final int CHANNEL_MAGNETOMETER = 1 << 7;
+    public static final int CHANNEL_FINGERS = CHANNEL_PINKY | CHANNEL_RING | CHANNEL_MIDDLE | CHANNEL_INDEX | CHANNEL_THUMB;
+    public static final int ALL_CHANNELS = 0xFF;
+
+    public static final int MAX_COMPACT_SIZE = 2 + Frame.FRAME_SIZE - 1;
+
+    // Offset and length of the channel group selected by each mask bit
+    private static final int[] GROUP_OFFSET = {
+            Frame.Offset.PINKY_Z, Frame.Offset.RING_Z, Frame.Offset.MIDDLE_Z, Frame.Offset.INDEX_Z,
+            Frame.Offset.THUMB_Z, Frame.Offset.PALM_Y, Frame.Offset.VOLTAGE, Frame.Offset.MAGNETOMETER_X
+    };
+    private static final int[] GROUP_LENGTH = { 3, 3, 3, 3, 3, 3, 2, 6 };
+
+    // Full frames are sent when every channel is selected
+    private volatile int channelMask = ALL_CHANNELS;
+
+    public void setChannelMask(int mask)
+    {
+        channelMask = mask & ALL_CHANNELS;
+    }
+
+    public int getChannelMask()
+    {
+        return channelMask;
+    }
+
+    @Override
+    public int maxEncodedSize() {
+        return MAX_COMPACT_SIZE;
+    }
+
+    @Override
+    public void encode(Frame frame, ByteBuffer out) {
+        int mask = channelMask;
+        if (mask == ALL_CHANNELS)
+            frame.writeTo(out);
+        else
+            encodeCompact(frame, mask, out);
+    }
+
+    public static int compactSize(int mask)
+    {
+        int size = 2;
+        for (int group = 0; group < GROUP_LENGTH.length; group++) {
+            if ((mask & (1 << group)) != 0)
+                size += GROUP_LENGTH[group];
+        }
+        return size;
+    }
+
+    public static void encodeCompact(Frame frame, int mask, ByteBuffer out)
+    {
+        out.put((byte)mask);
+        out.put(frame.get(Frame.Offset.FRAME_NO));
+        for (int group = 0; group < GROUP_LENGTH.length; group++) {
+            if ((mask & (1 << group)) == 0)
+                continue;
+            int offset = GROUP_OFFSET[group];
+            for (int i = 0; i < GROUP_LENGTH[group]; i++)
+                out.put(frame.get(offset + i));
+        }
+    }
+
+    // Decodes a full frame, returns false if not enough bytes are available
+    public static boolean decodeFull(ByteBuffer in, Frame frame)
+    {
+        if (in.remaining() < Frame.FRAME_SIZE)
+            return false;
+        for (int i = 0; i < Frame.FRAME_SIZE; i++)
+            frame.put(i, in.get());
+        return true;
+    }
+
+    // Decodes a compact frame, channels not present are cleared. Returns
+    // false without consuming anything if the frame is not complete yet.
+    public static boolean decodeCompact(ByteBuffer in, Frame frame)
+    {
+        if (in.remaining() < 2)
+            return false;
+
+        int start = in.position();
+        int mask = in.get(start) & 0xFF;
+        if (in.remaining() < compactSize(mask))
+            return false;
+
+        frame.clear();
+        in.get();
+        frame.put(Frame.Offset.FRAME_NO, in.get());
+        for (int group = 0; group < GROUP_LENGTH.length; group++) {
+            if ((mask & (1 << group)) == 0)
+                continue;
+            int offset = GROUP_OFFSET[group];
+            for (int i = 0; i < GROUP_LENGTH[group]; i++)
+                frame.put(offset + i, in.get());
+        }
+        return true;
+    }
+}
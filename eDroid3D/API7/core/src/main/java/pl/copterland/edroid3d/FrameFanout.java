@@ -0,0 +1,328 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.util.ArrayList;
+
+// Distributes frames to every connected client. The sending thread ticks
+// at the highest rate requested by a running client; each client is served
+// on its own deadlines. Clients with equal filter settings share one
+// smoothing group, so a frame is built once per tick and only copied into
+// the bounded queue of every client. A slow client drops frames from its
+// own queue and never blocks the others. Adaptive clients are served at
+// the rate and window their controller picked.
+//
+// Clients in OnChange mode get a frame only when a smoothed channel moved
+// past its deadband since the last frame sent to them, or when the
+// heartbeat runs out. They are checked on every tick, including the ticks
+// the pipeline runs right after a sample arrives.
+public class FrameFanout {
+    public enum SendMode {
+        Periodic,
+        OnChange
+    }
+
+    public final static int IDLE_RATE = 10;
+    // Change driven frames are sent at most this often
+    public final static int MAX_CHANGE_RATE = 200;
+    private final static long NANOS_PER_SECOND = 1000000000L;
+
+    private final int channels;
+    private final int maxWindow;
+    private volatile ClientSession[] sessions = new ClientSession[0];
+    // Owned by the sending thread
+    private final ArrayList<SmoothingGroup> groups = new ArrayList<SmoothingGroup>();
+    private int tickRate = IDLE_RATE;
+    private boolean orientationRequested = false;
+    private boolean changeDriven = false;
+    private int sampleDemand = 0;
+    private final int[] sensorOverrides = new int[SampleRing.SENSORS];
+    // Samples were pushed since the last tick
+    private boolean pushed = false;
+    private SessionRecorder recorder;
+    // Output range of the smoothed accelerometer channels
+    private int accelerometerRange = Byte.MAX_VALUE;
+
+    public FrameFanout(int channelCount, int maxWindowSize)
+    {
+        channels = channelCount;
+        maxWindow = maxWindowSize;
+    }
+
+    public synchronized void add(ClientSession session)
+    {
+        ClientSession[] updated = new ClientSession[sessions.length + 1];
+        System.arraycopy(sessions, 0, updated, 0, sessions.length);
+        updated[sessions.length] = session;
+        sessions = updated;
+    }
+
+    public synchronized ClientSession remove(WorkerThread worker)
+    {
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i].getWorker() == worker) {
+                ClientSession removed = sessions[i];
+                ClientSession[] updated = new ClientSession[sessions.length - 1];
+                System.arraycopy(sessions, 0, updated, 0, i);
+                System.arraycopy(sessions, i + 1, updated, i, sessions.length - i - 1);
+                sessions = updated;
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    public ClientSession[] getSessions()
+    {
+        return sessions;
+    }
+
+    public int size()
+    {
+        return sessions.length;
+    }
+
+    // Records every frame built, called on the sending thread
+    void setRecorder(SessionRecorder sessionRecorder)
+    {
+        recorder = sessionRecorder;
+    }
+
+    // Full scale of the accelerometer samples, rescaled to 8 bit in the
+    // frame and to 16 bit for extended frames. Called on the sending thread.
+    void setAccelerometerRange(int outputRange)
+    {
+        accelerometerRange = outputRange;
+    }
+
+    // Rate the sending thread should tick at
+    public int getTickRate()
+    {
+        return tickRate;
+    }
+
+    // Whether a running client streams orientation frames
+    public boolean isOrientationRequested()
+    {
+        return orientationRequested;
+    }
+
+    // Whether a running client is in OnChange mode
+    public boolean isChangeDriven()
+    {
+        return changeDriven;
+    }
+
+    // Samples per second the busiest running client averages over
+    public int getSampleDemand()
+    {
+        return sampleDemand;
+    }
+
+    // Highest sensor rate override of a running client, 0 if none
+    public int getSensorOverride(int sensor)
+    {
+        return sensorOverrides[sensor];
+    }
+
+    public void push(int[] sample, long timestamp)
+    {
+        for (int i = 0; i < groups.size(); i++)
+            groups.get(i).engine.push(sample, timestamp);
+        pushed = true;
+    }
+
+    public void tick(Frame template, long now)
+    {
+        tick(template, now, true);
+    }
+
+    // Sends a frame to every running client that is due. The template
+    // provides the channels that are not smoothed. Periodic clients are
+    // skipped on ticks that are not periodic.
+    public void tick(Frame template, long now, boolean periodic)
+    {
+        ClientSession[] current = sessions;
+        regroup(current);
+
+        for (int i = 0; i < groups.size(); i++)
+            groups.get(i).built = false;
+
+        int rate = IDLE_RATE;
+        boolean orientation = false;
+        boolean onChange = false;
+        long demand = 0;
+        for (int s = 0; s < sensorOverrides.length; s++)
+            sensorOverrides[s] = 0;
+        long tickPeriod = NANOS_PER_SECOND / tickRate;
+        for (ClientSession session : current) {
+            if (!session.isRunning()) {
+                session.wasRunning = false;
+                continue;
+            }
+
+            demand = Math.max(demand, (long)session.getEffectiveRate() * session.getEffectiveWindow());
+            for (int s = 0; s < sensorOverrides.length; s++)
+                sensorOverrides[s] = Math.max(sensorOverrides[s], session.getSensorRate(s));
+
+            if (session.getFrameFormat() == FrameEncoder.Format.Orientation)
+                orientation = true;
+            if (session.getSendMode() == SendMode.OnChange) {
+                onChange = true;
+                sendOnChange(session, template, now);
+                continue;
+            }
+
+            int sessionRate = session.getEffectiveRate();
+            rate = Math.max(rate, sessionRate);
+            if (!periodic)
+                continue;
+            long period = NANOS_PER_SECOND / sessionRate;
+            if (!session.wasRunning || now - session.nextDeadline > period) {
+                // Started or fell behind, restart its schedule from now
+                session.nextDeadline = now;
+                session.wasRunning = true;
+            }
+            if (now + tickPeriod / 2 < session.nextDeadline)
+                continue;
+            session.nextDeadline += period;
+
+            session.send(build(session.group, template, now));
+        }
+        for (ClientSession session : current) {
+            if (session.isRunning())
+                session.releaseMerged(now);
+        }
+        tickRate = rate;
+        orientationRequested = orientation;
+        changeDriven = onChange;
+        sampleDemand = (int)Math.min(demand, Integer.MAX_VALUE);
+        pushed = false;
+    }
+
+    private void sendOnChange(ClientSession session, Frame template, long now)
+    {
+        boolean started = !session.wasRunning;
+        session.wasRunning = true;
+        if (!started && now - session.lastSentAt < NANOS_PER_SECOND / MAX_CHANGE_RATE)
+            return;
+
+        SmoothingGroup group = session.group;
+        Frame frame = build(group, template, now);
+        boolean changed = group.hasSamples && session.exceedsDeadband(group.smoothed);
+        if (started || changed || now - session.lastSentAt >= session.getHeartbeat()) {
+            session.send(frame);
+            session.markSent(group.smoothed, now);
+        } else if (pushed) {
+            session.suppressed();
+        }
+    }
+
+    // Builds the frame of the group once per tick
+    private Frame build(SmoothingGroup group, Frame template, long now)
+    {
+        if (!group.built) {
+            group.frame.copyFrom(template);
+            group.frame.setBuiltAt(now);
+            group.hasSamples = group.engine.get(group.smoothed);
+            if (group.hasSamples) {
+                int[] smoothed = group.smoothed;
+                int range = accelerometerRange;
+                group.frame.setAccelerometer(FixedPoint.toByte(FixedPoint.rescale(smoothed[0], range, Byte.MAX_VALUE)),
+                        FixedPoint.toByte(FixedPoint.rescale(smoothed[1], range, Byte.MAX_VALUE)),
+                        FixedPoint.toByte(FixedPoint.rescale(smoothed[2], range, Byte.MAX_VALUE)));
+                group.frame.setWideAccelerometer(FixedPoint.toShort(FixedPoint.rescale(smoothed[0], range, Short.MAX_VALUE)),
+                        FixedPoint.toShort(FixedPoint.rescale(smoothed[1], range, Short.MAX_VALUE)),
+                        FixedPoint.toShort(FixedPoint.rescale(smoothed[2], range, Short.MAX_VALUE)));
+                group.frame.setMagnetometer(smoothed[3], smoothed[4], smoothed[5]);
+            }
+            group.built = true;
+            if (recorder != null)
+                recorder.recordFrame(group.frame);
+        }
+        return group.frame;
+    }
+
+    // Moves sessions whose filter settings changed to a matching group
+    private void regroup(ClientSession[] current)
+    {
+        // Drop the groups of sessions that went away
+        for (int i = groups.size() - 1; i >= 0; i--) {
+            SmoothingGroup group = groups.get(i);
+            group.members = 0;
+            for (ClientSession session : current) {
+                if (session.group == group)
+                    group.members++;
+            }
+            if (group.members == 0)
+                groups.remove(i);
+        }
+
+        for (ClientSession session : current) {
+            SmoothingEngine.Type type = session.getFilterType();
+            int window = session.getEffectiveWindow();
+            SmoothingGroup group = session.group;
+            if (group != null && group.matches(type, window))
+                continue;
+
+            SmoothingGroup target = find(type, window);
+            if (target == null && group != null && group.members == 1) {
+                // Sole member, keep the samples collected so far
+                group.reconfigure(type, window);
+                continue;
+            }
+
+            if (group != null) {
+                group.members--;
+                if (group.members == 0)
+                    groups.remove(group);
+            }
+            if (target == null) {
+                target = new SmoothingGroup(channels, maxWindow, type, window);
+                groups.add(target);
+            }
+            target.members++;
+            session.group = target;
+        }
+    }
+
+    private SmoothingGroup find(SmoothingEngine.Type type, int window)
+    {
+        for (int i = 0; i < groups.size(); i++) {
+            if (groups.get(i).matches(type, window))
+                return groups.get(i);
+        }
+        return null;
+    }
+
+    int getGroupCount()
+    {
+        return groups.size();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+// Encodes frames in the format currently negotiated with the host. With
+// the timestamp trailer every encoded frame is followed by the sample time
+// of the frame in microseconds, unsigned 32 bit, low byte first.
+//
+// Full and Compact frames have no marker of their own. With framing on
+// they are sent as [FRAME_MARKER] [frame], so messages, see FrameWriter,
+// can be told apart from them. The other formats start with a marker
+// anyway and are sent as they are.
+//
+// Settings are changed on the connection thread while the writer thread
+// encodes, so they are published together as one immutable object and
+// applied by the writer thread before the next frame. A frame is never
+// encoded with the channels of one format and the layout of another.
+public class FrameFormatEncoder implements FrameEncoder {
+    public static final int TRAILER_SIZE = 4;
+    public static final int FRAME_MARKER = 0xB8;
+
+    private static final class Settings {
+        final Format format;
+        final int channelMask;
+        final boolean trailer;
+        final boolean framed;
+
+        Settings(Format frameFormat, int mask, boolean timestampTrailer, boolean framing)
+        {
+            format = frameFormat;
+            channelMask = mask;
+            trailer = timestampTrailer;
+            framed = framing;
+        }
+    }
+
+    private final FrameCodec codec = new FrameCodec();
+    private final DeltaFrameEncoder delta = new DeltaFrameEncoder();
+    private final OrientationCodec orientation = new OrientationCodec();
+    private final MultiplexCodec multiplex = new MultiplexCodec();
+    private final ExtendedCodec extended = new ExtendedCodec();
+    private volatile Settings settings = new Settings(Format.Full, FrameCodec.ALL_CHANNELS, false, false);
+    // Settings the codecs were set up for, owned by the encoding thread
+    private Settings applied;
+
+    public synchronized void setFormat(Format frameFormat, int compactChannels)
+    {
+        int mask = frameFormat == Format.Compact ? compactChannels : FrameCodec.ALL_CHANNELS;
+        Settings current = settings;
+        settings = new Settings(frameFormat, mask, current.trailer, current.framed);
+    }
+
+    public synchronized void setTimestampTrailer(boolean enabled)
+    {
+        Settings current = settings;
+        settings = new Settings(current.format, current.channelMask, enabled, current.framed);
+    }
+
+    public synchronized void setFraming(boolean enabled)
+    {
+        Settings current = settings;
+        settings = new Settings(current.format, current.channelMask, current.trailer, enabled);
+    }
+
+    public boolean hasFraming()
+    {
+        return settings.framed;
+    }
+
+    // Whether every frame starts with a marker, so messages can be sent
+    // while streaming
+    public boolean isDelimited()
+    {
+        Settings current = settings;
+        return current.framed || (current.format != Format.Full && current.format != Format.Compact);
+    }
+
+    public boolean hasTimestampTrailer()
+    {
+        return settings.trailer;
+    }
+
+    public Format getFormat()
+    {
+        return settings.format;
+    }
+
+    public DeltaFrameEncoder getDeltaEncoder()
+    {
+        return delta;
+    }
+
+    @Override
+    public int maxEncodedSize() {
+        int size = Math.max(codec.maxEncodedSize(), delta.maxEncodedSize());
+        size = Math.max(size, orientation.maxEncodedSize());
+        size = Math.max(size, multiplex.maxEncodedSize());
+        return Math.max(size, extended.maxEncodedSize()) + 1 + TRAILER_SIZE;
+    }
+
+    @Override
+    public void encode(Frame frame, ByteBuffer out) {
+        Settings current = settings;
+        if (current != applied) {
+            codec.setChannelMask(current.channelMask);
+            // Delta streams start over from a keyframe after every change
+            if (current.format == Format.Delta)
+                delta.requestKeyframe();
+            applied = current;
+        }
+
+        Format format = current.format;
+        if (format == Format.Delta)
+            delta.encode(frame, out);
+        else if (format == Format.Orientation)
+            orientation.encode(frame, out);
+        else if (format == Format.Multiplexed)
+            multiplex.encode(frame, out);
+        else if (format == Format.Extended)
+            extended.encode(frame, out);
+        else {
+            if (current.framed)
+                out.put((byte)FRAME_MARKER);
+            codec.encode(frame, out);
+        }
+
+        if (current.trailer) {
+            int micros = (int)(frame.getTimestamp() / 1000);
+            out.put((byte)micros);
+            out.put((byte)(micros >> 8));
+            out.put((byte)(micros >> 16));
+            out.put((byte)(micros >> 24));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+package pl.copterland.edroid3d;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// Hub mode: peer devices connect to the hub transport and stream their
+// frames in the Multiplexed format. Every peer gets a source id and its
+// frames are merged, in sample time order, into the stream of every client
+// that selected the Multiplexed format, next to the frames of this device
+// (source 0). Peer clocks are mapped onto ours with the smallest observed
+// difference between arrival and sample time.
+public class FrameHub extends Thread {
+    public interface Listener {
+        void onHubStatus(String message);
+    }
+
+    public final static int LOCAL_SOURCE = 0;
+    public final static int MAX_PEERS = SourceMerger.MAX_SOURCES - 1;
+
+    private final Transport transport;
+    private final FrameFanout fanout;
+    private final Listener listener;
+    // Indexed by source id, guarded by peers
+    private final PeerReader[] peers = new PeerReader[SourceMerger.MAX_SOURCES];
+    private volatile boolean cancelled = false;
+
+    private class PeerReader extends Thread {
+        private final Transport.Connection connection;
+        private final int source;
+        private final Frame frame = new Frame();
+        private long lastMicros = -1;
+        private long peerTime;
+        private long offset = Long.MAX_VALUE;
+        private volatile long received = 0;
+        private volatile long corrupted = 0;
+
+        PeerReader(Transport.Connection peerConnection, int sourceId) {
+            connection = peerConnection;
+            source = sourceId;
+        }
+
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(MultiplexCodec.SIZE * 16);
+            try {
+                InputStream in = connection.getInputStream();
+                while (!cancelled) {
+                    int bytes = in.read(buffer.array(), buffer.position(), buffer.remaining());
+                    if (bytes < 0)
+                        break;
+                    buffer.position(buffer.position() + bytes);
+                    buffer.flip();
+                    int result;
+                    while ((result = MultiplexCodec.decode(buffer, frame)) != DeltaFrameDecoder.INCOMPLETE) {
+                        if (result == DeltaFrameDecoder.CORRUPTED)
+                            corrupted++;
+                        else
+                            forward(System.nanoTime());
+                    }
+                    buffer.compact();
+                }
+            } catch (IOException e) {
+                // Dropped below
+            }
+            try {
+                connection.close();
+            } catch (IOException e) { }
+            removePeer(this);
+        }
+
+        private void forward(long now) {
+            // Unwrap the 32 bit microseconds of the peer
+            long micros = frame.getTimestamp() / 1000;
+            if (lastMicros < 0)
+                peerTime = micros * 1000;
+            else
+                peerTime += ((micros - lastMicros) & 0xFFFFFFFFL) * 1000;
+            lastMicros = micros;
+            offset = Math.min(offset, now - peerTime);
+            frame.setTimestamp(peerTime + offset);
+            received++;
+            dispatch(source, frame, now);
+        }
+    }
+
+    public FrameHub(Transport hubTransport, FrameFanout frameFanout, Listener hubListener) {
+        transport = hubTransport;
+        fanout = frameFanout;
+        listener = hubListener;
+    }
+
+    public void run() {
+        while (!cancelled) {
+            Transport.Connection connection;
+            try {
+                listener.onHubStatus("Hub waiting for peers on " + transport.getName() + "...");
+                connection = transport.accept();
+            } catch (IOException e) {
+                if (!cancelled)
+                    listener.onHubStatus("Hub stopped listening: " + e.getMessage());
+                break;
+            }
+            if (connection == null)
+                continue;
+
+            PeerReader peer = null;
+            synchronized (peers) {
+                for (int s = LOCAL_SOURCE + 1; s < peers.length && peer == null; s++) {
+                    if (peers[s] == null)
+                        peer = peers[s] = new PeerReader(connection, s);
+                }
+            }
+            if (peer == null) {
+                listener.onHubStatus("Hub full, rejected: " + connection.getName());
+                try {
+                    connection.close();
+                } catch (IOException e) { }
+                continue;
+            }
+            listener.onHubStatus("Peer " + peer.source + " connected: " + connection.getName());
+            peer.start();
+        }
+
+        try {
+            transport.close();
+        } catch (IOException e) { }
+    }
+
+    // Hands a peer frame to every client receiving the multiplexed stream
+    private void dispatch(int source, Frame frame, long now) {
+        for (ClientSession session : fanout.getSessions())
+            session.offerPeerFrame(source, frame, now);
+    }
+
+    private void removePeer(PeerReader peer) {
+        synchronized (peers) {
+            peers[peer.source] = null;
+        }
+        listener.onHubStatus("Peer " + peer.source + " disconnected, " + peer.received + " frames, "
+                + peer.corrupted + " corrupted");
+    }
+
+    public int getPeerCount() {
+        int count = 0;
+        synchronized (peers) {
+            for (PeerReader peer : peers) {
+                if (peer != null)
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    // Stops accepting and disconnects every peer
+    public void cancel() {
+        cancelled = true;
+        try {
+            transport.close();
+        } catch (IOException e) { }
+
+        synchronized (peers) {
+            for (PeerReader peer : peers) {
+                if (peer == null)
+                    continue;
+                try {
+                    peer.connection.close();
+                } catch (IOException e) { }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Latency of the stages a frame passes on its way to one connection, all
+// in System.nanoTime() base:
+//   Smoothing  newest sample to frame built
+//   Fanout     frame built to frame queued for the connection
+//   Queue      queued to taken by the writer
+//   Write      taken to written to the link
+//   Total      newest sample to written
+// A frame costs a few histogram increments, cheap enough to stay enabled.
+public class FrameLatency {
+    public enum Stage {
+        Smoothing,
+        Fanout,
+        Queue,
+        Write,
+        Total
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    // Frames taken by the writer but not written yet, writer thread only
+    private final long[] pendingSamples;
+    private int pending = 0;
+    private long dequeuedAt;
+
+    public FrameLatency(int maxFramesPerWrite)
+    {
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+        pendingSamples = new long[maxFramesPerWrite];
+    }
+
+    // Called by the producer when the frame is handed to the queue
+    public void onEnqueued(Frame frame, long now)
+    {
+        frame.setEnqueuedAt(now);
+        if (frame.getTimestamp() != 0)
+            histograms[Stage.Smoothing.ordinal()].record(frame.getBuiltAt() - frame.getTimestamp());
+        if (frame.getBuiltAt() != 0)
+            histograms[Stage.Fanout.ordinal()].record(now - frame.getBuiltAt());
+    }
+
+    // Called by the writer thread for every frame it takes
+    public void onDequeued(Frame frame, long now)
+    {
+        histograms[Stage.Queue.ordinal()].record(now - frame.getEnqueuedAt());
+        if (pending < pendingSamples.length)
+            pendingSamples[pending++] = frame.getTimestamp();
+        dequeuedAt = now;
+    }
+
+    // Called by the writer thread once the frames it took are written
+    public void onWritten(long now)
+    {
+        if (pending == 0)
+            return;
+        histograms[Stage.Write.ordinal()].record(now - dequeuedAt);
+        for (int i = 0; i < pending; i++) {
+            if (pendingSamples[i] != 0)
+                histograms[Stage.Total.ordinal()].record(now - pendingSamples[i]);
+        }
+        pending = 0;
+    }
+
+    public LatencyHistogram get(Stage stage)
+    {
+        return histograms[stage.ordinal()];
+    }
+
+    public void reset()
+    {
+        for (LatencyHistogram histogram : histograms)
+            histogram.reset();
+    }
+
+    // One line per stage
+    public String summary()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : Stage.values())
+            builder.append(stage).append(": ").append(get(stage).summary()).append('\n');
+        return builder.toString();
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Turns raw sensor samples into frames. Every scheduler tick drains the
+// sample ring, normalizes and smooths the samples and hands the frame to
+// the fan-out, which serves the connected clients. The scheduler follows
+// the rate of the fastest running client. Used by the app and by the
+// headless simulator alike. While a client streams orientation frames every
+// sample is also fed to the orientation fusion. While a client sends on
+// change, every sample offered wakes the scheduler, so a change is sent
+// without waiting for the next tick. With a SensorRateController the
+// sensors are sampled only as fast as the clients need. Adaptive clients
+// follow the battery state and the motion measured here, see
+// AdaptiveRateController.
+public class FramePipeline implements Runnable {
+    public interface Listener {
+        // Called on the pipeline thread
+        void onPipelineStatus(String message);
+    }
+
+    // Sample channels: accelerometer xyz followed by magnetometer xyz
+    public final static int CHANNELS = 6;
+    public final static int MAX_WINDOW = 128;
+    public final static int MAX_MAGNETOMETER_OUTPUT = 2047;
+    // Frames carry the accelerometer at 8 bit, extended frames at 16 bit
+    public final static int MAX_ACCELEROMETER_OUTPUT = Short.MAX_VALUE;
+
+    private final SampleRing ring;
+    private final FrameFanout fanout = new FrameFanout(CHANNELS, MAX_WINDOW);
+    private final FrameScheduler scheduler;
+    private final FrameScheduler.Clock clock;
+
+    private final Frame template = new Frame();
+    private final int[] sample = new int[CHANNELS];
+    private boolean updatedAccelerometer = false;
+    private boolean updatedMagnetometer = false;
+    private final SensorCalibration accelerometer;
+    private final SensorCalibration magnetometer;
+    private long lastSampleTime = 0;
+    private final OrientationFusion fusion = new OrientationFusion();
+    private boolean fusionEnabled = false;
+
+    private volatile int batteryVoltage = 0;
+    private volatile int batteryLevel = AdaptiveRateController.UNKNOWN;
+    private volatile boolean charging = false;
+    private volatile int batteryTemperature = AdaptiveRateController.UNKNOWN;
+    // Mean change of the accelerometer between samples, in frame units
+    private float activity = -1;
+    private final int[] lastAccelerometer = new int[3];
+    private volatile boolean changeDriven = false;
+    private volatile SensorRateController sensorRates;
+    private final int[] sensorOverrides = new int[SampleRing.SENSORS];
+    // Sensor events per second, updated once a second
+    private volatile long sensorRate = 0;
+    private long rateEvents = 0;
+    private long rateSince = 0;
+
+    // Recording is switched on the pipeline thread, see applyRecorder()
+    private final AtomicReference<SessionRecorder> pendingRecorder = new AtomicReference<SessionRecorder>();
+    private SessionRecorder recorder;
+    private volatile Listener listener;
+
+    // Registered in the static registry until the pipeline is cancelled
+    private final MetricsRegistry.Gauge sensorRateGauge = new MetricsRegistry.Gauge() {
+        @Override
+        public long get() {
+            return sensorRate;
+        }
+    };
+    private final MetricsRegistry.Gauge queueDepthGauge = new MetricsRegistry.Gauge() {
+        @Override
+        public long get() {
+            long depth = 0;
+            for (ClientSession session : fanout.getSessions())
+                depth += session.getWorker().getQueue().size();
+            return depth;
+        }
+    };
+    private final MetricsRegistry.Gauge clientsGauge = new MetricsRegistry.Gauge() {
+        @Override
+        public long get() {
+            return fanout.size();
+        }
+    };
+
+    private final SampleRing.Consumer sampleConsumer = new SampleRing.Consumer() {
+        @Override
+        public void onSample(int sensor, long timestamp, float x, float y, float z) {
+            processSample(sensor, timestamp, x, y, z);
+        }
+    };
+
+    public FramePipeline(SampleRing sampleRing)
+    {
+        this(sampleRing, FrameScheduler.SYSTEM_CLOCK);
+    }
+
+    public FramePipeline(SampleRing sampleRing, FrameScheduler.Clock schedulerClock)
+    {
+        ring = sampleRing;
+        clock = schedulerClock;
+        CalibrationProfile defaults = new CalibrationProfile("default");
+        accelerometer = new SensorCalibration(defaults.getAccelerometer());
+        magnetometer = new SensorCalibration(defaults.getMagnetometer());
+        scheduler = new FrameScheduler(this, FrameFanout.IDLE_RATE, FrameScheduler.OverrunPolicy.Skip, clock);
+        ring.setOfferListener(new Runnable() {
+            @Override
+            public void run() {
+                if (changeDriven)
+                    scheduler.wakeUp();
+            }
+        });
+        registerGauges();
+    }
+
+    // The gauges of the latest pipeline replace those of earlier ones
+    private void registerGauges()
+    {
+        Metrics.REGISTRY.gauge(Metrics.SENSOR_RATE, sensorRateGauge);
+        Metrics.REGISTRY.gauge(Metrics.QUEUE_DEPTH, queueDepthGauge);
+        Metrics.REGISTRY.gauge(Metrics.CLIENTS, clientsGauge);
+    }
+
+    // The gauges reach the fanout and its sessions, they must not outlive
+    // the pipeline
+    private void unregisterGauges()
+    {
+        Metrics.REGISTRY.remove(Metrics.SENSOR_RATE, sensorRateGauge);
+        Metrics.REGISTRY.remove(Metrics.QUEUE_DEPTH, queueDepthGauge);
+        Metrics.REGISTRY.remove(Metrics.CLIENTS, clientsGauge);
+    }
+
+    private void updateSensorRate(long now)
+    {
+        if (now - rateSince < 1000000000L)
+            return;
+        long events = Metrics.SENSOR_EVENTS.get();
+        if (rateSince != 0)
+            sensorRate = (events - rateEvents) * 1000000000L / (now - rateSince);
+        rateEvents = events;
+        rateSince = now;
+    }
+
+    public void start()
+    {
+        scheduler.start();
+    }
+
+    public void cancel()
+    {
+        scheduler.cancel();
+        try {
+            scheduler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // The scheduler is gone, the recorder can be closed from here
+        pendingRecorder.set(null);
+        applyRecorder();
+        unregisterGauges();
+    }
+
+    public FrameFanout getFanout()
+    {
+        return fanout;
+    }
+
+    public FrameScheduler getScheduler()
+    {
+        return scheduler;
+    }
+
+    public SampleRing getSampleRing()
+    {
+        return ring;
+    }
+
+    // The accelerometer output range is the resolution of the samples, it is
+    // rescaled to bytes in the frame. Magnetometer values are sent as 12 bit.
+    public void setCalibration(CalibrationProfile profile)
+    {
+        if (profile.getAccelerometer().getOutputRange() > MAX_ACCELEROMETER_OUTPUT)
+            throw new IllegalArgumentException("Accelerometer output range above " + MAX_ACCELEROMETER_OUTPUT);
+        if (profile.getMagnetometer().getOutputRange() > MAX_MAGNETOMETER_OUTPUT)
+            throw new IllegalArgumentException("Magnetometer output range above " + MAX_MAGNETOMETER_OUTPUT);
+        accelerometer.setSettings(profile.getAccelerometer());
+        magnetometer.setSettings(profile.getMagnetometer());
+    }
+
+    public SensorCalibration getAccelerometerCalibration()
+    {
+        return accelerometer;
+    }
+
+    public SensorCalibration getMagnetometerCalibration()
+    {
+        return magnetometer;
+    }
+
+    // Adjusts the sensor rates after every tick
+    public void setSensorRateController(SensorRateController controller)
+    {
+        sensorRates = controller;
+    }
+
+    // Battery voltage in mV, sent in every frame
+    public void setVoltage(int millivolts)
+    {
+        batteryVoltage = millivolts;
+    }
+
+    // Level in percent and temperature in tenths of a degree Celsius,
+    // AdaptiveRateController.UNKNOWN when not known
+    public void setBattery(int percent, boolean pluggedIn, int temperature)
+    {
+        batteryLevel = percent;
+        charging = pluggedIn;
+        batteryTemperature = temperature;
+    }
+
+    // Records samples and frames from the next tick on, a recorder that is
+    // replaced or stopped is closed by the pipeline thread
+    public void startRecording(SessionRecorder sessionRecorder)
+    {
+        pendingRecorder.set(sessionRecorder);
+    }
+
+    public void stopRecording()
+    {
+        pendingRecorder.set(null);
+    }
+
+    // Recorder in use after the next tick
+    public SessionRecorder getRecorder()
+    {
+        return pendingRecorder.get();
+    }
+
+    public void setListener(Listener pipelineListener)
+    {
+        listener = pipelineListener;
+    }
+
+    private void status(String message)
+    {
+        Listener current = listener;
+        if (current != null)
+            current.onPipelineStatus(message);
+    }
+
+    private void applyRecorder()
+    {
+        // A recorder that failed to write is stopped, unless it was
+        // replaced in the meantime
+        if (recorder != null && recorder.getError() != null) {
+            status("Recording failed: " + recorder.getError().getMessage());
+            pendingRecorder.compareAndSet(recorder, null);
+        }
+
+        SessionRecorder next = pendingRecorder.get();
+        if (next == recorder)
+            return;
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                status("Cannot close the recording: " + e.getMessage());
+            }
+        }
+        recorder = next;
+        fanout.setRecorder(recorder);
+    }
+
+    @Override
+    public void run() {
+        applyRecorder();
+        ring.drain(sampleConsumer);
+
+        template.setVoltage(batteryVoltage);
+        template.setTimestamp(lastSampleTime);
+        if (fusionEnabled)
+            fusion.writeTo(template);
+        long now = clock.nanoTime();
+        fanout.setAccelerometerRange(accelerometer.getOutputRange());
+        fanout.tick(template, now, !scheduler.isWakeUp());
+        updateSensorRate(now);
+        for (ClientSession session : fanout.getSessions()) {
+            if (session.isRunning())
+                session.adapt(now, batteryLevel, charging, batteryTemperature, activity);
+        }
+        changeDriven = fanout.isChangeDriven();
+
+        // The fusion runs only while somebody needs it and starts over
+        // from fresh samples when it is switched on again
+        if (fanout.isOrientationRequested() != fusionEnabled) {
+            fusionEnabled = !fusionEnabled;
+            fusion.reset();
+        }
+
+        // Tick as fast as the fastest running client
+        int rate = fanout.getTickRate();
+        if (rate != scheduler.getRate())
+            scheduler.setRate(rate);
+
+        SensorRateController controller = sensorRates;
+        if (controller != null) {
+            for (int s = 0; s < sensorOverrides.length; s++)
+                sensorOverrides[s] = fanout.getSensorOverride(s);
+            controller.update(rate, fanout.getSampleDemand(), sensorOverrides, fusionEnabled, changeDriven);
+        }
+    }
+
+    private void processSample(int sensor, long timestamp, float x, float y, float z) {
+        if (recorder != null)
+            recorder.recordSample(sensor, timestamp, x, y, z);
+
+        if (sensor == SampleRing.ACCELEROMETER) {
+            accelerometer.apply(x, y, z, sample, 0);
+            updatedAccelerometer = true;
+            updateActivity();
+            if (fusionEnabled)
+                fusion.onAccelerometer(timestamp, accelerometer.getCorrected(0),
+                        accelerometer.getCorrected(1), accelerometer.getCorrected(2));
+        }
+
+        if (sensor == SampleRing.MAGNETOMETER) {
+            magnetometer.apply(x, y, z, sample, 3);
+            updatedMagnetometer = true;
+            if (fusionEnabled)
+                fusion.onMagnetometer(timestamp, magnetometer.getCorrected(0),
+                        magnetometer.getCorrected(1), magnetometer.getCorrected(2));
+        }
+
+        if (sensor == SampleRing.GYROSCOPE) {
+            if (fusionEnabled)
+                fusion.onGyroscope(timestamp, x, y, z);
+            return;
+        }
+
+        if (updatedAccelerometer == true && updatedMagnetometer == true)
+        {
+            fanout.push(sample, timestamp);
+            lastSampleTime = timestamp;
+
+            updatedAccelerometer = false;
+            updatedMagnetometer = false;
+        }
+    }
+
+    // Exponential average over about 32 samples, in frame units
+    private void updateActivity()
+    {
+        float change = (Math.abs(sample[0] - lastAccelerometer[0]) + Math.abs(sample[1] - lastAccelerometer[1])
+                + Math.abs(sample[2] - lastAccelerometer[2])) * (float)Byte.MAX_VALUE / accelerometer.getOutputRange();
+        System.arraycopy(sample, 0, lastAccelerometer, 0, lastAccelerometer.length);
+        activity = activity < 0 ? change : activity + (change - activity) / 32;
+    }
+}
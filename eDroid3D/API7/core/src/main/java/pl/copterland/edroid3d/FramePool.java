@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Fixed set of preallocated frames. A frame taken with acquire() is owned by
+// the caller until it is handed to a FrameQueue, which releases it back here
+// once it has been written or dropped.
+public class FramePool {
+    private final Frame[] free;
+    private final int size;
+    private int available;
+    private volatile long exhausted = 0;
+
+    public FramePool(int poolSize, boolean direct)
+    {
+        size = poolSize;
+        free = new Frame[poolSize];
+        for (int i = 0; i < poolSize; i++)
+            free[i] = new Frame(direct);
+        available = poolSize;
+    }
+
+    // Returns null when every frame is in use
+    public synchronized Frame acquire()
+    {
+        if (available == 0) {
+            exhausted++;
+            return null;
+        }
+        Frame frame = free[--available];
+        free[available] = null;
+        return frame;
+    }
+
+    public synchronized void release(Frame frame)
+    {
+        if (available == size)
+            throw new IllegalStateException("Frame released twice");
+        free[available++] = frame;
+    }
+
+    public synchronized int available()
+    {
+        return available;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public long getExhausted()
+    {
+        return exhausted;
+    }
+}
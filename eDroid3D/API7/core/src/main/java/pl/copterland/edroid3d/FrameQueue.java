@@ -0,0 +1,239 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+// Bounded queue of pooled outgoing frames. Producers never block, when the
+// queue is full the policy decides what is dropped. Queued frames are owned
+// by the queue and go back to the pool after being written or dropped.
+// A batch that does not fill up is written once its oldest frame waited
+// MAX_HOLD, or right away after flush().
+public class FrameQueue {
+    public enum Policy {
+        // Drop the oldest pending frame to make room for the new one
+        DropOldest,
+        // Keep only the newest frame, pending frames are replaced
+        CoalesceLatest,
+        // Hand frames to the writer only in groups of batchSize
+        Batch
+    }
+
+    public final static long MAX_HOLD = 50000000L;
+
+    private final int capacity;
+    private final Frame[] frames;
+    // Time every pending frame was queued at, for the hold of a batch
+    private final long[] queuedAt;
+    private final FramePool pool;
+    private Policy policy;
+    private int batchSize;
+
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+    private boolean flushing = false;
+    private FrameLatency latency;
+
+    private volatile long queued = 0;
+    private volatile long dropped = 0;
+
+    public FrameQueue(int queueCapacity, FramePool framePool, Policy queuePolicy, int framesPerBatch)
+    {
+        if (framesPerBatch < 1 || framesPerBatch > queueCapacity)
+            throw new IllegalArgumentException("Invalid batch size: " + framesPerBatch);
+
+        capacity = queueCapacity;
+        frames = new Frame[capacity];
+        queuedAt = new long[capacity];
+        pool = framePool;
+        policy = queuePolicy;
+        batchSize = framesPerBatch;
+    }
+
+    public synchronized void setPolicy(Policy queuePolicy, int framesPerBatch)
+    {
+        if (framesPerBatch < 1 || framesPerBatch > capacity)
+            throw new IllegalArgumentException("Invalid batch size: " + framesPerBatch);
+
+        policy = queuePolicy;
+        batchSize = framesPerBatch;
+        notifyAll();
+    }
+
+    // Takes ownership of the frame
+    public synchronized boolean offer(Frame frame)
+    {
+        if (closed) {
+            pool.release(frame);
+            return false;
+        }
+
+        if (policy == Policy.CoalesceLatest) {
+            while (count > 0)
+                dropHead();
+        } else if (count == capacity) {
+            dropHead();
+        }
+
+        int tail = (head + count) % capacity;
+        frames[tail] = frame;
+        queuedAt[tail] = System.nanoTime();
+        count++;
+        queued++;
+        notifyAll();
+        return true;
+    }
+
+    private void dropHead()
+    {
+        pool.release(frames[head]);
+        frames[head] = null;
+        head = (head + 1) % capacity;
+        count--;
+        dropped++;
+        Metrics.FRAMES_DROPPED.increment();
+    }
+
+    // Blocks until frames are available and encodes up to maxFrames of them
+    // contiguously into out. Returns the number of frames written, or -1
+    // when the queue was closed.
+    public synchronized int take(ByteBuffer out, int maxFrames, FrameEncoder encoder) throws InterruptedException
+    {
+        while (!closed && count < (policy == Policy.Batch ? batchSize : 1)) {
+            if (count == 0) {
+                flushing = false;
+                wait();
+                continue;
+            }
+            if (flushing)
+                break;
+            long held = System.nanoTime() - queuedAt[head];
+            if (held >= MAX_HOLD)
+                break;
+            long left = MAX_HOLD - held;
+            wait(left / 1000000L, (int)(left % 1000000L));
+        }
+        if (closed)
+            return -1;
+
+        long now = latency != null ? System.nanoTime() : 0;
+        int written = 0;
+        while (count > 0 && written < maxFrames && out.remaining() >= encoder.maxEncodedSize()) {
+            if (latency != null)
+                latency.onDequeued(frames[head], now);
+            encoder.encode(frames[head], out);
+            pool.release(frames[head]);
+            frames[head] = null;
+            head = (head + 1) % capacity;
+            count--;
+            written++;
+        }
+        if (count == 0)
+            flushing = false;
+        if (written > 0)
+            notifyAll();
+        return written;
+    }
+
+    // Records the queue stage of every frame taken, see FrameLatency
+    public synchronized void setLatency(FrameLatency frameLatency)
+    {
+        latency = frameLatency;
+    }
+
+    public synchronized FrameLatency getLatency()
+    {
+        return latency;
+    }
+
+    // Blocks while the queue is full, for producers that wait for the writer
+    // instead of dropping. Returns false once the queue is closed.
+    public synchronized boolean awaitRoom() throws InterruptedException
+    {
+        while (!closed && count >= capacity)
+            wait();
+        return !closed;
+    }
+
+    // Hands the pending frames to the writer without waiting for a full
+    // batch, e.g. when the stream stops
+    public synchronized void flush()
+    {
+        flushing = true;
+        notifyAll();
+    }
+
+    public synchronized void close()
+    {
+        closed = true;
+        while (count > 0) {
+            pool.release(frames[head]);
+            frames[head] = null;
+            head = (head + 1) % capacity;
+            count--;
+        }
+        notifyAll();
+    }
+
+    public synchronized int size()
+    {
+        return count;
+    }
+
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    public synchronized Policy getPolicy()
+    {
+        return policy;
+    }
+
+    public synchronized int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public synchronized int getFramesPerWrite()
+    {
+        return policy == Policy.Batch ? batchSize : capacity;
+    }
+
+    public long getQueued()
+    {
+        return queued;
+    }
+
+    public long getDropped()
+    {
+        return dropped;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Runs a task at a fixed rate using absolute deadlines on a monotonic clock.
+// Deadline n is epoch + n * 1s / rate, so neither the task duration nor
+// integer rounding of the period accumulates into drift. wakeUp() runs the
+// task once right away, between the deadlines, without moving the grid.
+public class FrameScheduler extends Thread {
+    private final static long NANOS_PER_SECOND = 1000000000L;
+
+    public interface Clock {
+        long nanoTime();
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long nanos) throws InterruptedException {
+            // Parked instead of sleeping, so wakeUp() ends the wait early
+            LockSupport.parkNanos(nanos);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    };
+
+    public enum OverrunPolicy {
+        // Run every missed tick back to back until the schedule is met again
+        CatchUp,
+        // Drop the missed ticks and wait for the next one on the grid
+        Skip
+    }
+
+    private final Runnable task;
+    private final Clock clock;
+    private final SchedulerStats stats = new SchedulerStats();
+    private volatile OverrunPolicy policy;
+    private volatile int pendingRate;
+    private volatile boolean running = true;
+    private volatile boolean woken = false;
+    private volatile long wakeUps = 0;
+    private boolean wakeUpRun = false;
+
+    private int rate = 0;
+    private long epoch;
+    private long tick;
+
+    public FrameScheduler(Runnable scheduledTask, int samplesPerSecond, OverrunPolicy overrunPolicy, Clock schedulerClock)
+    {
+        super("FrameScheduler");
+        task = scheduledTask;
+        clock = schedulerClock;
+        policy = overrunPolicy;
+        setRate(samplesPerSecond);
+    }
+
+    public FrameScheduler(Runnable scheduledTask, int samplesPerSecond)
+    {
+        this(scheduledTask, samplesPerSecond, OverrunPolicy.Skip, SYSTEM_CLOCK);
+    }
+
+    public void setRate(int samplesPerSecond)
+    {
+        if (samplesPerSecond <= 0)
+            throw new IllegalArgumentException("Rate must be positive: " + samplesPerSecond);
+        pendingRate = samplesPerSecond;
+    }
+
+    // Last requested rate, applied before the next tick
+    public int getRate()
+    {
+        return pendingRate;
+    }
+
+    public void setOverrunPolicy(OverrunPolicy overrunPolicy)
+    {
+        policy = overrunPolicy;
+    }
+
+    public SchedulerStats getStats()
+    {
+        return stats;
+    }
+
+    // Runs the task as soon as possible, may be called from any thread
+    public void wakeUp()
+    {
+        woken = true;
+        LockSupport.unpark(this);
+    }
+
+    // Whether the task running now was started by wakeUp()
+    public boolean isWakeUp()
+    {
+        return wakeUpRun;
+    }
+
+    public long getWakeUps()
+    {
+        return wakeUps;
+    }
+
+    public void run() {
+        try {
+            while (running)
+                step();
+        } catch (InterruptedException e) { }
+    }
+
+    // Waits for the next deadline and runs the task once
+    public void step() throws InterruptedException
+    {
+        if (pendingRate != rate) {
+            // Restart the schedule from now whenever the rate changes
+            rate = pendingRate;
+            epoch = clock.nanoTime();
+            tick = 0;
+            stats.reset();
+        }
+
+        long deadline = deadline(tick);
+        long now = clock.nanoTime();
+        while (now < deadline && !woken) {
+            clock.sleep(deadline - now);
+            now = clock.nanoTime();
+        }
+
+        // A wake up that comes with the deadline is served by the tick
+        woken = false;
+        if (now < deadline) {
+            wakeUps++;
+            wakeUpRun = true;
+            task.run();
+            wakeUpRun = false;
+            return;
+        }
+
+        stats.record(now, now - deadline);
+        task.run();
+        tick++;
+
+        if (policy == OverrunPolicy.Skip) {
+            now = clock.nanoTime();
+            long next = tick;
+            while (deadline(next) <= now)
+                next++;
+            // Stay on the original grid, only the missed ticks are dropped
+            if (next > tick) {
+                stats.recordSkipped(next - tick);
+                tick = next;
+            }
+        }
+    }
+
+    private long deadline(long n)
+    {
+        return epoch + n * NANOS_PER_SECOND / rate;
+    }
+
+    public void cancel()
+    {
+        running = false;
+        interrupt();
+    }
+}
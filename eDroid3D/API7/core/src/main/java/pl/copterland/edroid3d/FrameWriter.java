@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Drains a FrameQueue into the output stream, so a slow link never blocks
+// the thread producing frames. Pending frames are sent in a single write.
+// Other messages for the host are written between two writes of frames as
+// [MESSAGE_MARKER][type][length, low byte first][payload].
+// Whether a message may be sent while streaming depends on the format,
+// see FrameFormatEncoder.isDelimited().
+// A posted message is written by the writer thread ahead of the next
+// frames, so the thread posting it never waits for the link.
+public class FrameWriter extends Thread {
+    public static final int MESSAGE_MARKER = 0xB7;
+    public static final int MESSAGE_HEADER_SIZE = 4;
+
+    public interface Listener {
+        void onWriteFailed(IOException e);
+    }
+
+    private final FrameQueue queue;
+    private final FrameEncoder encoder;
+    private final OutputStream outStream;
+    private final Listener listener;
+    private final ByteBuffer batch;
+    private final AtomicReference<byte[]> posted = new AtomicReference<byte[]>();
+
+    private volatile long bytesSent = 0;
+    private volatile long writes = 0;
+
+    public FrameWriter(FrameQueue frameQueue, FrameEncoder frameEncoder, OutputStream stream, Listener writeListener)
+    {
+        super("FrameWriter");
+        queue = frameQueue;
+        encoder = frameEncoder;
+        outStream = stream;
+        listener = writeListener;
+        batch = ByteBuffer.allocate(frameQueue.capacity() * frameEncoder.maxEncodedSize());
+    }
+
+    public void run() {
+        try {
+            while (true) {
+                batch.clear();
+                int frames = queue.take(batch, queue.getFramesPerWrite(), encoder);
+                if (frames < 0)
+                    break;
+
+                int bytes = batch.position();
+                byte[] message = posted.getAndSet(null);
+                if (message != null)
+                    write(message);
+                long start = System.nanoTime();
+                synchronized (outStream) {
+                    outStream.write(batch.array(), 0, bytes);
+                    outStream.flush();
+                }
+                long written = System.nanoTime();
+                FrameLatency latency = queue.getLatency();
+                if (latency != null)
+                    latency.onWritten(written);
+                bytesSent += bytes;
+                writes++;
+                Metrics.FRAMES_SENT.add(frames);
+                Metrics.BYTES_SENT.add(bytes);
+                Metrics.WRITES.increment();
+                Metrics.WRITE_NANOS.add(written - start);
+                Metrics.WRITE_MAX_NANOS.record(written - start);
+            }
+        } catch (InterruptedException e) {
+        } catch (IOException e) {
+            queue.close();
+            listener.onWriteFailed(e);
+        }
+    }
+
+    // Writes a message from any thread, never in the middle of frames
+    public void writeMessage(int type, byte[] payload) throws IOException
+    {
+        write(message(type, payload));
+    }
+
+    // Sends a message with the next frames, replacing a posted message
+    // that was not written yet
+    public void postMessage(int type, byte[] payload)
+    {
+        posted.set(message(type, payload));
+    }
+
+    private static byte[] message(int type, byte[] payload)
+    {
+        if (payload.length > 0xFFFF)
+            throw new IllegalArgumentException("Message too long: " + payload.length);
+
+        byte[] message = new byte[MESSAGE_HEADER_SIZE + payload.length];
+        message[0] = (byte)MESSAGE_MARKER;
+        message[1] = (byte)type;
+        message[2] = (byte)payload.length;
+        message[3] = (byte)(payload.length >> 8);
+        System.arraycopy(payload, 0, message, MESSAGE_HEADER_SIZE, payload.length);
+        return message;
+    }
+
+    private void write(byte[] message) throws IOException
+    {
+        synchronized (outStream) {
+            outStream.write(message);
+            outStream.flush();
+        }
+        bytesSent += message.length;
+        Metrics.BYTES_SENT.add(message.length);
+    }
+
+    public void cancel()
+    {
+        queue.close();
+        interrupt();
+    }
+
+    public long getBytesSent()
+    {
+        return bytesSent;
+    }
+
+    public long getWrites()
+    {
+        return writes;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+
+// Peer mode: connects to the hub of another device, see FrameHub, and
+// streams the frames of this device to it in the Multiplexed format, the
+// way a client that sent 'M' and 'R' gets them. The session follows the
+// rate of the pipeline like any other client. The hub name is resolved on
+// this thread. A dropped link is dialled again after RETRY_MS until
+// cancelled.
+public class HubUplink extends Thread implements WorkerThread.Listener, ClientSession.Listener {
+    public interface Listener {
+        void onUplinkStatus(String message);
+    }
+
+    public final static int CONNECT_TIMEOUT_MS = 3000;
+    public final static long RETRY_MS = 2000;
+    private final static int BUFFER_SIZE = 8192;
+
+    private final String host;
+    private final int port;
+    private final FrameFanout fanout;
+    private final int compactChannels;
+    private final Listener listener;
+    // Worker of the current link, guarded by this
+    private WorkerThread worker;
+    private volatile boolean cancelled = false;
+
+    public HubUplink(String hubHost, int hubPort, FrameFanout frameFanout, int compactChannelMask,
+                     Listener uplinkListener) {
+        super("HubUplink");
+        host = hubHost;
+        port = hubPort;
+        fanout = frameFanout;
+        compactChannels = compactChannelMask;
+        listener = uplinkListener;
+    }
+
+    public void run() {
+        try {
+            while (!cancelled) {
+                WorkerThread current = connect();
+                synchronized (this) {
+                    if (current != null) {
+                        while (worker == current && !cancelled)
+                            wait();
+                    }
+                    if (!cancelled)
+                        wait(RETRY_MS);
+                }
+            }
+        } catch (InterruptedException e) { }
+        listener.onUplinkStatus("Uplink to " + host + ":" + port + " stopped");
+    }
+
+    private WorkerThread connect() {
+        InetSocketAddress hub = new InetSocketAddress(host, port);
+        if (hub.isUnresolved()) {
+            listener.onUplinkStatus("Unknown hub: " + host);
+            return null;
+        }
+        SocketChannel channel = null;
+        try {
+            listener.onUplinkStatus("Connecting to the hub " + hub + "...");
+            channel = SocketChannel.open();
+            channel.socket().connect(hub, CONNECT_TIMEOUT_MS);
+            channel.socket().setTcpNoDelay(true);
+        } catch (IOException e) {
+            listener.onUplinkStatus("Cannot reach the hub " + hub + ": " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException closeError) { }
+            }
+            return null;
+        }
+
+        WorkerThread current = new WorkerThread(new ChannelConnection(channel, "TCP " + hub, BUFFER_SIZE), this);
+        ClientSession session = new ClientSession(FrameHub.LOCAL_SOURCE, current, this, compactChannels);
+        session.onFrameFormat(FrameEncoder.Format.Multiplexed);
+        session.onStreamStart();
+        current.setCommandHandler(session);
+        synchronized (this) {
+            if (cancelled) {
+                current.cancel();
+                return null;
+            }
+            worker = current;
+        }
+        fanout.add(session);
+        current.start();
+        listener.onUplinkStatus("Streaming to the hub " + hub);
+        return current;
+    }
+
+    @Override
+    public void onWorkerFinished(WorkerThread finished) {
+        fanout.remove(finished);
+        synchronized (this) {
+            if (worker != finished)
+                return;
+            worker = null;
+            notifyAll();
+        }
+        if (!cancelled)
+            listener.onUplinkStatus("Hub " + host + ":" + port + " disconnected, retry in " + RETRY_MS + " ms");
+    }
+
+    // The hub sends no commands, the session only changes here
+    @Override
+    public void onSessionStatus(ClientSession session, String message) {
+    }
+
+    public synchronized boolean isConnected() {
+        return worker != null;
+    }
+
+    // Disconnects and stops dialling
+    public void cancel() {
+        WorkerThread current;
+        synchronized (this) {
+            cancelled = true;
+            current = worker;
+            notifyAll();
+        }
+        if (current != null)
+            current.cancel();
+    }
+}
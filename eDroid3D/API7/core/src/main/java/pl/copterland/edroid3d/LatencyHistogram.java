@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Histogram of durations in nanoseconds with a bounded relative error, in
+// the spirit of HdrHistogram: values are grouped by their highest set bit
+// and every group is split into SUB_BUCKETS linear buckets, so any value is
+// reported within 1/SUB_BUCKETS of itself. Recording never allocates.
+public class LatencyHistogram {
+    private final static int SUB_BUCKET_BITS = 5;
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private final static int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    static int bucket(long value)
+    {
+        if (value < SUB_BUCKETS)
+            return (int)value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int)(value >>> shift) - SUB_BUCKETS;
+    }
+
+    // Highest value that falls into the bucket
+    static long bucketLimit(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    public synchronized void record(long nanos)
+    {
+        if (nanos < 0)
+            nanos = 0;
+        counts[bucket(nanos)]++;
+        count++;
+        sum += nanos;
+        if (nanos > max)
+            max = nanos;
+    }
+
+    // Adds the values recorded by another histogram
+    public void add(LatencyHistogram other)
+    {
+        long[] otherCounts;
+        long otherCount, otherSum, otherMax;
+        synchronized (other) {
+            otherCounts = other.counts.clone();
+            otherCount = other.count;
+            otherSum = other.sum;
+            otherMax = other.max;
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < BUCKETS; i++)
+                counts[i] += otherCounts[i];
+            count += otherCount;
+            sum += otherSum;
+            if (otherMax > max)
+                max = otherMax;
+        }
+    }
+
+    public synchronized void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = 0;
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+    public synchronized long getMax()
+    {
+        return max;
+    }
+
+    public synchronized long getMean()
+    {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public synchronized long getPercentile(double fraction)
+    {
+        if (count == 0)
+            return 0;
+        long rank = (long)Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0)
+                return Math.min(bucketLimit(i), max);
+        }
+        return max;
+    }
+
+    public synchronized String summary()
+    {
+        return String.format("n %d, p50 %d us, p90 %d us, p99 %d us, max %d us",
+                count, getPercentile(0.5) / 1000, getPercentile(0.9) / 1000,
+                getPercentile(0.99) / 1000, max / 1000);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Madgwick orientation filter. The quaternion q rotates device coordinates
+// into the earth frame, x pointing to magnetic north and z up. Gyroscope
+// rates are integrated and a gradient descent step of size beta pulls the
+// estimate towards the gravity and magnetic field measurements. Without a
+// gyroscope the rates are zero and beta alone sets how fast the estimate
+// follows. Float math on fields only, an update never allocates.
+public class MadgwickFilter {
+    public final static float DEFAULT_BETA = 0.1f;
+
+    private float beta;
+    private float q0 = 1, q1 = 0, q2 = 0, q3 = 0;
+
+    public MadgwickFilter(float gain)
+    {
+        beta = gain;
+    }
+
+    public MadgwickFilter()
+    {
+        this(DEFAULT_BETA);
+    }
+
+    public void setBeta(float gain)
+    {
+        beta = gain;
+    }
+
+    public float getBeta()
+    {
+        return beta;
+    }
+
+    public void reset()
+    {
+        q0 = 1;
+        q1 = 0;
+        q2 = 0;
+        q3 = 0;
+    }
+
+    public float getW()
+    {
+        return q0;
+    }
+
+    public float getX()
+    {
+        return q1;
+    }
+
+    public float getY()
+    {
+        return q2;
+    }
+
+    public float getZ()
+    {
+        return q3;
+    }
+
+    // Gyroscope in rad/s, accelerometer and magnetometer in any unit, dt in
+    // seconds. Falls back to updateImu() without a magnetometer reading.
+    public void update(float gx, float gy, float gz, float ax, float ay, float az,
+                       float mx, float my, float mz, float dt)
+    {
+        if (mx == 0 && my == 0 && mz == 0) {
+            updateImu(gx, gy, gz, ax, ay, az, dt);
+            return;
+        }
+
+        // Rate of change from the gyroscope
+        float qDot0 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+        float qDot1 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+        float qDot2 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+        float qDot3 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+        if (!(ax == 0 && ay == 0 && az == 0)) {
+            float norm = invSqrt(ax * ax + ay * ay + az * az);
+            ax *= norm;
+            ay *= norm;
+            az *= norm;
+            norm = invSqrt(mx * mx + my * my + mz * mz);
+            mx *= norm;
+            my *= norm;
+            mz *= norm;
+
+            float _2q0mx = 2 * q0 * mx;
+            float _2q0my = 2 * q0 * my;
+            float _2q0mz = 2 * q0 * mz;
+            float _2q1mx = 2 * q1 * mx;
+            float _2q0 = 2 * q0;
+            float _2q1 = 2 * q1;
+            float _2q2 = 2 * q2;
+            float _2q3 = 2 * q3;
+            float _2q0q2 = 2 * q0 * q2;
+            float _2q2q3 = 2 * q2 * q3;
+            float q0q0 = q0 * q0;
+            float q0q1 = q0 * q1;
+            float q0q2 = q0 * q2;
+            float q0q3 = q0 * q3;
+            float q1q1 = q1 * q1;
+            float q1q2 = q1 * q2;
+            float q1q3 = q1 * q3;
+            float q2q2 = q2 * q2;
+            float q2q3 = q2 * q3;
+            float q3q3 = q3 * q3;
+
+            // Earth frame direction of the magnetic field
+            float hx = mx * q0q0 - _2q0my * q3 + _2q0mz * q2 + mx * q1q1 + _2q1 * my * q2 + _2q1 * mz * q3 - mx * q2q2 - mx * q3q3;
+            float hy = _2q0mx * q3 + my * q0q0 - _2q0mz * q1 + _2q1mx * q2 - my * q1q1 + my * q2q2 + _2q2 * mz * q3 - my * q3q3;
+            float _2bx = (float)Math.sqrt(hx * hx + hy * hy);
+            float _2bz = -_2q0mx * q2 + _2q0my * q1 + mz * q0q0 + _2q1mx * q3 - mz * q1q1 + _2q2 * my * q3 - mz * q2q2 + mz * q3q3;
+            float _4bx = 2 * _2bx;
+            float _4bz = 2 * _2bz;
+
+            // Gradient of the objective function
+            float fax = 2 * q1q3 - _2q0q2 - ax;
+            float fay = 2 * q0q1 + _2q2q3 - ay;
+            float faz = 1 - 2 * q1q1 - 2 * q2q2 - az;
+            float fmx = _2bx * (0.5f - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx;
+            float fmy = _2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my;
+            float fmz = _2bx * (q0q2 + q1q3) + _2bz * (0.5f - q1q1 - q2q2) - mz;
+
+            float s0 = -_2q2 * fax + _2q1 * fay - _2bz * q2 * fmx + (-_2bx * q3 + _2bz * q1) * fmy + _2bx * q2 * fmz;
+            float s1 = _2q3 * fax + _2q0 * fay - 4 * q1 * faz + _2bz * q3 * fmx + (_2bx * q2 + _2bz * q0) * fmy + (_2bx * q3 - _4bz * q1) * fmz;
+            float s2 = -_2q0 * fax + _2q3 * fay - 4 * q2 * faz + (-_4bx * q2 - _2bz * q0) * fmx + (_2bx * q1 + _2bz * q3) * fmy + (_2bx * q0 - _4bz * q2) * fmz;
+            float s3 = _2q1 * fax + _2q2 * fay + (-_4bx * q3 + _2bz * q1) * fmx + (-_2bx * q0 + _2bz * q2) * fmy + _2bx * q1 * fmz;
+            norm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+            if (norm > 0) {
+                norm = invSqrt(norm);
+                qDot0 -= beta * s0 * norm;
+                qDot1 -= beta * s1 * norm;
+                qDot2 -= beta * s2 * norm;
+                qDot3 -= beta * s3 * norm;
+            }
+        }
+
+        integrate(qDot0, qDot1, qDot2, qDot3, dt);
+    }
+
+    // Update without magnetometer, the heading is only kept by the gyroscope
+    public void updateImu(float gx, float gy, float gz, float ax, float ay, float az, float dt)
+    {
+        float qDot0 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+        float qDot1 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+        float qDot2 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+        float qDot3 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+        if (!(ax == 0 && ay == 0 && az == 0)) {
+            float norm = invSqrt(ax * ax + ay * ay + az * az);
+            ax *= norm;
+            ay *= norm;
+            az *= norm;
+
+            float _2q0 = 2 * q0;
+            float _2q1 = 2 * q1;
+            float _2q2 = 2 * q2;
+            float _2q3 = 2 * q3;
+            float _4q0 = 4 * q0;
+            float _4q1 = 4 * q1;
+            float _4q2 = 4 * q2;
+            float _8q1 = 8 * q1;
+            float _8q2 = 8 * q2;
+            float q0q0 = q0 * q0;
+            float q1q1 = q1 * q1;
+            float q2q2 = q2 * q2;
+            float q3q3 = q3 * q3;
+
+            float s0 = _4q0 * q2q2 + _2q2 * ax + _4q0 * q1q1 - _2q1 * ay;
+            float s1 = _4q1 * q3q3 - _2q3 * ax + 4 * q0q0 * q1 - _2q0 * ay - _4q1 + _8q1 * q1q1 + _8q1 * q2q2 + _4q1 * az;
+            float s2 = 4 * q0q0 * q2 + _2q0 * ax + _4q2 * q3q3 - _2q3 * ay - _4q2 + _8q2 * q1q1 + _8q2 * q2q2 + _4q2 * az;
+            float s3 = 4 * q1q1 * q3 - _2q1 * ax + 4 * q2q2 * q3 - _2q2 * ay;
+            norm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+            if (norm > 0) {
+                norm = invSqrt(norm);
+                qDot0 -= beta * s0 * norm;
+                qDot1 -= beta * s1 * norm;
+                qDot2 -= beta * s2 * norm;
+                qDot3 -= beta * s3 * norm;
+            }
+        }
+
+        integrate(qDot0, qDot1, qDot2, qDot3, dt);
+    }
+
+    private void integrate(float qDot0, float qDot1, float qDot2, float qDot3, float dt)
+    {
+        q0 += qDot0 * dt;
+        q1 += qDot1 * dt;
+        q2 += qDot2 * dt;
+        q3 += qDot3 * dt;
+
+        float norm = invSqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        q0 *= norm;
+        q1 *= norm;
+        q2 *= norm;
+        q3 *= norm;
+    }
+
+    private static float invSqrt(float x)
+    {
+        return (float)(1.0 / Math.sqrt(x));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+package pl.copterland.edroid3d;
+
+// Runtime metrics of the glove server, shared by every pipeline and client
+// of the process. Hosts pull them as a stats frame with the 'G' command or
+// the METRICS request, see CommandProtocol, the app shows them on its
+// dashboard:
+//
+//   [STATS_VERSION] [field count] [value u32]...
+//
+// Values are unsigned 32 bit, low byte first, in the order of the FIELD
+// constants. Counters wrap, hosts take differences. A value the platform
+// cannot provide is 0xFFFFFFFF. Hosts skip fields they do not know.
+public class Metrics {
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    public static final StripedCounter SENSOR_EVENTS = REGISTRY.counter("sensor.events");
+    public static final StripedCounter FRAMES_SENT = REGISTRY.counter("frames.sent");
+    public static final StripedCounter BYTES_SENT = REGISTRY.counter("bytes.sent");
+    public static final StripedCounter FRAMES_DROPPED = REGISTRY.counter("frames.dropped");
+    public static final StripedCounter WRITES = REGISTRY.counter("writes");
+    public static final StripedCounter WRITE_NANOS = REGISTRY.counter("write.nanos");
+    public static final MetricsRegistry.MaxGauge WRITE_MAX_NANOS =
+            REGISTRY.gauge("write.max.nanos", new MetricsRegistry.MaxGauge());
+
+    // Gauges registered by the pipeline and by the platform
+    public static final String SENSOR_RATE = "sensor.rate";
+    public static final String QUEUE_DEPTH = "queue.depth";
+    public static final String CLIENTS = "clients";
+    public static final String GC_COUNT = "gc.count";
+
+    public static final int STATS_VERSION = 1;
+    public static final int FIELD_UPTIME_MS = 0;
+    public static final int FIELD_SENSOR_EVENTS = 1;
+    // Sensor events per second over the last second
+    public static final int FIELD_SENSOR_RATE = 2;
+    public static final int FIELD_FRAMES_SENT = 3;
+    public static final int FIELD_BYTES_SENT = 4;
+    public static final int FIELD_FRAMES_DROPPED = 5;
+    public static final int FIELD_WRITE_MEAN_US = 6;
+    public static final int FIELD_WRITE_MAX_US = 7;
+    public static final int FIELD_QUEUE_DEPTH = 8;
+    public static final int FIELD_CLIENTS = 9;
+    public static final int FIELD_GC_COUNT = 10;
+    public static final int FIELDS = 11;
+    public static final int STATS_SIZE = 2 + FIELDS * 4;
+
+    private static final long STARTED = System.nanoTime();
+
+    public static long getUptimeMillis()
+    {
+        return (System.nanoTime() - STARTED) / 1000000L;
+    }
+
+    // Mean time of a write to the transport, in microseconds
+    public static long getWriteMeanMicros()
+    {
+        long writes = WRITES.get();
+        return writes == 0 ? 0 : WRITE_NANOS.get() / writes / 1000;
+    }
+
+    public static byte[] statsFrame()
+    {
+        long[] values = new long[FIELDS];
+        values[FIELD_UPTIME_MS] = getUptimeMillis();
+        values[FIELD_SENSOR_EVENTS] = SENSOR_EVENTS.get();
+        values[FIELD_SENSOR_RATE] = REGISTRY.get(SENSOR_RATE, 0);
+        values[FIELD_FRAMES_SENT] = FRAMES_SENT.get();
+        values[FIELD_BYTES_SENT] = BYTES_SENT.get();
+        values[FIELD_FRAMES_DROPPED] = FRAMES_DROPPED.get();
+        values[FIELD_WRITE_MEAN_US] = getWriteMeanMicros();
+        values[FIELD_WRITE_MAX_US] = WRITE_MAX_NANOS.get() / 1000;
+        values[FIELD_QUEUE_DEPTH] = REGISTRY.get(QUEUE_DEPTH, 0);
+        values[FIELD_CLIENTS] = REGISTRY.get(CLIENTS, 0);
+        values[FIELD_GC_COUNT] = REGISTRY.get(GC_COUNT, -1);
+
+        byte[] frame = new byte[STATS_SIZE];
+        frame[0] = (byte)STATS_VERSION;
+        frame[1] = (byte)FIELDS;
+        for (int i = 0; i < FIELDS; i++)
+            CommandProtocol.putInt(frame, 2 + i * 4, (int)values[i]);
+        return frame;
+    }
+
+    // Unsigned field of a stats frame starting at offset
+    public static long getField(byte[] frame, int offset, int field)
+    {
+        return CommandProtocol.getInt(frame, offset + 2 + field * 4) & 0xFFFFFFFFL;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+package pl.copterland.edroid3d;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Named counters and gauges. Metrics are registered once, the list is
+// copied on write so reading never locks. Counters are striped, see
+// StripedCounter, gauges are read when the metrics are.
+public class MetricsRegistry {
+    public interface Gauge {
+        long get();
+    }
+
+    // Highest value recorded, e.g. the slowest write
+    public static class MaxGauge implements Gauge {
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value)
+        {
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value))
+                current = max.get();
+        }
+
+        @Override
+        public long get() {
+            return max.get();
+        }
+    }
+
+    private static class Entry {
+        final String name;
+        final StripedCounter counter;
+        final Gauge gauge;
+
+        Entry(String entryName, StripedCounter entryCounter, Gauge entryGauge)
+        {
+            name = entryName;
+            counter = entryCounter;
+            gauge = entryGauge;
+        }
+
+        long get()
+        {
+            return counter != null ? counter.get() : gauge.get();
+        }
+    }
+
+    private volatile Entry[] entries = new Entry[0];
+
+    private int indexOf(Entry[] current, String name)
+    {
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].name.equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    private void put(Entry entry)
+    {
+        Entry[] current = entries;
+        int index = indexOf(current, entry.name);
+        Entry[] updated;
+        if (index < 0) {
+            updated = new Entry[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            index = current.length;
+        } else {
+            updated = current.clone();
+        }
+        updated[index] = entry;
+        entries = updated;
+    }
+
+    // Returns the counter of the name, registering it on first use
+    public synchronized StripedCounter counter(String name)
+    {
+        int index = indexOf(entries, name);
+        if (index >= 0 && entries[index].counter != null)
+            return entries[index].counter;
+        StripedCounter counter = new StripedCounter();
+        put(new Entry(name, counter, null));
+        return counter;
+    }
+
+    // Registers the gauge, replacing an earlier one of the same name
+    public synchronized <T extends Gauge> T gauge(String name, T gauge)
+    {
+        put(new Entry(name, null, gauge));
+        return gauge;
+    }
+
+    // Unregisters the gauge unless it was already replaced by another one,
+    // so the registry keeps no reference to its owner
+    public synchronized void remove(String name, Gauge gauge)
+    {
+        Entry[] current = entries;
+        int index = indexOf(current, name);
+        if (index < 0 || current[index].gauge != gauge)
+            return;
+        Entry[] updated = new Entry[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, updated.length - index);
+        entries = updated;
+    }
+
+    public boolean contains(String name)
+    {
+        return indexOf(entries, name) >= 0;
+    }
+
+    // Current value, or the fallback when nothing of the name is registered
+    public long get(String name, long fallback)
+    {
+        Entry[] current = entries;
+        int index = indexOf(current, name);
+        return index < 0 ? fallback : current[index].get();
+    }
+
+    public String[] getNames()
+    {
+        Entry[] current = entries;
+        String[] names = new String[current.length];
+        for (int i = 0; i < current.length; i++)
+            names[i] = current[i].name;
+        return names;
+    }
+
+    public String summary()
+    {
+        StringBuilder summary = new StringBuilder();
+        for (Entry entry : entries) {
+            if (summary.length() > 0)
+                summary.append(", ");
+            summary.append(entry.name).append(' ').append(entry.get());
+        }
+        return summary.toString();
+    }
+}
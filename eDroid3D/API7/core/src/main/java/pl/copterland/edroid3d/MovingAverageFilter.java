@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Moving average over the last window samples kept as running sums, so a
+// tick costs the same regardless of the window size.
+public class MovingAverageFilter implements SmoothingFilter {
+    private final int channels;
+    private final int maxWindow;
+    private final int[] ring;
+    private final long[] sums;
+    private int window;
+    private int next = 0;
+    private int count = 0;
+
+    public MovingAverageFilter(int channelCount, int maxWindowSize, int windowSize)
+    {
+        channels = channelCount;
+        maxWindow = maxWindowSize;
+        ring = new int[channelCount * maxWindowSize];
+        sums = new long[channelCount];
+        setWindow(windowSize);
+    }
+
+    // Keeps the newest samples that still fit in the new window
+    @Override
+    public void setWindow(int samples) {
+        if (samples < 1 || samples > maxWindow)
+            throw new IllegalArgumentException("Invalid window: " + samples);
+
+        int keep = Math.min(count, samples);
+        // Drop the oldest samples from the sums
+        for (int i = keep; i < count; i++) {
+            int slot = (next - 1 - i + 2 * maxWindow) % maxWindow;
+            for (int c = 0; c < channels; c++)
+                sums[c] -= ring[slot * channels + c];
+        }
+
+        window = samples;
+        count = keep;
+    }
+
+    @Override
+    public void push(int[] sample, long timestamp) {
+        if (count == window) {
+            int oldest = (next - window + maxWindow) % maxWindow;
+            for (int c = 0; c < channels; c++)
+                sums[c] -= ring[oldest * channels + c];
+        } else {
+            count++;
+        }
+
+        for (int c = 0; c < channels; c++) {
+            ring[next * channels + c] = sample[c];
+            sums[c] += sample[c];
+        }
+        next = (next + 1) % maxWindow;
+    }
+
+    @Override
+    public boolean get(int[] out) {
+        if (count == 0)
+            return false;
+
+        for (int c = 0; c < channels; c++)
+            out[c] = FixedPoint.divide(sums[c], count);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        for (int c = 0; c < channels; c++)
+            sums[c] = 0;
+        count = 0;
+    }
+}
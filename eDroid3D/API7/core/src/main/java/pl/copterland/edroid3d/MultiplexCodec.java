@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+// Multiplexed frames carry a whole frame of one of the devices behind a
+// hub, see FrameHub:
+//
+//   [MULTIPLEXED] [source] [frame] [sample time us] [crc8]
+//
+// The sample time is unsigned 32 bit, low byte first, in the clock of the
+// hub. The crc covers all bytes before it. Peers stream the same format to
+// the hub, which replaces their source and time base with its own.
+public class MultiplexCodec implements FrameEncoder {
+    public static final int MULTIPLEXED = 0xC6;
+    public static final int SIZE = Frame.FRAME_SIZE + 7;
+
+    @Override
+    public int maxEncodedSize() {
+        return SIZE;
+    }
+
+    @Override
+    public void encode(Frame frame, ByteBuffer out) {
+        int start = out.position();
+        out.put((byte)MULTIPLEXED);
+        out.put((byte)frame.getSource());
+        frame.writeTo(out);
+        int micros = (int)(frame.getTimestamp() / 1000);
+        out.put((byte)micros);
+        out.put((byte)(micros >> 8));
+        out.put((byte)(micros >> 16));
+        out.put((byte)(micros >> 24));
+        out.put((byte)Crc8.compute(out, start, SIZE - 1));
+    }
+
+    // Decodes one multiplexed frame, the timestamp is the unsigned sample
+    // time in microseconds times 1000. Returns DeltaFrameDecoder.FRAME when
+    // frame was updated, INCOMPLETE without consuming anything if more bytes
+    // are needed and CORRUPTED after skipping a byte that does not start a
+    // valid frame.
+    public static int decode(ByteBuffer in, Frame frame)
+    {
+        int start = in.position();
+        if (in.remaining() < 1)
+            return DeltaFrameDecoder.INCOMPLETE;
+        if ((in.get(start) & 0xFF) != MULTIPLEXED) {
+            in.position(start + 1);
+            return DeltaFrameDecoder.CORRUPTED;
+        }
+        if (in.remaining() < SIZE)
+            return DeltaFrameDecoder.INCOMPLETE;
+        if (Crc8.compute(in, start, SIZE - 1) != (in.get(start + SIZE - 1) & 0xFF)) {
+            in.position(start + 1);
+            return DeltaFrameDecoder.CORRUPTED;
+        }
+
+        frame.setSource(in.get(start + 1) & 0xFF);
+        for (int i = 0; i < Frame.FRAME_SIZE; i++)
+            frame.put(i, in.get(start + 2 + i));
+        int time = start + 2 + Frame.FRAME_SIZE;
+        long micros = (in.get(time) & 0xFF) | ((in.get(time + 1) & 0xFF) << 8)
+                | ((in.get(time + 2) & 0xFF) << 16) | ((long)(in.get(time + 3) & 0xFF) << 24);
+        frame.setTimestamp(micros * 1000);
+        in.position(start + SIZE);
+        return DeltaFrameDecoder.FRAME;
+    }
+}
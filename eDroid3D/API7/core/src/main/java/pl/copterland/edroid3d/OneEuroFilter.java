@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// One euro filter (Casiez et al. 2012): a low pass filter whose cutoff
+// rises with the speed of the signal, so slow motion is smoothed strongly
+// while fast motion keeps little lag. Uses the sample timestamps.
+public class OneEuroFilter implements SmoothingFilter {
+    private final static double NANOS_PER_SECOND = 1e9;
+
+    private final int channels;
+    private final double minCutoff;
+    private final double beta;
+    private final double derivativeCutoff;
+    private final double[] value;
+    private final double[] derivative;
+    private long lastTimestamp;
+    private boolean initialized = false;
+
+    public OneEuroFilter(int channelCount, double minCutoffHz, double speedCoefficient, double derivativeCutoffHz)
+    {
+        channels = channelCount;
+        minCutoff = minCutoffHz;
+        beta = speedCoefficient;
+        derivativeCutoff = derivativeCutoffHz;
+        value = new double[channelCount];
+        derivative = new double[channelCount];
+    }
+
+    public OneEuroFilter(int channelCount)
+    {
+        this(channelCount, 1.0, 0.007, 1.0);
+    }
+
+    // The cutoff adapts on its own, the window is not used
+    @Override
+    public void setWindow(int samples) {
+    }
+
+    private static double alpha(double cutoff, double period)
+    {
+        double tau = 1.0 / (2 * Math.PI * cutoff);
+        return 1.0 / (1.0 + tau / period);
+    }
+
+    @Override
+    public void push(int[] sample, long timestamp) {
+        if (!initialized || timestamp <= lastTimestamp) {
+            if (!initialized) {
+                for (int c = 0; c < channels; c++) {
+                    value[c] = sample[c];
+                    derivative[c] = 0;
+                }
+                lastTimestamp = timestamp;
+                initialized = true;
+            }
+            return;
+        }
+
+        double period = (timestamp - lastTimestamp) / NANOS_PER_SECOND;
+        lastTimestamp = timestamp;
+        double derivativeAlpha = alpha(derivativeCutoff, period);
+
+        for (int c = 0; c < channels; c++) {
+            double speed = (sample[c] - value[c]) / period;
+            derivative[c] += derivativeAlpha * (speed - derivative[c]);
+            double cutoff = minCutoff + beta * Math.abs(derivative[c]);
+            value[c] += alpha(cutoff, period) * (sample[c] - value[c]);
+        }
+    }
+
+    @Override
+    public boolean get(int[] out) {
+        if (!initialized)
+            return false;
+
+        for (int c = 0; c < channels; c++)
+            out[c] = FixedPoint.round(value[c]);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+    }
+}
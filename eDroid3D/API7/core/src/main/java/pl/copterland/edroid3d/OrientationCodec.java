@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.nio.ByteBuffer;
+
+// Orientation frames carry the fused quaternion instead of the raw sensor
+// channels:
+//
+//   [ORIENTATION] [frame no] [w] [x] [y] [z] [crc8]
+//
+// Components are signed 16 bit, low byte first, in Q14 fixed point so
+// 16384 is 1.0. The crc covers all bytes before it.
+public class OrientationCodec implements FrameEncoder {
+    public static final int ORIENTATION = 0xC5;
+    public static final int SIZE = 11;
+    public static final int SCALE = 16384;
+
+    @Override
+    public int maxEncodedSize() {
+        return SIZE;
+    }
+
+    @Override
+    public void encode(Frame frame, ByteBuffer out) {
+        int start = out.position();
+        out.put((byte)ORIENTATION);
+        out.put(frame.getFrameNumber());
+        putShort(out, frame.getOrientationW());
+        putShort(out, frame.getOrientationX());
+        putShort(out, frame.getOrientationY());
+        putShort(out, frame.getOrientationZ());
+        out.put((byte)Crc8.compute(out, start, SIZE - 1));
+    }
+
+    private static void putShort(ByteBuffer out, short value)
+    {
+        out.put((byte)value);
+        out.put((byte)(value >> 8));
+    }
+
+    // Quaternion component to fixed point, rounded and clamped
+    public static short quantize(float value)
+    {
+        int scaled = Math.round(value * SCALE);
+        return (short)Math.max(-SCALE, Math.min(SCALE, scaled));
+    }
+
+    // Decodes one orientation frame, the raw channels of frame are left as
+    // they are. Returns DeltaFrameDecoder.FRAME when frame was updated,
+    // INCOMPLETE without consuming anything if more bytes are needed and
+    // CORRUPTED after skipping a byte that does not start a valid frame.
+    public static int decode(ByteBuffer in, Frame frame)
+    {
+        int start = in.position();
+        if (in.remaining() < 1)
+            return DeltaFrameDecoder.INCOMPLETE;
+        if ((in.get(start) & 0xFF) != ORIENTATION) {
+            in.position(start + 1);
+            return DeltaFrameDecoder.CORRUPTED;
+        }
+        if (in.remaining() < SIZE)
+            return DeltaFrameDecoder.INCOMPLETE;
+        if (Crc8.compute(in, start, SIZE - 1) != (in.get(start + SIZE - 1) & 0xFF)) {
+            in.position(start + 1);
+            return DeltaFrameDecoder.CORRUPTED;
+        }
+
+        frame.setFrameNumber(in.get(start + 1));
+        frame.setOrientation(getShort(in, start + 2), getShort(in, start + 4),
+                getShort(in, start + 6), getShort(in, start + 8));
+        in.position(start + SIZE);
+        return DeltaFrameDecoder.FRAME;
+    }
+
+    private static short getShort(ByteBuffer in, int offset)
+    {
+        return (short)((in.get(offset) & 0xFF) | (in.get(offset + 1) << 8));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Fuses the sensor samples into the device orientation, sample by sample
+// at the full sensor rate. With a gyroscope the filter is updated on every
+// gyroscope sample using the latest accelerometer and magnetometer values.
+// Without one, or when its samples stop, every accelerometer sample updates
+// the filter with zero rates and a higher gain. The time step comes from
+// the sample timestamps. Owned by the pipeline thread, nothing allocates.
+public class OrientationFusion {
+    public final static float GYROSCOPE_BETA = 0.1f;
+    public final static float NO_GYROSCOPE_BETA = 2.0f;
+    // The gyroscope counts as gone after this long without samples
+    private final static long GYROSCOPE_TIMEOUT_NS = 100000000L;
+    // Longer gaps are integrated as this step only
+    private final static float MAX_STEP_SECONDS = 0.1f;
+
+    private final MadgwickFilter filter = new MadgwickFilter(NO_GYROSCOPE_BETA);
+    private float ax, ay, az;
+    private float mx, my, mz;
+    private boolean hasAccelerometer = false;
+    private boolean started = false;
+    private long lastUpdate;
+    private long lastGyroscope;
+    private boolean hasGyroscope = false;
+    private long updates = 0;
+
+    public void onAccelerometer(long timestamp, float x, float y, float z)
+    {
+        ax = x;
+        ay = y;
+        az = z;
+        hasAccelerometer = true;
+        if (!hasGyroscope || timestamp - lastGyroscope > GYROSCOPE_TIMEOUT_NS) {
+            hasGyroscope = false;
+            update(timestamp, 0, 0, 0, NO_GYROSCOPE_BETA);
+        }
+    }
+
+    public void onMagnetometer(long timestamp, float x, float y, float z)
+    {
+        mx = x;
+        my = y;
+        mz = z;
+    }
+
+    // Rates in rad/s
+    public void onGyroscope(long timestamp, float x, float y, float z)
+    {
+        hasGyroscope = true;
+        lastGyroscope = timestamp;
+        update(timestamp, x, y, z, GYROSCOPE_BETA);
+    }
+
+    private void update(long timestamp, float gx, float gy, float gz, float beta)
+    {
+        // Gravity is needed to start from a sensible attitude
+        if (!hasAccelerometer)
+            return;
+        if (!started) {
+            started = true;
+            lastUpdate = timestamp;
+            return;
+        }
+
+        float dt = (timestamp - lastUpdate) / 1e9f;
+        lastUpdate = timestamp;
+        if (dt <= 0)
+            return;
+        dt = Math.min(dt, MAX_STEP_SECONDS);
+
+        filter.setBeta(beta);
+        filter.update(gx, gy, gz, ax, ay, az, mx, my, mz, dt);
+        updates++;
+    }
+
+    public boolean isUsingGyroscope()
+    {
+        return hasGyroscope;
+    }
+
+    public MadgwickFilter getFilter()
+    {
+        return filter;
+    }
+
+    public long getUpdates()
+    {
+        return updates;
+    }
+
+    // Starts over from the identity orientation
+    public void reset()
+    {
+        filter.reset();
+        hasAccelerometer = false;
+        hasGyroscope = false;
+        started = false;
+        mx = my = mz = 0;
+    }
+
+    public void writeTo(Frame frame)
+    {
+        frame.setOrientation(OrientationCodec.quantize(filter.getW()), OrientationCodec.quantize(filter.getX()),
+                OrientationCodec.quantize(filter.getY()), OrientationCodec.quantize(filter.getZ()));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Single-producer/single-consumer ring of raw sensor samples. The sampling
+// thread offers samples, the sender drains them. Samples are kept in primitive
+// arrays so neither side allocates.
+public class SampleRing {
+    public static final int ACCELEROMETER = 0;
+    public static final int MAGNETOMETER = 1;
+    public static final int GYROSCOPE = 2;
+    public static final int SENSORS = 3;
+
+    public interface Consumer {
+        void onSample(int sensor, long timestamp, float x, float y, float z);
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final int[] sensors;
+    private final long[] timestamps;
+    private final float[] values;
+
+    // head is written only by the consumer, tail only by the producer
+    private volatile long head = 0;
+    private volatile long tail = 0;
+    private volatile long dropped = 0;
+    private volatile Runnable offerListener;
+
+    public SampleRing(int minCapacity)
+    {
+        int size = 1;
+        while (size < minCapacity)
+            size <<= 1;
+
+        capacity = size;
+        mask = size - 1;
+        sensors = new int[size];
+        timestamps = new long[size];
+        values = new float[size * 3];
+    }
+
+    // Called on the producer thread after every sample that was stored
+    public void setOfferListener(Runnable listener)
+    {
+        offerListener = listener;
+    }
+
+    public boolean offer(int sensor, long timestamp, float x, float y, float z)
+    {
+        Metrics.SENSOR_EVENTS.increment();
+        long t = tail;
+        if (t - head >= capacity) {
+            dropped++;
+            return false;
+        }
+
+        int index = (int)t & mask;
+        sensors[index] = sensor;
+        timestamps[index] = timestamp;
+        values[index * 3] = x;
+        values[index * 3 + 1] = y;
+        values[index * 3 + 2] = z;
+
+        // Publish the slot only after it is fully written
+        tail = t + 1;
+
+        Runnable listener = offerListener;
+        if (listener != null)
+            listener.run();
+        return true;
+    }
+
+    public int drain(Consumer consumer)
+    {
+        long h = head;
+        long t = tail;
+        int count = 0;
+
+        while (h < t) {
+            int index = (int)h & mask;
+            consumer.onSample(sensors[index], timestamps[index],
+                    values[index * 3], values[index * 3 + 1], values[index * 3 + 2]);
+            h++;
+            count++;
+        }
+
+        head = h;
+        return count;
+    }
+
+    public int size()
+    {
+        return (int)(tail - head);
+    }
+
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    public long getDropped()
+    {
+        return dropped;
+    }
+}
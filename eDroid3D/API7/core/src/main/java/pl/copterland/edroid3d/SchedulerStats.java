@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Lateness histogram of scheduled ticks. Buckets are fixed so recording
+// never allocates; percentiles are resolved to the bucket upper bound.
+public class SchedulerStats {
+    private final static long BUCKET_WIDTH_NS = 50000L;
+    private final static int BUCKETS = 2000;
+
+    private final long[] histogram = new long[BUCKETS + 1];
+    private long ticks = 0;
+    private long skipped = 0;
+    private long maxLateness = 0;
+    private long firstTick = -1;
+    private long lastTick = -1;
+
+    public synchronized void record(long tickTime, long lateness)
+    {
+        if (lateness < 0)
+            lateness = 0;
+
+        int bucket = (int)Math.min(lateness / BUCKET_WIDTH_NS, BUCKETS);
+        histogram[bucket]++;
+        if (lateness > maxLateness)
+            maxLateness = lateness;
+
+        if (firstTick < 0)
+            firstTick = tickTime;
+        lastTick = tickTime;
+        ticks++;
+    }
+
+    public synchronized void recordSkipped(long count)
+    {
+        skipped += count;
+    }
+
+    public synchronized void reset()
+    {
+        for (int i = 0; i < histogram.length; i++)
+            histogram[i] = 0;
+        ticks = 0;
+        skipped = 0;
+        maxLateness = 0;
+        firstTick = -1;
+        lastTick = -1;
+    }
+
+    public synchronized long getTicks()
+    {
+        return ticks;
+    }
+
+    public synchronized long getSkipped()
+    {
+        return skipped;
+    }
+
+    public synchronized long getMaxLateness()
+    {
+        return maxLateness;
+    }
+
+    // Ticks per second measured between the first and the last recorded tick
+    public synchronized double getAchievedRate()
+    {
+        if (ticks < 2 || lastTick == firstTick)
+            return 0;
+        return (ticks - 1) * 1e9 / (lastTick - firstTick);
+    }
+
+    // Lateness in nanoseconds below which the given fraction (0..1] of ticks fall
+    public synchronized long getPercentile(double fraction)
+    {
+        if (ticks == 0)
+            return 0;
+
+        long threshold = (long)Math.ceil(fraction * ticks);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= threshold)
+                return (i + 1) * BUCKET_WIDTH_NS;
+        }
+        return maxLateness;
+    }
+
+    public synchronized String summary()
+    {
+        return String.format("%.1f Hz, jitter p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                getAchievedRate(), getPercentile(0.5) / 1e6, getPercentile(0.99) / 1e6, maxLateness / 1e6);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Scales raw 3-axis sensor values to the integer range of the frame. The
+// offset is subtracted and the correction matrix applied first, then:
+//   Fixed     the configured physical range maps to the output range
+//   Adaptive  every axis keeps its min and max, which decay back towards
+//             the samples, and the larger magnitude maps to the output range
+// Zero stays zero, negative values keep their sign and results are clamped,
+// so no sample can divide by zero or wrap around. The scaling runs in fixed
+// point, see FixedPoint, with the factor of the fixed range computed once
+// per settings. An adaptive axis computes its factor again when its extreme
+// grows, or when it has decayed by a step, not on every sample.
+//
+// A calibration run collects the extremes of the raw values while the
+// device is rotated in all directions and derives the hard iron offset and
+// a diagonal soft iron matrix from them. Everything is O(1) per sample on
+// primitive state. Settings may be replaced from any thread, samples are
+// scaled by the pipeline thread.
+public class SensorCalibration {
+    public enum Mode {
+        Fixed,
+        Adaptive
+    }
+
+    // Smallest half span of a calibration run, relative to the mean
+    private final static float MIN_RUN_SPAN = 0.2f;
+    // Share of the scaled extreme an adaptive axis decays by before it is
+    // scaled again, the output stays within it of the exact value
+    private final static float RESCALE_STEP = 1.0f / 32;
+
+    private volatile CalibrationProfile.Sensor settings;
+
+    // Adaptive state
+    private final float[] min = new float[3];
+    private final float[] max = new float[3];
+    private final float[] corrected = new float[3];
+    // Extreme the adaptive factor of an axis was computed for, 0 for none
+    private final float[] scaledExtreme = new float[3];
+    private final int[] adaptiveBits = new int[3];
+    private final int[] adaptiveFactor = new int[3];
+    // Scale of the fixed range, for the settings it was computed for
+    private CalibrationProfile.Sensor factorSettings;
+    private int fixedBits;
+    private int fixedFactor;
+
+    // Calibration run
+    private volatile boolean collecting = false;
+    private final float[] runMin = new float[3];
+    private final float[] runMax = new float[3];
+    private long runSamples;
+
+    public SensorCalibration(CalibrationProfile.Sensor sensorSettings)
+    {
+        setSettings(sensorSettings);
+    }
+
+    // The settings are copied, later changes to them have no effect
+    public void setSettings(CalibrationProfile.Sensor sensorSettings)
+    {
+        settings = new CalibrationProfile.Sensor(sensorSettings);
+    }
+
+    public CalibrationProfile.Sensor getSettings()
+    {
+        return new CalibrationProfile.Sensor(settings);
+    }
+
+    // Writes the scaled x, y, z to out starting at index
+    public void apply(float x, float y, float z, int[] out, int index)
+    {
+        if (collecting)
+            collect(x, y, z);
+
+        CalibrationProfile.Sensor s = settings;
+        float dx = x - s.getOffset(0);
+        float dy = y - s.getOffset(1);
+        float dz = z - s.getOffset(2);
+        for (int axis = 0; axis < 3; axis++)
+            corrected[axis] = s.getMatrix(axis, 0) * dx + s.getMatrix(axis, 1) * dy + s.getMatrix(axis, 2) * dz;
+
+        int outputRange = s.getOutputRange();
+        if (s != factorSettings) {
+            fixedBits = FixedPoint.inputBits(outputRange, s.getRange());
+            fixedFactor = FixedPoint.factor(outputRange, s.getRange(), fixedBits);
+            factorSettings = s;
+            for (int axis = 0; axis < 3; axis++)
+                scaledExtreme[axis] = 0;
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            float value = corrected[axis];
+            int bits = fixedBits;
+            int factor = fixedFactor;
+
+            if (s.getMode() == Mode.Adaptive) {
+                float decay = s.getDecay();
+                if (value > max[axis])
+                    max[axis] = value;
+                else
+                    max[axis] += (value - max[axis]) * decay;
+                if (value < min[axis])
+                    min[axis] = value;
+                else
+                    min[axis] += (value - min[axis]) * decay;
+                float extreme = Math.max(max[axis], -min[axis]);
+                if (extreme > s.getRange()) {
+                    float scaled = scaledExtreme[axis];
+                    if (extreme > scaled || extreme < scaled * (1 - RESCALE_STEP)) {
+                        adaptiveBits[axis] = FixedPoint.inputBits(outputRange, extreme);
+                        adaptiveFactor[axis] = FixedPoint.factor(outputRange, extreme, adaptiveBits[axis]);
+                        scaledExtreme[axis] = extreme;
+                    }
+                    bits = adaptiveBits[axis];
+                    factor = adaptiveFactor[axis];
+                }
+            }
+
+            out[index + axis] = FixedPoint.scale(FixedPoint.toFixed(value, bits), factor, outputRange);
+        }
+    }
+
+    public int getOutputRange()
+    {
+        return settings.getOutputRange();
+    }
+
+    // Offset and matrix corrected value of the last sample, in sensor units
+    public float getCorrected(int axis)
+    {
+        return corrected[axis];
+    }
+
+    // Forgets the adaptive extremes
+    public void reset()
+    {
+        for (int axis = 0; axis < 3; axis++) {
+            min[axis] = 0;
+            max[axis] = 0;
+            scaledExtreme[axis] = 0;
+        }
+    }
+
+    public synchronized void startCalibration()
+    {
+        runSamples = 0;
+        collecting = true;
+    }
+
+    public boolean isCalibrating()
+    {
+        return collecting;
+    }
+
+    private synchronized void collect(float x, float y, float z)
+    {
+        if (!collecting)
+            return;
+        if (runSamples == 0) {
+            runMin[0] = runMax[0] = x;
+            runMin[1] = runMax[1] = y;
+            runMin[2] = runMax[2] = z;
+        } else {
+            runMin[0] = Math.min(runMin[0], x);
+            runMax[0] = Math.max(runMax[0], x);
+            runMin[1] = Math.min(runMin[1], y);
+            runMax[1] = Math.max(runMax[1], y);
+            runMin[2] = Math.min(runMin[2], z);
+            runMax[2] = Math.max(runMax[2], z);
+        }
+        runSamples++;
+    }
+
+    // Ends the run. Returns the settings with the measured offset and soft
+    // iron correction, or null when the device was not rotated enough. The
+    // new settings are not applied.
+    public synchronized CalibrationProfile.Sensor finishCalibration()
+    {
+        collecting = false;
+        if (runSamples == 0)
+            return null;
+
+        float[] span = new float[3];
+        float mean = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            span[axis] = (runMax[axis] - runMin[axis]) / 2;
+            mean += span[axis] / 3;
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            if (!(span[axis] > mean * MIN_RUN_SPAN))
+                return null;
+        }
+
+        CalibrationProfile.Sensor result = getSettings();
+        result.setOffset((runMax[0] + runMin[0]) / 2, (runMax[1] + runMin[1]) / 2, (runMax[2] + runMin[2]) / 2);
+        result.setMatrix(new float[] {
+                mean / span[0], 0, 0,
+                0, mean / span[1], 0,
+                0, 0, mean / span[2] });
+        return result;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Derives the sampling rate of every sensor from what the clients need
+// instead of running all of them at the fastest rate. A client averaging
+// window samples per frame at rate frames per second needs rate * window
+// samples per second; the busiest client sets the rate. A client may
+// override the rate of a sensor, the highest override wins. The gyroscope
+// only runs for the orientation fusion, which also keeps the other sensors
+// at FUSION_RATE at least. Without clients the accelerometer and
+// magnetometer idle at MIN_RATE for the live view.
+//
+// At low frame rates the events are batched in the hardware FIFO for up to
+// one frame period, so the sampler wakes up once per frame instead of once
+// per event. Change driven clients need every event right away and turn
+// batching off. The backend is reconfigured only when a value changed.
+// Updated by the pipeline thread.
+public class SensorRateController {
+    public final static int MIN_RATE = 10;
+    public final static int MAX_RATE = 1000;
+    public final static int FUSION_RATE = 200;
+    // Frame rates up to this one batch the sensor events
+    public final static int MAX_BATCHING_FRAME_RATE = 25;
+    private final static int MICROS_PER_SECOND = 1000000;
+
+    private final SensorBackend backend;
+    private final int[] periods = new int[SampleRing.SENSORS];
+    private final int[] latencies = new int[SampleRing.SENSORS];
+    private long reconfigurations = 0;
+
+    public SensorRateController(SensorBackend sensorBackend)
+    {
+        backend = sensorBackend;
+    }
+
+    // Frame rate of the fastest client, samples per second of the busiest
+    // client and the rate overrides per sensor, 0 where there is none
+    public void update(int frameRate, int sampleDemand, int[] overrides, boolean fusion, boolean changeDriven)
+    {
+        for (int sensor = 0; sensor < SampleRing.SENSORS; sensor++) {
+            if (!backend.hasSensor(sensor))
+                continue;
+
+            int rate = overrides[sensor];
+            if (rate == 0) {
+                if (sensor == SampleRing.GYROSCOPE)
+                    rate = fusion ? FUSION_RATE : 0;
+                else
+                    rate = Math.max(MIN_RATE, Math.max(sampleDemand, fusion ? FUSION_RATE : 0));
+            }
+
+            int period = 0;
+            int latency = 0;
+            if (rate > 0) {
+                rate = Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+                period = Math.max(MICROS_PER_SECOND / rate, backend.getMinPeriod(sensor));
+                int fifo = backend.getFifoSize(sensor);
+                if (!changeDriven && fifo > 0 && frameRate <= MAX_BATCHING_FRAME_RATE) {
+                    // Never more events than the FIFO holds
+                    long fill = (long)fifo * period;
+                    latency = (int)Math.min(MICROS_PER_SECOND / frameRate, fill);
+                }
+            }
+
+            if (period != periods[sensor] || latency != latencies[sensor]) {
+                periods[sensor] = period;
+                latencies[sensor] = latency;
+                backend.configure(sensor, period, latency);
+                reconfigurations++;
+            }
+        }
+    }
+
+    // Sampling period in microseconds, 0 while the sensor is off
+    public int getPeriod(int sensor)
+    {
+        return periods[sensor];
+    }
+
+    public int getReportLatency(int sensor)
+    {
+        return latencies[sensor];
+    }
+
+    public long getReconfigurations()
+    {
+        return reconfigurations;
+    }
+}
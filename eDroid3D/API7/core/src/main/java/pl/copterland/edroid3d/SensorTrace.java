@@ -0,0 +1,219 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.Random;
+
+// Recorded sensor samples kept in primitive arrays. The CSV format has one
+// sample per line: timestamp in ns, sensor (see SampleRing), x, y, z.
+// Empty lines and lines starting with '#' are skipped. The binary format is
+// BINARY_MAGIC followed by big endian records: timestamp (long), sensor
+// (byte), x, y, z (float).
+public class SensorTrace {
+    public static final int BINARY_MAGIC = 0x45443354;
+
+    private int count = 0;
+    private int[] sensors;
+    private long[] timestamps;
+    private float[] values;
+
+    public SensorTrace(int initialCapacity)
+    {
+        sensors = new int[initialCapacity];
+        timestamps = new long[initialCapacity];
+        values = new float[initialCapacity * 3];
+    }
+
+    public void add(int sensor, long timestamp, float x, float y, float z)
+    {
+        if (count == sensors.length)
+            grow();
+
+        sensors[count] = sensor;
+        timestamps[count] = timestamp;
+        values[count * 3] = x;
+        values[count * 3 + 1] = y;
+        values[count * 3 + 2] = z;
+        count++;
+    }
+
+    private void grow()
+    {
+        int capacity = Math.max(16, sensors.length * 2);
+        int[] newSensors = new int[capacity];
+        long[] newTimestamps = new long[capacity];
+        float[] newValues = new float[capacity * 3];
+        System.arraycopy(sensors, 0, newSensors, 0, count);
+        System.arraycopy(timestamps, 0, newTimestamps, 0, count);
+        System.arraycopy(values, 0, newValues, 0, count * 3);
+        sensors = newSensors;
+        timestamps = newTimestamps;
+        values = newValues;
+    }
+
+    public int size()
+    {
+        return count;
+    }
+
+    public int getSensor(int i)
+    {
+        return sensors[i];
+    }
+
+    public long getTimestamp(int i)
+    {
+        return timestamps[i];
+    }
+
+    public float getValue(int i, int axis)
+    {
+        return values[i * 3 + axis];
+    }
+
+    public long getDuration()
+    {
+        return count < 2 ? 0 : timestamps[count - 1] - timestamps[0];
+    }
+
+    public void replay(int from, int to, SampleRing.Consumer consumer)
+    {
+        for (int i = from; i < to; i++)
+            consumer.onSample(sensors[i], timestamps[i], values[i * 3], values[i * 3 + 1], values[i * 3 + 2]);
+    }
+
+    public static SensorTrace readCsv(Reader input) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(input);
+        SensorTrace trace = new SensorTrace(1024);
+        String line;
+        int lineNumber = 0;
+
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.charAt(0) == '#')
+                continue;
+
+            String[] fields = line.split(",");
+            if (fields.length != 5)
+                throw new IOException("Line " + lineNumber + ": expected 5 fields");
+            try {
+                trace.add(Integer.parseInt(fields[1].trim()), Long.parseLong(fields[0].trim()),
+                        Float.parseFloat(fields[2]), Float.parseFloat(fields[3]), Float.parseFloat(fields[4]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+        return trace;
+    }
+
+    public void writeCsv(Appendable output) throws IOException
+    {
+        for (int i = 0; i < count; i++) {
+            output.append(Long.toString(timestamps[i])).append(',')
+                    .append(Integer.toString(sensors[i])).append(',')
+                    .append(Float.toString(values[i * 3])).append(',')
+                    .append(Float.toString(values[i * 3 + 1])).append(',')
+                    .append(Float.toString(values[i * 3 + 2])).append('\n');
+        }
+    }
+
+    public static SensorTrace readBinary(InputStream input) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != BINARY_MAGIC)
+            throw new IOException("Not a binary sensor trace");
+
+        SensorTrace trace = new SensorTrace(1024);
+        while (true) {
+            long timestamp;
+            try {
+                timestamp = in.readLong();
+            } catch (EOFException e) {
+                break;
+            }
+            trace.add(in.readByte(), timestamp, in.readFloat(), in.readFloat(), in.readFloat());
+        }
+        return trace;
+    }
+
+    public void writeBinary(OutputStream output) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(BINARY_MAGIC);
+        for (int i = 0; i < count; i++) {
+            out.writeLong(timestamps[i]);
+            out.writeByte(sensors[i]);
+            out.writeFloat(values[i * 3]);
+            out.writeFloat(values[i * 3 + 1]);
+            out.writeFloat(values[i * 3 + 2]);
+        }
+        out.flush();
+    }
+
+    // Hand held phone: slow rotation of gravity and of the earth magnetic
+    // field plus sensor noise, accelerometer at 200 Hz, magnetometer at 100 Hz
+    public static SensorTrace synthetic(double seconds, long seed)
+    {
+        Random random = new Random(seed);
+        int accelerometerSamples = (int)(seconds * 200);
+        SensorTrace trace = new SensorTrace(accelerometerSamples * 3 / 2);
+
+        for (int i = 0; i < accelerometerSamples; i++) {
+            long timestamp = i * 5000000L;
+            double t = timestamp / 1e9;
+            double roll = 0.6 * Math.sin(2 * Math.PI * 0.3 * t);
+            double pitch = 0.4 * Math.sin(2 * Math.PI * 0.17 * t + 1);
+
+            trace.add(SampleRing.ACCELEROMETER, timestamp,
+                    (float)(9.81 * Math.sin(roll) + 0.05 * random.nextGaussian()),
+                    (float)(9.81 * Math.sin(pitch) + 0.05 * random.nextGaussian()),
+                    (float)(9.81 * Math.cos(roll) * Math.cos(pitch) + 0.05 * random.nextGaussian()));
+
+            if (i % 2 == 0) {
+                trace.add(SampleRing.MAGNETOMETER, timestamp + 1000000L,
+                        (float)(22 * Math.cos(roll) + 0.3 * random.nextGaussian()),
+                        (float)(5 + 22 * Math.sin(pitch) + 0.3 * random.nextGaussian()),
+                        (float)(-40 + 10 * Math.sin(roll) + 0.3 * random.nextGaussian()));
+            }
+        }
+        return trace;
+    }
+}
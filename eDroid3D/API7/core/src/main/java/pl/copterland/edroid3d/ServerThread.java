@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+public class ServerThread extends Thread implements WorkerThread.Listener {
+    public interface Listener extends WorkerThread.Listener {
+        void onServerStatus(String message);
+        // Returns the handler of the commands sent by the client
+        CommandHandler onClientConnected(WorkerThread worker);
+    }
+
+    public final static int MAX_CLIENTS = 4;
+
+    private final Transport transport;
+    private final Listener listener;
+    private final ArrayList<WorkerThread> workers = new ArrayList<WorkerThread>();
+    private volatile boolean cancelled = false;
+
+    public ServerThread(Transport serverTransport, Listener serverListener) {
+        transport = serverTransport;
+        listener = serverListener;
+    }
+
+    public void run() {
+        // Keep accepting clients until the transport is closed
+        while (!cancelled) {
+            Transport.Connection connection;
+            try {
+                listener.onServerStatus("Wait for client on " + transport.getName() + "...");
+                connection = transport.accept();
+            } catch (IOException e) {
+                if (!cancelled)
+                    listener.onServerStatus("Stopped listening on " + transport.getName() + ": " + e.getMessage());
+                break;
+            }
+            if (connection == null)
+                continue;
+
+            if (getClientCount() >= MAX_CLIENTS) {
+                listener.onServerStatus("Rejected: " + connection.getName());
+                try {
+                    connection.close();
+                } catch (IOException e) { }
+                continue;
+            }
+
+            listener.onServerStatus("Connected: " + connection.getName());
+            WorkerThread worker = new WorkerThread(connection, this);
+            synchronized (workers) {
+                workers.add(worker);
+            }
+            // The handler is registered before the worker can receive commands
+            worker.setCommandHandler(listener.onClientConnected(worker));
+            worker.start();
+        }
+
+        try {
+            transport.close();
+        } catch (IOException e) { }
+    }
+
+    public int getClientCount() {
+        synchronized (workers) {
+            return workers.size();
+        }
+    }
+
+    @Override
+    public void onWorkerFinished(WorkerThread worker) {
+        synchronized (workers) {
+            workers.remove(worker);
+        }
+        listener.onWorkerFinished(worker);
+    }
+
+    // Stops accepting and disconnects every client
+    public void cancel() {
+        cancelled = true;
+        try {
+            transport.close();
+        } catch (IOException e) { }
+
+        WorkerThread[] current;
+        synchronized (workers) {
+            current = workers.toArray(new WorkerThread[workers.size()]);
+        }
+        for (WorkerThread worker : current)
+            worker.cancel();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Read only view of a log written by SessionRecorder, memory mapped so
+// records are read in place. Runs on any JVM for offline tools.
+public class SessionLog {
+    private final RandomAccessFile file;
+    private final MappedByteBuffer[] segments;
+    private final long count;
+    private final long createdAt;
+    private final long[] indexTimestamps;
+    private final long[] indexRecords;
+
+    public SessionLog(File path) throws IOException
+    {
+        file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < SessionRecorder.HEADER_SIZE)
+                throw new IOException("Not a session log: " + path);
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SessionRecorder.HEADER_SIZE);
+            if (header.getInt(0) != SessionRecorder.MAGIC)
+                throw new IOException("Not a session log: " + path);
+            if (header.getInt(4) != SessionRecorder.VERSION || header.getInt(8) != SessionRecorder.RECORD_SIZE
+                    || header.getInt(16) != SessionRecorder.SEGMENT_RECORDS)
+                throw new IOException("Unsupported session log version " + header.getInt(4));
+            createdAt = header.getLong(24);
+
+            // Records past the end of the file were never written
+            long available = (channel.size() - SessionRecorder.HEADER_SIZE) / SessionRecorder.RECORD_SIZE;
+            count = Math.min(header.getLong(SessionRecorder.COUNT_OFFSET), available);
+
+            segments = new MappedByteBuffer[(int)((count + SessionRecorder.SEGMENT_RECORDS - 1) / SessionRecorder.SEGMENT_RECORDS)];
+            for (int i = 0; i < segments.length; i++) {
+                long first = (long)i * SessionRecorder.SEGMENT_RECORDS;
+                long records = Math.min(SessionRecorder.SEGMENT_RECORDS, count - first);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        SessionRecorder.HEADER_SIZE + first * SessionRecorder.RECORD_SIZE,
+                        records * SessionRecorder.RECORD_SIZE);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+
+        // The index is optional, without it seek() searches the records
+        long[][] index = readIndex(new File(path.getPath() + SessionRecorder.INDEX_SUFFIX), count);
+        indexTimestamps = index[0];
+        indexRecords = index[1];
+    }
+
+    private static long[][] readIndex(File path, long count) throws IOException
+    {
+        int entries = (int)(path.length() / 16);
+        long[] timestamps = new long[entries];
+        long[] records = new long[entries];
+        int valid = 0;
+
+        if (entries > 0) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+            try {
+                for (int i = 0; i < entries; i++) {
+                    timestamps[valid] = in.readLong();
+                    records[valid] = in.readLong();
+                    if (records[valid] < count)
+                        valid++;
+                }
+            } catch (EOFException e) {
+                // Cut short, the complete entries are used
+            } finally {
+                in.close();
+            }
+        }
+
+        long[] validTimestamps = new long[valid];
+        long[] validRecords = new long[valid];
+        System.arraycopy(timestamps, 0, validTimestamps, 0, valid);
+        System.arraycopy(records, 0, validRecords, 0, valid);
+        return new long[][] { validTimestamps, validRecords };
+    }
+
+    public long size()
+    {
+        return count;
+    }
+
+    // Wall clock time the log was created, in ms
+    public long getCreatedAt()
+    {
+        return createdAt;
+    }
+
+    private MappedByteBuffer segment(long record)
+    {
+        if (record < 0 || record >= count)
+            throw new IndexOutOfBoundsException("Record " + record + " of " + count);
+        return segments[(int)(record / SessionRecorder.SEGMENT_RECORDS)];
+    }
+
+    private static int offset(long record)
+    {
+        return (int)(record % SessionRecorder.SEGMENT_RECORDS) * SessionRecorder.RECORD_SIZE;
+    }
+
+    public int getType(long record)
+    {
+        return segment(record).get(offset(record));
+    }
+
+    public int getSensor(long record)
+    {
+        return segment(record).get(offset(record) + 1);
+    }
+
+    public long getTimestamp(long record)
+    {
+        return segment(record).getLong(offset(record) + 4);
+    }
+
+    public float getValue(long record, int axis)
+    {
+        return segment(record).getFloat(offset(record) + SessionRecorder.PAYLOAD_OFFSET + axis * 4);
+    }
+
+    public void readFrame(long record, Frame frame)
+    {
+        MappedByteBuffer segment = segment(record);
+        int payload = offset(record) + SessionRecorder.PAYLOAD_OFFSET;
+        for (int i = 0; i < Frame.FRAME_SIZE; i++)
+            frame.put(i, segment.get(payload + i));
+    }
+
+    // Returns the first record at or after the timestamp, size() if there is
+    // none. The index narrows the search to one index interval.
+    public long seek(long timestamp)
+    {
+        long from = 0;
+        long to = count;
+        int low = 0;
+        int high = indexTimestamps.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (indexTimestamps[middle] < timestamp) {
+                from = indexRecords[middle];
+                low = middle + 1;
+            } else {
+                to = Math.min(count, indexRecords[middle] + 1);
+                high = middle - 1;
+            }
+        }
+
+        for (long i = from; i < to; i++) {
+            if (getTimestamp(i) >= timestamp)
+                return i;
+        }
+        return count;
+    }
+
+    // The raw samples of the session, e.g. to replay them through the
+    // simulator with other settings
+    public SensorTrace toTrace()
+    {
+        SensorTrace trace = new SensorTrace(1024);
+        for (long i = 0; i < count; i++) {
+            if (getType(i) == SessionRecorder.TYPE_SAMPLE)
+                trace.add(getSensor(i), getTimestamp(i), getValue(i, 0), getValue(i, 1), getValue(i, 2));
+        }
+        return trace;
+    }
+
+    public void close() throws IOException
+    {
+        file.close();
+    }
+}
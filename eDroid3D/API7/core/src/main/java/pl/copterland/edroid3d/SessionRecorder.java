@@ -0,0 +1,178 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Append-only binary log of the raw samples and the frames of a session.
+// Records have a fixed size and are written straight into a memory mapped
+// segment of the file, the record count in the header is updated after
+// every record, so a log cut short by a crash stays readable.
+//
+// File: HEADER_SIZE bytes of header, then RECORD_SIZE byte records
+//   header  magic, version, record size, index interval, segment records
+//           (int each), creation time in ms (long), record count (long)
+//   record  [type][sensor][2 reserved][timestamp, long][payload]
+//           sample payload: x, y, z (float), frame payload: the frame
+// Every INDEX_INTERVAL records the timestamp and record number are added
+// to the index file, see SessionLog.seek().
+//
+// Not thread safe, records are written by the frame pipeline thread.
+public class SessionRecorder {
+    public static final int MAGIC = 0x45445231;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int RECORD_SIZE = 40;
+    public static final int PAYLOAD_OFFSET = 12;
+    public static final int SEGMENT_RECORDS = 1 << 16;
+    public static final int INDEX_INTERVAL = 1024;
+    public static final String INDEX_SUFFIX = ".idx";
+
+    public static final int TYPE_SAMPLE = 1;
+    public static final int TYPE_FRAME = 2;
+
+    static final int COUNT_OFFSET = 32;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final DataOutputStream index;
+    private MappedByteBuffer segment;
+    private long count = 0;
+    private IOException error;
+
+    public SessionRecorder(File path) throws IOException
+    {
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(RECORD_SIZE);
+        header.putInt(INDEX_INTERVAL);
+        header.putInt(SEGMENT_RECORDS);
+        header.putInt(0);
+        header.putLong(System.currentTimeMillis());
+        header.putLong(COUNT_OFFSET, 0);
+
+        index = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(path.getPath() + INDEX_SUFFIX)));
+    }
+
+    public void recordSample(int sensor, long timestamp, float x, float y, float z)
+    {
+        int offset = begin(TYPE_SAMPLE, sensor, timestamp);
+        if (offset < 0)
+            return;
+        segment.putFloat(offset, x);
+        segment.putFloat(offset + 4, y);
+        segment.putFloat(offset + 8, z);
+        commit();
+    }
+
+    // The frame is stamped with its build time
+    public void recordFrame(Frame frame)
+    {
+        int offset = begin(TYPE_FRAME, 0, frame.getBuiltAt());
+        if (offset < 0)
+            return;
+        segment.position(offset);
+        frame.writeTo(segment);
+        commit();
+    }
+
+    // Writes the record header, returns the payload offset in the segment
+    // or -1 after an I/O error
+    private int begin(int type, int sensor, long timestamp)
+    {
+        if (error != null)
+            return -1;
+
+        int slot = (int)(count % SEGMENT_RECORDS);
+        try {
+            if (slot == 0) {
+                long position = HEADER_SIZE + count * RECORD_SIZE;
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, position, (long)SEGMENT_RECORDS * RECORD_SIZE);
+            }
+            if (count % INDEX_INTERVAL == 0) {
+                index.writeLong(timestamp);
+                index.writeLong(count);
+            }
+        } catch (IOException e) {
+            error = e;
+            return -1;
+        }
+
+        int offset = slot * RECORD_SIZE;
+        segment.put(offset, (byte)type);
+        segment.put(offset + 1, (byte)sensor);
+        segment.putLong(offset + 4, timestamp);
+        return offset + PAYLOAD_OFFSET;
+    }
+
+    private void commit()
+    {
+        count++;
+        header.putLong(COUNT_OFFSET, count);
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    // First I/O error, recording stops after it
+    public IOException getError()
+    {
+        return error;
+    }
+
+    // Flushes the log and trims the unused part of the last segment
+    public void close() throws IOException
+    {
+        try {
+            if (segment != null)
+                segment.force();
+            header.force();
+            index.close();
+            channel.truncate(HEADER_SIZE + count * RECORD_SIZE);
+        } finally {
+            file.close();
+        }
+    }
+}
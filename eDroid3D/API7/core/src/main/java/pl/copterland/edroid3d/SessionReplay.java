@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Sends the frames of a recorded session to a connection at the recorded
+// pace scaled by speed, or with MAX_SPEED as fast as the connection takes
+// them. Frames keep the numbers they were recorded with.
+public class SessionReplay extends Thread {
+    public final static double MAX_SPEED = 0;
+
+    private final SessionLog log;
+    private final WorkerThread worker;
+    private final double speed;
+    private final long from;
+
+    private volatile boolean running = true;
+    private volatile long sent = 0;
+    private volatile long dropped = 0;
+
+    public SessionReplay(SessionLog sessionLog, WorkerThread target, double replaySpeed, long fromTimestamp)
+    {
+        super("SessionReplay");
+        log = sessionLog;
+        worker = target;
+        speed = replaySpeed;
+        from = fromTimestamp;
+    }
+
+    public void run() {
+        long first = log.seek(from);
+        if (first >= log.size())
+            return;
+        long logStart = log.getTimestamp(first);
+        long wallStart = System.nanoTime();
+
+        for (long i = first; i < log.size() && running; i++) {
+            if (log.getType(i) != SessionRecorder.TYPE_FRAME)
+                continue;
+
+            if (speed > 0) {
+                long due = wallStart + (long)((log.getTimestamp(i) - logStart) / speed);
+                long wait;
+                while (running && (wait = due - System.nanoTime()) > 0)
+                    LockSupport.parkNanos(wait);
+            }
+
+            if (speed <= 0) {
+                // Back pressure, wait for the writer instead of dropping
+                try {
+                    if (!worker.getQueue().awaitRoom())
+                        break;
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+
+            Frame frame = worker.obtainFrame();
+            if (frame == null) {
+                dropped++;
+                continue;
+            }
+
+            log.readFrame(i, frame);
+            // Recorded pipeline times would not mean anything now
+            frame.setTimestamp(0);
+            frame.setBuiltAt(0);
+            worker.send(frame);
+            sent++;
+        }
+    }
+
+    public void cancel()
+    {
+        running = false;
+        interrupt();
+    }
+
+    public long getSent()
+    {
+        return sent;
+    }
+
+    public long getDropped()
+    {
+        return dropped;
+    }
+}
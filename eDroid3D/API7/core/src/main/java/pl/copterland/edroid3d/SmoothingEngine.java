@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Owns the selectable smoothing filters. Settings may be changed from any
+// thread and are applied by the thread that pushes samples.
+public class SmoothingEngine {
+    public enum Type {
+        MovingAverage,
+        Exponential,
+        OneEuro
+    }
+
+    private final MovingAverageFilter movingAverage;
+    private final ExponentialFilter exponential;
+    private final OneEuroFilter oneEuro;
+    private SmoothingFilter filter;
+    private Type type;
+    private int window;
+
+    private volatile Type pendingType;
+    private volatile int pendingWindow;
+
+    public SmoothingEngine(int channels, int maxWindow, int windowSize)
+    {
+        movingAverage = new MovingAverageFilter(channels, maxWindow, windowSize);
+        exponential = new ExponentialFilter(channels, windowSize);
+        oneEuro = new OneEuroFilter(channels);
+        filter = movingAverage;
+        type = pendingType = Type.MovingAverage;
+        window = pendingWindow = windowSize;
+    }
+
+    public void setType(Type filterType)
+    {
+        pendingType = filterType;
+    }
+
+    public void setWindow(int samples)
+    {
+        pendingWindow = samples;
+    }
+
+    public Type getType()
+    {
+        return pendingType;
+    }
+
+    private void applySettings()
+    {
+        if (pendingWindow != window) {
+            window = pendingWindow;
+            filter.setWindow(window);
+        }
+
+        if (pendingType != type) {
+            type = pendingType;
+            switch (type) {
+                case MovingAverage:
+                    filter = movingAverage;
+                    break;
+                case Exponential:
+                    filter = exponential;
+                    break;
+                case OneEuro:
+                    filter = oneEuro;
+                    break;
+            }
+            filter.reset();
+            filter.setWindow(window);
+        }
+    }
+
+    public void push(int[] sample, long timestamp)
+    {
+        applySettings();
+        filter.push(sample, timestamp);
+    }
+
+    public boolean get(int[] out)
+    {
+        applySettings();
+        return filter.get(out);
+    }
+}
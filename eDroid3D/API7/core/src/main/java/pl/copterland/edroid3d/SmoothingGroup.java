@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+// Smoothing state shared by the clients that use the same filter settings,
+// the frame is built once per tick for all of them
+class SmoothingGroup {
+    final SmoothingEngine engine;
+    final Frame frame = new Frame();
+    final int[] smoothed;
+    SmoothingEngine.Type type;
+    int window;
+    int members = 0;
+    boolean built = false;
+    // Whether smoothed holds values, valid once built
+    boolean hasSamples = false;
+
+    SmoothingGroup(int channels, int maxWindow, SmoothingEngine.Type filterType, int windowSize)
+    {
+        engine = new SmoothingEngine(channels, maxWindow, windowSize);
+        engine.setType(filterType);
+        smoothed = new int[channels];
+        type = filterType;
+        window = windowSize;
+    }
+
+    boolean matches(SmoothingEngine.Type filterType, int windowSize)
+    {
+        return type == filterType && window == windowSize;
+    }
+
+    // Changes the settings in place, samples already present are kept
+    void reconfigure(SmoothingEngine.Type filterType, int windowSize)
+    {
+        type = filterType;
+        window = windowSize;
+        engine.setType(filterType);
+        engine.setWindow(windowSize);
+    }
+}
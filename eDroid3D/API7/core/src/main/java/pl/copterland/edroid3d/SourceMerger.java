@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+package pl.copterland.edroid3d;
+
+// Merges the frames of several devices into one stream ordered by sample
+// time. Every source has a bounded buffer, a full buffer drops its oldest
+// frame. The oldest buffered frame is released once every active source
+// has sent a frame at least as new, or after it waited maxDelay for the
+// late ones. A source that stays silent for INACTIVE_TIMEOUT stops holding
+// the stream back, so with a single source frames pass right through.
+public class SourceMerger {
+    public final static int MAX_SOURCES = 8;
+    public final static int CAPACITY = 16;
+    public final static long DEFAULT_MAX_DELAY = 40000000L;
+    public final static long INACTIVE_TIMEOUT = 500000000L;
+
+    private final long maxDelay;
+    private final Frame[][] buffers = new Frame[MAX_SOURCES][CAPACITY];
+    private final int[] heads = new int[MAX_SOURCES];
+    private final int[] counts = new int[MAX_SOURCES];
+    // Newest sample time and arrival of every source, 0 before the first
+    private final long[] newest = new long[MAX_SOURCES];
+    private final long[] lastOffer = new long[MAX_SOURCES];
+    private final long[] dropped = new long[MAX_SOURCES];
+    private long released = 0;
+    private long late = 0;
+    private long lastReleased = Long.MIN_VALUE;
+
+    public SourceMerger()
+    {
+        this(DEFAULT_MAX_DELAY);
+    }
+
+    public SourceMerger(long maxDelayNanos)
+    {
+        maxDelay = maxDelayNanos;
+        for (Frame[] buffer : buffers) {
+            for (int i = 0; i < buffer.length; i++)
+                buffer[i] = new Frame();
+        }
+    }
+
+    // Copies the frame into the buffer of the source, now is the arrival time
+    public synchronized void offer(int source, Frame frame, long now)
+    {
+        if (counts[source] == CAPACITY) {
+            heads[source] = (heads[source] + 1) % CAPACITY;
+            counts[source]--;
+            dropped[source]++;
+        }
+        Frame slot = buffers[source][(heads[source] + counts[source]) % CAPACITY];
+        slot.copyFrom(frame);
+        slot.setSource(source);
+        counts[source]++;
+        newest[source] = Math.max(newest[source], frame.getTimestamp());
+        lastOffer[source] = now;
+    }
+
+    // Copies the next frame in sample time order into out, false when no
+    // frame can be released yet
+    public synchronized boolean poll(long now, Frame out)
+    {
+        int oldest = -1;
+        long oldestTime = 0;
+        for (int s = 0; s < MAX_SOURCES; s++) {
+            if (counts[s] == 0)
+                continue;
+            long time = buffers[s][heads[s]].getTimestamp();
+            if (oldest < 0 || time < oldestTime) {
+                oldest = s;
+                oldestTime = time;
+            }
+        }
+        if (oldest < 0)
+            return false;
+
+        if (now - oldestTime < maxDelay) {
+            for (int s = 0; s < MAX_SOURCES; s++) {
+                boolean active = lastOffer[s] != 0 && now - lastOffer[s] < INACTIVE_TIMEOUT;
+                if (active && newest[s] < oldestTime)
+                    return false;
+            }
+        }
+
+        out.copyFrom(buffers[oldest][heads[oldest]]);
+        heads[oldest] = (heads[oldest] + 1) % CAPACITY;
+        counts[oldest]--;
+        released++;
+        // Came after the wait for it was over
+        if (oldestTime < lastReleased)
+            late++;
+        else
+            lastReleased = oldestTime;
+        return true;
+    }
+
+    public synchronized int getBuffered(int source)
+    {
+        return counts[source];
+    }
+
+    public synchronized long getDropped(int source)
+    {
+        return dropped[source];
+    }
+
+    public synchronized long getReleased()
+    {
+        return released;
+    }
+
+    // Frames released after a newer one
+    public synchronized long getLate()
+    {
+        return late;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Replays a recorded trace into a SampleRing, at the recorded pace scaled by
+// speed or, with MAX_SPEED, as fast as the consumer drains the ring. Samples
+// are stamped with System.nanoTime() when offered, like sensor events are
+// stamped when they arrive.
+public class TraceSensorSource implements SensorSource, Runnable {
+    public final static double MAX_SPEED = 0;
+
+    private final SensorTrace trace;
+    private final SampleRing ring;
+    private final double speed;
+    private final boolean loop;
+    private final Thread thread;
+
+    private volatile boolean delivering = false;
+    private volatile boolean running = true;
+    private volatile boolean finished = false;
+    private volatile long replayed = 0;
+
+    public TraceSensorSource(SensorTrace sensorTrace, SampleRing sampleRing, double replaySpeed, boolean repeat)
+    {
+        if (sensorTrace.size() == 0)
+            throw new IllegalArgumentException("Empty trace");
+        trace = sensorTrace;
+        ring = sampleRing;
+        speed = replaySpeed;
+        loop = repeat;
+        thread = new Thread(this, "TraceSensorSource");
+    }
+
+    @Override
+    public void start() {
+        thread.start();
+    }
+
+    @Override
+    public void register() {
+        delivering = true;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void unregister() {
+        delivering = false;
+    }
+
+    @Override
+    public void quit() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // True once a trace that does not loop has been replayed
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+    public long getReplayed()
+    {
+        return replayed;
+    }
+
+    @Override
+    public void run() {
+        long traceStart = trace.getTimestamp(0);
+        // Loops continue the timeline, one average sample period after the end
+        long loopLength = trace.getDuration() + trace.getDuration() / Math.max(1, trace.size() - 1);
+        long loopOffset = 0;
+        long wallStart = 0;
+        boolean paused = true;
+        int i = 0;
+
+        while (running) {
+            if (!delivering) {
+                paused = true;
+                LockSupport.parkNanos(10000000L);
+                continue;
+            }
+
+            if (i == trace.size()) {
+                if (!loop)
+                    break;
+                i = 0;
+                loopOffset += loopLength;
+            }
+
+            long traceTime = trace.getTimestamp(i) - traceStart + loopOffset;
+            if (paused) {
+                // Resume from the current sample instead of catching up
+                wallStart = System.nanoTime() - (speed > 0 ? (long)(traceTime / speed) : 0);
+                paused = false;
+            }
+
+            if (speed > 0) {
+                long wait = wallStart + (long)(traceTime / speed) - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+            } else if (ring.size() == ring.capacity()) {
+                Thread.yield();
+                continue;
+            }
+
+            ring.offer(trace.getSensor(i), System.nanoTime(),
+                    trace.getValue(i, 0), trace.getValue(i, 1), trace.getValue(i, 2));
+            replayed++;
+            i++;
+        }
+        finished = true;
+    }
+}
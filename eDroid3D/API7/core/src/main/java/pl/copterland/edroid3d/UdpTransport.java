@@ -0,0 +1,239 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+// UDP server. A client connects by sending its first command datagram.
+// Every write becomes one datagram starting with a 32 bit big endian
+// sequence number, so the host can detect lost and reordered batches.
+// Commands are read from the payload of incoming datagrams.
+//
+// One client is served at a time, accept() waits until it is released.
+// UDP has no notion of a closed connection, so a client that sent nothing
+// for the idle timeout is dropped. Hosts that only listen keep the
+// connection alive with a separator command, e.g. a newline, every few
+// seconds. Datagrams that do not fit the socket buffer are dropped.
+public class UdpTransport implements Transport {
+    public final static int HEADER_SIZE = 4;
+    public final static long DEFAULT_IDLE_TIMEOUT = 10000;
+    private final static int MAX_DATAGRAM = 65507;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final long idleTimeout;
+    // Guarded by this
+    private DatagramConnection current;
+    private boolean closed = false;
+
+    public UdpTransport(int port) throws IOException {
+        this(port, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    public UdpTransport(int port, long idleTimeoutMillis) throws IOException {
+        idleTimeout = idleTimeoutMillis;
+        channel = DatagramChannel.open();
+        channel.socket().setReuseAddress(true);
+        channel.socket().bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    public int getLocalPort()
+    {
+        return channel.socket().getLocalPort();
+    }
+
+    // The channel is connected to the first peer that sends a datagram
+    // while no client is served
+    @Override
+    public Connection accept() throws IOException {
+        synchronized (this) {
+            while (current != null && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+            }
+            if (closed)
+                throw new IOException("UDP transport closed");
+        }
+
+        ByteBuffer first = ByteBuffer.allocate(MAX_DATAGRAM);
+        SocketAddress peer = null;
+        try {
+            while (peer == null) {
+                selector.select();
+                selector.selectedKeys().clear();
+                peer = channel.receive(first);
+            }
+        } catch (ClosedSelectorException e) {
+            throw new IOException("UDP transport closed");
+        }
+        first.flip();
+        channel.connect(peer);
+
+        synchronized (this) {
+            current = new DatagramConnection(channel, "UDP " + peer, first);
+            return current;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "UDP port " + getLocalPort();
+    }
+
+    // The channel stays open for the client being served, it is closed
+    // once the client is released
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        notifyAll();
+        if (current == null)
+            closeChannel();
+    }
+
+    private void closeChannel() throws IOException
+    {
+        selector.close();
+        channel.close();
+    }
+
+    // Disconnects the client so the next one can be accepted
+    private synchronized void release(DatagramConnection connection) throws IOException
+    {
+        if (current != connection)
+            return;
+        current = null;
+        notifyAll();
+        if (closed) {
+            closeChannel();
+            return;
+        }
+        channel.disconnect();
+        // A reader waiting for datagrams notices the release
+        selector.wakeup();
+    }
+
+    private class DatagramConnection extends ChannelConnection {
+        private final ByteBuffer datagram;
+        private final InputStream inStream;
+        private volatile boolean released = false;
+        private int sequence = 0;
+
+        DatagramConnection(DatagramChannel datagramChannel, String name, ByteBuffer first)
+        {
+            super(datagramChannel, name, MAX_DATAGRAM);
+            // Commands that came with the connecting datagram go first
+            datagram = first;
+
+            inStream = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] single = new byte[1];
+                    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    synchronized (datagram) {
+                        if (!datagram.hasRemaining() && !receive())
+                            return -1;
+                        int count = Math.min(len, datagram.remaining());
+                        datagram.get(b, off, count);
+                        return count;
+                    }
+                }
+            };
+        }
+
+        // Waits for the next datagram of the peer, false once the
+        // connection was released or the peer stayed silent too long
+        private boolean receive() throws IOException
+        {
+            long deadline = System.currentTimeMillis() + idleTimeout;
+            try {
+                while (!released) {
+                    datagram.clear();
+                    int bytes = channel.read(datagram);
+                    datagram.flip();
+                    if (bytes > 0)
+                        return true;
+
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0) {
+                        close();
+                        break;
+                    }
+                    selector.select(left);
+                    selector.selectedKeys().clear();
+                }
+            } catch (ClosedSelectorException e) {
+            }
+            datagram.limit(0);
+            return false;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return inStream;
+        }
+
+        @Override
+        protected void send(byte[] b, int off, int len) throws IOException {
+            if (len > MAX_DATAGRAM - HEADER_SIZE)
+                throw new IOException("Datagram too long: " + len);
+            if (released)
+                throw new IOException("Connection closed");
+
+            writeBuffer.clear();
+            writeBuffer.putInt(sequence++);
+            writeBuffer.put(b, off, len);
+            writeBuffer.flip();
+            channel.write(writeBuffer);
+        }
+
+        @Override
+        public void close() throws IOException {
+            released = true;
+            release(this);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class WorkerThread extends Thread implements FrameWriter.Listener {
+    public interface Listener {
+        void onWorkerFinished(WorkerThread worker);
+    }
+
+    private final static int QUEUE_CAPACITY = 32;
+
+    private final Transport.Connection connection;
+    private final InputStream inStream;
+    private final OutputStream outStream;
+    private CommandDecoder decoder;
+    private final FramePool pool;
+    private final FrameQueue queue;
+    private final FrameFormatEncoder encoder;
+    private final FrameWriter writer;
+    private final FrameLatency latency;
+    private final Listener listener;
+    private boolean cancelled = false;
+
+    public WorkerThread(Transport.Connection clientConnection, Listener workerListener) {
+        connection = clientConnection;
+        listener = workerListener;
+        inStream = connection.getInputStream();
+        outStream = connection.getOutputStream();
+
+        // One spare frame for the producer, the writer holds none
+        pool = new FramePool(QUEUE_CAPACITY + 1, false);
+        queue = new FrameQueue(QUEUE_CAPACITY, pool, FrameQueue.Policy.DropOldest, 1);
+        latency = new FrameLatency(QUEUE_CAPACITY);
+        queue.setLatency(latency);
+        encoder = new FrameFormatEncoder();
+        writer = new FrameWriter(queue, encoder, outStream, this);
+    }
+
+    // Must be called before the thread is started
+    public void setCommandHandler(CommandHandler handler) {
+        decoder = new CommandDecoder(handler);
+    }
+
+    public void run() {
+        writer.start();
+
+        final byte[] buffer = new byte[64];
+        int bytes;
+
+        // Keep listening to the InputStream until an exception occurs,
+        // commands are handled on this thread
+        while (true) {
+            try {
+                bytes = inStream.read(buffer);
+                if (bytes < 0)
+                    throw new IOException("End of stream");
+
+                decoder.decode(buffer, 0, bytes);
+            } catch (IOException e) {
+                cancel();
+                break;
+            }
+        }
+    }
+
+    // Returns an empty frame owned by the caller until it is passed to
+    // send(), or null when all frames are in flight
+    public Frame obtainFrame() {
+        return pool.acquire();
+    }
+
+    // Hands the frame over to the writer thread, never blocks on the link
+    public void send(Frame frame) {
+        latency.onEnqueued(frame, System.nanoTime());
+        queue.offer(frame);
+    }
+
+    public void setQueuePolicy(FrameQueue.Policy policy, int framesPerBatch) {
+        queue.setPolicy(policy, framesPerBatch);
+    }
+
+    // Wire format used by the writer, compactChannels selects the channels
+    // of compact frames, see FrameCodec
+    public void setFrameFormat(FrameEncoder.Format format, int compactChannels) {
+        encoder.setFormat(format, compactChannels);
+    }
+
+    public FrameEncoder.Format getFrameFormat() {
+        return encoder.getFormat();
+    }
+
+    public void setTimestampTrailer(boolean enabled) {
+        encoder.setTimestampTrailer(enabled);
+    }
+
+    public boolean hasTimestampTrailer() {
+        return encoder.hasTimestampTrailer();
+    }
+
+    public void setFraming(boolean enabled) {
+        encoder.setFraming(enabled);
+    }
+
+    public boolean hasFraming() {
+        return encoder.hasFraming();
+    }
+
+    // Whether messages can be told apart from the frames, see FrameFormatEncoder
+    public boolean isDelimited() {
+        return encoder.isDelimited();
+    }
+
+    // Sends a message to the host between frames, see FrameWriter
+    public void sendMessage(int type, byte[] payload) {
+        try {
+            writer.writeMessage(type, payload);
+        } catch (IOException e) {
+            cancel();
+        }
+    }
+
+    // Sends a message with the next frames, without waiting for the link
+    public void postMessage(int type, byte[] payload) {
+        writer.postMessage(type, payload);
+    }
+
+    public FrameLatency getLatency() {
+        return latency;
+    }
+
+    public FrameQueue getQueue() {
+        return queue;
+    }
+
+    public FrameWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public void onWriteFailed(IOException e) {
+        cancel();
+    }
+
+    public void cancel() {
+        synchronized (this) {
+            if (cancelled)
+                return;
+            cancelled = true;
+        }
+
+        writer.cancel();
+        try {
+            connection.close();
+        } catch (IOException e) { }
+
+        listener.onWorkerFinished(this);
+    }
+
+    public String getConnectionName() {
+        return connection.getName();
+    }
+
+}
@@ -0,0 +1,183 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveRateControllerTest {
+    private static final int UNKNOWN = AdaptiveRateController.UNKNOWN;
+    private static final double PERIOD_SECONDS = AdaptiveRateController.PERIOD / 1e9;
+
+    // Link draining a bounded queue at a fixed number of frames per second
+    private static class LinkModel {
+        final double capacity;
+        final int queueCapacity;
+        double queued = 0;
+        long dropped = 0;
+
+        LinkModel(double framesPerSecond, int queueSize) {
+            capacity = framesPerSecond;
+            queueCapacity = queueSize;
+        }
+
+        // Returns whether the period ended with backpressure
+        boolean run(int rate) {
+            long before = dropped;
+            queued += (rate - capacity) * PERIOD_SECONDS;
+            if (queued < 0)
+                queued = 0;
+            if (queued > queueCapacity) {
+                dropped += Math.round(queued - queueCapacity);
+                queued = queueCapacity;
+            }
+            return dropped != before || queued > queueCapacity / 2;
+        }
+    }
+
+    // Battery drained by the radio and the sensors, in percent per period
+    private static class BatteryModel {
+        double level;
+
+        BatteryModel(double percent) {
+            level = percent;
+        }
+
+        void run(int rate, int window) {
+            level -= 0.01 + 0.0002 * rate + 0.00005 * rate * window;
+        }
+
+        int percent() {
+            return (int)Math.ceil(level);
+        }
+    }
+
+    private static AdaptiveRateController controller(int minRate, int maxRate, int minWindow, int maxWindow) {
+        AdaptiveRateController controller = new AdaptiveRateController();
+        controller.setBounds(minRate, maxRate, minWindow, maxWindow);
+        return controller;
+    }
+
+    @Test
+    public void saturatedLinkSettlesBelowItsCapacity() {
+        AdaptiveRateController controller = controller(5, 100, 2, 16);
+        LinkModel link = new LinkModel(40, 32);
+        long now = 0;
+        boolean congested = false;
+        long droppedBefore = 0;
+        double rates = 0;
+        for (int i = 0; i < 120; i++) {
+            controller.update(now, congested, UNKNOWN, false, UNKNOWN, -1);
+            congested = link.run(controller.getRate());
+            now += AdaptiveRateController.PERIOD;
+            if (i == 39)
+                droppedBefore = link.dropped;
+            if (i >= 40)
+                rates += controller.getRate();
+        }
+        // No more drops once settled, and most of the link is used
+        assertEquals(droppedBefore, link.dropped);
+        double mean = rates / 80;
+        assertTrue(mean <= 40);
+        assertTrue(mean >= 20);
+    }
+
+    @Test
+    public void linkLimitGrowsTheWindow() {
+        AdaptiveRateController controller = controller(5, 100, 2, 16);
+        controller.update(0, false, UNKNOWN, false, UNKNOWN, -1);
+        assertTrue(controller.update(AdaptiveRateController.PERIOD, true, UNKNOWN, false, UNKNOWN, -1));
+        assertEquals(50, controller.getRate());
+        // The sensors keep sampling at 100 * 2 per second
+        assertEquals(4, controller.getWindow());
+        assertEquals(AdaptiveRateController.REASON_LINK, controller.getReasons());
+
+        // Raised again step by step once the link keeps up
+        controller.update(2 * AdaptiveRateController.PERIOD, false, UNKNOWN, false, UNKNOWN, -1);
+        assertEquals(60, controller.getRate());
+        for (int i = 3; i < 10; i++)
+            controller.update(i * AdaptiveRateController.PERIOD, false, UNKNOWN, false, UNKNOWN, -1);
+        assertEquals(100, controller.getRate());
+        assertEquals(2, controller.getWindow());
+        assertEquals(0, controller.getReasons());
+    }
+
+    @Test
+    public void windowStaysWithinTheBounds() {
+        AdaptiveRateController controller = controller(1, 100, 2, 3);
+        for (int i = 0; i < 5; i++)
+            controller.update(i * AdaptiveRateController.PERIOD, true, UNKNOWN, false, UNKNOWN, -1);
+        assertEquals(3, controller.getRate());
+        assertEquals(3, controller.getWindow());
+    }
+
+    @Test
+    public void lowBatteryMakesTheSessionLast() {
+        BatteryModel fixed = new BatteryModel(30);
+        int fixedPeriods = 0;
+        while (fixed.level > 0) {
+            fixed.run(100, 4);
+            fixedPeriods++;
+        }
+
+        AdaptiveRateController controller = controller(10, 100, 4, 4);
+        BatteryModel battery = new BatteryModel(30);
+        int periods = 0;
+        boolean sawCritical = false;
+        while (battery.level > 0) {
+            controller.update(periods * AdaptiveRateController.PERIOD, false, battery.percent(), false, UNKNOWN, -1);
+            if (battery.percent() > AdaptiveRateController.LOW_BATTERY)
+                assertEquals(100, controller.getRate());
+            else if (battery.percent() > AdaptiveRateController.CRITICAL_BATTERY)
+                assertEquals(50, controller.getRate());
+            else {
+                assertEquals(10, controller.getRate());
+                sawCritical = true;
+            }
+            // A power limit slows the sensors down with the frames
+            assertEquals(4, controller.getWindow());
+            battery.run(controller.getRate(), controller.getWindow());
+            periods++;
+        }
+        assertTrue(sawCritical);
+        assertTrue(periods > fixedPeriods * 3 / 2);
+    }
+
+    @Test
+    public void chargingAndUnknownStateDoNotLimit() {
+        AdaptiveRateController controller = controller(1, 100, 2, 2);
+        controller.update(0, false, 5, true, UNKNOWN, -1);
+        assertEquals(100, controller.getRate());
+        controller.update(AdaptiveRateController.PERIOD, false, UNKNOWN, false, UNKNOWN, -1);
+        assertEquals(100, controller.getRate());
+        assertEquals(0, controller.getReasons());
+    }
+
+    @Test
+    public void hotBatteryAndStillDeviceLimit() {
+        AdaptiveRateController controller = controller(1, 100, 2, 2);
+        controller.update(0, false, 80, false, AdaptiveRateController.HOT_BATTERY, 5);
+        assertEquals(50, controller.getRate());
+        assertEquals(AdaptiveRateController.REASON_THERMAL, controller.getReasons());
+
+        controller.update(AdaptiveRateController.PERIOD, false, 80, false, 300, 0.2f);
+        assertEquals(25, controller.getRate());
+        assertEquals(AdaptiveRateController.REASON_MOTION, controller.getReasons());
+
+        // Moving again, back to the upper bound at once
+        controller.update(2 * AdaptiveRateController.PERIOD, false, 80, false, 300, 5);
+        assertEquals(100, controller.getRate());
+    }
+
+    @Test
+    public void newBoundsStartOver() {
+        AdaptiveRateController controller = controller(5, 100, 2, 16);
+        controller.update(0, true, UNKNOWN, false, UNKNOWN, -1);
+        assertFalse(controller.isDue(AdaptiveRateController.PERIOD - 1));
+        assertTrue(controller.isDue(AdaptiveRateController.PERIOD));
+
+        controller.setBounds(5, 200, 2, 16);
+        assertTrue(controller.isDue(1));
+        assertEquals(200, controller.getRate());
+        assertFalse(controller.update(1, false, UNKNOWN, false, UNKNOWN, -1));
+    }
+}
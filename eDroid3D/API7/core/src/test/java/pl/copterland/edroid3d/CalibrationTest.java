@@ -0,0 +1,138 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CalibrationTest {
+    private static int[] apply(SensorCalibration calibration, float x, float y, float z) {
+        int[] out = new int[3];
+        calibration.apply(x, y, z, out, 0);
+        return out;
+    }
+
+    @Test
+    public void fixedRangeKeepsSignAndClamps() throws Exception {
+        CalibrationProfile.Sensor settings = new CalibrationProfile.Sensor(10);
+        SensorCalibration calibration = new SensorCalibration(settings);
+
+        assertArrayEquals(new int[] { 0, 64, -127 }, apply(calibration, 0, 5, -10));
+        assertArrayEquals(new int[] { 127, -127, 13 }, apply(calibration, 50, -1000, 1));
+    }
+
+    @Test
+    public void firstSamplesNeverDivideByZero() throws Exception {
+        CalibrationProfile.Sensor settings = new CalibrationProfile.Sensor(1);
+        settings.setMode(SensorCalibration.Mode.Adaptive);
+        SensorCalibration calibration = new SensorCalibration(settings);
+
+        // Below the minimum range values are scaled by it
+        assertArrayEquals(new int[] { 0, 64, -64 }, apply(calibration, 0, 0.5f, -0.5f));
+        // A new extreme maps to the full range
+        assertArrayEquals(new int[] { 127, 0, 0 }, apply(calibration, 8, 0, 0));
+        assertArrayEquals(new int[] { 64, 0, 0 }, apply(calibration, 4, 0, 0));
+        assertArrayEquals(new int[] { -127, 0, 0 }, apply(calibration, -9, 0, 0));
+    }
+
+    @Test
+    public void adaptiveRangeDecays() throws Exception {
+        CalibrationProfile.Sensor settings = new CalibrationProfile.Sensor(1);
+        settings.setMode(SensorCalibration.Mode.Adaptive);
+        settings.setDecay(0.01f);
+        SensorCalibration calibration = new SensorCalibration(settings);
+
+        apply(calibration, 100, 0, 0);
+        for (int i = 0; i < 2000; i++)
+            apply(calibration, 2, 0, 0);
+        // The spike is forgotten, 2 is close to the top of the range again
+        assertTrue(apply(calibration, 2, 0, 0)[0] > 120);
+    }
+
+    @Test
+    public void adaptiveScaleHoldsUntilTheExtremeMoves() throws Exception {
+        CalibrationProfile.Sensor settings = new CalibrationProfile.Sensor(1);
+        settings.setMode(SensorCalibration.Mode.Adaptive);
+        settings.setDecay(0.01f);
+        SensorCalibration calibration = new SensorCalibration(settings);
+
+        apply(calibration, 100, 0, 0);
+        // The max decayed to 99.6, still scaled for 100
+        assertEquals(76, apply(calibration, 60, 0, 0)[0]);
+        // A new extreme is scaled right away
+        assertEquals(127, apply(calibration, 200, 0, 0)[0]);
+        assertEquals(-127, apply(calibration, -300, 0, 0)[0]);
+    }
+
+    @Test
+    public void calibrationRunFindsHardAndSoftIron() throws Exception {
+        CalibrationProfile.Sensor settings = new CalibrationProfile.Sensor(100);
+        SensorCalibration calibration = new SensorCalibration(settings);
+        calibration.startCalibration();
+
+        // Earth field of 50 uT seen through an offset and a stretched y axis
+        Random random = new Random(5);
+        int[] out = new int[3];
+        for (int i = 0; i < 20000; i++) {
+            double theta = Math.acos(2 * random.nextDouble() - 1);
+            double phi = 2 * Math.PI * random.nextDouble();
+            float x = (float)(50 * Math.sin(theta) * Math.cos(phi));
+            float y = (float)(50 * Math.sin(theta) * Math.sin(phi));
+            float z = (float)(50 * Math.cos(theta));
+            calibration.apply(20 + x, -10 + 2 * y, 5 + z, out, 0);
+        }
+        CalibrationProfile.Sensor result = calibration.finishCalibration();
+        assertNotNull(result);
+        assertFalse(calibration.isCalibrating());
+
+        assertEquals(20, result.getOffset(0), 1);
+        assertEquals(-10, result.getOffset(1), 1);
+        assertEquals(5, result.getOffset(2), 1);
+        assertEquals(0.5, result.getMatrix(1, 1) / result.getMatrix(0, 0), 0.02);
+
+        // North along y reads the same as north along x after correction
+        calibration.setSettings(result);
+        int[] alongX = apply(calibration, 20 + 50, -10, 5);
+        int[] alongY = apply(calibration, 20, -10 + 100, 5);
+        assertEquals(alongX[0], alongY[1], 2);
+    }
+
+    @Test
+    public void calibrationNeedsRotation() throws Exception {
+        SensorCalibration calibration = new SensorCalibration(new CalibrationProfile.Sensor(100));
+        calibration.startCalibration();
+        for (int i = 0; i < 100; i++)
+            apply(calibration, 20 + i * 0.5f, 10, 5);
+        assertNull(calibration.finishCalibration());
+    }
+
+    @Test
+    public void profilesRoundTrip() throws Exception {
+        CalibrationProfile profile = new CalibrationProfile("desk");
+        profile.getAccelerometer().setMode(SensorCalibration.Mode.Adaptive);
+        profile.getAccelerometer().setDecay(0.002f);
+        profile.getMagnetometer().setOffset(1.5f, -2, 3);
+        profile.getMagnetometer().setMatrix(new float[] { 1, 0, 0, 0, 0.5f, 0, 0, 0, 2 });
+        profile.getMagnetometer().setOutputRange(2047);
+
+        StringWriter writer = new StringWriter();
+        profile.store(writer);
+        CalibrationProfile read = CalibrationProfile.load(new StringReader(writer.toString()));
+
+        assertEquals("desk", read.getName());
+        assertEquals(SensorCalibration.Mode.Adaptive, read.getAccelerometer().getMode());
+        assertEquals(0.002f, read.getAccelerometer().getDecay(), 0.0f);
+        assertEquals(-2, read.getMagnetometer().getOffset(1), 0.0f);
+        assertEquals(0.5f, read.getMagnetometer().getMatrix(1, 1), 0.0f);
+        assertEquals(2047, read.getMagnetometer().getOutputRange());
+        assertEquals(CalibrationProfile.DEFAULT_ACCELEROMETER_RANGE, read.getAccelerometer().getRange(), 0.0f);
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void invalidProfileIsRejected() throws Exception {
+        CalibrationProfile.load(new StringReader("magnetometer.matrix=1,2,3\n"));
+    }
+}
@@ -0,0 +1,183 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class CommandDecoderTest {
+    private static class Recorder implements CommandHandler {
+        final StringBuilder log = new StringBuilder();
+
+        @Override
+        public void onStreamStart() {
+            log.append("start;");
+        }
+
+        @Override
+        public void onStreamStop() {
+            log.append("stop;");
+        }
+
+        @Override
+        public void onAverageWindow(int samples) {
+            log.append("avg ").append(samples).append(';');
+        }
+
+        @Override
+        public void onFilter(SmoothingEngine.Type type) {
+            log.append("filter ").append(type).append(';');
+        }
+
+        @Override
+        public void onSampleRate(int samplesPerSecond) {
+            log.append("rate ").append(samplesPerSecond).append(';');
+        }
+
+        @Override
+        public void onFrameFormat(FrameEncoder.Format format) {
+            log.append("format ").append(format).append(';');
+        }
+
+        @Override
+        public void onSendMode(FrameFanout.SendMode mode) {
+            log.append("mode ").append(mode).append(';');
+        }
+
+        @Override
+        public void onDeadband(int channel, int threshold) {
+            log.append("deadband ").append(channel).append(' ').append(threshold).append(';');
+        }
+
+        @Override
+        public void onHeartbeat(int millis) {
+            log.append("heartbeat ").append(millis).append(';');
+        }
+
+        @Override
+        public void onTimestampTrailer(boolean enabled) {
+            log.append("trailer ").append(enabled).append(';');
+        }
+
+        @Override
+        public void onFraming(boolean enabled) {
+            log.append("framing ").append(enabled).append(';');
+        }
+
+        @Override
+        public void onAdaptiveRate(boolean enabled) {
+            log.append("adaptive ").append(enabled).append(';');
+        }
+
+        @Override
+        public void onStatsRequest() {
+            log.append("stats;");
+        }
+
+        @Override
+        public void onMetricsRequest() {
+            log.append("metrics;");
+        }
+
+        @Override
+        public void onRequest(int version, int id, int opcode, byte[] payload, int offset, int length) {
+            log.append("request ").append(version).append(' ').append(id).append(' ').append(opcode);
+            for (int i = 0; i < length; i++)
+                log.append(' ').append(payload[offset + i]);
+            log.append(';');
+        }
+
+        @Override
+        public void onUnsupported(int command) {
+            log.append("unsupported ").append((char)command).append(';');
+        }
+    }
+
+    private static String decodeStream(byte[] input, int chunk) throws Exception {
+        Recorder recorder = new Recorder();
+        CommandDecoder decoder = new CommandDecoder(recorder);
+        InputStream stream = new ByteArrayInputStream(input);
+        // Stale bytes from previous reads must never be decoded again
+        byte[] buffer = new byte[8];
+        int bytes;
+        while ((bytes = stream.read(buffer, 0, chunk)) > 0) {
+            decoder.decode(buffer, 0, bytes);
+        }
+        return recorder.log.toString();
+    }
+
+    @Test
+    public void decodesLegacyCommands() throws Exception {
+        assertEquals("rate 100;avg 2;avg 128;start;stop;rate 10;",
+                decodeStream("a17R\r\nS\0e".getBytes("US-ASCII"), 8));
+    }
+
+    @Test
+    public void decodesFilterSelection() throws Exception {
+        assertEquals("filter Exponential;filter OneEuro;filter MovingAverage;",
+                decodeStream("EOA".getBytes("US-ASCII"), 8));
+    }
+
+    @Test
+    public void decodesFrameFormat() throws Exception {
+        assertEquals("format Compact;format Full;format Delta;format Orientation;format Multiplexed;",
+                decodeStream("CNDQM".getBytes("US-ASCII"), 8));
+    }
+
+    @Test
+    public void decodesAdaptiveRate() throws Exception {
+        assertEquals("adaptive true;adaptive false;", decodeStream("Yy".getBytes("US-ASCII"), 8));
+    }
+
+    @Test
+    public void decodesInstrumentationCommands() throws Exception {
+        assertEquals("trailer true;stats;metrics;trailer false;framing true;framing false;",
+                decodeStream("TLGtFf".getBytes("US-ASCII"), 8));
+    }
+
+    @Test
+    public void argumentBytesAreNotDecodedAsCommands() throws Exception {
+        byte[] input = { 'V', 'W', 3, 'R', 'H', 'S', 'P', 'W', (byte)0xFF, 0, 'R' };
+        String expected = "mode OnChange;deadband 3 82;heartbeat 8300;mode Periodic;deadband 255 0;start;";
+        for (int chunk = 1; chunk <= 8; chunk++)
+            assertEquals(expected, decodeStream(input, chunk));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts)
+            out.write(part, 0, part.length);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void binaryRequestsMixWithLegacyCommands() throws Exception {
+        byte[] input = concat("R".getBytes("US-ASCII"),
+                CommandProtocol.set(7, CommandProtocol.PARAM_RATE, 333),
+                "S".getBytes("US-ASCII"),
+                CommandProtocol.get(8, CommandProtocol.PARAM_WINDOW));
+        String expected = "start;request 1 7 2 2 77 1 0 0;stop;request 1 8 3 3;";
+        for (int chunk = 1; chunk <= 8; chunk++)
+            assertEquals(expected, decodeStream(input, chunk));
+    }
+
+    @Test
+    public void corruptedRequestsAreRejected() throws Exception {
+        byte[] request = CommandProtocol.request(1, CommandProtocol.HELLO, new byte[] { 1 });
+        request[4] ^= 0x10;
+        byte[] tooShort = { (byte)CommandProtocol.REQUEST_MARKER, 2 };
+        assertEquals("unsupported \u00b7;unsupported \u00b7;start;",
+                decodeStream(concat(request, tooShort, "R".getBytes("US-ASCII")), 8));
+    }
+
+    @Test
+    public void decodingDoesNotDependOnChunking() throws Exception {
+        byte[] input = "Rb3xcS".getBytes("US-ASCII");
+        String expected = "start;rate 50;avg 8;unsupported x;rate 25;stop;";
+        for (int chunk = 1; chunk <= 8; chunk++)
+            assertEquals(expected, decodeStream(input, chunk));
+    }
+}
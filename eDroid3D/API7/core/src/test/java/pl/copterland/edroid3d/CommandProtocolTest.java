@@ -0,0 +1,302 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CommandProtocolTest {
+    // Captures the messages written by the session, the worker is never started
+    private static class CapturingConnection implements Transport.Connection {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return -1;
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public String getName() {
+            return "capture";
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static class Silent implements WorkerThread.Listener, ClientSession.Listener {
+        String lastStatus;
+
+        @Override
+        public void onWorkerFinished(WorkerThread worker) {
+        }
+
+        @Override
+        public void onSessionStatus(ClientSession session, String message) {
+            lastStatus = message;
+        }
+    }
+
+    private CapturingConnection connection;
+    private Silent silent;
+    private ClientSession session;
+    private CommandDecoder decoder;
+
+    @Before
+    public void setUp() {
+        connection = new CapturingConnection();
+        silent = new Silent();
+        WorkerThread worker = new WorkerThread(connection, silent);
+        session = new ClientSession(1, worker, silent, FrameCodec.ALL_CHANNELS);
+        decoder = new CommandDecoder(session);
+    }
+
+    // Sends the request and returns the response payload
+    private byte[] exchange(byte[] request) {
+        connection.out.reset();
+        decoder.decode(request, 0, request.length);
+        byte[] message = connection.out.toByteArray();
+        assertEquals(FrameWriter.MESSAGE_MARKER, message[0] & 0xFF);
+        assertEquals(CommandProtocol.MESSAGE_RESPONSE, message[1]);
+        int length = (message[2] & 0xFF) | ((message[3] & 0xFF) << 8);
+        assertEquals(FrameWriter.MESSAGE_HEADER_SIZE + length, message.length);
+        return Arrays.copyOfRange(message, FrameWriter.MESSAGE_HEADER_SIZE, message.length);
+    }
+
+    private static void assertResponse(byte[] response, int id, int opcode, int status) {
+        assertEquals(CommandProtocol.VERSION, response[0]);
+        assertEquals(id, response[1] & 0xFF);
+        assertEquals(opcode, response[2]);
+        assertEquals(status, response[3]);
+    }
+
+    @Test
+    public void helloReportsCapabilities() {
+        byte[] response = exchange(CommandProtocol.request(5, CommandProtocol.HELLO, new byte[] { 1 }));
+        assertResponse(response, 5, CommandProtocol.HELLO, CommandProtocol.STATUS_OK);
+        assertEquals(CommandProtocol.VERSION, response[4]);
+        assertEquals(CommandProtocol.MAX_RATE, (response[5] & 0xFF) | ((response[6] & 0xFF) << 8));
+        assertEquals(FramePipeline.MAX_WINDOW, (response[7] & 0xFF) | ((response[8] & 0xFF) << 8));
+        assertEquals(CommandProtocol.mask(FrameEncoder.Format.values()), response[9]);
+    }
+
+    @Test
+    public void metricsReturnsStatsFrame() {
+        byte[] response = exchange(CommandProtocol.request(3, CommandProtocol.METRICS, new byte[0]));
+        assertResponse(response, 3, CommandProtocol.METRICS, CommandProtocol.STATUS_OK);
+        assertEquals(4 + Metrics.STATS_SIZE, response.length);
+        assertEquals(Metrics.STATS_VERSION, response[4]);
+        assertEquals(Metrics.FIELDS, response[5]);
+    }
+
+    @Test
+    public void setAcceptsArbitraryRatesAndWindows() {
+        byte[] response = exchange(CommandProtocol.set(1, CommandProtocol.PARAM_RATE, 137));
+        assertResponse(response, 1, CommandProtocol.SET, CommandProtocol.STATUS_OK);
+        assertEquals(CommandProtocol.PARAM_RATE, response[4]);
+        assertEquals(137, CommandProtocol.getInt(response, 5));
+        assertEquals(137, session.getRate());
+
+        exchange(CommandProtocol.set(2, CommandProtocol.PARAM_WINDOW, 37));
+        assertEquals(37, session.getWindow());
+
+        response = exchange(CommandProtocol.get(3, CommandProtocol.PARAM_WINDOW));
+        assertResponse(response, 3, CommandProtocol.GET, CommandProtocol.STATUS_OK);
+        assertEquals(37, CommandProtocol.getInt(response, 5));
+    }
+
+    @Test
+    public void responsesNeedFramingInFullStreams() {
+        decoder.decode('R');
+        connection.out.reset();
+        byte[] request = CommandProtocol.get(1, CommandProtocol.PARAM_RATE);
+        decoder.decode(request, 0, request.length);
+        // Carried out, the response would be read as frame data
+        assertEquals(0, connection.out.size());
+
+        byte[] response = exchange(CommandProtocol.set(2, CommandProtocol.PARAM_FRAMED, 1));
+        assertResponse(response, 2, CommandProtocol.SET, CommandProtocol.STATUS_OK);
+        response = exchange(CommandProtocol.get(3, CommandProtocol.PARAM_FRAMED));
+        assertEquals(1, CommandProtocol.getInt(response, 5));
+
+        // Formats with a marker of their own need no framing
+        decoder.decode('f');
+        decoder.decode('D');
+        response = exchange(CommandProtocol.get(4, CommandProtocol.PARAM_FRAMED));
+        assertEquals(0, CommandProtocol.getInt(response, 5));
+    }
+
+    @Test
+    public void startIsAcknowledgedInFullStreams() {
+        byte[] response = exchange(CommandProtocol.set(1, CommandProtocol.PARAM_RUNNING, 1));
+        assertResponse(response, 1, CommandProtocol.SET, CommandProtocol.STATUS_OK);
+        assertEquals(CommandProtocol.PARAM_RUNNING, response[4]);
+        assertEquals(1, CommandProtocol.getInt(response, 5));
+        assertTrue(session.isRunning());
+        assertFalse(session.getWorker().hasFraming());
+    }
+
+    @Test
+    public void helloNegotiatesFraming() {
+        byte[] response = exchange(CommandProtocol.hello(1, CommandProtocol.FEATURE_FRAMING));
+        assertResponse(response, 1, CommandProtocol.HELLO, CommandProtocol.STATUS_OK);
+        assertTrue(session.getWorker().isDelimited());
+
+        // Every request is answered while a Full stream runs
+        exchange(CommandProtocol.set(2, CommandProtocol.PARAM_RUNNING, 1));
+        response = exchange(CommandProtocol.get(3, CommandProtocol.PARAM_RATE));
+        assertResponse(response, 3, CommandProtocol.GET, CommandProtocol.STATUS_OK);
+        response = exchange(CommandProtocol.set(4, CommandProtocol.PARAM_RUNNING, 0));
+        assertEquals(0, CommandProtocol.getInt(response, 5));
+    }
+
+    @Test
+    public void resumeReportsTheFramesActuallyReplayed() {
+        Frame frame = new Frame();
+        frame.clear();
+        for (int i = 0; i < 6; i++)
+            session.send(frame);
+
+        CapturingConnection second = new CapturingConnection();
+        WorkerThread worker = new WorkerThread(second, silent);
+        final ClientSession previous = session;
+        ClientSession resumed = new ClientSession(2, worker, silent, FrameCodec.ALL_CHANNELS);
+        resumed.setResumer(new ClientSession.Resumer() {
+            @Override
+            public ClientSession onResume(ClientSession session, int previousId) {
+                return previous;
+            }
+        });
+        // The pool holds a queue and a spare frame, two are left for the
+        // four frames the host missed
+        for (int i = 0; i < ClientSession.REPLAY_CAPACITY - 1; i++)
+            assertNotNull(worker.obtainFrame());
+
+        byte[] request = CommandProtocol.resume(1, previous.getId(), 1);
+        new CommandDecoder(resumed).decode(request, 0, request.length);
+        byte[] message = second.out.toByteArray();
+        assertEquals(CommandProtocol.MESSAGE_RESPONSE, message[1]);
+        assertResponse(Arrays.copyOfRange(message, FrameWriter.MESSAGE_HEADER_SIZE, message.length),
+                1, CommandProtocol.RESUME, CommandProtocol.STATUS_OK);
+        assertEquals(2, message[FrameWriter.MESSAGE_HEADER_SIZE + 6]);
+        assertEquals(2, worker.getQueue().size());
+        assertEquals(2, resumed.getFramesDropped());
+
+        // The previous session sends nothing once taken over
+        session.send(frame);
+        assertEquals(6, session.getFramesSent());
+    }
+
+    @Test
+    public void queuePolicyIsSetByTheHost() {
+        byte[] response = exchange(CommandProtocol.set(1, CommandProtocol.PARAM_QUEUE_POLICY,
+                FrameQueue.Policy.Batch.ordinal()));
+        assertResponse(response, 1, CommandProtocol.SET, CommandProtocol.STATUS_OK);
+        response = exchange(CommandProtocol.set(2, CommandProtocol.PARAM_BATCH_SIZE, 4));
+        assertResponse(response, 2, CommandProtocol.SET, CommandProtocol.STATUS_OK);
+        FrameQueue queue = session.getWorker().getQueue();
+        assertEquals(FrameQueue.Policy.Batch, queue.getPolicy());
+        assertEquals(4, queue.getFramesPerWrite());
+
+        response = exchange(CommandProtocol.set(3, CommandProtocol.PARAM_BATCH_SIZE, queue.capacity() + 1));
+        assertResponse(response, 3, CommandProtocol.SET, CommandProtocol.STATUS_INVALID_VALUE);
+        assertEquals(4, CommandProtocol.getInt(response, 5));
+        response = exchange(CommandProtocol.get(4, CommandProtocol.PARAM_QUEUE_POLICY));
+        assertEquals(FrameQueue.Policy.Batch.ordinal(), CommandProtocol.getInt(response, 5));
+    }
+
+    @Test
+    public void adaptiveRateStaysWithinTheHostBounds() {
+        exchange(CommandProtocol.set(1, CommandProtocol.PARAM_RATE, 100));
+        exchange(CommandProtocol.set(2, CommandProtocol.PARAM_MIN_RATE, 20));
+        byte[] response = exchange(CommandProtocol.set(3, CommandProtocol.PARAM_ADAPTIVE, 1));
+        assertResponse(response, 3, CommandProtocol.SET, CommandProtocol.STATUS_OK);
+        assertTrue(session.isAdaptive());
+        assertEquals(100, session.getEffectiveRate());
+
+        session.adapt(0, 5, false, AdaptiveRateController.UNKNOWN, -1);
+        assertEquals(20, session.getEffectiveRate());
+        assertEquals(ClientSession.DEFAULT_WINDOW, session.getEffectiveWindow());
+        // The host setting is kept
+        assertEquals(100, session.getRate());
+
+        exchange(CommandProtocol.set(4, CommandProtocol.PARAM_ADAPTIVE, 0));
+        assertEquals(100, session.getEffectiveRate());
+    }
+
+    @Test
+    public void adaptationIsNotSentIntoAnUnframedFullStream() {
+        exchange(CommandProtocol.set(1, CommandProtocol.PARAM_ADAPTIVE, 1));
+        decoder.decode('R');
+        session.adapt(0, 5, false, AdaptiveRateController.UNKNOWN, -1);
+        assertTrue(silent.lastStatus, silent.lastStatus.endsWith("not sent to the host without framing"));
+
+        decoder.decode('F');
+        session.adapt(AdaptiveRateController.PERIOD, 100, true, AdaptiveRateController.UNKNOWN, -1);
+        assertTrue(silent.lastStatus, silent.lastStatus.startsWith("Adapted to"));
+        assertFalse(silent.lastStatus, silent.lastStatus.contains("not sent"));
+    }
+
+    @Test
+    public void invalidValuesAreRejectedAndKeepTheSetting() {
+        byte[] response = exchange(CommandProtocol.set(200, CommandProtocol.PARAM_RATE, CommandProtocol.MAX_RATE + 1));
+        assertResponse(response, 200, CommandProtocol.SET, CommandProtocol.STATUS_INVALID_VALUE);
+        assertEquals(ClientSession.DEFAULT_RATE, CommandProtocol.getInt(response, 5));
+        assertEquals(ClientSession.DEFAULT_RATE, session.getRate());
+
+        response = exchange(CommandProtocol.set(2, CommandProtocol.PARAM_FORMAT, 99));
+        assertResponse(response, 2, CommandProtocol.SET, CommandProtocol.STATUS_INVALID_VALUE);
+        response = exchange(CommandProtocol.get(3, 99));
+        assertResponse(response, 3, CommandProtocol.GET, CommandProtocol.STATUS_UNKNOWN_PARAM);
+        response = exchange(CommandProtocol.request(4, 42, new byte[0]));
+        assertResponse(response, 4, 42, CommandProtocol.STATUS_UNKNOWN_OPCODE);
+        response = exchange(CommandProtocol.request(5, CommandProtocol.SET, new byte[] { 2 }));
+        assertResponse(response, 5, CommandProtocol.SET, CommandProtocol.STATUS_INVALID_REQUEST);
+    }
+
+    @Test
+    public void legacyCommandsShowInParameters() {
+        decoder.decode(new byte[] { 'R', 'b', '5', 'O', 'D', 'V' }, 0, 6);
+
+        assertEquals(1, CommandProtocol.getInt(exchange(CommandProtocol.get(1, CommandProtocol.PARAM_RUNNING)), 5));
+        assertEquals(50, CommandProtocol.getInt(exchange(CommandProtocol.get(1, CommandProtocol.PARAM_RATE)), 5));
+        assertEquals(32, CommandProtocol.getInt(exchange(CommandProtocol.get(1, CommandProtocol.PARAM_WINDOW)), 5));
+        assertEquals(SmoothingEngine.Type.OneEuro.ordinal(),
+                CommandProtocol.getInt(exchange(CommandProtocol.get(1, CommandProtocol.PARAM_FILTER)), 5));
+        assertEquals(FrameEncoder.Format.Delta.ordinal(),
+                CommandProtocol.getInt(exchange(CommandProtocol.get(1, CommandProtocol.PARAM_FORMAT)), 5));
+        assertEquals(FrameFanout.SendMode.OnChange.ordinal(),
+                CommandProtocol.getInt(exchange(CommandProtocol.get(1, CommandProtocol.PARAM_SEND_MODE)), 5));
+    }
+
+    @Test
+    public void deadbandsAndStats() {
+        exchange(CommandProtocol.set(1, CommandProtocol.PARAM_DEADBAND + 4, 9));
+        assertEquals(9, session.getDeadband(4));
+        assertEquals(ClientSession.DEFAULT_DEADBAND, session.getDeadband(3));
+        byte[] response = exchange(CommandProtocol.get(2, CommandProtocol.PARAM_DEADBAND + FramePipeline.CHANNELS));
+        assertResponse(response, 2, CommandProtocol.GET, CommandProtocol.STATUS_UNKNOWN_PARAM);
+
+        response = exchange(CommandProtocol.request(3, CommandProtocol.STATS, new byte[0]));
+        assertResponse(response, 3, CommandProtocol.STATS, CommandProtocol.STATUS_OK);
+        assertEquals(4 + 24, response.length);
+        assertEquals(0, CommandProtocol.getInt(response, 4));
+    }
+}
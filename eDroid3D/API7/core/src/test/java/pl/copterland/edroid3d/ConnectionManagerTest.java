@@ -0,0 +1,215 @@
+package pl.copterland.edroid3d;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class ConnectionManagerTest {
+    private static class Silent implements ConnectionManager.Listener {
+        @Override
+        public void onConnectionStatus(ConnectionManager.State state, String message) {
+        }
+
+        @Override
+        public void onSessionStatus(ClientSession session, String message) {
+        }
+    }
+
+    // Fails the given number of times before listening on a free TCP port
+    private static class FlakyFactory implements ConnectionManager.TransportFactory {
+        final ArrayList<Long> attempts = new ArrayList<Long>();
+        int failures;
+        volatile TcpTransport transport;
+
+        FlakyFactory(int failuresBeforeOpening) {
+            failures = failuresBeforeOpening;
+        }
+
+        @Override
+        public synchronized Transport open() throws IOException {
+            attempts.add(System.nanoTime());
+            if (failures > 0) {
+                failures--;
+                throw new IOException("adapter off");
+            }
+            transport = new TcpTransport(0);
+            return transport;
+        }
+    }
+
+    private final FrameFanout fanout = new FrameFanout(FramePipeline.CHANNELS, FramePipeline.MAX_WINDOW);
+    private ConnectionManager manager;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (manager != null) {
+            manager.cancel();
+            manager.join(5000);
+            assertEquals(ConnectionManager.State.Stopped, manager.getConnectionState());
+        }
+    }
+
+    private ConnectionManager start(FlakyFactory factory) throws InterruptedException {
+        manager = new ConnectionManager(factory, fanout, FrameCodec.ALL_CHANNELS, new Silent());
+        manager.setBackoff(20, 1000);
+        manager.start();
+        waitFor(new Condition() {
+            public boolean holds() {
+                return manager.getConnectionState() == ConnectionManager.State.Listening;
+            }
+        });
+        return manager;
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.holds()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private Socket connect(final FlakyFactory factory, final int sessions) throws Exception {
+        Socket client = new Socket(InetAddress.getLoopbackAddress(), factory.transport.getLocalPort());
+        waitFor(new Condition() {
+            public boolean holds() {
+                return fanout.size() == sessions;
+            }
+        });
+        return client;
+    }
+
+    private static void sendFrame(ClientSession session) {
+        Frame frame = new Frame();
+        frame.clear();
+        frame.setAccelerometer((byte)1, (byte)2, (byte)3);
+        session.send(frame);
+    }
+
+    // Reads a response message and returns its payload
+    private static byte[] readResponse(DataInputStream in) throws IOException {
+        assertEquals(FrameWriter.MESSAGE_MARKER, in.readUnsignedByte());
+        assertEquals(CommandProtocol.MESSAGE_RESPONSE, in.readUnsignedByte());
+        int length = in.readUnsignedByte() | (in.readUnsignedByte() << 8);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+
+    private static int readFrameNumber(DataInputStream in) throws IOException {
+        byte[] frame = new byte[Frame.FRAME_SIZE];
+        in.readFully(frame);
+        return frame[0] & 0xFF;
+    }
+
+    @Test
+    public void reopensTransportWithExponentialBackoff() throws Exception {
+        FlakyFactory factory = new FlakyFactory(3);
+        start(factory);
+        assertEquals(4, factory.attempts.size());
+        assertEquals(3, manager.getFailures());
+
+        long first = factory.attempts.get(1) - factory.attempts.get(0);
+        long second = factory.attempts.get(2) - factory.attempts.get(1);
+        long third = factory.attempts.get(3) - factory.attempts.get(2);
+        assertTrue(first >= 20000000L);
+        assertTrue(second >= 40000000L);
+        assertTrue(third >= 80000000L);
+
+        // A client resets the backoff
+        Socket client = connect(factory, 1);
+        assertEquals(ConnectionManager.State.Connected, manager.getConnectionState());
+        assertEquals(0, manager.getFailures());
+        client.close();
+    }
+
+    @Test
+    public void resumedSessionReplaysMissedFrames() throws Exception {
+        FlakyFactory factory = new FlakyFactory(0);
+        start(factory);
+
+        Socket first = connect(factory, 1);
+        ClientSession previous = fanout.getSessions()[0];
+        DataInputStream in = new DataInputStream(first.getInputStream());
+        first.getOutputStream().write(CommandProtocol.set(1, CommandProtocol.PARAM_RATE, 50));
+        assertEquals(CommandProtocol.STATUS_OK, readResponse(in)[3]);
+        for (int i = 0; i < 6; i++)
+            sendFrame(previous);
+        for (int i = 0; i < 6; i++)
+            assertEquals(i, readFrameNumber(in));
+
+        // The link drops after the host received frame 3
+        first.close();
+        waitFor(new Condition() {
+            public boolean holds() {
+                return manager.getDetachedCount() == 1;
+            }
+        });
+        assertEquals(0, fanout.size());
+
+        Socket second = connect(factory, 1);
+        ClientSession resumed = fanout.getSessions()[0];
+        in = new DataInputStream(second.getInputStream());
+        second.getOutputStream().write(CommandProtocol.resume(2, previous.getId(), 3));
+        byte[] response = readResponse(in);
+        assertEquals(CommandProtocol.RESUME, response[2]);
+        assertEquals(CommandProtocol.STATUS_OK, response[3]);
+        assertEquals(resumed.getId(), (response[4] & 0xFF) | ((response[5] & 0xFF) << 8));
+        assertEquals(2, response[6]);
+        assertEquals(4, readFrameNumber(in));
+        assertEquals(5, readFrameNumber(in));
+
+        // Numbering and settings carry over
+        sendFrame(resumed);
+        assertEquals(6, readFrameNumber(in));
+        assertEquals(50, resumed.getRate());
+        assertEquals(0, manager.getDetachedCount());
+        assertEquals(1, manager.getFailover().getCount());
+
+        // A session is resumed once
+        second.getOutputStream().write(CommandProtocol.resume(3, previous.getId(), 5));
+        assertEquals(CommandProtocol.STATUS_UNKNOWN_SESSION, readResponse(in)[3]);
+        second.close();
+    }
+
+    @Test
+    public void resumeTakesOverLiveSession() throws Exception {
+        FlakyFactory factory = new FlakyFactory(0);
+        start(factory);
+
+        // The host gave up on a link the server still considers alive
+        Socket stale = connect(factory, 1);
+        ClientSession previous = fanout.getSessions()[0];
+        sendFrame(previous);
+        assertEquals(0, readFrameNumber(new DataInputStream(stale.getInputStream())));
+
+        Socket fresh = connect(factory, 2);
+        DataInputStream in = new DataInputStream(fresh.getInputStream());
+        fresh.getOutputStream().write(CommandProtocol.resume(1, previous.getId(), 0xFF));
+        byte[] response = readResponse(in);
+        assertEquals(CommandProtocol.STATUS_OK, response[3]);
+        assertEquals(1, response[6]);
+        assertEquals(0, readFrameNumber(in));
+
+        assertEquals(-1, stale.getInputStream().read());
+        waitFor(new Condition() {
+            public boolean holds() {
+                return fanout.size() == 1;
+            }
+        });
+        assertEquals(0, manager.getDetachedCount());
+        stale.close();
+        fresh.close();
+    }
+}
@@ -0,0 +1,188 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DeltaFrameCodecTest {
+    private static byte[] bytes(Frame frame) {
+        byte[] data = new byte[Frame.FRAME_SIZE];
+        frame.copyTo(data, 0);
+        return data;
+    }
+
+    private static Frame[] randomWalk(int count, long seed) {
+        Random random = new Random(seed);
+        Frame[] frames = new Frame[count];
+        Frame current = new Frame();
+        for (int i = 0; i < count; i++) {
+            current.setFrameNumber((byte)i);
+            current.setAccelerometer((byte)(current.getAccelerometerX() + random.nextInt(5) - 2),
+                    (byte)random.nextInt(), current.getAccelerometerZ());
+            if (random.nextInt(10) == 0)
+                current.setFinger(random.nextInt(Frame.FINGERS), (byte)random.nextInt(), (byte)1, (byte)-1);
+            current.setMagnetometer(random.nextInt(4096) - 2048, current.getMagnetometerValueY() + random.nextInt(3) - 1, 0);
+            current.setVoltage(random.nextInt(65536));
+            frames[i] = new Frame();
+            frames[i].copyFrom(current);
+        }
+        return frames;
+    }
+
+    // Frames of the trace at the given rate, quantized like SensorCalibration
+    // and smoothed over 4 samples the way the app sends them
+    private static Frame[] traceFrames(SensorTrace trace, int framesPerSecond) {
+        float[] ranges = { 19.6f, 100f };
+        int[] bits = new int[2];
+        int[] factors = new int[2];
+        for (int i = 0; i < ranges.length; i++) {
+            bits[i] = FixedPoint.inputBits(Byte.MAX_VALUE, ranges[i]);
+            factors[i] = FixedPoint.factor(Byte.MAX_VALUE, ranges[i], bits[i]);
+        }
+        int[] sample = new int[6];
+        int[] smoothed = new int[6];
+        MovingAverageFilter filter = new MovingAverageFilter(6, 4, 4);
+        long period = 1000000000L / framesPerSecond;
+        Frame[] frames = new Frame[(int)(trace.getDuration() / period)];
+
+        int next = 0;
+        for (int f = 0; f < frames.length; f++) {
+            long tickTime = trace.getTimestamp(0) + (f + 1) * period;
+            while (next < trace.size() && trace.getTimestamp(next) <= tickTime) {
+                int sensor = trace.getSensor(next) == SampleRing.ACCELEROMETER ? 0 : 1;
+                for (int axis = 0; axis < 3; axis++)
+                    sample[sensor * 3 + axis] = FixedPoint.scale(FixedPoint.toFixed(trace.getValue(next, axis), bits[sensor]),
+                            factors[sensor], Byte.MAX_VALUE);
+                filter.push(sample, trace.getTimestamp(next));
+                next++;
+            }
+
+            filter.get(smoothed);
+            frames[f] = new Frame();
+            frames[f].setFrameNumber((byte)f);
+            frames[f].setAccelerometer((byte)smoothed[0], (byte)smoothed[1], (byte)smoothed[2]);
+            frames[f].setMagnetometer(smoothed[3], smoothed[4], smoothed[5]);
+            frames[f].setVoltage(4100 - f / 1000);
+        }
+        return frames;
+    }
+
+    private static ByteBuffer encode(DeltaFrameEncoder encoder, Frame[] frames) {
+        ByteBuffer out = ByteBuffer.allocate(frames.length * encoder.maxEncodedSize());
+        for (Frame frame : frames)
+            encoder.encode(frame, out);
+        out.flip();
+        return out;
+    }
+
+    @Test
+    public void varintsRoundTrip() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        int[] values = { 0, 1, -1, 63, -64, 64, 32767, -32768, 65535, Integer.MIN_VALUE };
+        for (int value : values) {
+            buffer.clear();
+            Varint.write(buffer, Varint.zigzag(value));
+            assertEquals(Varint.size(Varint.zigzag(value)), buffer.position());
+            assertEquals(value, Varint.unzigzag(Varint.zigzag(value)));
+        }
+    }
+
+    @Test
+    public void streamRoundTripsWithAnyChunking() throws Exception {
+        Frame[] frames = randomWalk(500, 1);
+        ByteBuffer encoded = encode(new DeltaFrameEncoder(16), frames);
+        Frame decoded = new Frame();
+
+        for (int chunk = 1; chunk <= 7; chunk += 3) {
+            DeltaFrameDecoder decoder = new DeltaFrameDecoder();
+            ByteBuffer in = ByteBuffer.allocate(encoded.limit());
+            in.flip();
+            int frame = 0;
+
+            for (int position = 0; position < encoded.limit(); position += chunk) {
+                // Append the next chunk behind the bytes not consumed yet
+                in.compact();
+                for (int i = position; i < Math.min(position + chunk, encoded.limit()); i++)
+                    in.put(encoded.get(i));
+                in.flip();
+
+                while (decoder.decode(in, decoded) == DeltaFrameDecoder.FRAME)
+                    assertArrayEquals(bytes(frames[frame++]), bytes(decoded));
+            }
+            assertEquals(frames.length, frame);
+        }
+    }
+
+    @Test
+    public void lossIsDetectedAndRecoveredAtKeyframe() throws Exception {
+        Frame[] frames = randomWalk(40, 2);
+        DeltaFrameEncoder encoder = new DeltaFrameEncoder(10);
+        ByteBuffer out = ByteBuffer.allocate(frames.length * encoder.maxEncodedSize());
+        int[] starts = new int[frames.length + 1];
+        for (int i = 0; i < frames.length; i++) {
+            starts[i] = out.position();
+            encoder.encode(frames[i], out);
+        }
+        starts[frames.length] = out.position();
+
+        // Drop message 3 on the way
+        ByteBuffer in = ByteBuffer.allocate(out.position());
+        for (int i = 0; i < starts[frames.length]; i++) {
+            if (i < starts[3] || i >= starts[4])
+                in.put(out.get(i));
+        }
+        in.flip();
+
+        DeltaFrameDecoder decoder = new DeltaFrameDecoder();
+        Frame decoded = new Frame();
+        for (int i = 0; i < 3; i++)
+            assertEquals(DeltaFrameDecoder.FRAME, decoder.decode(in, decoded));
+        // Messages 4..10 reference the lost frame, 11 is the next keyframe
+        for (int i = 4; i < 11; i++)
+            assertEquals(DeltaFrameDecoder.NO_REFERENCE, decoder.decode(in, decoded));
+        assertEquals(DeltaFrameDecoder.FRAME, decoder.decode(in, decoded));
+        assertArrayEquals(bytes(frames[11]), bytes(decoded));
+        assertEquals(1, decoder.getLost());
+    }
+
+    @Test
+    public void corruptionIsDetectedByCrc() throws Exception {
+        Frame[] frames = randomWalk(30, 3);
+        ByteBuffer encoded = encode(new DeltaFrameEncoder(10), frames);
+        encoded.put(40, (byte)(encoded.get(40) ^ 0x10));
+
+        DeltaFrameDecoder decoder = new DeltaFrameDecoder();
+        Frame decoded = new Frame();
+        int matching = 0;
+        int result;
+        while ((result = decoder.decode(encoded, decoded)) != DeltaFrameDecoder.INCOMPLETE) {
+            if (result != DeltaFrameDecoder.FRAME)
+                continue;
+            for (Frame frame : frames) {
+                if (java.util.Arrays.equals(bytes(frame), bytes(decoded))) {
+                    matching++;
+                    break;
+                }
+            }
+        }
+
+        assertTrue(decoder.getCorrupted() > 0);
+        assertTrue(matching >= 20);
+    }
+
+    @Test
+    public void deltaFramesAreSmallerOnSensorTrace() throws Exception {
+        SensorTrace trace = SensorTrace.synthetic(10, 4);
+        StringBuilder csv = new StringBuilder();
+        trace.writeCsv(csv);
+        trace = SensorTrace.readCsv(new StringReader(csv.toString()));
+
+        Frame[] frames = traceFrames(trace, 100);
+        ByteBuffer encoded = encode(new DeltaFrameEncoder(), frames);
+        assertTrue((double)encoded.limit() / frames.length < Frame.FRAME_SIZE / 2);
+    }
+}
@@ -0,0 +1,134 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FixedPointTest {
+    private static int[] apply(SensorCalibration calibration, float x, float y, float z) {
+        int[] out = new int[3];
+        calibration.apply(x, y, z, out, 0);
+        return out;
+    }
+
+    private static int scale(float value, int outputRange, float range) {
+        int bits = FixedPoint.inputBits(outputRange, range);
+        return FixedPoint.scale(FixedPoint.toFixed(value, bits), FixedPoint.factor(outputRange, range, bits), outputRange);
+    }
+
+    @Test
+    public void scaleRoundsHalfAwayFromZeroAndSaturates() {
+        // 8.0 maps to 64, a gain of exactly 8
+        int bits = FixedPoint.inputBits(64, 8);
+        assertEquals(17, bits);
+        assertEquals(1 << 30, FixedPoint.factor(64, 8, bits));
+        float[] values = { 0, 0.0625f, -0.0625f, 0.1875f, -0.1875f, 0.06f, 7.9375f, 8, 20, -20, 1e9f, -1e9f };
+        int[] golden = { 0, 1, -1, 2, -2, 0, 64, 64, 64, -64, 64, -64 };
+        for (int i = 0; i < values.length; i++)
+            assertEquals("value " + values[i], golden[i], scale(values[i], 64, 8));
+        // Decimal halves of ranges without an exact binary gain
+        assertEquals(64, scale(5, 127, 10));
+        assertEquals(-64, scale(-5, 127, 10));
+    }
+
+    @Test
+    public void scaleMatchesExactArithmetic() {
+        Random random = new Random(7);
+        int[] outputs = { 1, 127, 2047, 32767 };
+        for (int i = 0; i < 100000; i++) {
+            int output = outputs[i % outputs.length];
+            float range = (float)Math.pow(10, random.nextFloat() * 8 - 3);
+            float value = (random.nextFloat() * 2 - 1) * range * 1.2f;
+            double exact = (double)value / range * output;
+            int scaled = scale(value, output, range);
+            double expected = Math.max(-output, Math.min(output, FixedPoint.round(exact)));
+            // Ties within the Q16 resolution of the input may go either way
+            double fraction = Math.abs(exact) - Math.floor(Math.abs(exact));
+            if (Math.abs(fraction - 0.5) > 1e-3)
+                assertEquals("value " + value + " range " + range, expected, scaled, 0);
+            else
+                assertEquals(expected, scaled, 1);
+        }
+    }
+
+    @Test
+    public void integerHelpersGolden() {
+        assertEquals(3, FixedPoint.divide(5, 2));
+        assertEquals(-3, FixedPoint.divide(-5, 2));
+        assertEquals(1, FixedPoint.divide(4, 3));
+        assertEquals(-1, FixedPoint.divide(-4, 3));
+        assertEquals(Integer.MAX_VALUE, FixedPoint.divide(Long.MAX_VALUE / 2, 1));
+
+        assertEquals(2, FixedPoint.shiftRound(3 << 15, 16));
+        assertEquals(-2, FixedPoint.shiftRound(-(3 << 15), 16));
+        assertEquals(1, FixedPoint.shiftRound((3 << 15) - 1, 16));
+
+        assertEquals(3, FixedPoint.round(2.5f));
+        assertEquals(-3, FixedPoint.round(-2.5f));
+        assertEquals(-2, FixedPoint.round(-2.49));
+
+        assertEquals(127, FixedPoint.toByte(300));
+        assertEquals(-127, FixedPoint.toByte(-300));
+        assertEquals(32767, FixedPoint.toShort(70000));
+        assertEquals(-32767, FixedPoint.toShort(-70000));
+
+        assertEquals(0, FixedPoint.toOffsetBinary(-5000, 2048));
+        assertEquals(2048, FixedPoint.toOffsetBinary(0, 2048));
+        assertEquals(4095, FixedPoint.toOffsetBinary(5000, 2048));
+    }
+
+    @Test
+    public void rescaleBetweenResolutions() {
+        assertEquals(-64, FixedPoint.rescale(-64, 127, 127));
+        assertEquals(127, FixedPoint.rescale(200, 127, 127));
+        assertEquals(32767, FixedPoint.rescale(127, 127, 32767));
+        // 64 * 32767 / 127 = 16512.6
+        assertEquals(16513, FixedPoint.rescale(64, 127, 32767));
+        assertEquals(-16513, FixedPoint.rescale(-64, 127, 32767));
+        // 16384 * 127 / 32767 = 63.502
+        assertEquals(64, FixedPoint.rescale(16384, 32767, 127));
+        assertEquals(-127, FixedPoint.rescale(-40000, 32767, 127));
+    }
+
+    @Test
+    public void calibrationAt16BitResolution() {
+        CalibrationProfile.Sensor settings = new CalibrationProfile.Sensor(CalibrationProfile.DEFAULT_ACCELEROMETER_RANGE);
+        settings.setOutputRange(FramePipeline.MAX_ACCELEROMETER_OUTPUT);
+        SensorCalibration calibration = new SensorCalibration(settings);
+
+        // Half of the range is 16383.5
+        assertArrayEquals(new int[] { 16384, -16384, 0 }, apply(calibration, 9.8f, -9.8f, 0));
+        assertArrayEquals(new int[] { 32767, -32767, 1 }, apply(calibration, 100, -100, 0.0006f));
+    }
+
+    @Test
+    public void extendedFramesRoundTrip() {
+        Frame frame = new Frame();
+        frame.setFrameNumber((byte)9);
+        frame.setAccelerometer((byte)64, (byte)-64, (byte)127);
+        frame.setMagnetometer(-2048, 0, 2047);
+        frame.setWideAccelerometer((short)16513, (short)-16513, (short)32767);
+        ByteBuffer buffer = ByteBuffer.allocate(ExtendedCodec.SIZE);
+        new ExtendedCodec().encode(frame, buffer);
+        assertEquals(ExtendedCodec.SIZE, buffer.position());
+
+        buffer.flip();
+        Frame decoded = new Frame();
+        assertEquals(DeltaFrameDecoder.FRAME, ExtendedCodec.decode(buffer, decoded));
+        assertEquals(9, decoded.getFrameNumber());
+        assertEquals(-64, decoded.getAccelerometerY());
+        assertEquals(-2048, decoded.getMagnetometerValueX());
+        assertEquals(16513, decoded.getWideAccelerometerX());
+        assertEquals(-16513, decoded.getWideAccelerometerY());
+        assertEquals(32767, decoded.getWideAccelerometerZ());
+
+        buffer.clear();
+        new ExtendedCodec().encode(frame, buffer);
+        buffer.put(5, (byte)~buffer.get(5));
+        buffer.flip();
+        assertEquals(DeltaFrameDecoder.CORRUPTED, ExtendedCodec.decode(buffer, decoded));
+    }
+}
@@ -0,0 +1,161 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameCodecTest {
+    private static Frame randomFrame(Random random) {
+        Frame frame = new Frame();
+        frame.setFrameNumber((byte)random.nextInt());
+        for (int finger = 0; finger < Frame.FINGERS; finger++)
+            frame.setFinger(finger, (byte)random.nextInt(), (byte)random.nextInt(), (byte)random.nextInt());
+        frame.setAccelerometer((byte)random.nextInt(), (byte)random.nextInt(), (byte)random.nextInt());
+        frame.setVoltage(random.nextInt(65536));
+        frame.setMagnetometer(random.nextInt(4096) - 2048, random.nextInt(4096) - 2048, random.nextInt(4096) - 2048);
+        return frame;
+    }
+
+    private static byte[] bytes(Frame frame) {
+        byte[] data = new byte[Frame.FRAME_SIZE];
+        frame.copyTo(data, 0);
+        return data;
+    }
+
+    @Test
+    public void typedAccessorsRoundTrip() throws Exception {
+        Frame frame = new Frame();
+        frame.setFinger(Frame.THUMB, (byte)1, (byte)-2, (byte)3);
+        frame.setVoltage(4100);
+        frame.setMagnetometer(-2048, 0, 2047);
+
+        assertEquals(1, frame.getFingerX(Frame.THUMB));
+        assertEquals(-2, frame.getFingerY(Frame.THUMB));
+        assertEquals(3, frame.getFingerZ(Frame.THUMB));
+        assertEquals(0, frame.getFingerX(Frame.INDEX));
+        assertEquals(4100, frame.getVoltage());
+        assertEquals(-2048, frame.getMagnetometerValueX());
+        assertEquals(0, frame.getMagnetometerValueY());
+        assertEquals(2047, frame.getMagnetometerValueZ());
+    }
+
+    @Test
+    public void fullFramesRoundTrip() throws Exception {
+        Random random = new Random(1);
+        FrameCodec codec = new FrameCodec();
+        ByteBuffer buffer = ByteBuffer.allocate(Frame.FRAME_SIZE);
+        Frame decoded = new Frame();
+
+        for (int i = 0; i < 1000; i++) {
+            Frame frame = randomFrame(random);
+            buffer.clear();
+            codec.encode(frame, buffer);
+            assertEquals(Frame.FRAME_SIZE, buffer.position());
+
+            buffer.flip();
+            assertTrue(FrameCodec.decodeFull(buffer, decoded));
+            assertArrayEquals(bytes(frame), bytes(decoded));
+        }
+    }
+
+    @Test
+    public void compactFramesRoundTripForEveryMask() throws Exception {
+        Random random = new Random(2);
+        FrameCodec codec = new FrameCodec();
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.MAX_COMPACT_SIZE);
+        Frame decoded = new Frame();
+
+        for (int mask = 0; mask < FrameCodec.ALL_CHANNELS; mask++) {
+            codec.setChannelMask(mask);
+            Frame frame = randomFrame(random);
+            buffer.clear();
+            codec.encode(frame, buffer);
+            assertEquals(FrameCodec.compactSize(mask), buffer.position());
+
+            buffer.flip();
+            assertTrue(FrameCodec.decodeCompact(buffer, decoded));
+            assertFalse(buffer.hasRemaining());
+            assertEquals(frame.getFrameNumber(), decoded.getFrameNumber());
+
+            // Selected channels survive, the others decode as zero
+            for (int finger = 0; finger < Frame.FINGERS; finger++) {
+                boolean present = (mask & (1 << finger)) != 0;
+                assertEquals(present ? frame.getFingerX(finger) : 0, decoded.getFingerX(finger));
+                assertEquals(present ? frame.getFingerZ(finger) : 0, decoded.getFingerZ(finger));
+            }
+            boolean palm = (mask & FrameCodec.CHANNEL_PALM) != 0;
+            assertEquals(palm ? frame.getAccelerometerY() : 0, decoded.getAccelerometerY());
+            boolean voltage = (mask & FrameCodec.CHANNEL_VOLTAGE) != 0;
+            assertEquals(voltage ? frame.getVoltage() : 0, decoded.getVoltage());
+            boolean magnetometer = (mask & FrameCodec.CHANNEL_MAGNETOMETER) != 0;
+            assertEquals(magnetometer ? frame.getMagnetometerValueZ() : -2048, decoded.getMagnetometerValueZ());
+        }
+    }
+
+    @Test
+    public void incompleteCompactFrameIsNotConsumed() throws Exception {
+        Frame frame = randomFrame(new Random(3));
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.MAX_COMPACT_SIZE);
+        FrameCodec.encodeCompact(frame, FrameCodec.CHANNEL_PALM, buffer);
+        buffer.flip();
+        buffer.limit(buffer.limit() - 1);
+
+        assertFalse(FrameCodec.decodeCompact(buffer, new Frame()));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void formatChangesApplyWholeOnTheNextFrame() throws Exception {
+        Frame frame = randomFrame(new Random(4));
+        FrameFormatEncoder encoder = new FrameFormatEncoder();
+        ByteBuffer out = ByteBuffer.allocate(4 * encoder.maxEncodedSize());
+
+        encoder.setFormat(FrameEncoder.Format.Compact, FrameCodec.CHANNEL_PALM);
+        encoder.encode(frame, out);
+        assertEquals(FrameCodec.compactSize(FrameCodec.CHANNEL_PALM), out.position());
+
+        // Leaving Compact restores every channel, Delta starts from a keyframe
+        out.clear();
+        encoder.setFormat(FrameEncoder.Format.Full, FrameCodec.CHANNEL_PALM);
+        encoder.setTimestampTrailer(true);
+        encoder.encode(frame, out);
+        assertEquals(Frame.FRAME_SIZE + FrameFormatEncoder.TRAILER_SIZE, out.position());
+
+        out.clear();
+        encoder.setFormat(FrameEncoder.Format.Delta, FrameCodec.CHANNEL_PALM);
+        encoder.encode(frame, out);
+        assertEquals(DeltaFrameEncoder.KEYFRAME, out.get(0) & 0xFF);
+        assertEquals(DeltaFrameEncoder.KEYFRAME_SIZE + FrameFormatEncoder.TRAILER_SIZE, out.position());
+    }
+
+    @Test
+    public void framingMarksOnlyFramesWithoutAMarker() throws Exception {
+        Frame frame = randomFrame(new Random(5));
+        FrameFormatEncoder encoder = new FrameFormatEncoder();
+        encoder.setFraming(true);
+        ByteBuffer out = ByteBuffer.allocate(encoder.maxEncodedSize());
+        assertTrue(encoder.isDelimited());
+
+        encoder.encode(frame, out);
+        assertEquals(1 + Frame.FRAME_SIZE, out.position());
+        assertEquals(FrameFormatEncoder.FRAME_MARKER, out.get(0) & 0xFF);
+
+        out.clear();
+        encoder.setFormat(FrameEncoder.Format.Compact, FrameCodec.CHANNEL_PALM);
+        encoder.encode(frame, out);
+        assertEquals(1 + FrameCodec.compactSize(FrameCodec.CHANNEL_PALM), out.position());
+
+        out.clear();
+        encoder.setFormat(FrameEncoder.Format.Multiplexed, FrameCodec.CHANNEL_PALM);
+        encoder.encode(frame, out);
+        assertEquals(MultiplexCodec.SIZE, out.position());
+
+        encoder.setFraming(false);
+        assertTrue(encoder.isDelimited());
+        encoder.setFormat(FrameEncoder.Format.Full, FrameCodec.CHANNEL_PALM);
+        assertFalse(encoder.isDelimited());
+    }
+}
@@ -0,0 +1,215 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FrameFanoutTest {
+    private final static long MS = 1000000L;
+
+    // Worker threads are never started, sent frames stay in their queues
+    static class IdleConnection implements Transport.Connection {
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return -1;
+                }
+            };
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public String getName() {
+            return "idle";
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static class Silent implements WorkerThread.Listener, ClientSession.Listener {
+        @Override
+        public void onWorkerFinished(WorkerThread worker) {
+        }
+
+        @Override
+        public void onSessionStatus(ClientSession session, String message) {
+        }
+    }
+
+    private static ClientSession session(FrameFanout fanout, int id) {
+        Silent silent = new Silent();
+        WorkerThread worker = new WorkerThread(new IdleConnection(), silent);
+        ClientSession session = new ClientSession(id, worker, silent, FrameCodec.ALL_CHANNELS);
+        worker.setCommandHandler(session);
+        fanout.add(session);
+        return session;
+    }
+
+    private static int queued(ClientSession session) {
+        return session.getWorker().getQueue().size();
+    }
+
+    @Test
+    public void onlyRunningClientsReceiveFrames() {
+        FrameFanout fanout = new FrameFanout(6, 16);
+        ClientSession running = session(fanout, 1);
+        ClientSession stopped = session(fanout, 2);
+        running.onStreamStart();
+
+        fanout.tick(new Frame(), 0);
+        assertEquals(1, queued(running));
+        assertEquals(0, queued(stopped));
+        assertEquals(1, running.getFramesSent());
+    }
+
+    @Test
+    public void clientsAreServedAtTheirOwnRate() {
+        FrameFanout fanout = new FrameFanout(6, 16);
+        ClientSession fast = session(fanout, 1);
+        ClientSession slow = session(fanout, 2);
+        fast.onSampleRate(20);
+        slow.onSampleRate(10);
+        fast.onStreamStart();
+        slow.onStreamStart();
+
+        fanout.tick(new Frame(), 0);
+        assertEquals(20, fanout.getTickRate());
+        for (int i = 1; i < 20; i++)
+            fanout.tick(new Frame(), i * 50 * MS);
+
+        assertEquals(20, queued(fast));
+        assertEquals(10, queued(slow));
+    }
+
+    @Test
+    public void equalSettingsShareOneGroup() {
+        FrameFanout fanout = new FrameFanout(6, 16);
+        ClientSession first = session(fanout, 1);
+        ClientSession second = session(fanout, 2);
+        ClientSession third = session(fanout, 3);
+        third.onFilter(SmoothingEngine.Type.Exponential);
+
+        fanout.tick(new Frame(), 0);
+        assertEquals(2, fanout.getGroupCount());
+        assertSame(first.group, second.group);
+
+        third.onFilter(SmoothingEngine.Type.MovingAverage);
+        fanout.tick(new Frame(), 0);
+        assertEquals(1, fanout.getGroupCount());
+
+        fanout.remove(first.getWorker());
+        fanout.remove(second.getWorker());
+        fanout.remove(third.getWorker());
+        fanout.tick(new Frame(), 0);
+        assertEquals(0, fanout.getGroupCount());
+    }
+
+    @Test
+    public void framesCarrySmoothedValuesAndOwnNumbers() throws InterruptedException {
+        FrameFanout fanout = new FrameFanout(6, 16);
+        ClientSession early = session(fanout, 1);
+        early.onAverageWindow(1);
+        early.onStreamStart();
+
+        fanout.tick(new Frame(), 0);
+        fanout.push(new int[] { 10, 20, 30, 1, 2, 3 }, 0);
+
+        ClientSession late = session(fanout, 2);
+        late.onAverageWindow(1);
+        late.onStreamStart();
+        Frame template = new Frame();
+        template.setVoltage(3700);
+        fanout.tick(template, 100 * MS);
+
+        FrameQueue queue = early.getWorker().getQueue();
+        assertEquals(2, queue.size());
+        assertEquals(1, queued(late));
+
+        // The late client starts its own numbering
+        ByteBuffer out = ByteBuffer.allocate(4 * FrameCodec.MAX_COMPACT_SIZE);
+        FrameFormatEncoder encoder = new FrameFormatEncoder();
+        late.getWorker().getQueue().take(out, 1, encoder);
+        Frame decoded = new Frame();
+        out.flip();
+        FrameCodec.decodeFull(out, decoded);
+        assertEquals(0, decoded.getFrameNumber());
+        assertEquals(10, decoded.getAccelerometerX());
+        assertEquals(30, decoded.getAccelerometerZ());
+        assertEquals(3700, decoded.getVoltage());
+    }
+
+    @Test
+    public void onChangeClientsGetFramesOnChangeAndHeartbeat() {
+        FrameFanout fanout = new FrameFanout(6, 16);
+        ClientSession session = session(fanout, 1);
+        session.onAverageWindow(1);
+        session.onSendMode(FrameFanout.SendMode.OnChange);
+        session.onDeadband(ClientSession.ALL_CHANNELS, 2);
+        session.onHeartbeat(500);
+        session.onStreamStart();
+
+        // The first tick always sends
+        fanout.tick(new Frame(), 0);
+        assertTrue(fanout.isChangeDriven());
+        assertEquals(1, session.getFramesSent());
+
+        fanout.push(new int[] { 10, 20, 30, 1, 2, 3 }, 0);
+        fanout.tick(new Frame(), 10 * MS, false);
+        assertEquals(2, session.getFramesSent());
+
+        // Within the deadband
+        fanout.push(new int[] { 12, 20, 30, 1, 2, 1 }, 0);
+        fanout.tick(new Frame(), 20 * MS, false);
+        assertEquals(2, session.getFramesSent());
+        assertEquals(1, session.getFramesSuppressed());
+
+        // Past it, sent right away on a tick that is not periodic
+        fanout.push(new int[] { 10, 20, 30, 1, 2, 6 }, 0);
+        fanout.tick(new Frame(), 30 * MS, false);
+        assertEquals(3, session.getFramesSent());
+
+        // No new samples, nothing is counted
+        fanout.tick(new Frame(), 40 * MS);
+        assertEquals(3, session.getFramesSent());
+        assertEquals(1, session.getFramesSuppressed());
+
+        fanout.tick(new Frame(), 530 * MS);
+        assertEquals(4, session.getFramesSent());
+
+        // Changes are sent at most at MAX_CHANGE_RATE
+        fanout.push(new int[] { 50, 20, 30, 1, 2, 6 }, 0);
+        fanout.tick(new Frame(), 532 * MS, false);
+        assertEquals(4, session.getFramesSent());
+        fanout.tick(new Frame(), 535 * MS, false);
+        assertEquals(5, session.getFramesSent());
+        assertEquals(1.0 / 6, session.getSuppressionRatio(), 1e-9);
+    }
+
+    @Test
+    public void periodicClientsIgnoreWakeUpTicks() {
+        FrameFanout fanout = new FrameFanout(6, 16);
+        ClientSession session = session(fanout, 1);
+        session.onStreamStart();
+
+        fanout.tick(new Frame(), 0);
+        fanout.tick(new Frame(), 90 * MS, false);
+        assertEquals(1, session.getFramesSent());
+        fanout.tick(new Frame(), 100 * MS);
+        assertEquals(2, session.getFramesSent());
+        assertFalse(fanout.isChangeDriven());
+    }
+}
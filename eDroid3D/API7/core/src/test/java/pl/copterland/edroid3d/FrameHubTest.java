@@ -0,0 +1,196 @@
+package pl.copterland.edroid3d;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FrameHubTest {
+    private static class Silent implements ConnectionManager.Listener, FrameHub.Listener, HubUplink.Listener {
+        @Override
+        public void onConnectionStatus(ConnectionManager.State state, String message) {
+        }
+
+        @Override
+        public void onSessionStatus(ClientSession session, String message) {
+        }
+
+        @Override
+        public void onHubStatus(String message) {
+        }
+
+        @Override
+        public void onUplinkStatus(String message) {
+        }
+    }
+
+    private final FrameFanout fanout = new FrameFanout(FramePipeline.CHANNELS, FramePipeline.MAX_WINDOW);
+    private final Silent silent = new Silent();
+    private ConnectionManager manager;
+    private FrameHub hub;
+    private TcpTransport upstream;
+    private HubUplink uplink;
+    private FramePipeline hubPipeline;
+    private FramePipeline peerPipeline;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (uplink != null) {
+            uplink.cancel();
+            uplink.join(5000);
+        }
+        if (hub != null)
+            hub.cancel();
+        if (hubPipeline != null)
+            hubPipeline.cancel();
+        if (peerPipeline != null)
+            peerPipeline.cancel();
+        if (manager != null) {
+            manager.cancel();
+            manager.join(5000);
+        }
+    }
+
+    private static void waitUntil(long deadline) throws InterruptedException {
+        assertTrue(System.currentTimeMillis() < deadline);
+        Thread.sleep(5);
+    }
+
+    // Writes a peer frame with a sample time in the clock of the peer
+    private static void sendPeerFrame(OutputStream out, int number, long timestamp) throws IOException {
+        Frame frame = new Frame();
+        frame.clear();
+        frame.setFrameNumber((byte)number);
+        frame.setTimestamp(timestamp);
+        ByteBuffer buffer = ByteBuffer.allocate(MultiplexCodec.SIZE);
+        new MultiplexCodec().encode(frame, buffer);
+        out.write(buffer.array());
+        out.flush();
+    }
+
+    // Connects a host that selected the multiplexed stream of the fanout
+    private Socket connectHost(FrameFanout hostFanout, long deadline) throws Exception {
+        manager = new ConnectionManager(new ConnectionManager.TransportFactory() {
+            @Override
+            public Transport open() throws IOException {
+                upstream = new TcpTransport(0);
+                return upstream;
+            }
+        }, hostFanout, FrameCodec.ALL_CHANNELS, silent);
+        manager.start();
+        while (manager.getConnectionState() != ConnectionManager.State.Listening)
+            waitUntil(deadline);
+
+        Socket host = new Socket(InetAddress.getLoopbackAddress(), upstream.getLocalPort());
+        host.getOutputStream().write(new byte[] { 'M', 'R' });
+        while (hostFanout.size() == 0 || !hostFanout.getSessions()[0].isRunning()
+                || hostFanout.getSessions()[0].getMerger() == null)
+            waitUntil(deadline);
+        return host;
+    }
+
+    @Test
+    public void mergesPeersWithSkewedClocks() throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        Socket host = connectHost(fanout, deadline);
+        fanout.getSessions()[0].onSampleRate(1000);
+
+        TcpTransport hubTransport = new TcpTransport(0);
+        hub = new FrameHub(hubTransport, fanout, silent);
+        hub.start();
+        Socket first = new Socket(InetAddress.getLoopbackAddress(), hubTransport.getLocalPort());
+        Socket second = new Socket(InetAddress.getLoopbackAddress(), hubTransport.getLocalPort());
+        while (hub.getPeerCount() < 2)
+            waitUntil(deadline);
+
+        Frame template = new Frame();
+        template.clear();
+        long firstSkew = 3600000000000L;
+        long secondSkew = -1000000000L;
+        for (int i = 0; i < 5; i++) {
+            long now = System.nanoTime();
+            sendPeerFrame(first.getOutputStream(), i, now + firstSkew);
+            sendPeerFrame(second.getOutputStream(), i, now + secondSkew);
+            Thread.sleep(10);
+            now = System.nanoTime();
+            template.setTimestamp(now);
+            fanout.tick(template, now);
+        }
+        // Past the longest wait for late frames everything is released
+        Thread.sleep(SourceMerger.DEFAULT_MAX_DELAY / 1000000 + 10);
+        long now = System.nanoTime();
+        template.setTimestamp(now);
+        fanout.tick(template, now);
+
+        DataInputStream in = new DataInputStream(host.getInputStream());
+        ByteBuffer buffer = ByteBuffer.allocate(MultiplexCodec.SIZE);
+        Frame frame = new Frame();
+        int[] perSource = new int[3];
+        long last = 0;
+        // Five frames of every device, the newest local frame waits for the peers
+        for (int received = 0; perSource[0] < 5 || perSource[1] < 5 || perSource[2] < 5; received++) {
+            assertTrue(received < 20);
+            buffer.clear();
+            in.readFully(buffer.array());
+            assertEquals(DeltaFrameDecoder.FRAME, MultiplexCodec.decode(buffer, frame));
+            perSource[frame.getSource()]++;
+            // In our clock and in order, whatever the clock of the peer
+            assertTrue(frame.getTimestamp() >= last);
+            last = frame.getTimestamp();
+        }
+
+        host.close();
+        first.close();
+        second.close();
+        while (hub.getPeerCount() > 0)
+            waitUntil(deadline);
+    }
+
+    @Test
+    public void uplinkStreamsOnePipelineIntoTheHubOfAnother() throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        hubPipeline = new FramePipeline(new SampleRing(64));
+        peerPipeline = new FramePipeline(new SampleRing(64));
+        hubPipeline.start();
+        peerPipeline.start();
+        Socket host = connectHost(hubPipeline.getFanout(), deadline);
+
+        TcpTransport hubTransport = new TcpTransport(0);
+        hub = new FrameHub(hubTransport, hubPipeline.getFanout(), silent);
+        hub.start();
+        uplink = new HubUplink(InetAddress.getLoopbackAddress().getHostAddress(), hubTransport.getLocalPort(),
+                peerPipeline.getFanout(), FrameCodec.ALL_CHANNELS, silent);
+        uplink.start();
+        while (hub.getPeerCount() < 1 || !uplink.isConnected())
+            waitUntil(deadline);
+        assertEquals(1, peerPipeline.getFanout().size());
+
+        // The host gets the frames of both devices in one stream
+        DataInputStream in = new DataInputStream(host.getInputStream());
+        ByteBuffer buffer = ByteBuffer.allocate(MultiplexCodec.SIZE);
+        Frame frame = new Frame();
+        int[] perSource = new int[2];
+        for (int received = 0; perSource[0] < 3 || perSource[1] < 3; received++) {
+            assertTrue(received < 500);
+            buffer.clear();
+            in.readFully(buffer.array());
+            assertEquals(DeltaFrameDecoder.FRAME, MultiplexCodec.decode(buffer, frame));
+            perSource[frame.getSource()]++;
+        }
+
+        // The peer session goes away with the uplink
+        uplink.cancel();
+        uplink.join(5000);
+        assertEquals(0, peerPipeline.getFanout().size());
+        while (hub.getPeerCount() > 0)
+            waitUntil(deadline);
+        host.close();
+    }
+}
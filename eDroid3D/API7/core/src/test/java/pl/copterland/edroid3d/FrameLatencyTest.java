@@ -0,0 +1,104 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FrameLatencyTest {
+    private final static long MS = 1000000L;
+
+    @Test
+    public void stagesAreRecordedFromFrameTimestamps() throws Exception {
+        FramePool pool = new FramePool(4, false);
+        FrameQueue queue = new FrameQueue(4, pool, FrameQueue.Policy.DropOldest, 1);
+        FrameLatency latency = new FrameLatency(4);
+        queue.setLatency(latency);
+
+        Frame frame = pool.acquire();
+        frame.setTimestamp(100 * MS);
+        frame.setBuiltAt(103 * MS);
+        latency.onEnqueued(frame, 104 * MS);
+        assertEquals(104 * MS, frame.getEnqueuedAt());
+
+        latency.onDequeued(frame, 110 * MS);
+        latency.onWritten(112 * MS);
+
+        assertEquals(3 * MS, latency.get(FrameLatency.Stage.Smoothing).getMax(), MS / 32);
+        assertEquals(1 * MS, latency.get(FrameLatency.Stage.Fanout).getMax(), MS / 32);
+        assertEquals(6 * MS, latency.get(FrameLatency.Stage.Queue).getMax(), MS / 32);
+        assertEquals(2 * MS, latency.get(FrameLatency.Stage.Write).getMax(), MS / 32);
+        assertEquals(12 * MS, latency.get(FrameLatency.Stage.Total).getMax(), MS / 32);
+
+        // Nothing pending, nothing recorded
+        latency.onWritten(200 * MS);
+        assertEquals(1, latency.get(FrameLatency.Stage.Write).getCount());
+    }
+
+    @Test
+    public void writerRecordsEveryWrittenFrame() throws Exception {
+        FramePool pool = new FramePool(9, false);
+        FrameQueue queue = new FrameQueue(8, pool, FrameQueue.Policy.DropOldest, 1);
+        FrameLatency latency = new FrameLatency(8);
+        queue.setLatency(latency);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameWriter writer = new FrameWriter(queue, new FrameCodec(), out, new FrameWriter.Listener() {
+            @Override
+            public void onWriteFailed(IOException e) {
+            }
+        });
+        writer.start();
+
+        for (int i = 0; i < 5; i++) {
+            Frame frame = pool.acquire();
+            frame.setTimestamp(System.nanoTime());
+            latency.onEnqueued(frame, System.nanoTime());
+            queue.offer(frame);
+        }
+        long deadline = System.nanoTime() + 5000 * MS;
+        while (latency.get(FrameLatency.Stage.Total).getCount() < 5 && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        writer.cancel();
+
+        assertEquals(5, latency.get(FrameLatency.Stage.Total).getCount());
+        assertEquals(5, latency.get(FrameLatency.Stage.Queue).getCount());
+    }
+
+    @Test
+    public void trailerCarriesSampleTimeInMicroseconds() throws Exception {
+        FrameFormatEncoder encoder = new FrameFormatEncoder();
+        encoder.setTimestampTrailer(true);
+        Frame frame = new Frame();
+        frame.setTimestamp(0x12345678L * 1000 + 999);
+
+        ByteBuffer out = ByteBuffer.allocate(encoder.maxEncodedSize());
+        encoder.encode(frame, out);
+        assertEquals(Frame.FRAME_SIZE + FrameFormatEncoder.TRAILER_SIZE, out.position());
+        assertEquals(0x78, out.get(Frame.FRAME_SIZE) & 0xFF);
+        assertEquals(0x12, out.get(Frame.FRAME_SIZE + 3) & 0xFF);
+
+        encoder.setTimestampTrailer(false);
+        out.clear();
+        encoder.encode(frame, out);
+        assertEquals(Frame.FRAME_SIZE, out.position());
+    }
+
+    @Test
+    public void messagesCarryTypeAndLength() throws Exception {
+        FrameQueue queue = new FrameQueue(2, new FramePool(3, false), FrameQueue.Policy.DropOldest, 1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameWriter writer = new FrameWriter(queue, new FrameCodec(), out, null);
+
+        writer.writeMessage(ClientSession.MESSAGE_STATS, "p99".getBytes("US-ASCII"));
+        byte[] message = out.toByteArray();
+        assertEquals(FrameWriter.MESSAGE_HEADER_SIZE + 3, message.length);
+        assertEquals(FrameWriter.MESSAGE_MARKER, message[0] & 0xFF);
+        assertEquals('L', message[1]);
+        assertEquals(3, message[2]);
+        assertEquals(0, message[3]);
+        assertEquals('9', message[6]);
+    }
+}
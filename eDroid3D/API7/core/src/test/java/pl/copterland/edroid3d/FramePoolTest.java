@@ -0,0 +1,79 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FramePoolTest {
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void sendFrames(Frame source, FramePool pool, FrameQueue queue, ByteBuffer batch, FrameEncoder encoder, int count)
+            throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            source.setFrameNumber((byte)i);
+            source.setAccelerometer((byte)i, (byte)(i >> 1), (byte)(i >> 2));
+            source.setMagnetometer(i & 127, -(i & 127), 0);
+
+            Frame frame = pool.acquire();
+            frame.copyFrom(source);
+            queue.offer(frame);
+
+            if (queue.size() == 4) {
+                batch.clear();
+                queue.take(batch, 4, encoder);
+            }
+        }
+    }
+
+    @Test
+    public void framesAreCopiedByValue() throws Exception {
+        Frame source = new Frame();
+        source.setAccelerometer((byte)1, (byte)2, (byte)3);
+        Frame copy = new Frame(true);
+        copy.copyFrom(source);
+        source.setAccelerometer((byte)4, (byte)5, (byte)6);
+
+        assertEquals(1, copy.getAccelerometerX());
+        assertEquals(3, copy.getAccelerometerZ());
+    }
+
+    @Test
+    public void framesAreWrittenContiguously() throws Exception {
+        ByteBuffer out = ByteBuffer.allocate(3 * Frame.FRAME_SIZE);
+        for (int i = 0; i < 3; i++) {
+            Frame frame = new Frame();
+            frame.setFrameNumber((byte)(10 + i));
+            frame.writeTo(out);
+        }
+
+        assertFalse(out.hasRemaining());
+        assertEquals(10, out.get(0));
+        assertEquals(12, out.get(2 * Frame.FRAME_SIZE));
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() throws Exception {
+        Frame source = new Frame();
+        FramePool pool = new FramePool(9, false);
+        FrameQueue queue = new FrameQueue(8, pool, FrameQueue.Policy.DropOldest, 1);
+        ByteBuffer batch = ByteBuffer.allocate(8 * FrameCodec.MAX_COMPACT_SIZE);
+        FrameCodec encoder = new FrameCodec();
+        encoder.setChannelMask(FrameCodec.CHANNEL_PALM | FrameCodec.CHANNEL_MAGNETOMETER);
+
+        // Warm up so class loading and compilation are not measured
+        sendFrames(source, pool, queue, batch, encoder, 100000);
+
+        long before = allocatedBytes();
+        sendFrames(source, pool, queue, batch, encoder, 100000);
+        long allocated = allocatedBytes() - before;
+
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+        assertEquals(9, pool.available() + queue.size());
+    }
+}
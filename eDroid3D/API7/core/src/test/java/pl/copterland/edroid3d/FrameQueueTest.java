@@ -0,0 +1,142 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FrameQueueTest {
+    private static void offer(FramePool pool, FrameQueue queue, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Frame frame = pool.acquire();
+            frame.setFrameNumber((byte)i);
+            queue.offer(frame);
+        }
+    }
+
+    @Test
+    public void dropOldestKeepsNewestFrames() throws Exception {
+        FramePool pool = new FramePool(5, false);
+        FrameQueue queue = new FrameQueue(4, pool, FrameQueue.Policy.DropOldest, 1);
+        offer(pool, queue, 0, 6);
+
+        ByteBuffer out = ByteBuffer.allocate(4 * FrameCodec.MAX_COMPACT_SIZE);
+        assertEquals(4, queue.take(out, 4, new FrameCodec()));
+        assertEquals(2, out.get(0));
+        assertEquals(5, out.get(3 * Frame.FRAME_SIZE));
+        assertEquals(6, queue.getQueued());
+        assertEquals(2, queue.getDropped());
+        assertEquals(5, pool.available());
+    }
+
+    @Test
+    public void coalesceKeepsOnlyLatestFrame() throws Exception {
+        FramePool pool = new FramePool(2, false);
+        FrameQueue queue = new FrameQueue(4, pool, FrameQueue.Policy.CoalesceLatest, 1);
+        offer(pool, queue, 0, 3);
+
+        ByteBuffer out = ByteBuffer.allocate(4 * FrameCodec.MAX_COMPACT_SIZE);
+        assertEquals(1, queue.take(out, 4, new FrameCodec()));
+        assertEquals(2, out.get(0));
+        assertEquals(2, queue.getDropped());
+    }
+
+    @Test
+    public void batchWritesGroupsOfFrames() throws Exception {
+        FramePool pool = new FramePool(8, true);
+        FrameQueue queue = new FrameQueue(8, pool, FrameQueue.Policy.Batch, 4);
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        final int[] writes = new int[1];
+        FrameWriter writer = new FrameWriter(queue, new FrameCodec(), new java.io.OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Single byte writes are not expected");
+            }
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                sink.write(b, off, len);
+                writes[0]++;
+            }
+        }, new FrameWriter.Listener() {
+            @Override
+            public void onWriteFailed(IOException e) {
+                fail(e.getMessage());
+            }
+        });
+        writer.start();
+
+        offer(pool, queue, 0, 8);
+        while (writer.getBytesSent() < 8 * Frame.FRAME_SIZE)
+            Thread.sleep(1);
+        writer.cancel();
+        writer.join();
+
+        assertEquals(2, writer.getWrites());
+        assertEquals(8 * Frame.FRAME_SIZE, sink.size());
+        assertEquals(7, sink.toByteArray()[7 * Frame.FRAME_SIZE]);
+        assertEquals(8, pool.available());
+    }
+
+    @Test
+    public void partialBatchIsWrittenAfterTheHoldTime() throws Exception {
+        FramePool pool = new FramePool(8, false);
+        FrameQueue queue = new FrameQueue(8, pool, FrameQueue.Policy.Batch, 4);
+        offer(pool, queue, 0, 2);
+
+        long start = System.nanoTime();
+        ByteBuffer out = ByteBuffer.allocate(8 * FrameCodec.MAX_COMPACT_SIZE);
+        assertEquals(2, queue.take(out, 4, new FrameCodec()));
+        assertTrue(System.nanoTime() - start >= FrameQueue.MAX_HOLD / 2);
+        assertEquals(8, pool.available());
+    }
+
+    @Test
+    public void flushHandsOverAPartialBatch() throws Exception {
+        FramePool pool = new FramePool(8, false);
+        FrameQueue queue = new FrameQueue(8, pool, FrameQueue.Policy.Batch, 4);
+        offer(pool, queue, 0, 3);
+        queue.flush();
+
+        ByteBuffer out = ByteBuffer.allocate(8 * FrameCodec.MAX_COMPACT_SIZE);
+        assertEquals(3, queue.take(out, 4, new FrameCodec()));
+        // Later frames are batched again
+        offer(pool, queue, 3, 7);
+        out.clear();
+        assertEquals(4, queue.take(out, 4, new FrameCodec()));
+        assertEquals(3, out.get(0));
+    }
+
+    @Test
+    public void awaitRoomReturnsOnceTheWriterTakes() throws Exception {
+        FramePool pool = new FramePool(4, false);
+        final FrameQueue queue = new FrameQueue(2, pool, FrameQueue.Policy.DropOldest, 1);
+        offer(pool, queue, 0, 2);
+
+        final boolean[] room = new boolean[1];
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    room[0] = queue.awaitRoom();
+                } catch (InterruptedException e) { }
+            }
+        };
+        producer.start();
+        producer.join(50);
+        assertTrue(producer.isAlive());
+
+        ByteBuffer out = ByteBuffer.allocate(2 * FrameCodec.MAX_COMPACT_SIZE);
+        assertEquals(1, queue.take(out, 1, new FrameCodec()));
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertTrue(room[0]);
+
+        offer(pool, queue, 2, 3);
+        queue.close();
+        assertFalse(queue.awaitRoom());
+    }
+}
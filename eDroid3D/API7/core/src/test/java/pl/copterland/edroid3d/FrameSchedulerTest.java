@@ -0,0 +1,167 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameSchedulerTest {
+    private static class FakeClock implements FrameScheduler.Clock {
+        long now = 1000;
+        long oversleep = 0;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void sleep(long nanos) {
+            now += nanos + oversleep;
+        }
+    }
+
+    private static class Task implements Runnable {
+        final FakeClock clock;
+        long duration = 0;
+        int runs = 0;
+        long lastRun = 0;
+
+        Task(FakeClock fakeClock) {
+            clock = fakeClock;
+        }
+
+        @Override
+        public void run() {
+            lastRun = clock.now;
+            clock.now += duration;
+            runs++;
+        }
+    }
+
+    @Test
+    public void deadlinesDoNotDriftWithTaskDuration() throws Exception {
+        FakeClock clock = new FakeClock();
+        Task task = new Task(clock);
+        task.duration = 3000000;
+        FrameScheduler scheduler = new FrameScheduler(task, 100, FrameScheduler.OverrunPolicy.Skip, clock);
+
+        for (int i = 0; i <= 100; i++)
+            scheduler.step();
+
+        // 101st tick starts exactly one second after the first one
+        assertEquals(1000 + 1000000000L, task.lastRun);
+        assertEquals(100.0, scheduler.getStats().getAchievedRate(), 1e-9);
+        assertEquals(0, scheduler.getStats().getSkipped());
+    }
+
+    @Test
+    public void nonIntegerPeriodIsHitOnAverage() throws Exception {
+        FakeClock clock = new FakeClock();
+        Task task = new Task(clock);
+        FrameScheduler scheduler = new FrameScheduler(task, 30, FrameScheduler.OverrunPolicy.Skip, clock);
+
+        for (int i = 0; i <= 30; i++)
+            scheduler.step();
+
+        assertEquals(1000 + 1000000000L, task.lastRun);
+    }
+
+    @Test
+    public void jitterIsReported() throws Exception {
+        FakeClock clock = new FakeClock();
+        clock.oversleep = 200000;
+        Task task = new Task(clock);
+        FrameScheduler scheduler = new FrameScheduler(task, 50, FrameScheduler.OverrunPolicy.Skip, clock);
+
+        for (int i = 0; i < 50; i++)
+            scheduler.step();
+
+        SchedulerStats stats = scheduler.getStats();
+        assertEquals(250000, stats.getPercentile(0.99));
+        assertEquals(200000, stats.getMaxLateness());
+        assertEquals(50.0, stats.getAchievedRate(), 0.05);
+    }
+
+    @Test
+    public void skipPolicyDropsMissedTicks() throws Exception {
+        FakeClock clock = new FakeClock();
+        Task task = new Task(clock);
+        task.duration = 25000000;
+        FrameScheduler scheduler = new FrameScheduler(task, 100, FrameScheduler.OverrunPolicy.Skip, clock);
+
+        scheduler.step();
+        task.duration = 0;
+        scheduler.step();
+
+        assertEquals(2, scheduler.getStats().getSkipped());
+        assertEquals(1000 + 30000000L, task.lastRun);
+    }
+
+    @Test
+    public void catchUpPolicyRunsMissedTicks() throws Exception {
+        FakeClock clock = new FakeClock();
+        Task task = new Task(clock);
+        task.duration = 25000000;
+        FrameScheduler scheduler = new FrameScheduler(task, 100, FrameScheduler.OverrunPolicy.CatchUp, clock);
+
+        scheduler.step();
+        task.duration = 0;
+        scheduler.step();
+        scheduler.step();
+        scheduler.step();
+
+        // Ticks 1..3 were overdue and ran immediately, tick 3 is back on time
+        assertEquals(4, task.runs);
+        assertEquals(1000 + 30000000L, task.lastRun);
+        assertEquals(0, scheduler.getStats().getSkipped());
+    }
+
+    @Test
+    public void wakeUpRunsBetweenDeadlines() throws Exception {
+        FakeClock clock = new FakeClock();
+        final boolean[] wokenRun = new boolean[1];
+        final FrameScheduler[] scheduler = new FrameScheduler[1];
+        Task task = new Task(clock) {
+            @Override
+            public void run() {
+                super.run();
+                wokenRun[0] = scheduler[0].isWakeUp();
+            }
+        };
+        scheduler[0] = new FrameScheduler(task, 100, FrameScheduler.OverrunPolicy.Skip, clock);
+
+        scheduler[0].step();
+        clock.now += 2000000;
+        scheduler[0].wakeUp();
+        scheduler[0].step();
+        assertTrue(wokenRun[0]);
+        assertEquals(1000 + 2000000L, task.lastRun);
+
+        // The grid is unchanged
+        scheduler[0].step();
+        assertFalse(wokenRun[0]);
+        assertEquals(1000 + 10000000L, task.lastRun);
+        assertEquals(3, task.runs);
+        assertEquals(1, scheduler[0].getWakeUps());
+        assertEquals(0, scheduler[0].getStats().getSkipped());
+    }
+
+    @Test
+    public void rejectsRatesThatAreNotPositive() throws Exception {
+        FakeClock clock = new FakeClock();
+        Task task = new Task(clock);
+        try {
+            new FrameScheduler(task, 0, FrameScheduler.OverrunPolicy.Skip, clock);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        FrameScheduler scheduler = new FrameScheduler(task, 100, FrameScheduler.OverrunPolicy.Skip, clock);
+        try {
+            scheduler.setRate(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(100, scheduler.getRate());
+    }
+}
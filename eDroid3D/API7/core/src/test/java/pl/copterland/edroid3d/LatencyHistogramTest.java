@@ -0,0 +1,52 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsCoverEveryValueWithBoundedError() throws Exception {
+        long[] values = { 0, 1, 31, 32, 33, 63, 64, 1000, 123456789L, Long.MAX_VALUE / 3 };
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucket(value);
+            long limit = LatencyHistogram.bucketLimit(bucket);
+            assertTrue(value + " above " + limit, value <= limit);
+            assertTrue(value + " far from " + limit, limit - value <= value / 32);
+            if (bucket > 0)
+                assertTrue(LatencyHistogram.bucketLimit(bucket - 1) < value);
+        }
+    }
+
+    @Test
+    public void percentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000L);
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500, histogram.getMean());
+        assertEquals(500000, histogram.getPercentile(0.5), 500000 / 32);
+        assertEquals(990000, histogram.getPercentile(0.99), 990000 / 32);
+        assertEquals(1000000, histogram.getPercentile(1.0));
+    }
+
+    @Test
+    public void addAndReset() throws Exception {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        second.record(2000);
+        second.record(-5);
+
+        first.add(second);
+        assertEquals(3, first.getCount());
+        assertEquals(2000, first.getMax());
+        assertEquals(0, first.getPercentile(0.1));
+
+        first.reset();
+        assertEquals(0, first.getCount());
+        assertEquals(0, first.getPercentile(0.5));
+    }
+}
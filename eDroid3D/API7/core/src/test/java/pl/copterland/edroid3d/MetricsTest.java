@@ -0,0 +1,125 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void stripedCounterSumsConcurrentThreads() throws Exception {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++)
+                        counter.increment();
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        counter.add(5);
+        assertEquals(400005, counter.get());
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        StripedCounter counter = new StripedCounter();
+        MetricsRegistry.MaxGauge max = new MetricsRegistry.MaxGauge();
+        // Warm up so class loading and compilation do not count
+        for (int i = 0; i < 20000; i++) {
+            counter.add(i);
+            max.record(i);
+        }
+
+        long before = allocatedBytes();
+        for (int i = 0; i < 100000; i++) {
+            counter.increment();
+            max.record(i);
+        }
+        long allocated = allocatedBytes() - before;
+
+        // The measurement itself allocates a little
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+        assertEquals(99999, max.get());
+    }
+
+    @Test
+    public void registryReplacesGaugesByName() {
+        MetricsRegistry registry = new MetricsRegistry();
+        StripedCounter counter = registry.counter("events");
+        assertSame(counter, registry.counter("events"));
+        counter.add(3);
+
+        assertEquals(-1, registry.get("depth", -1));
+        registry.gauge("depth", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return 7;
+            }
+        });
+        registry.gauge("depth", new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return 9;
+            }
+        });
+        assertEquals(9, registry.get("depth", -1));
+        assertArrayEquals(new String[] { "events", "depth" }, registry.getNames());
+        assertEquals("events 3, depth 9", registry.summary());
+    }
+
+    @Test
+    public void gaugesAreRemovedOnlyByTheirOwner() {
+        MetricsRegistry registry = new MetricsRegistry();
+        MetricsRegistry.MaxGauge first = registry.gauge("depth", new MetricsRegistry.MaxGauge());
+        MetricsRegistry.MaxGauge second = registry.gauge("depth", new MetricsRegistry.MaxGauge());
+        second.record(5);
+        registry.counter("events");
+
+        registry.remove("depth", first);
+        assertEquals(5, registry.get("depth", -1));
+        registry.remove("depth", second);
+        assertFalse(registry.contains("depth"));
+        assertArrayEquals(new String[] { "events" }, registry.getNames());
+    }
+
+    @Test
+    public void cancelledPipelineReleasesItsGauges() {
+        FramePipeline pipeline = new FramePipeline(new SampleRing(64));
+        assertTrue(Metrics.REGISTRY.contains(Metrics.CLIENTS));
+        pipeline.cancel();
+        assertFalse(Metrics.REGISTRY.contains(Metrics.CLIENTS));
+        assertFalse(Metrics.REGISTRY.contains(Metrics.QUEUE_DEPTH));
+        assertFalse(Metrics.REGISTRY.contains(Metrics.SENSOR_RATE));
+    }
+
+    @Test
+    public void statsFrameCarriesTheCounters() {
+        long sent = Metrics.FRAMES_SENT.get();
+        Metrics.FRAMES_SENT.add(3);
+        Metrics.REGISTRY.gauge(Metrics.GC_COUNT, new MetricsRegistry.Gauge() {
+            @Override
+            public long get() {
+                return -1;
+            }
+        });
+
+        byte[] frame = Metrics.statsFrame();
+        assertEquals(Metrics.STATS_SIZE, frame.length);
+        assertEquals(Metrics.STATS_VERSION, frame[0]);
+        assertEquals(Metrics.FIELDS, frame[1]);
+        assertTrue(Metrics.getField(frame, 0, Metrics.FIELD_FRAMES_SENT) >= sent + 3);
+        assertEquals(0xFFFFFFFFL, Metrics.getField(frame, 0, Metrics.FIELD_GC_COUNT));
+    }
+}
@@ -0,0 +1,195 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class OrientationFusionTest {
+    private static final float GRAVITY = 9.81f;
+    // North and down, in microtesla
+    private static final float[] FIELD = { 20, 0, -40 };
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    // Synthetic device turning at a constant rate around a device axis.
+    // The quaternion rotates device coordinates into the earth frame.
+    private static class Motion {
+        final double[] q;
+        final double[] rate;
+
+        Motion(double[] start, double[] bodyRate) {
+            q = start.clone();
+            rate = bodyRate;
+        }
+
+        void step(double dt) {
+            double angle = Math.sqrt(rate[0] * rate[0] + rate[1] * rate[1] + rate[2] * rate[2]) * dt;
+            if (angle == 0)
+                return;
+            double s = Math.sin(angle / 2) / (angle / dt);
+            double[] r = { Math.cos(angle / 2), rate[0] * s, rate[1] * s, rate[2] * s };
+            double[] n = multiply(q, r);
+            double norm = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2] + n[3] * n[3]);
+            for (int i = 0; i < 4; i++)
+                q[i] = n[i] / norm;
+        }
+
+        // Earth frame vector as seen by the device
+        float[] measure(float[] v) {
+            double[] conjugate = { q[0], -q[1], -q[2], -q[3] };
+            double[] r = multiply(multiply(conjugate, new double[] { 0, v[0], v[1], v[2] }), q);
+            return new float[] { (float)r[1], (float)r[2], (float)r[3] };
+        }
+    }
+
+    private static double[] multiply(double[] a, double[] b) {
+        return new double[] {
+                a[0] * b[0] - a[1] * b[1] - a[2] * b[2] - a[3] * b[3],
+                a[0] * b[1] + a[1] * b[0] + a[2] * b[3] - a[3] * b[2],
+                a[0] * b[2] - a[1] * b[3] + a[2] * b[0] + a[3] * b[1],
+                a[0] * b[3] + a[1] * b[2] - a[2] * b[1] + a[3] * b[0] };
+    }
+
+    private static double[] axisAngle(double x, double y, double z, double degrees) {
+        double norm = Math.sqrt(x * x + y * y + z * z);
+        double s = Math.sin(Math.toRadians(degrees) / 2) / norm;
+        return new double[] { Math.cos(Math.toRadians(degrees) / 2), x * s, y * s, z * s };
+    }
+
+    private static double errorDegrees(MadgwickFilter filter, double[] q) {
+        double dot = filter.getW() * q[0] + filter.getX() * q[1] + filter.getY() * q[2] + filter.getZ() * q[3];
+        return Math.toDegrees(2 * Math.acos(Math.min(1, Math.abs(dot))));
+    }
+
+    // Feeds the fusion for the given time: gyroscope at 200 Hz,
+    // accelerometer at 100 Hz and magnetometer at 50 Hz
+    private static long run(OrientationFusion fusion, Motion motion, long start, double seconds, boolean gyroscope) {
+        long step = NANOS_PER_SECOND / 200;
+        long end = start + (long)(seconds * NANOS_PER_SECOND);
+        int tick = 0;
+        long t;
+        for (t = start; t < end; t += step, tick++) {
+            motion.step(step / 1e9);
+            if (gyroscope)
+                fusion.onGyroscope(t, (float)motion.rate[0], (float)motion.rate[1], (float)motion.rate[2]);
+            if (tick % 2 == 0) {
+                float[] a = motion.measure(new float[] { 0, 0, GRAVITY });
+                fusion.onAccelerometer(t, a[0], a[1], a[2]);
+            }
+            if (tick % 4 == 0) {
+                float[] m = motion.measure(FIELD);
+                fusion.onMagnetometer(t, m[0], m[1], m[2]);
+            }
+        }
+        return t;
+    }
+
+    @Test
+    public void convergesToStaticOrientationWithoutGyroscope() throws Exception {
+        double[] truth = axisAngle(1, 2, 3, 70);
+        Motion motion = new Motion(truth, new double[3]);
+        OrientationFusion fusion = new OrientationFusion();
+
+        run(fusion, motion, 0, 5, false);
+
+        assertFalse(fusion.isUsingGyroscope());
+        assertTrue(fusion.getUpdates() > 400);
+        assertEquals(0, errorDegrees(fusion.getFilter(), truth), 1.0);
+    }
+
+    @Test
+    public void tracksFastRotationWithGyroscope() throws Exception {
+        // 90 degrees per second around a skewed axis, starting converged
+        double[] rate = { Math.toRadians(30), Math.toRadians(-60), Math.toRadians(63) };
+        Motion motion = new Motion(new double[] { 1, 0, 0, 0 }, rate);
+        OrientationFusion fusion = new OrientationFusion();
+
+        run(fusion, motion, 0, 4, true);
+
+        assertTrue(fusion.isUsingGyroscope());
+        assertEquals(0, errorDegrees(fusion.getFilter(), motion.q), 3.0);
+    }
+
+    @Test
+    public void gyroscopeCorrectsDriftTowardsMeasurements() throws Exception {
+        // Starts off by 90 degrees, a still device pulls the estimate in
+        double[] truth = axisAngle(0, 1, 0, 90);
+        Motion motion = new Motion(truth, new double[3]);
+        OrientationFusion fusion = new OrientationFusion();
+
+        run(fusion, motion, 0, 30, true);
+
+        assertEquals(0, errorDegrees(fusion.getFilter(), truth), 2.0);
+    }
+
+    @Test
+    public void fallsBackWhenGyroscopeStops() throws Exception {
+        double[] truth = axisAngle(1, 0, 0, 40);
+        Motion motion = new Motion(truth, new double[3]);
+        OrientationFusion fusion = new OrientationFusion();
+
+        long t = run(fusion, motion, 0, 1, true);
+        assertTrue(fusion.isUsingGyroscope());
+        run(fusion, motion, t, 5, false);
+
+        assertFalse(fusion.isUsingGyroscope());
+        assertEquals(0, errorDegrees(fusion.getFilter(), truth), 1.0);
+    }
+
+    @Test
+    public void resetStartsFromIdentity() throws Exception {
+        OrientationFusion fusion = new OrientationFusion();
+        run(fusion, new Motion(axisAngle(0, 0, 1, 120), new double[3]), 0, 2, false);
+        fusion.reset();
+
+        Frame frame = new Frame();
+        fusion.writeTo(frame);
+        assertEquals(OrientationCodec.SCALE, frame.getOrientationW());
+        assertEquals(0, frame.getOrientationX());
+        assertEquals(0, frame.getOrientationY());
+        assertEquals(0, frame.getOrientationZ());
+    }
+
+    @Test
+    public void orientationFrameRoundTrip() throws Exception {
+        Frame frame = new Frame();
+        frame.setFrameNumber((byte)42);
+        frame.setOrientation(OrientationCodec.quantize(0.5f), OrientationCodec.quantize(-0.5f),
+                OrientationCodec.quantize(1.2f), OrientationCodec.quantize(-1.0f));
+        assertEquals(OrientationCodec.SCALE, frame.getOrientationY());
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put((byte)0x33);
+        new OrientationCodec().encode(frame, buffer);
+        assertEquals(1 + OrientationCodec.SIZE, buffer.position());
+        buffer.flip();
+
+        Frame decoded = new Frame();
+        assertEquals(DeltaFrameDecoder.CORRUPTED, OrientationCodec.decode(buffer, decoded));
+        buffer.limit(buffer.limit() - 1);
+        assertEquals(DeltaFrameDecoder.INCOMPLETE, OrientationCodec.decode(buffer, decoded));
+        buffer.limit(buffer.limit() + 1);
+        assertEquals(DeltaFrameDecoder.FRAME, OrientationCodec.decode(buffer, decoded));
+        assertFalse(buffer.hasRemaining());
+
+        assertEquals(42, decoded.getFrameNumber());
+        assertEquals(8192, decoded.getOrientationW());
+        assertEquals(-8192, decoded.getOrientationX());
+        assertEquals(16384, decoded.getOrientationY());
+        assertEquals(-16384, decoded.getOrientationZ());
+    }
+
+    @Test
+    public void corruptedOrientationFrameIsSkipped() throws Exception {
+        Frame frame = new Frame();
+        frame.setOrientation((short)16384, (short)0, (short)0, (short)0);
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        new OrientationCodec().encode(frame, buffer);
+        buffer.put(3, (byte)(buffer.get(3) ^ 1));
+        buffer.flip();
+
+        assertEquals(DeltaFrameDecoder.CORRUPTED, OrientationCodec.decode(buffer, new Frame()));
+        assertEquals(1, buffer.position());
+    }
+}
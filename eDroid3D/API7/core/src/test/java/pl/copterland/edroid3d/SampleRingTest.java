@@ -0,0 +1,67 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleRingTest {
+    private static class Recorder implements SampleRing.Consumer {
+        int count = 0;
+        long lastTimestamp = -1;
+        float lastX;
+
+        @Override
+        public void onSample(int sensor, long timestamp, float x, float y, float z) {
+            assertTrue(timestamp > lastTimestamp);
+            lastTimestamp = timestamp;
+            lastX = x;
+            count++;
+        }
+    }
+
+    @Test
+    public void capacityIsRoundedToPowerOfTwo() throws Exception {
+        assertEquals(8, new SampleRing(5).capacity());
+        assertEquals(1024, new SampleRing(1024).capacity());
+    }
+
+    @Test
+    public void drainsInOrderAndDropsWhenFull() throws Exception {
+        SampleRing ring = new SampleRing(4);
+        for (int i = 0; i < 6; i++)
+            ring.offer(SampleRing.ACCELEROMETER, i, i, 0, 0);
+
+        assertEquals(4, ring.size());
+        assertEquals(2, ring.getDropped());
+
+        Recorder recorder = new Recorder();
+        assertEquals(4, ring.drain(recorder));
+        assertEquals(3.0f, recorder.lastX, 0.0f);
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void concurrentProducerAndConsumer() throws Exception {
+        final SampleRing ring = new SampleRing(256);
+        final int total = 200000;
+
+        Thread producer = new Thread() {
+            public void run() {
+                for (int i = 0; i < total; i++) {
+                    while (!ring.offer(SampleRing.MAGNETOMETER, i, i, i, i))
+                        Thread.yield();
+                }
+            }
+        };
+        producer.start();
+
+        Recorder recorder = new Recorder();
+        while (recorder.count < total) {
+            if (ring.drain(recorder) == 0)
+                Thread.yield();
+        }
+        producer.join();
+
+        assertEquals(total - 1, recorder.lastTimestamp);
+    }
+}
@@ -0,0 +1,160 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class SensorRateControllerTest {
+    // Records the configuration calls instead of touching sensors
+    private static class FakeSensorBackend implements SensorBackend {
+        final boolean[] present = { true, true, true };
+        final int[] minPeriod = new int[SampleRing.SENSORS];
+        final int[] fifo = new int[SampleRing.SENSORS];
+        final int[] period = new int[SampleRing.SENSORS];
+        final int[] latency = new int[SampleRing.SENSORS];
+        final ArrayList<Integer> configured = new ArrayList<Integer>();
+
+        @Override
+        public boolean hasSensor(int sensor) {
+            return present[sensor];
+        }
+
+        @Override
+        public int getMinPeriod(int sensor) {
+            return minPeriod[sensor];
+        }
+
+        @Override
+        public int getFifoSize(int sensor) {
+            return fifo[sensor];
+        }
+
+        @Override
+        public void configure(int sensor, int periodUs, int maxReportLatencyUs) {
+            period[sensor] = periodUs;
+            latency[sensor] = maxReportLatencyUs;
+            configured.add(sensor);
+        }
+    }
+
+    private static final int[] NO_OVERRIDES = new int[SampleRing.SENSORS];
+
+    @Test
+    public void rateFollowsFrameRateAndWindow() {
+        FakeSensorBackend backend = new FakeSensorBackend();
+        SensorRateController controller = new SensorRateController(backend);
+
+        // 10 frames per second averaging 4 samples
+        controller.update(10, 40, NO_OVERRIDES, false, false);
+        assertEquals(25000, backend.period[SampleRing.ACCELEROMETER]);
+        assertEquals(25000, backend.period[SampleRing.MAGNETOMETER]);
+        assertEquals(0, backend.period[SampleRing.GYROSCOPE]);
+
+        // Capped by the fastest rate of the sensor
+        backend.minPeriod[SampleRing.MAGNETOMETER] = 10000;
+        controller.update(100, 12800, NO_OVERRIDES, false, false);
+        assertEquals(1000, backend.period[SampleRing.ACCELEROMETER]);
+        assertEquals(10000, backend.period[SampleRing.MAGNETOMETER]);
+
+        // Idle sensors keep the minimum rate
+        controller.update(10, 0, NO_OVERRIDES, false, false);
+        assertEquals(1000000 / SensorRateController.MIN_RATE, backend.period[SampleRing.ACCELEROMETER]);
+    }
+
+    @Test
+    public void overridesWinPerSensor() {
+        FakeSensorBackend backend = new FakeSensorBackend();
+        SensorRateController controller = new SensorRateController(backend);
+
+        int[] overrides = { 0, 20, 50 };
+        controller.update(50, 400, overrides, false, false);
+        assertEquals(2500, backend.period[SampleRing.ACCELEROMETER]);
+        assertEquals(50000, backend.period[SampleRing.MAGNETOMETER]);
+        assertEquals(20000, backend.period[SampleRing.GYROSCOPE]);
+    }
+
+    @Test
+    public void fusionRunsTheGyroscope() {
+        FakeSensorBackend backend = new FakeSensorBackend();
+        SensorRateController controller = new SensorRateController(backend);
+
+        controller.update(10, 20, NO_OVERRIDES, true, false);
+        int fusionPeriod = 1000000 / SensorRateController.FUSION_RATE;
+        assertEquals(fusionPeriod, backend.period[SampleRing.GYROSCOPE]);
+        assertEquals(fusionPeriod, backend.period[SampleRing.ACCELEROMETER]);
+
+        backend.present[SampleRing.GYROSCOPE] = false;
+        controller.update(10, 20, NO_OVERRIDES, false, false);
+        assertEquals(fusionPeriod, backend.period[SampleRing.GYROSCOPE]);
+    }
+
+    @Test
+    public void lowFrameRatesBatchInTheFifo() {
+        FakeSensorBackend backend = new FakeSensorBackend();
+        backend.fifo[SampleRing.ACCELEROMETER] = 3000;
+        backend.fifo[SampleRing.MAGNETOMETER] = 2;
+        SensorRateController controller = new SensorRateController(backend);
+
+        controller.update(10, 20, NO_OVERRIDES, false, false);
+        // One frame period, or what the FIFO holds
+        assertEquals(100000, backend.latency[SampleRing.ACCELEROMETER]);
+        assertEquals(100000, backend.latency[SampleRing.MAGNETOMETER]);
+        controller.update(10, 200, NO_OVERRIDES, false, false);
+        assertEquals(10000, backend.latency[SampleRing.MAGNETOMETER]);
+
+        controller.update(50, 100, NO_OVERRIDES, false, false);
+        assertEquals(0, backend.latency[SampleRing.ACCELEROMETER]);
+        controller.update(10, 20, NO_OVERRIDES, false, true);
+        assertEquals(0, backend.latency[SampleRing.ACCELEROMETER]);
+    }
+
+    @Test
+    public void unchangedPlanIsNotReapplied() {
+        FakeSensorBackend backend = new FakeSensorBackend();
+        SensorRateController controller = new SensorRateController(backend);
+
+        controller.update(10, 20, NO_OVERRIDES, false, false);
+        assertEquals(2, backend.configured.size());
+        for (int i = 0; i < 100; i++)
+            controller.update(10, 20, NO_OVERRIDES, false, false);
+        assertEquals(2, controller.getReconfigurations());
+    }
+
+    @Test
+    public void fanoutReportsTheBusiestClient() {
+        FrameFanout fanout = new FrameFanout(6, 16);
+        Silent silent = new Silent();
+        ClientSession[] sessions = new ClientSession[2];
+        for (int i = 0; i < sessions.length; i++) {
+            WorkerThread worker = new WorkerThread(new FrameFanoutTest.IdleConnection(), silent);
+            sessions[i] = new ClientSession(i, worker, silent, FrameCodec.ALL_CHANNELS);
+            fanout.add(sessions[i]);
+        }
+        sessions[0].onSampleRate(25);
+        sessions[0].onAverageWindow(8);
+        sessions[1].onSampleRate(100);
+        sessions[1].setSensorRate(SampleRing.MAGNETOMETER, 30);
+        sessions[0].onStreamStart();
+
+        fanout.tick(new Frame(), 0);
+        assertEquals(200, fanout.getSampleDemand());
+        assertEquals(0, fanout.getSensorOverride(SampleRing.MAGNETOMETER));
+
+        sessions[1].onStreamStart();
+        fanout.tick(new Frame(), 0);
+        assertEquals(200, fanout.getSampleDemand());
+        assertEquals(30, fanout.getSensorOverride(SampleRing.MAGNETOMETER));
+    }
+
+    private static class Silent implements WorkerThread.Listener, ClientSession.Listener {
+        @Override
+        public void onWorkerFinished(WorkerThread worker) {
+        }
+
+        @Override
+        public void onSessionStatus(ClientSession session, String message) {
+        }
+    }
+}
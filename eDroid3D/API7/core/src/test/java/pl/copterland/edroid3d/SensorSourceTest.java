@@ -0,0 +1,69 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class SensorSourceTest {
+    @Test
+    public void binaryTraceRoundTrips() throws Exception {
+        SensorTrace trace = SensorTrace.synthetic(1, 3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trace.writeBinary(out);
+
+        SensorTrace read = SensorTrace.readBinary(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(trace.size(), read.size());
+        for (int i = 0; i < trace.size(); i++) {
+            assertEquals(trace.getSensor(i), read.getSensor(i));
+            assertEquals(trace.getTimestamp(i), read.getTimestamp(i));
+            assertEquals(trace.getValue(i, 2), read.getValue(i, 2), 0.0f);
+        }
+    }
+
+    @Test
+    public void maxSpeedReplayDeliversEverySample() throws Exception {
+        SensorTrace trace = SensorTrace.synthetic(2, 3);
+        SampleRing ring = new SampleRing(64);
+        TraceSensorSource source = new TraceSensorSource(trace, ring, TraceSensorSource.MAX_SPEED, false);
+        source.start();
+        source.register();
+
+        final int[] received = new int[1];
+        SampleRing.Consumer counter = new SampleRing.Consumer() {
+            @Override
+            public void onSample(int sensor, long timestamp, float x, float y, float z) {
+                received[0]++;
+            }
+        };
+        long deadline = System.nanoTime() + 5000000000L;
+        while (!(source.isFinished() && ring.size() == 0) && System.nanoTime() < deadline)
+            ring.drain(counter);
+        source.quit();
+
+        assertEquals(trace.size(), received[0]);
+        assertEquals(0, ring.getDropped());
+    }
+
+    @Test
+    public void realTimeReplayFollowsTheTrace() throws Exception {
+        SensorTrace trace = new SensorTrace(16);
+        for (int i = 0; i < 11; i++)
+            trace.add(SampleRing.ACCELEROMETER, i * 10000000L, i, 0, 0);
+        SampleRing ring = new SampleRing(16);
+        TraceSensorSource source = new TraceSensorSource(trace, ring, 1, false);
+
+        long start = System.nanoTime();
+        source.start();
+        source.register();
+        while (!source.isFinished())
+            Thread.sleep(1);
+        long elapsed = System.nanoTime() - start;
+        source.quit();
+
+        assertEquals(11, ring.size());
+        assertTrue("replayed in " + elapsed, elapsed >= 100000000L);
+    }
+}
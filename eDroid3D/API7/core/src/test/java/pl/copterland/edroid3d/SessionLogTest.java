@@ -0,0 +1,136 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class SessionLogTest {
+    private final static long MS = 1000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Sample i at i ms, a frame numbered i after every tenth sample
+    private File record(int samples) throws Exception {
+        File file = folder.newFile("session.edr");
+        SessionRecorder recorder = new SessionRecorder(file);
+        Frame frame = new Frame();
+        for (int i = 0; i < samples; i++) {
+            recorder.recordSample(i % 2, i * MS, i, -i, 0.5f);
+            if (i % 10 == 9) {
+                frame.setFrameNumber((byte)i);
+                frame.setVoltage(i);
+                frame.setBuiltAt(i * MS);
+                recorder.recordFrame(frame);
+            }
+        }
+        recorder.close();
+        return file;
+    }
+
+    @Test
+    public void recordsReadBackInOrder() throws Exception {
+        SessionLog log = new SessionLog(record(100));
+        assertEquals(110, log.size());
+
+        assertEquals(SessionRecorder.TYPE_SAMPLE, log.getType(0));
+        assertEquals(1, log.getSensor(1));
+        assertEquals(3 * MS, log.getTimestamp(3));
+        assertEquals(-3.0f, log.getValue(3, 1), 0.0f);
+
+        assertEquals(SessionRecorder.TYPE_FRAME, log.getType(10));
+        Frame frame = new Frame();
+        log.readFrame(10, frame);
+        assertEquals(9, frame.getFrameNumber());
+        assertEquals(9, frame.getVoltage());
+
+        SensorTrace trace = log.toTrace();
+        assertEquals(100, trace.size());
+        assertEquals(99 * MS, trace.getTimestamp(99));
+        log.close();
+    }
+
+    @Test
+    public void seekUsesTheIndexAcrossSegments() throws Exception {
+        int samples = SessionRecorder.SEGMENT_RECORDS + 5000;
+        SessionLog log = new SessionLog(record(samples));
+        long size = log.size();
+
+        assertEquals(0, log.seek(-1));
+        for (long target : new long[] { 0, 1, 1023, 1024, 50000, 70000, samples - 1 }) {
+            long record = log.seek(target * MS);
+            assertTrue(log.getTimestamp(record) >= target * MS);
+            assertTrue(record == 0 || log.getTimestamp(record - 1) < target * MS);
+        }
+        assertEquals(size, log.seek(samples * MS));
+        log.close();
+    }
+
+    @Test
+    public void logCutShortStaysReadable() throws Exception {
+        File file = record(100);
+        new File(file.getPath() + SessionRecorder.INDEX_SUFFIX).delete();
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.setLength(SessionRecorder.HEADER_SIZE + 50 * SessionRecorder.RECORD_SIZE + 7);
+        raw.close();
+
+        SessionLog log = new SessionLog(file);
+        assertEquals(50, log.size());
+        assertEquals(20, log.seek(18 * MS + 1));
+        log.close();
+    }
+
+    @Test
+    public void replaySendsRecordedFrames() throws Exception {
+        SessionLog log = new SessionLog(record(1000));
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        WorkerThread worker = new WorkerThread(new Transport.Connection() {
+            @Override
+            public InputStream getInputStream() {
+                return null;
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return sink;
+            }
+
+            @Override
+            public String getName() {
+                return "sink";
+            }
+
+            @Override
+            public void close() {
+            }
+        }, new WorkerThread.Listener() {
+            @Override
+            public void onWorkerFinished(WorkerThread worker) {
+            }
+        });
+        worker.getWriter().start();
+
+        SessionReplay replay = new SessionReplay(log, worker, SessionReplay.MAX_SPEED, 500 * MS);
+        replay.start();
+        replay.join(5000);
+
+        assertEquals(50, replay.getSent());
+        long deadline = System.nanoTime() + 5000 * MS;
+        while (worker.getWriter().getBytesSent() < 50 * Frame.FRAME_SIZE && System.nanoTime() < deadline)
+            Thread.sleep(1);
+        worker.cancel();
+
+        byte[] bytes = sink.toByteArray();
+        assertEquals(50 * Frame.FRAME_SIZE, bytes.length);
+        assertEquals((byte)509, bytes[0]);
+        log.close();
+    }
+}
@@ -0,0 +1,113 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SmoothingFilterTest {
+    private static final long PERIOD_NS = 10000000L;
+
+    // Reference average computed by rescanning the newest samples
+    private static int rescan(List<int[]> history, int n, int channel) {
+        long sum = 0;
+        for (int i = history.size() - n; i < history.size(); i++)
+            sum += history.get(i)[channel];
+        // Rounded half away from zero
+        double mean = (double)sum / n;
+        return mean >= 0 ? (int)(mean + 0.5) : -(int)(-mean + 0.5);
+    }
+
+    @Test
+    public void movingAverageMatchesRescanAcrossWindowChanges() throws Exception {
+        Random random = new Random(42);
+        MovingAverageFilter filter = new MovingAverageFilter(2, 128, 2);
+        List<int[]> history = new ArrayList<int[]>();
+        int[] out = new int[2];
+        int window = 2;
+        // Samples dropped by a smaller window must not come back later
+        int valid = 0;
+
+        assertFalse(filter.get(out));
+
+        for (int i = 0; i < 5000; i++) {
+            if (i % 97 == 0) {
+                window = 1 << (1 + random.nextInt(7));
+                filter.setWindow(window);
+                valid = Math.min(valid, window);
+            }
+
+            int[] sample = { random.nextInt(255) - 127, random.nextInt(4096) - 2048 };
+            filter.push(sample, i * PERIOD_NS);
+            history.add(sample);
+            valid = Math.min(valid + 1, window);
+
+            assertTrue(filter.get(out));
+            assertEquals(rescan(history, valid, 0), out[0]);
+            assertEquals(rescan(history, valid, 1), out[1]);
+        }
+    }
+
+    @Test
+    public void shrinkingWindowKeepsNewestSamples() throws Exception {
+        MovingAverageFilter filter = new MovingAverageFilter(1, 8, 8);
+        for (int i = 1; i <= 8; i++)
+            filter.push(new int[] { i * 10 }, i * PERIOD_NS);
+
+        filter.setWindow(2);
+        int[] out = new int[1];
+        filter.get(out);
+        assertEquals(75, out[0]);
+
+        filter.setWindow(8);
+        filter.push(new int[] { 0 }, 9 * PERIOD_NS);
+        filter.get(out);
+        assertEquals(50, out[0]);
+    }
+
+    @Test
+    public void exponentialFilterConvergesToStep() throws Exception {
+        ExponentialFilter filter = new ExponentialFilter(1, 4);
+        int[] out = new int[1];
+        filter.push(new int[] { 0 }, 0);
+        for (int i = 1; i <= 50; i++)
+            filter.push(new int[] { 100 }, i * PERIOD_NS);
+
+        filter.get(out);
+        assertEquals(100, out[0]);
+    }
+
+    @Test
+    public void oneEuroFilterSmoothsNoiseAndFollowsMotion() throws Exception {
+        OneEuroFilter filter = new OneEuroFilter(1);
+        Random random = new Random(7);
+        int[] out = new int[1];
+
+        for (int i = 0; i < 200; i++)
+            filter.push(new int[] { 50 + random.nextInt(11) - 5 }, i * PERIOD_NS);
+        filter.get(out);
+        assertEquals(50, out[0], 2);
+
+        for (int i = 200; i < 400; i++)
+            filter.push(new int[] { -100 }, i * PERIOD_NS);
+        filter.get(out);
+        assertEquals(-100, out[0], 2);
+    }
+
+    @Test
+    public void engineAppliesSettingsOnPush() throws Exception {
+        SmoothingEngine engine = new SmoothingEngine(1, 16, 4);
+        int[] out = new int[1];
+        engine.push(new int[] { 10 }, 0);
+        engine.push(new int[] { 20 }, PERIOD_NS);
+
+        engine.setType(SmoothingEngine.Type.Exponential);
+        engine.push(new int[] { 40 }, 2 * PERIOD_NS);
+        engine.get(out);
+        assertEquals(40, out[0]);
+        assertEquals(SmoothingEngine.Type.Exponential, engine.getType());
+    }
+}
@@ -0,0 +1,97 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SourceMergerTest {
+    private static final long MS = 1000000L;
+
+    private final SourceMerger merger = new SourceMerger(40 * MS);
+    private final Frame frame = new Frame();
+    private final Frame out = new Frame();
+
+    private void offer(int source, long timestamp, long now) {
+        frame.clear();
+        frame.setTimestamp(timestamp);
+        merger.offer(source, frame, now);
+    }
+
+    @Test
+    public void singleSourcePassesThrough() {
+        offer(0, 100 * MS, 100 * MS);
+        assertTrue(merger.poll(100 * MS, out));
+        assertEquals(100 * MS, out.getTimestamp());
+        assertEquals(0, out.getSource());
+        assertFalse(merger.poll(100 * MS, out));
+    }
+
+    @Test
+    public void mergesInTimestampOrder() {
+        long now = 1000 * MS;
+        offer(1, now + 10 * MS, now);
+        offer(1, now + 30 * MS, now);
+        offer(0, now + 20 * MS, now);
+        offer(2, now + 5 * MS, now);
+        offer(2, now + 40 * MS, now);
+        offer(0, now + 50 * MS, now);
+
+        long[] expected = { 5, 10, 20, 30 };
+        int[] sources = { 2, 1, 0, 1 };
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(merger.poll(now, out));
+            assertEquals(now + expected[i] * MS, out.getTimestamp());
+            assertEquals(sources[i], out.getSource());
+        }
+        // Source 1 may still send something older than 40 ms
+        assertFalse(merger.poll(now, out));
+        assertEquals(1, merger.getBuffered(0));
+        assertEquals(1, merger.getBuffered(2));
+        assertEquals(0, merger.getLate());
+    }
+
+    @Test
+    public void lateSourceHoldsBackUntilMaxDelay() {
+        long now = 1000 * MS;
+        offer(1, now - 10 * MS, now - 10 * MS);
+        offer(0, now, now);
+        assertTrue(merger.poll(now, out));
+        assertEquals(1, out.getSource());
+        // Source 1 is behind, the local frame waits for it
+        assertFalse(merger.poll(now + 20 * MS, out));
+        assertTrue(merger.poll(now + 40 * MS, out));
+        assertEquals(0, out.getSource());
+
+        // Its frame came after the wait, it is released late
+        offer(1, now - 5 * MS, now + 45 * MS);
+        assertTrue(merger.poll(now + 45 * MS, out));
+        assertEquals(1, merger.getLate());
+    }
+
+    @Test
+    public void silentSourceStopsHoldingBack() {
+        long now = 1000 * MS;
+        offer(1, now, now);
+        assertTrue(merger.poll(now, out));
+
+        long later = now + SourceMerger.INACTIVE_TIMEOUT;
+        offer(0, later, later);
+        assertTrue(merger.poll(later, out));
+        assertEquals(later, out.getTimestamp());
+    }
+
+    @Test
+    public void fullBufferDropsOldest() {
+        long now = 1000 * MS;
+        // Source 1 is active and behind, nothing is released
+        offer(1, now - 100 * MS, now);
+        assertTrue(merger.poll(now - 100 * MS, out));
+        for (int i = 0; i < SourceMerger.CAPACITY + 3; i++)
+            offer(0, now + i * MS, now);
+        assertEquals(SourceMerger.CAPACITY, merger.getBuffered(0));
+        assertEquals(3, merger.getDropped(0));
+
+        assertTrue(merger.poll(now + 100 * MS, out));
+        assertEquals(now + 3 * MS, out.getTimestamp());
+    }
+}
@@ -0,0 +1,243 @@
+package pl.copterland.edroid3d;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Runs the server and worker threads against a loopback client
+public class TransportTest {
+    private static class Recorder implements CommandHandler, ServerThread.Listener {
+        final BlockingQueue<String> events = new ArrayBlockingQueue<String>(16);
+        volatile WorkerThread worker;
+
+        @Override
+        public void onStreamStart() {
+            events.add("start");
+        }
+
+        @Override
+        public void onStreamStop() {
+            events.add("stop");
+        }
+
+        @Override
+        public void onAverageWindow(int samples) {
+        }
+
+        @Override
+        public void onFilter(SmoothingEngine.Type type) {
+        }
+
+        @Override
+        public void onSampleRate(int samplesPerSecond) {
+        }
+
+        @Override
+        public void onFrameFormat(FrameEncoder.Format format) {
+        }
+
+        @Override
+        public void onSendMode(FrameFanout.SendMode mode) {
+        }
+
+        @Override
+        public void onDeadband(int channel, int threshold) {
+        }
+
+        @Override
+        public void onHeartbeat(int millis) {
+        }
+
+        @Override
+        public void onTimestampTrailer(boolean enabled) {
+        }
+
+        @Override
+        public void onFraming(boolean enabled) {
+        }
+
+        @Override
+        public void onAdaptiveRate(boolean enabled) {
+        }
+
+        @Override
+        public void onStatsRequest() {
+        }
+
+        @Override
+        public void onMetricsRequest() {
+        }
+
+        @Override
+        public void onRequest(int version, int id, int opcode, byte[] payload, int offset, int length) {
+        }
+
+        @Override
+        public void onUnsupported(int command) {
+        }
+
+        @Override
+        public void onServerStatus(String message) {
+        }
+
+        @Override
+        public CommandHandler onClientConnected(WorkerThread thread) {
+            worker = thread;
+            events.add("connected");
+            return this;
+        }
+
+        @Override
+        public void onWorkerFinished(WorkerThread thread) {
+            events.add("finished");
+        }
+
+        String next() throws InterruptedException {
+            return events.poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void sendFrame(WorkerThread worker, int number) {
+        Frame frame = worker.obtainFrame();
+        frame.clear();
+        frame.setFrameNumber((byte)number);
+        frame.setAccelerometer((byte)1, (byte)2, (byte)3);
+        worker.send(frame);
+    }
+
+    @Test
+    public void tcpLoopback() throws Exception {
+        TcpTransport transport = new TcpTransport(0);
+        Recorder recorder = new Recorder();
+        ServerThread server = new ServerThread(transport, recorder);
+        server.start();
+
+        Socket client = new Socket(InetAddress.getLoopbackAddress(), transport.getLocalPort());
+        assertEquals("connected", recorder.next());
+
+        client.getOutputStream().write('R');
+        assertEquals("start", recorder.next());
+
+        sendFrame(recorder.worker, 7);
+        sendFrame(recorder.worker, 8);
+        DataInputStream in = new DataInputStream(client.getInputStream());
+        byte[] data = new byte[2 * Frame.FRAME_SIZE];
+        in.readFully(data);
+        assertEquals(7, data[0]);
+        assertEquals(8, data[Frame.FRAME_SIZE]);
+
+        client.close();
+        assertEquals("finished", recorder.next());
+    }
+
+    @Test
+    public void tcpServesSeveralClients() throws Exception {
+        TcpTransport transport = new TcpTransport(0);
+        Recorder recorder = new Recorder();
+        ServerThread server = new ServerThread(transport, recorder);
+        server.start();
+
+        Socket[] clients = new Socket[ServerThread.MAX_CLIENTS];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Socket(InetAddress.getLoopbackAddress(), transport.getLocalPort());
+            assertEquals("connected", recorder.next());
+        }
+        assertEquals(ServerThread.MAX_CLIENTS, server.getClientCount());
+
+        // Over the limit the connection is closed right away
+        Socket rejected = new Socket(InetAddress.getLoopbackAddress(), transport.getLocalPort());
+        assertEquals(-1, rejected.getInputStream().read());
+        rejected.close();
+
+        clients[0].close();
+        assertEquals("finished", recorder.next());
+        assertEquals(ServerThread.MAX_CLIENTS - 1, server.getClientCount());
+
+        server.cancel();
+        for (int i = 1; i < clients.length; i++)
+            assertEquals("finished", recorder.next());
+        server.join(5000);
+        assertFalse(server.isAlive());
+        for (Socket client : clients)
+            client.close();
+    }
+
+    @Test
+    public void udpLoopbackWithSequenceNumbers() throws Exception {
+        UdpTransport transport = new UdpTransport(0);
+        Recorder recorder = new Recorder();
+        ServerThread server = new ServerThread(transport, recorder);
+        server.start();
+
+        DatagramSocket client = new DatagramSocket();
+        client.setSoTimeout(5000);
+        byte[] command = { 'R' };
+        client.send(new DatagramPacket(command, 1, InetAddress.getLoopbackAddress(), transport.getLocalPort()));
+        assertEquals("connected", recorder.next());
+        assertEquals("start", recorder.next());
+
+        byte[] buffer = new byte[1024];
+        for (int i = 0; i < 3; i++) {
+            sendFrame(recorder.worker, 20 + i);
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            client.receive(packet);
+
+            ByteBuffer datagram = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+            assertEquals(UdpTransport.HEADER_SIZE + Frame.FRAME_SIZE, datagram.remaining());
+            assertEquals(i, datagram.getInt());
+            assertEquals(20 + i, datagram.get());
+        }
+
+        client.send(new DatagramPacket(new byte[] { 'S' }, 1, InetAddress.getLoopbackAddress(), transport.getLocalPort()));
+        assertEquals("stop", recorder.next());
+
+        recorder.worker.cancel();
+        assertEquals("finished", recorder.next());
+        client.close();
+        server.cancel();
+    }
+
+    @Test
+    public void udpServesTheNextClientAfterAnIdleOne() throws Exception {
+        UdpTransport transport = new UdpTransport(0, 200);
+        Recorder recorder = new Recorder();
+        ServerThread server = new ServerThread(transport, recorder);
+        server.start();
+
+        DatagramSocket first = new DatagramSocket();
+        first.send(new DatagramPacket(new byte[] { 'R' }, 1, InetAddress.getLoopbackAddress(), transport.getLocalPort()));
+        assertEquals("connected", recorder.next());
+        assertEquals("start", recorder.next());
+        // Keep alive with separators past the idle timeout
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(100);
+            first.send(new DatagramPacket(new byte[] { '\n' }, 1, InetAddress.getLoopbackAddress(), transport.getLocalPort()));
+        }
+        assertNull(recorder.events.poll());
+
+        // Silent, the client is dropped and the next one is accepted
+        assertEquals("finished", recorder.next());
+        assertTrue(server.isAlive());
+        DatagramSocket second = new DatagramSocket();
+        second.send(new DatagramPacket(new byte[] { 'S' }, 1, InetAddress.getLoopbackAddress(), transport.getLocalPort()));
+        assertEquals("connected", recorder.next());
+        assertEquals("stop", recorder.next());
+
+        server.cancel();
+        assertEquals("finished", recorder.next());
+        server.join(5000);
+        assertFalse(server.isAlive());
+        first.close();
+        second.close();
+    }
+}
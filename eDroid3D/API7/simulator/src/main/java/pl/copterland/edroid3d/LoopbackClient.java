@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+// Host side of the simulator: connects over TCP loopback, starts the stream
+// and decodes frames. The latency of a frame is measured from the newest
+// sample it contains, looked up in the session by frame number, to the
+// moment it is decoded.
+public class LoopbackClient extends Thread {
+    private final FrameEncoder.Format format;
+    private final Socket socket;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private ClientSession session;
+
+    private volatile long frames = 0;
+    private volatile long corrupted = 0;
+    // Multiplexed stream: frames per source and frames older than the previous one
+    private final long[] sourceFrames = new long[SourceMerger.MAX_SOURCES];
+    private volatile long outOfOrder = 0;
+    private volatile long measureStart;
+
+    public LoopbackClient(int port, FrameEncoder.Format frameFormat) throws IOException
+    {
+        super("LoopbackClient");
+        format = frameFormat;
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+    }
+
+    // Starts reading frames sent by the session serving this client
+    public void start(ClientSession clientSession) throws IOException
+    {
+        session = clientSession;
+        measureStart = System.nanoTime();
+        start();
+
+        byte formatCommand = format == FrameEncoder.Format.Delta ? (byte)'D'
+                : format == FrameEncoder.Format.Compact ? (byte)'C'
+                : format == FrameEncoder.Format.Orientation ? (byte)'Q'
+                : format == FrameEncoder.Format.Multiplexed ? (byte)'M'
+                : format == FrameEncoder.Format.Extended ? (byte)'X' : (byte)'N';
+        socket.getOutputStream().write(new byte[] { formatCommand, 'R' });
+    }
+
+    // Clears the counters, e.g. after a warm up
+    public void reset()
+    {
+        latency.reset();
+        frames = 0;
+        outOfOrder = 0;
+        for (int i = 0; i < sourceFrames.length; i++)
+            sourceFrames[i] = 0;
+        measureStart = System.nanoTime();
+    }
+
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    public long getCorrupted()
+    {
+        return corrupted;
+    }
+
+    public long getSourceFrames(int source)
+    {
+        return sourceFrames[source];
+    }
+
+    public long getOutOfOrder()
+    {
+        return outOfOrder;
+    }
+
+    public double getFrameRate()
+    {
+        return frames * 1e9 / (System.nanoTime() - measureStart);
+    }
+
+    public void close()
+    {
+        try {
+            socket.close();
+        } catch (IOException e) { }
+    }
+
+    @Override
+    public void run() {
+        DeltaFrameDecoder deltaDecoder = new DeltaFrameDecoder();
+        Frame frame = new Frame();
+        long lastTimestamp = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        byte[] array = buffer.array();
+
+        try {
+            InputStream in = socket.getInputStream();
+            while (true) {
+                int bytes = in.read(array, buffer.position(), buffer.remaining());
+                if (bytes < 0)
+                    break;
+                buffer.position(buffer.position() + bytes);
+                buffer.flip();
+
+                while (true) {
+                    boolean decoded;
+                    if (format == FrameEncoder.Format.Delta || format == FrameEncoder.Format.Orientation
+                            || format == FrameEncoder.Format.Multiplexed || format == FrameEncoder.Format.Extended) {
+                        int result = format == FrameEncoder.Format.Delta ? deltaDecoder.decode(buffer, frame)
+                                : format == FrameEncoder.Format.Orientation ? OrientationCodec.decode(buffer, frame)
+                                : format == FrameEncoder.Format.Extended ? ExtendedCodec.decode(buffer, frame)
+                                : MultiplexCodec.decode(buffer, frame);
+                        if (result == DeltaFrameDecoder.INCOMPLETE)
+                            break;
+                        if (result != DeltaFrameDecoder.FRAME) {
+                            corrupted++;
+                            continue;
+                        }
+                        decoded = true;
+                    } else if (format == FrameEncoder.Format.Compact) {
+                        decoded = FrameCodec.decodeCompact(buffer, frame);
+                    } else {
+                        decoded = FrameCodec.decodeFull(buffer, frame);
+                    }
+                    if (!decoded)
+                        break;
+
+                    long now = System.nanoTime();
+                    long sampleTime = session.getSampleTimestamp(frame.getFrameNumber());
+                    if (sampleTime != 0)
+                        latency.record(now - sampleTime);
+                    frames++;
+                    if (format == FrameEncoder.Format.Multiplexed) {
+                        sourceFrames[frame.getSource()]++;
+                        if (frame.getTimestamp() < lastTimestamp)
+                            outOfOrder++;
+                        lastTimestamp = frame.getTimestamp();
+                    }
+                }
+                buffer.compact();
+            }
+        } catch (IOException e) {
+            // Closed by the simulator
+        }
+    }
+}
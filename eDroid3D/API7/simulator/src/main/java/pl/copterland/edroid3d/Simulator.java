@@ -0,0 +1,512 @@
+/*
+ * Copyright © 2016
+ * Szymon Kłos, Robert Jankowski, Wojciech Tokarski
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Szymon Kłos, Robert Jankowski and Wojciech Tokarski
+ *       nor the names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL SZYMON KŁOS, ROBERT JANKOWSKI, WOJCIECH TOKARSKI BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * */
+
+package pl.copterland.edroid3d;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Runs the glove server without a phone. A recorded trace replaces the
+// sensors and loopback clients replace the host, everything in between is
+// the pipeline, fan-out and transport code of the app. Prints the achieved
+// frame rate and the latency from sample to decoded frame.
+//
+// Options:
+//   --trace <file>    CSV or binary trace (see SensorTrace) or the samples of
+//                     a session log (.edr), synthetic if absent
+//   --record <file>   records the session log of the run
+//   --calibration <file>  calibration profile, see CalibrationProfile
+//   --speed <factor>  replay speed, 0 replays as fast as the pipeline drains
+//   --rate <hz>       frames per second requested by every client
+//   --format <name>   Full, Compact, Delta, Orientation, Multiplexed or Extended
+//   --send <mode>     Periodic or OnChange, the rate caps periodic clients only
+//   --clients <n>     number of loopback clients
+//   --peers <n>       peer devices streaming to a hub, see FrameHub. Their
+//                     clocks are skewed, use with --format Multiplexed
+//   --seconds <n>     measurement time after a one second warm up
+//   --sweep           doubles the rate until it is no longer sustained
+//   --replay <file>   serves the frames of a session log (.edr) instead: every
+//                     host that connects to --port gets them from the start,
+//                     at --speed, see SessionReplay. Runs until stopped.
+//   --port <n>        TCP port of --replay, 5000 by default
+public class Simulator implements ServerThread.Listener, ClientSession.Listener, FrameHub.Listener, FramePipeline.Listener {
+    private final static int SAMPLE_RING_SIZE = 1024;
+    private final static long WARM_UP_MS = 1000;
+    // A rate is sustained when the clients receive this share of the frames
+    private final static double SUSTAINED_SHARE = 0.95;
+
+    private final SensorTrace trace;
+    private final double speed;
+    private final FrameEncoder.Format format;
+    private final int clientCount;
+    private final double seconds;
+    private File recordFile;
+    private CalibrationProfile calibration;
+    private FrameFanout.SendMode sendMode = FrameFanout.SendMode.Periodic;
+    private int peerCount = 0;
+
+    private FramePipeline pipeline;
+    private int rate;
+    private int nextSessionId = 1;
+    private final BlockingQueue<ClientSession> connected = new LinkedBlockingQueue<ClientSession>();
+
+    public Simulator(SensorTrace sensorTrace, double replaySpeed, FrameEncoder.Format frameFormat,
+                     int clients, double measureSeconds)
+    {
+        trace = sensorTrace;
+        speed = replaySpeed;
+        format = frameFormat;
+        clientCount = clients;
+        seconds = measureSeconds;
+    }
+
+    public static class Result {
+        public int rate;
+        public double frameRate;
+        public LatencyHistogram latency = new LatencyHistogram();
+        public long sessionDropped;
+        public long ringDropped;
+        public String scheduler;
+        public double suppressed;
+        // Stage latency of the first client
+        public String stages;
+        // Frames per source received by the first client, multiplexed only
+        public String sources = "";
+
+        public boolean isSustained()
+        {
+            return frameRate >= rate * SUSTAINED_SHARE && sessionDropped == 0 && ringDropped == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%5d Hz: %8.1f frames/s, latency %s, dropped %d (ring %d), suppressed %.0f%%, scheduler %s%n%s%s",
+                    rate, frameRate, latency.summary(), sessionDropped, ringDropped, suppressed * 100, scheduler,
+                    stages, sources);
+        }
+    }
+
+    public void setRecordFile(File file)
+    {
+        recordFile = file;
+    }
+
+    public void setCalibration(CalibrationProfile profile)
+    {
+        calibration = profile;
+    }
+
+    public void setSendMode(FrameFanout.SendMode mode)
+    {
+        sendMode = mode;
+    }
+
+    public void setPeers(int peers)
+    {
+        peerCount = peers;
+    }
+
+    private static class GcCountGauge implements MetricsRegistry.Gauge {
+        @Override
+        public long get() {
+            long count = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+                count += Math.max(0, collector.getCollectionCount());
+            return count;
+        }
+    }
+
+    // Replays a recorded session to every host that connects. The session
+    // of a host only applies its commands, e.g. the format, to the stream.
+    private static class ReplayServer implements ServerThread.Listener, ClientSession.Listener {
+        private final SessionLog log;
+        private final double speed;
+        private final HashMap<WorkerThread, SessionReplay> replays = new HashMap<WorkerThread, SessionReplay>();
+        private int nextSessionId = 1;
+
+        ReplayServer(SessionLog sessionLog, double replaySpeed) {
+            log = sessionLog;
+            speed = replaySpeed;
+        }
+
+        @Override
+        public void onServerStatus(String message) {
+            System.err.println(message);
+        }
+
+        @Override
+        public synchronized CommandHandler onClientConnected(WorkerThread worker) {
+            ClientSession session = new ClientSession(nextSessionId++, worker, this, FrameCodec.ALL_CHANNELS);
+            SessionReplay replay = new SessionReplay(log, worker, speed, 0);
+            replays.put(worker, replay);
+            replay.start();
+            return session;
+        }
+
+        @Override
+        public void onWorkerFinished(WorkerThread worker) {
+            SessionReplay replay;
+            synchronized (this) {
+                replay = replays.remove(worker);
+            }
+            if (replay == null)
+                return;
+            replay.cancel();
+            System.err.println("Replay to " + worker.getConnectionName() + " ended, " + replay.getSent()
+                    + " frames sent, " + replay.getDropped() + " dropped");
+        }
+
+        @Override
+        public void onSessionStatus(ClientSession session, String message) {
+        }
+    }
+
+    // Serves the log until the process is stopped
+    public static void replay(File logFile, int port, double speed) throws IOException, InterruptedException
+    {
+        SessionLog log = new SessionLog(logFile);
+        TcpTransport transport = new TcpTransport(port);
+        ServerThread server = new ServerThread(transport, new ReplayServer(log, speed));
+        System.err.println("Replaying " + logFile + " on TCP port " + transport.getLocalPort());
+        server.start();
+        try {
+            server.join();
+        } finally {
+            server.cancel();
+            log.close();
+        }
+    }
+
+    // Peer device with its own clock, streams synthetic frames to the hub
+    private static class SimulatedPeer extends Thread {
+        private final Socket socket;
+        private final long period;
+        private final long skew;
+        private volatile boolean cancelled = false;
+
+        SimulatedPeer(int port, int rate, long clockSkew) throws IOException {
+            super("SimulatedPeer");
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            period = 1000000000L / rate;
+            skew = clockSkew;
+        }
+
+        @Override
+        public void run() {
+            MultiplexCodec codec = new MultiplexCodec();
+            Frame frame = new Frame();
+            ByteBuffer buffer = ByteBuffer.allocate(MultiplexCodec.SIZE);
+            try {
+                OutputStream out = socket.getOutputStream();
+                long next = System.nanoTime();
+                for (int i = 0; !cancelled; i++) {
+                    frame.clear();
+                    frame.setFrameNumber((byte)i);
+                    frame.setAccelerometer((byte)i, (byte)(i >> 1), (byte)(i >> 2));
+                    frame.setTimestamp(System.nanoTime() + skew);
+                    buffer.clear();
+                    codec.encode(frame, buffer);
+                    out.write(buffer.array(), 0, buffer.position());
+
+                    next += period;
+                    long delay = next - System.nanoTime();
+                    if (delay > 0)
+                        Thread.sleep(delay / 1000000, (int)(delay % 1000000));
+                }
+            } catch (IOException e) {
+                // Closed by the simulator
+            } catch (InterruptedException e) { }
+        }
+
+        void close() {
+            cancelled = true;
+            try {
+                socket.close();
+            } catch (IOException e) { }
+        }
+    }
+
+    public Result run(int framesPerSecond) throws IOException, InterruptedException
+    {
+        rate = framesPerSecond;
+        SampleRing ring = new SampleRing(SAMPLE_RING_SIZE);
+        pipeline = new FramePipeline(ring);
+        pipeline.setListener(this);
+        pipeline.setVoltage(4100);
+        if (calibration != null)
+            pipeline.setCalibration(calibration);
+        if (recordFile != null)
+            pipeline.startRecording(new SessionRecorder(recordFile));
+        TraceSensorSource source = new TraceSensorSource(trace, ring, speed, true);
+        TcpTransport transport = new TcpTransport(0);
+        ServerThread server = new ServerThread(transport, this);
+        TcpTransport hubTransport = new TcpTransport(0);
+        FrameHub hub = new FrameHub(hubTransport, pipeline.getFanout(), this);
+
+        pipeline.start();
+        source.start();
+        source.register();
+        server.start();
+        hub.start();
+        ArrayList<SimulatedPeer> peers = new ArrayList<SimulatedPeer>();
+        for (int i = 0; i < peerCount; i++) {
+            SimulatedPeer peer = new SimulatedPeer(hubTransport.getLocalPort(), framesPerSecond,
+                    (i + 1) * 3600000000000L);
+            peer.start();
+            peers.add(peer);
+        }
+
+        ArrayList<LoopbackClient> clients = new ArrayList<LoopbackClient>();
+        ArrayList<ClientSession> sessions = new ArrayList<ClientSession>();
+        try {
+            for (int i = 0; i < clientCount; i++) {
+                LoopbackClient client = new LoopbackClient(transport.getLocalPort(), format);
+                ClientSession session = connected.poll(5, TimeUnit.SECONDS);
+                if (session == null)
+                    throw new IOException("Client " + i + " was not accepted");
+                client.start(session);
+                clients.add(client);
+                sessions.add(session);
+            }
+
+            Thread.sleep(WARM_UP_MS);
+            long droppedBefore = 0;
+            for (ClientSession session : sessions)
+                droppedBefore += session.getFramesDropped();
+            long ringDroppedBefore = ring.getDropped();
+            pipeline.getScheduler().getStats().reset();
+            for (LoopbackClient client : clients)
+                client.reset();
+            for (ClientSession session : sessions)
+                session.getWorker().getLatency().reset();
+
+            Thread.sleep((long)(seconds * 1000));
+
+            Result result = new Result();
+            result.rate = framesPerSecond;
+            for (LoopbackClient client : clients) {
+                result.frameRate += client.getFrameRate() / clients.size();
+                result.latency.add(client.getLatency());
+            }
+            for (ClientSession session : sessions)
+                result.sessionDropped += session.getFramesDropped();
+            result.sessionDropped -= droppedBefore;
+            result.ringDropped = ring.getDropped() - ringDroppedBefore;
+            result.scheduler = pipeline.getScheduler().getStats().summary();
+            result.stages = sessions.get(0).getWorker().getLatency().summary();
+            result.suppressed = sessions.get(0).getSuppressionRatio();
+            if (format == FrameEncoder.Format.Multiplexed) {
+                LoopbackClient first = clients.get(0);
+                StringBuilder sources = new StringBuilder("frames per source");
+                for (int s = 0; s <= peerCount; s++)
+                    sources.append(s == 0 ? " " : ", ").append(s).append(": ").append(first.getSourceFrames(s));
+                sources.append(", out of order ").append(first.getOutOfOrder()).append(String.format("%n"));
+                result.sources = sources.toString();
+            }
+            return result;
+        } finally {
+            for (SimulatedPeer peer : peers)
+                peer.close();
+            hub.cancel();
+            source.quit();
+            pipeline.cancel();
+            server.cancel();
+            for (LoopbackClient client : clients)
+                client.close();
+        }
+    }
+
+    // Doubles the rate from the given start until it is no longer sustained,
+    // returns the last sustained result or null
+    public Result sweep(int startRate, int maxRate) throws IOException, InterruptedException
+    {
+        Result sustained = null;
+        for (int r = startRate; r <= maxRate; r *= 2) {
+            Result result = run(r);
+            System.out.println(result);
+            if (!result.isSustained())
+                break;
+            sustained = result;
+        }
+        return sustained;
+    }
+
+    @Override
+    public void onServerStatus(String message) {
+    }
+
+    @Override
+    public CommandHandler onClientConnected(WorkerThread worker) {
+        ClientSession session = new ClientSession(nextSessionId++, worker, this, FrameCodec.ALL_CHANNELS);
+        // Set directly, the loopback clients only send legacy commands
+        session.onSampleRate(rate);
+        session.onSendMode(sendMode);
+        pipeline.getFanout().add(session);
+        connected.add(session);
+        return session;
+    }
+
+    @Override
+    public void onWorkerFinished(WorkerThread worker) {
+        pipeline.getFanout().remove(worker);
+    }
+
+    @Override
+    public void onSessionStatus(ClientSession session, String message) {
+    }
+
+    @Override
+    public void onHubStatus(String message) {
+    }
+
+    // A failed recording would silently miss the rest of the run
+    @Override
+    public void onPipelineStatus(String message) {
+        System.err.println(message);
+    }
+
+    private static SensorTrace loadTrace(String path) throws IOException
+    {
+        if (path.endsWith(".csv"))
+            return SensorTrace.readCsv(new FileReader(path));
+        if (path.endsWith(".edr")) {
+            SessionLog log = new SessionLog(new File(path));
+            try {
+                return log.toTrace();
+            } finally {
+                log.close();
+            }
+        }
+        FileInputStream in = new FileInputStream(path);
+        try {
+            return SensorTrace.readBinary(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static CalibrationProfile loadCalibration(String path) throws IOException
+    {
+        FileReader reader = new FileReader(path);
+        try {
+            return CalibrationProfile.load(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        SensorTrace trace = null;
+        double speed = 1;
+        int rate = 100;
+        FrameEncoder.Format format = FrameEncoder.Format.Full;
+        int clients = 1;
+        double seconds = 5;
+        boolean sweep = false;
+        File record = null;
+        CalibrationProfile calibration = null;
+        FrameFanout.SendMode sendMode = FrameFanout.SendMode.Periodic;
+        int peers = 0;
+        File replay = null;
+        int port = 5000;
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--sweep")) {
+                sweep = true;
+                continue;
+            }
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("Missing value of " + option);
+            String value = args[++i];
+            if (option.equals("--trace"))
+                trace = loadTrace(value);
+            else if (option.equals("--calibration"))
+                calibration = loadCalibration(value);
+            else if (option.equals("--record"))
+                record = new File(value);
+            else if (option.equals("--speed"))
+                speed = Double.parseDouble(value);
+            else if (option.equals("--rate"))
+                rate = Integer.parseInt(value);
+            else if (option.equals("--format"))
+                format = FrameEncoder.Format.valueOf(value);
+            else if (option.equals("--send"))
+                sendMode = FrameFanout.SendMode.valueOf(value);
+            else if (option.equals("--peers"))
+                peers = Integer.parseInt(value);
+            else if (option.equals("--clients"))
+                clients = Integer.parseInt(value);
+            else if (option.equals("--seconds"))
+                seconds = Double.parseDouble(value);
+            else if (option.equals("--replay"))
+                replay = new File(value);
+            else if (option.equals("--port"))
+                port = Integer.parseInt(value);
+            else
+                throw new IllegalArgumentException("Unknown option " + option);
+        }
+        if (replay != null) {
+            replay(replay, port, speed);
+            return;
+        }
+        if (trace == null)
+            trace = SensorTrace.synthetic(60, 1);
+
+        Metrics.REGISTRY.gauge(Metrics.GC_COUNT, new GcCountGauge());
+
+        Simulator simulator = new Simulator(trace, speed, format, clients, seconds);
+        simulator.setRecordFile(record);
+        simulator.setCalibration(calibration);
+        simulator.setSendMode(sendMode);
+        simulator.setPeers(peers);
+        if (sweep) {
+            Result sustained = simulator.sweep(rate, 100000);
+            System.out.println(sustained == null
+                    ? "No sustained rate"
+                    : "Maximum sustained rate: " + sustained.rate + " Hz");
+        } else {
+            System.out.println(simulator.run(rate));
+        }
+        System.out.println("Metrics: " + Metrics.REGISTRY.summary());
+    }
+}